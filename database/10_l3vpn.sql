@@ -84,7 +84,7 @@ SELECT  CASE WHEN length(rtr.name) > 0 THEN rtr.name ELSE host(rtr.ip_address) E
         CASE WHEN length(p.name) > 0 THEN p.name ELSE host(p.peer_addr) END AS PeerName,
         r.rd,r.prefix AS Prefix,r.prefix_len AS PrefixLen,
         attr.origin AS Origin,r.origin_as AS Origin_AS,attr.med AS MED,
-        attr.local_pref AS LocalPref,attr.next_hop AS NH,attr.as_path AS AS_Path,
+        attr.local_pref AS LocalPref,attr.next_hop AS NH,ap.as_path AS AS_Path,
         attr.as_path_count AS ASPath_Count,attr.community_list AS Communities,
         r.ext_community_list AS ExtCommunities,attr.large_community_list AS LargeCommunities,
         attr.cluster_list AS ClusterList,
@@ -98,6 +98,7 @@ SELECT  CASE WHEN length(rtr.name) > 0 THEN rtr.name ELSE host(rtr.ip_address) E
 FROM l3vpn_rib r
 	     JOIN bgp_peers p ON (r.peer_hash_id = p.hash_id)
 	     JOIN base_attrs attr ON (attr.hash_id = r.base_attr_hash_id and attr.peer_hash_id = r.peer_hash_id)
+	     LEFT JOIN as_paths ap ON (ap.path_id = attr.as_path_id)
 	     JOIN routers rtr ON (p.router_hash_id = rtr.hash_id);
 
 drop view IF EXISTS v_l3vpn_routes_history CASCADE;
@@ -106,7 +107,7 @@ SELECT  r.id,CASE WHEN length(rtr.name) > 0 THEN rtr.name ELSE host(rtr.ip_addre
         CASE WHEN length(p.name) > 0 THEN p.name ELSE host(p.peer_addr) END AS PeerName,
         r.rd,r.prefix AS Prefix,r.prefix_len AS PrefixLen,
         attr.origin AS Origin,r.origin_as AS Origin_AS,attr.med AS MED,
-        attr.local_pref AS LocalPref,attr.next_hop AS NH,attr.as_path AS AS_Path,
+        attr.local_pref AS LocalPref,attr.next_hop AS NH,ap.as_path AS AS_Path,
         attr.as_path_count AS ASPath_Count,attr.community_list AS Communities,
         r.ext_community_list AS ExtCommunities,attr.large_community_list AS LargeCommunities,
         attr.cluster_list AS ClusterList,
@@ -119,6 +120,7 @@ SELECT  r.id,CASE WHEN length(rtr.name) > 0 THEN rtr.name ELSE host(rtr.ip_addre
 FROM l3vpn_rib_log r
 	     JOIN bgp_peers p ON (r.peer_hash_id = p.hash_id)
 	     JOIN base_attrs attr ON (attr.hash_id = r.base_attr_hash_id and attr.peer_hash_id = r.peer_hash_id)
+	     LEFT JOIN as_paths ap ON (ap.path_id = attr.as_path_id)
 	     JOIN routers rtr ON (p.router_hash_id = rtr.hash_id);
 
 ---
@@ -104,6 +104,24 @@ CREATE TABLE rpki_validator (
 CREATE INDEX ON rpki_validator (origin_as);
 CREATE INDEX ON rpki_validator USING gist (prefix inet_ops);
 
+-- Table structure for table rpki_origin_state
+--    Maintained by the consumer, which validates prefix origins using an in-memory copy of rpki_validator.
+--    Rows are only updated when the validation state changes.  The timestamp is refreshed hourly
+--    while the state is written, see purge_rpki_origin_state().
+DROP TABLE IF EXISTS rpki_origin_state CASCADE;
+DROP TYPE IF EXISTS rpki_state CASCADE;
+CREATE TYPE rpki_state as enum ('valid', 'invalid', 'notfound');
+
+CREATE TABLE rpki_origin_state (
+	prefix              inet            NOT NULL,
+	origin_as           bigint          NOT NULL,
+	state               rpki_state      NOT NULL,
+	rpki_origin_as      bigint,
+	timestamp           timestamp       without time zone default (now() at time zone 'utc') NOT NULL,
+	PRIMARY KEY (prefix,origin_as)
+);
+CREATE INDEX ON rpki_origin_state (timestamp);
+
 
 
 -- Table structure for table users
@@ -195,6 +213,8 @@ CREATE TABLE bgp_peers (
 	isLocRib                boolean             NOT NULL DEFAULT false,
 	isLocRibFiltered        boolean             NOT NULL DEFAULT false,
 	table_name              varchar(255),
+	session_epoch           bigint              NOT NULL DEFAULT 0,
+	session_start           timestamp(6)        without time zone,
 	PRIMARY KEY (hash_id)
 );
 
@@ -261,6 +281,52 @@ SELECT create_hypertable('stat_reports', 'timestamp', chunk_time_interval => int
 SELECT add_retention_policy('stat_reports', INTERVAL '8 weeks');
 
 
+-- Table structure for tables stat_reports_5min and stat_reports_1hour
+--     Rollups of stat_reports per peer, maintained by the consumer.  Counters are the values of the
+--     last sample of the interval, route counts also have the max of the interval.  Samples may count
+--     some samples twice when stats records are consumed again, such as after a crash.
+DROP TABLE IF EXISTS stat_reports_5min CASCADE;
+CREATE TABLE stat_reports_5min (
+	peer_hash_id                        uuid                    NOT NULL,
+	interval_time                       timestamp(6)            without time zone NOT NULL,
+	samples                             int                     NOT NULL,
+	prefixes_rejected                   bigint,
+	known_dup_prefixes                  bigint,
+	known_dup_withdraws                 bigint,
+    updates_invalid_by_cluster_list     bigint,
+    updates_invalid_by_as_path_loop     bigint,
+    updates_invalid_by_originagtor_id   bigint,
+    updates_invalid_by_as_confed_loop   bigint,
+    num_routes_adj_rib_in               bigint,
+    num_routes_local_rib                bigint,
+    num_routes_adj_rib_in_max           bigint,
+    num_routes_local_rib_max            bigint,
+    timestamp timestamp(6)              without time zone NOT NULL,
+    PRIMARY KEY (peer_hash_id,interval_time)
+) TABLESPACE timeseries;
+
+DROP TABLE IF EXISTS stat_reports_1hour CASCADE;
+CREATE TABLE stat_reports_1hour (LIKE stat_reports_5min INCLUDING ALL) TABLESPACE timeseries;
+
+SELECT create_hypertable('stat_reports_5min', 'interval_time', chunk_time_interval => interval '30 day');
+SELECT add_retention_policy('stat_reports_5min', INTERVAL '1 year');
+
+SELECT create_hypertable('stat_reports_1hour', 'interval_time', chunk_time_interval => interval '180 day');
+SELECT add_retention_policy('stat_reports_1hour', INTERVAL '5 years');
+
+
+-- Table structure for table as_paths
+--    AS paths are interned by the consumer and referenced by base_attrs.as_path_id.  The path id
+--    is a 64-bit hash of the path.  Use v_base_attrs for base attributes with the AS path.
+DROP TABLE IF EXISTS as_paths CASCADE;
+CREATE TABLE as_paths (
+	path_id                 bigint              NOT NULL,
+	as_path                 bigint[]            NOT NULL,
+	PRIMARY KEY (path_id)
+);
+CREATE INDEX ON as_paths USING GIN  (as_path array_ops);
+
+
 -- Table structure for table base_attrs
 --    https://blog.dbi-services.com/hash-partitioning-in-postgresql-11/
 DROP TABLE IF EXISTS base_attrs CASCADE;
@@ -268,7 +334,7 @@ CREATE TABLE base_attrs (
 	hash_id                 uuid                NOT NULL,
 	peer_hash_id            uuid                NOT NULL,
 	origin                  varchar(16)         NOT NULL,
-	as_path                 bigint[]            NOT NULL,
+	as_path_id              bigint              NOT NULL,
 	as_path_count           smallint            DEFAULT 0,
     origin_as               bigint,
     next_hop                inet,
@@ -289,7 +355,7 @@ CREATE TABLE base_attrs (
 --CREATE UNIQUE INDEX ON base_attrs USING BTREE  (timestamp,hash_id);
 --CREATE INDEX ON base_attrs (origin_as);
 --CREATE INDEX ON base_attrs (as_path_count);
-CREATE INDEX ON base_attrs USING GIN  (as_path array_ops);
+CREATE INDEX ON base_attrs (as_path_id);
 CREATE INDEX ON base_attrs USING GIN  (community_list array_ops);
 CREATE INDEX ON base_attrs USING GIN  (ext_community_list array_ops);
 CREATE INDEX ON base_attrs USING GIN  (large_community_list array_ops);
@@ -323,6 +389,7 @@ CREATE TABLE ip_rib (
     labels                  varchar(255),
     isPrePolicy             boolean             NOT NULL DEFAULT true,
     isAdjRibIn              boolean             NOT NULL DEFAULT true,
+    peer_epoch              bigint              NOT NULL DEFAULT 0,
     PRIMARY KEY (peer_hash_id, hash_id)
 );
 
@@ -337,6 +404,7 @@ CREATE INDEX ON ip_rib USING GIST (prefix inet_ops);
 CREATE INDEX ON ip_rib (prefix);
 CREATE INDEX ON ip_rib (origin_as);
 CREATE INDEX ON ip_rib (peer_hash_id,origin_as);
+CREATE INDEX ON ip_rib (peer_hash_id,peer_epoch);
 
 ALTER TABLE ip_rib SET (autovacuum_analyze_threshold = 100);
 ALTER TABLE ip_rib SET (autovacuum_vacuum_threshold =  200);
@@ -382,6 +450,28 @@ SELECT add_compression_policy('ip_rib_log', INTERVAL '2 days');
 -- FROM hypertable_compression_stats('ip_rib_log');
 
 
+-- Table structure for table ip_rib_flaps
+--    Coalescing windows of flapping prefixes that had updates suppressed by the consumer dampening
+DROP TABLE IF EXISTS ip_rib_flaps CASCADE;
+CREATE TABLE ip_rib_flaps (
+    peer_hash_id            uuid                NOT NULL,
+    hash_id                 uuid                NOT NULL,
+    prefix                  inet                NOT NULL,
+    prefix_len              smallint            NOT NULL,
+    updates                 int                 NOT NULL,
+    suppressed              int                 NOT NULL,
+    first_timestamp         timestamp(6)        without time zone NOT NULL,
+    timestamp               timestamp(6)        without time zone default (now() at time zone 'utc') NOT NULL
+) TABLESPACE timeseries;
+CREATE INDEX ON ip_rib_flaps USING GIST (prefix inet_ops);
+CREATE INDEX ON ip_rib_flaps (peer_hash_id,hash_id);
+
+-- convert to timescaledb
+SELECT create_hypertable('ip_rib_flaps', 'timestamp', chunk_time_interval => interval '1 day');
+
+SELECT add_retention_policy('ip_rib_flaps', INTERVAL '2 months');
+
+
 
 
 -- Table structure for global ip rib
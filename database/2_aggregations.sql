@@ -213,16 +213,19 @@ BEGIN
 			SELECT r.prefix,
 			       max(r.prefix_len),
 			       r.origin_as,
-			       bool_and(r.iswithdrawn)                                             as isWithdrawn,
+			       bool_and(r.iswithdrawn OR r.peer_epoch < p.session_epoch)          as isWithdrawn,
 			       max(r.timestamp),
 			       min(r.first_added_timestamp),
 			       count(distinct r.peer_hash_id)                                      as total_peers,
-			       count(distinct r.peer_hash_id) FILTER (WHERE r.iswithdrawn = False) as advertising_peers,
-			       count(distinct r.peer_hash_id) FILTER (WHERE r.iswithdrawn = True)  as withdrawn_peers
+			       count(distinct r.peer_hash_id) FILTER (WHERE r.iswithdrawn = False
+			                                              AND r.peer_epoch >= p.session_epoch) as advertising_peers,
+			       count(distinct r.peer_hash_id) FILTER (WHERE r.iswithdrawn = True
+			                                              OR r.peer_epoch < p.session_epoch)  as withdrawn_peers
 			FROM ip_rib r
+			    JOIN bgp_peers p ON (r.peer_hash_id = p.hash_id)
 			WHERE
-			  (timestamp >= start_time OR first_added_timestamp >= start_time)
-			  AND origin_as != 23456
+			  (r.timestamp >= start_time OR r.first_added_timestamp >= start_time)
+			  AND r.origin_as != 23456
 			GROUP BY r.prefix, r.origin_as
 			ON CONFLICT (prefix,recv_origin_as)
 				DO UPDATE SET timestamp=excluded.timestamp,
@@ -256,13 +259,25 @@ BEGIN
 	--    NOTE: The global_ip_rib table should have current times when first run (new table).
 	--          This will result in this query taking a while. After first run, it shouldn't take
 	--          as long.
+	--    When the consumer maintains rpki_origin_state, use it by equality join instead of the
+	--          range join against rpki_validator.  State changes from ROA reloads are included by
+	--          the state timestamp.
 	raise INFO '-> Updating RPKI info';
-	UPDATE global_ip_rib r SET rpki_origin_as=p.origin_as
-	FROM rpki_validator p
-	WHERE r.timestamp >= start_time
-	  AND p.prefix >>= r.prefix
-	  AND r.prefix_len >= p.prefix_len
-	  AND r.prefix_len <= p.prefix_len_max;
+	IF EXISTS (SELECT 1 FROM rpki_origin_state LIMIT 1) THEN
+		UPDATE global_ip_rib r SET rpki_origin_as=s.rpki_origin_as
+		FROM rpki_origin_state s
+		WHERE (r.timestamp >= start_time OR s.timestamp >= start_time)
+		  AND s.prefix = r.prefix
+		  AND s.origin_as = r.recv_origin_as
+		  AND r.rpki_origin_as IS DISTINCT FROM s.rpki_origin_as;
+	ELSE
+		UPDATE global_ip_rib r SET rpki_origin_as=p.origin_as
+		FROM rpki_validator p
+		WHERE r.timestamp >= start_time
+		  AND p.prefix >>= r.prefix
+		  AND r.prefix_len >= p.prefix_len
+		  AND r.prefix_len <= p.prefix_len_max;
+	END IF;
 
 	GET DIAGNOSTICS insert_count = row_count;
 	raise INFO 'Rows updated   : %', insert_count;
@@ -293,14 +308,17 @@ BEGIN
 	SELECT r.prefix,
 	       max(r.prefix_len),
 	       r.origin_as,
-	       bool_and(r.iswithdrawn)                                             as isWithdrawn,
+	       bool_and(r.iswithdrawn OR r.peer_epoch < p.session_epoch)          as isWithdrawn,
 	       max(r.timestamp),
 	       min(r.first_added_timestamp),
 	       count(distinct r.peer_hash_id)                                      as total_peers,
-	       count(distinct r.peer_hash_id) FILTER (WHERE r.iswithdrawn = False) as advertising_peers,
-	       count(distinct r.peer_hash_id) FILTER (WHERE r.iswithdrawn = True)  as withdrawn_peers
+	       count(distinct r.peer_hash_id) FILTER (WHERE r.iswithdrawn = False
+	                                              AND r.peer_epoch >= p.session_epoch) as advertising_peers,
+	       count(distinct r.peer_hash_id) FILTER (WHERE r.iswithdrawn = True
+	                                              OR r.peer_epoch < p.session_epoch)  as withdrawn_peers
 	FROM ip_rib r
-	WHERE origin_as != 23456
+	    JOIN bgp_peers p ON (r.peer_hash_id = p.hash_id)
+	WHERE r.origin_as != 23456
 	GROUP BY r.prefix, r.origin_as
 	ON CONFLICT (prefix,recv_origin_as)
 		DO UPDATE SET timestamp=excluded.timestamp,
@@ -417,6 +435,7 @@ SELECT add_retention_policy('stats_peer_rib', INTERVAL '4 weeks');
 --
 -- Function to update the per-peer RIB prefix counts
 --    This currently is only counting unicast IPv4/Ipv6
+--    Not needed when the consumer maintains the counts (rib_counts.enabled in obmp-psql.yml)
 --
 CREATE OR REPLACE FUNCTION update_peer_rib_counts()
 	RETURNS void AS $$
@@ -424,12 +443,13 @@ BEGIN
      -- Per peer rib counts - every 15 minutes
      INSERT INTO stats_peer_rib (interval_time,peer_hash_id,v4_prefixes,v6_prefixes)
        SELECT  time_bucket('15 minutes', now()),
-             peer_hash_id,
-             sum(CASE WHEN isIPv4 = true THEN 1 ELSE 0 END) AS v4_prefixes,
-             sum(CASE WHEN isIPv4 = false THEN 1 ELSE 0 END) as v6_prefixes
-         FROM ip_rib
-         WHERE isWithdrawn = false
-         GROUP BY peer_hash_id
+             r.peer_hash_id,
+             sum(CASE WHEN r.isIPv4 = true THEN 1 ELSE 0 END) AS v4_prefixes,
+             sum(CASE WHEN r.isIPv4 = false THEN 1 ELSE 0 END) as v6_prefixes
+         FROM ip_rib r
+             JOIN bgp_peers p ON (r.peer_hash_id = p.hash_id)
+         WHERE r.isWithdrawn = false AND r.peer_epoch >= p.session_epoch
+         GROUP BY r.peer_hash_id
        ON CONFLICT (interval_time,peer_hash_id) DO UPDATE SET v4_prefixes=excluded.v4_prefixes,
              v6_prefixes=excluded.v6_prefixes;
 END;
@@ -120,6 +120,74 @@ END;
 $$ LANGUAGE plpgsql;
 
 
+-- Function to purge stale RIB entries
+--    A peer up/down bumps the peer session_epoch.  RIB entries from a previous session
+--    are stale (treated as withdrawn) until they are re-learned in the new session.  Entries
+--    that are not re-learned within max_age of the session start are deleted.  Deletes are
+--    done per peer in batches to limit lock time and WAL bursts.
+CREATE OR REPLACE FUNCTION purge_stale_ip_rib(max_age interval DEFAULT '30 minutes', batch_size int DEFAULT 50000)
+	RETURNS bigint AS $$
+DECLARE
+	_peer           record;
+	_count          bigint;
+	_total          bigint := 0;
+BEGIN
+
+	FOR _peer IN SELECT hash_id, session_epoch FROM bgp_peers
+	                WHERE session_epoch > 0
+	                  AND session_start < (now() at time zone 'utc') - max_age LOOP
+		LOOP
+			DELETE FROM ip_rib
+				WHERE peer_hash_id = _peer.hash_id
+				  AND hash_id IN (SELECT hash_id FROM ip_rib
+				                    WHERE peer_hash_id = _peer.hash_id
+				                      AND peer_epoch < _peer.session_epoch
+				                    LIMIT batch_size);
+
+			GET DIAGNOSTICS _count = row_count;
+			_total := _total + _count;
+
+			EXIT WHEN _count < batch_size;
+		END LOOP;
+	END LOOP;
+
+	RETURN _total;
+END;
+$$ LANGUAGE plpgsql;
+
+
+-- Function to purge RPKI origin states
+--    The consumer writes the rpki_origin_state of a prefix and origin when it changes, and
+--    refreshes the timestamp when the state is written again.  Rows not written within max_age
+--    and without an advertised ip_rib entry are deleted in batches.
+CREATE OR REPLACE FUNCTION purge_rpki_origin_state(max_age interval DEFAULT '7 days', batch_size int DEFAULT 50000)
+	RETURNS bigint AS $$
+DECLARE
+	_count          bigint;
+	_total          bigint := 0;
+BEGIN
+
+	LOOP
+		DELETE FROM rpki_origin_state
+			WHERE (prefix,origin_as) IN (SELECT s.prefix,s.origin_as FROM rpki_origin_state s
+			                                WHERE s.timestamp < (now() at time zone 'utc') - max_age
+			                                  AND NOT EXISTS (SELECT 1 FROM ip_rib r
+			                                                    WHERE r.prefix = s.prefix
+			                                                      AND r.origin_as = s.origin_as
+			                                                      AND r.isWithdrawn = false)
+			                                LIMIT batch_size);
+
+		GET DIAGNOSTICS _count = row_count;
+		_total := _total + _count;
+
+		EXIT WHEN _count < batch_size;
+	END LOOP;
+
+	RETURN _total;
+END;
+$$ LANGUAGE plpgsql;
+
+
 --
 -- END
 --
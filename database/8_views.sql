@@ -28,13 +28,22 @@ SELECT CASE WHEN length(rtr.name) > 0 THEN rtr.name ELSE  host(rtr.ip_address) E
         FROM bgp_peers p JOIN routers rtr ON (p.router_hash_id = rtr.hash_id)
                                          LEFT JOIN info_asn w ON (p.peer_as = w.asn);
 
+drop view IF EXISTS v_base_attrs CASCADE;
+CREATE VIEW v_base_attrs AS
+       SELECT  attr.hash_id,attr.peer_hash_id,attr.origin,ap.as_path,attr.as_path_count,attr.origin_as,
+                attr.next_hop,attr.med,attr.local_pref,attr.aggregator,attr.community_list,
+                attr.ext_community_list,attr.large_community_list,attr.cluster_list,attr.isAtomicAgg,
+                attr.nexthop_isIPv4,attr.timestamp,attr.originator_id,attr.as_path_id
+        FROM base_attrs attr
+            LEFT JOIN as_paths ap ON (ap.path_id = attr.as_path_id);
+
 drop view IF EXISTS v_ip_routes CASCADE;
 CREATE  VIEW v_ip_routes AS
        SELECT  CASE WHEN length(rtr.name) > 0 THEN rtr.name ELSE host(rtr.ip_address) END AS RouterName,
                 CASE WHEN length(p.name) > 0 THEN p.name ELSE host(p.peer_addr) END AS PeerName,
                 r.prefix AS Prefix,r.prefix_len AS PrefixLen,
                 attr.origin AS Origin,r.origin_as AS Origin_AS,attr.med AS MED,
-                attr.local_pref AS LocalPref,attr.next_hop AS NH,attr.as_path AS AS_Path,
+                attr.local_pref AS LocalPref,attr.next_hop AS NH,ap.as_path AS AS_Path,
                 attr.as_path_count AS ASPath_Count,attr.community_list AS Communities,
                 attr.ext_community_list AS ExtCommunities,attr.large_community_list AS LargeCommunities,
                 attr.cluster_list AS ClusterList,
@@ -43,11 +52,13 @@ CREATE  VIEW v_ip_routes AS
                 r.timestamp AS LastModified, r.first_added_timestamp as FirstAddedTimestamp,
                 r.path_id, r.labels,
                 r.hash_id as rib_hash_id,
-                r.base_attr_hash_id as base_hash_id, r.peer_hash_id, rtr.hash_id as router_hash_id,r.isWithdrawn,
+                r.base_attr_hash_id as base_hash_id, r.peer_hash_id, rtr.hash_id as router_hash_id,
+                (r.isWithdrawn OR r.peer_epoch < p.session_epoch) AS isWithdrawn,
                 r.isPrePolicy,r.isAdjRibIn
         FROM ip_rib r
             JOIN bgp_peers p ON (r.peer_hash_id = p.hash_id)
             JOIN base_attrs attr ON (attr.hash_id = r.base_attr_hash_id and attr.peer_hash_id = r.peer_hash_id)
+            LEFT JOIN as_paths ap ON (ap.path_id = attr.as_path_id)
             JOIN routers rtr ON (p.router_hash_id = rtr.hash_id);
 
 drop view IF EXISTS v_ip_routes_geo CASCADE;
@@ -56,7 +67,7 @@ CREATE  VIEW v_ip_routes_geo AS
                 CASE WHEN length(p.name) > 0 THEN p.name ELSE host(p.peer_addr) END AS PeerName,
                 r.prefix AS Prefix,r.prefix_len AS PrefixLen,
                 attr.origin AS Origin,r.origin_as AS Origin_AS,attr.med AS MED,
-                attr.local_pref AS LocalPref,attr.next_hop AS NH,attr.as_path AS AS_Path,
+                attr.local_pref AS LocalPref,attr.next_hop AS NH,ap.as_path AS AS_Path,
                 attr.as_path_count AS ASPath_Count,attr.community_list AS Communities,
                 attr.ext_community_list AS ExtCommunities,attr.large_community_list AS LargeCommunities,
                 attr.cluster_list AS ClusterList,attr.originator_id as Originator,
@@ -65,16 +76,18 @@ CREATE  VIEW v_ip_routes_geo AS
                 r.timestamp AS LastModified, r.first_added_timestamp as FirstAddedTimestamp,
                 r.path_id, r.labels,
                 r.hash_id as rib_hash_id,
-                r.base_attr_hash_id as base_hash_id, r.peer_hash_id, rtr.hash_id as router_hash_id,r.isWithdrawn,
+                r.base_attr_hash_id as base_hash_id, r.peer_hash_id, rtr.hash_id as router_hash_id,
+                (r.isWithdrawn OR r.peer_epoch < p.session_epoch) AS isWithdrawn,
                 r.isPrePolicy,r.isAdjRibIn,
                 g.ip as geo_ip,g.city as City, g.stateprov as stateprov, g.country as country,
                 g.latitude as latitude, g.longitude as longitude
         FROM ip_rib r
             JOIN bgp_peers p ON (r.peer_hash_id = p.hash_id)
             JOIN base_attrs attr ON (attr.hash_id = r.base_attr_hash_id and attr.peer_hash_id = r.peer_hash_id)
+            LEFT JOIN as_paths ap ON (ap.path_id = attr.as_path_id)
             JOIN routers rtr ON (p.router_hash_id = rtr.hash_id)
             LEFT JOIN geo_ip g ON (g.ip && host(r.prefix)::inet)
-        WHERE  r.isWithdrawn = false;
+        WHERE  r.isWithdrawn = false AND r.peer_epoch >= p.session_epoch;
 
 
 drop view IF EXISTS v_ip_routes_history CASCADE;
@@ -86,7 +99,7 @@ CREATE VIEW v_ip_routes_history AS
             log.prefix AS Prefix,log.prefix_len AS PrefixLen,
             attr.origin AS Origin,log.origin_as AS Origin_AS,
             attr.med AS MED,attr.local_pref AS LocalPref,attr.next_hop AS NH,
-            attr.as_path AS AS_Path,attr.as_path_count AS ASPath_Count,attr.community_list AS Communities,
+            ap.as_path AS AS_Path,attr.as_path_count AS ASPath_Count,attr.community_list AS Communities,
             attr.ext_community_list AS ExtCommunities,attr.large_community_list AS LargeCommunities,
             attr.cluster_list AS ClusterList,attr.originator_id as Originator,
             attr.aggregator AS Aggregator,p.peer_addr AS PeerIp,
@@ -98,6 +111,7 @@ CREATE VIEW v_ip_routes_history AS
             JOIN base_attrs attr
                         ON (log.base_attr_hash_id = attr.hash_id AND
                             log.peer_hash_id = attr.peer_hash_id)
+            LEFT JOIN as_paths ap ON (ap.path_id = attr.as_path_id)
             JOIN bgp_peers p ON (log.peer_hash_id = p.hash_id)
             JOIN routers rtr ON (p.router_hash_id = rtr.hash_id);
 
@@ -113,10 +127,11 @@ SELECT r.name as RouterName,r.ip_address as RouterIP,
         CASE WHEN ls_nodes.protocol in ('OSPFv2', 'OSPFv3') THEN router_id ELSE igp_router_id END as RouterId,
         ls_nodes.seq, ls_nodes.bgp_ls_id as bgpls_id, ls_nodes.ospf_area_id as OspfAreaId,
         ls_nodes.isis_area_id as ISISAreaId, ls_nodes.protocol, flags, ls_nodes.timestamp,
-        ls_nodes.asn,base_attrs.as_path as AS_Path,base_attrs.local_pref as LocalPref,
+        ls_nodes.asn,ap.as_path as AS_Path,base_attrs.local_pref as LocalPref,
         base_attrs.med as MED,base_attrs.next_hop as NH,ls_nodes.mt_ids as mt_ids,
         ls_nodes.hash_id,ls_nodes.base_attr_hash_id,ls_nodes.peer_hash_id,r.hash_id as router_hash_id
 	FROM ls_nodes LEFT JOIN base_attrs ON (ls_nodes.base_attr_hash_id = base_attrs.hash_id AND ls_nodes.peer_hash_id = base_attrs.peer_hash_id)
+		LEFT JOIN as_paths ap ON (ap.path_id = base_attrs.as_path_id)
 		JOIN bgp_peers p on (p.hash_id = ls_nodes.peer_hash_id) JOIN
                              routers r on (p.router_hash_id = r.hash_id)
     WHERE not ls_nodes.igp_router_id ~ '\..[1-9A-F]00$' AND ls_nodes.igp_router_id not like '%]';
@@ -89,6 +89,11 @@ CREATE TRIGGER upd_bgp_peers BEFORE UPDATE ON bgp_peers
 CREATE OR REPLACE FUNCTION t_ip_rib_update()
 	RETURNS trigger AS $$
 BEGIN
+	-- Catch-up merges write the log rows in bulk
+	IF (current_setting('obmp.defer_rib_log', true) = 'on') THEN
+		RETURN NEW;
+	END IF;
+
 	IF (new.isWithdrawn) THEN
 		INSERT INTO ip_rib_log (isWithdrawn,prefix,prefix_len,base_attr_hash_id,peer_hash_id,origin_as,timestamp)
 		VALUES (true,new.prefix,new.prefix_len,old.base_attr_hash_id,new.peer_hash_id,
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded admin HTTP API
+ *
+ *      GET  /tuning                        Current writer and batch settings of each topic class
+ *      POST /tuning?class=<name>&<setting>=<value>...
+ *                                          Change settings of a topic class, or of all classes if
+ *                                          class is not given
+ *
+ *      Settings are writer_max_threads_per_type, writer_queue_size, batch_records and batch_time_millis.
+ *      Writers read the batch settings on each batch.  Consumers read writer_max_threads_per_type when
+ *      scaling writers, so a lower value takes effect as writers are scaled back.  writer_queue_size
+ *      applies to writers created after the change, such as by a rebalance.
+ *
+ *      Changes are audit logged and are not saved to the config file.  When a token is configured,
+ *      requests must have it in the X-Admin-Token header.
+ */
+public class AdminServer {
+    private static final Logger logger = LogManager.getFormatterLogger(AdminServer.class.getName());
+
+    private static final String[] SETTINGS = { "writer_max_threads_per_type", "writer_queue_size",
+                                               "batch_records", "batch_time_millis" };
+
+    private final List<TopicClass> topicClasses;
+    private final String token;
+    private final ObjectMapper mapper;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Constructor
+     *
+     * @param cfg       Configuration, for the admin settings and topic classes
+     */
+    public AdminServer(Config cfg) {
+        topicClasses = cfg.getTopic_classes();
+        token = cfg.getAdmin_token();
+        mapper = new ObjectMapper();
+    }
+
+    /**
+     * Start the HTTP server
+     */
+    public void start(String bind_address, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(bind_address, port), 0);
+        server.createContext("/tuning", this::handleTuning);
+        executor = Executors.newSingleThreadExecutor();
+        server.setExecutor(executor);
+        server.start();
+
+        logger.info("Admin API listening on %s:%d", bind_address, port);
+    }
+
+    /**
+     * Stop the HTTP server
+     */
+    public void shutdown() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    private void handleTuning(HttpExchange exchange) throws IOException {
+        try {
+            if (token != null && token.length() > 0
+                    && !token.equals(exchange.getRequestHeaders().getFirst("X-Admin-Token"))) {
+                logger.warn("Admin API: rejected %s %s from %s, invalid token", exchange.getRequestMethod(),
+                            exchange.getRequestURI(), exchange.getRemoteAddress());
+                respond(exchange, 401, error("invalid token"));
+                return;
+            }
+
+            if (exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+                respond(exchange, 200, getTuning());
+
+            } else if (exchange.getRequestMethod().equalsIgnoreCase("POST")
+                    || exchange.getRequestMethod().equalsIgnoreCase("PUT")) {
+                setTuning(exchange);
+
+            } else {
+                respond(exchange, 405, error("method not allowed"));
+            }
+
+        } catch (Exception ex) {
+            logger.warn("Admin API request failed: ", ex);
+            respond(exchange, 500, error(ex.getMessage()));
+
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private ObjectNode getTuning() {
+        ObjectNode root = mapper.createObjectNode();
+
+        for (TopicClass tc : topicClasses) {
+            ObjectNode node = root.putObject(tc.getName());
+
+            node.put("writer_max_threads_per_type", tc.getWriter_max_threads_per_type());
+            node.put("writer_queue_size", tc.getWriter_queue_size());
+            node.put("batch_records", tc.getBatch_records());
+            node.put("batch_time_millis", tc.getBatch_time_millis());
+        }
+
+        return root;
+    }
+
+    private void setTuning(HttpExchange exchange) throws IOException {
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        String class_name = params.remove("class");
+
+        // Validate all settings before changing any
+        Map<String, Integer> changes = new LinkedHashMap<>();
+
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            boolean known = false;
+            for (String setting : SETTINGS)
+                known |= setting.equals(param.getKey());
+
+            if (!known) {
+                respond(exchange, 400, error("unknown setting " + param.getKey()));
+                return;
+            }
+
+            try {
+                int value = Integer.parseInt(param.getValue());
+
+                if (value <= 0)
+                    throw new NumberFormatException();
+
+                changes.put(param.getKey(), value);
+
+            } catch (NumberFormatException e) {
+                respond(exchange, 400, error("invalid value for " + param.getKey() + ", must be a positive integer"));
+                return;
+            }
+        }
+
+        boolean found = false;
+
+        for (TopicClass tc : topicClasses) {
+            if (class_name != null && !class_name.equals(tc.getName()))
+                continue;
+
+            found = true;
+
+            for (Map.Entry<String, Integer> change : changes.entrySet())
+                apply(exchange, tc, change.getKey(), change.getValue());
+        }
+
+        if (!found) {
+            respond(exchange, 404, error("unknown topic class " + class_name));
+            return;
+        }
+
+        respond(exchange, 200, getTuning());
+    }
+
+    private void apply(HttpExchange exchange, TopicClass tc, String setting, int value) {
+        Integer prev;
+
+        switch (setting) {
+            case "writer_max_threads_per_type":
+                prev = tc.getWriter_max_threads_per_type();
+                tc.setWriter_max_threads_per_type(value);
+                break;
+
+            case "writer_queue_size":
+                prev = tc.getWriter_queue_size();
+                tc.setWriter_queue_size(value);
+                break;
+
+            case "batch_records":
+                prev = tc.getBatch_records();
+                tc.setBatch_records(value);
+                break;
+
+            default:
+                prev = tc.getBatch_time_millis();
+                tc.setBatch_time_millis(value);
+                break;
+        }
+
+        logger.info("Admin API: %s changed topic class %s %s from %d to %d", exchange.getRemoteAddress(),
+                    tc.getName(), setting, prev, value);
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> params = new LinkedHashMap<>();
+
+        if (query == null || query.isEmpty())
+            return params;
+
+        for (String pair : query.split("&")) {
+            int idx = pair.indexOf('=');
+
+            if (idx > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, idx), "UTF-8"),
+                           URLDecoder.decode(pair.substring(idx + 1), "UTF-8"));
+            }
+        }
+
+        return params;
+    }
+
+    private ObjectNode error(String message) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("error", message);
+        return node;
+    }
+
+    private void respond(HttpExchange exchange, int status, ObjectNode body) throws IOException {
+        byte[] bytes = (mapper.writerWithDefaultPrettyPrinter().writeValueAsString(body) + "\n")
+                            .getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import java.util.Collection;
+
+/**
+ * AS path dictionary
+ *
+ *      AS paths are interned in the as_paths table, keyed by a 64-bit hash of the path, and base_attrs
+ *      rows reference the path id.  A few hundred thousand distinct paths cover tens of millions of
+ *      attribute sets, so the dictionary tracks the path ids already written and new paths are
+ *      written once.  Paths are added once their rows are committed or journaled, so a path whose
+ *      message was dropped or rejected is written again by the next attribute set that uses it.
+ *
+ *      The dictionary is shared by all consumer threads.  It is cleared when it reaches the max size,
+ *      after which paths are written again, which is a no-op for paths already in the table.
+ */
+public class AsPathDictionary {
+    private static AsPathDictionary instance = null;
+
+    private final LongHashSet path_ids;
+    private final int max_size;
+
+    private long hits;                          // Paths already written
+    private long misses;                        // New paths
+
+    //Turns this class to a singleton
+    public static synchronized AsPathDictionary getInstance() {
+        if (instance == null) {
+            instance = new AsPathDictionary(Config.getInstance().getAs_path_cache_size());
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param max_size          Max number of path ids to track
+     */
+    AsPathDictionary(int max_size) {
+        this.max_size = max_size;
+        path_ids = new LongHashSet(Math.min(max_size, 1 << 20));
+    }
+
+    /**
+     * Check if a path is written
+     *
+     * @return True if the path is already written, false if it's new and should be written
+     */
+    public synchronized boolean isWritten(long path_id) {
+        if (path_ids.contains(path_id)) {
+            hits++;
+            return true;
+        }
+
+        misses++;
+        return false;
+    }
+
+    /**
+     * Add the ids of paths that are written
+     *
+     * @param written       Path ids committed or journaled
+     */
+    public synchronized void addAll(Collection<Long> written) {
+        for (long path_id : written) {
+            if (path_ids.size() >= max_size)
+                path_ids.clear();
+
+            path_ids.add(path_id);
+        }
+    }
+
+    /**
+     * Path id of an AS path
+     *
+     * @param as_path       Path in postgres array format, such as {65000,65001}
+     *
+     * @return 64-bit FNV-1a hash of the path
+     */
+    public static long pathId(CharSequence as_path) {
+        return HashFunctions.fnv1a64(as_path);
+    }
+
+    public synchronized int getSize() {
+        return path_ids.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -37,7 +37,19 @@ public class Config {
     private Long writer_millis_thread_scale_back = 1200000L;     // Age in milliseconds when threads can be deleted
     private Long writer_rebalance_millis = 1800000L;
     private Integer writer_queue_size = 20000;
+    private Integer writer_connections = 0;                     // Writer connections shared by all consumers, 0 disables
+    private Boolean autoscale_enabled = false;                  // Size writers by arrival rate and flush time
+    private Integer autoscale_interval_seconds = 10;
+    private Integer autoscale_target_utilization_percent = 70;  // Target percent of time writers are flushing
+    private Integer autoscale_backoff_percent = 25;             // Flush time increase that reverts a scale up
+    private Integer autoscale_scale_down_intervals = 6;         // Intervals below target before scaling down
     private Integer consumer_queue_size = 80000;
+    private Long memory_budget_bytes = Runtime.getRuntime().maxMemory() / 2;  // Budget of queued writer messages
+    private Integer flow_control_high_percent = 80;             // Queue percent full to pause bulk topic partitions
+    private Integer flow_control_low_percent = 50;              // Queue percent full to resume paused partitions
+    private Pattern flow_control_bulk_topics = Pattern.compile("openbmp[.]parsed[.](unicast_prefix|l3vpn|base_attribute|ls_.*)");
+    private Integer rib_purge_interval_seconds = 300;           // Interval to purge stale RIB entries, 0 disables
+    private Integer rib_stale_max_age_seconds = 1800;           // Age after peer session start when stale RIB entries are purged
 
     private String cfg_file = null;
     private Integer expected_heartbeat_interval = 330000;
@@ -51,9 +63,65 @@ public class Config {
     private Integer db_retries = 10;
     private String db_ssl_enable = "true";
     private String db_ssl_mode = "require";
+    private String dead_letter_file = "obmp-psql-dead-letter.log";  // File of rows rejected by postgres
+    private Long dead_letter_max_bytes = 100L * 1024 * 1024;    // Size to rotate the dead letter file
+    private Boolean db_flush_single_transaction = false;        // Write all batch keys of a flush in one transaction
+    private Boolean db_synchronous_commit = true;               // Writer commits wait for the WAL flush
+    private Integer db_checkpoint_millis = 1000;                // Interval of durable checkpoints when commits are async
     private Properties kafka_consumer_props;
     private Set<Pattern> kafka_topic_patterns;
+    private Map<String, Object> topic_class_maps;               // Topic class name to config map, in config order
+    private List<TopicClass> topic_classes;
     private Integer topic_subscribe_delay_millis = 10000;       // topic subscription interval delay
+    private Integer offset_commit_interval_millis = 5000;       // Interval to commit completed offsets
+    private Integer rebalance_drain_timeout_millis = 20000;     // Max time to drain revoked partitions
+    private String static_member_id = null;                     // Prefix of group.instance.id, null disables
+    private Boolean journal_enabled = false;                    // Spill writer batches to disk when DB is unavailable
+    private String journal_dir = "/var/tmp/obmp-psql/journal";
+    private Integer journal_segment_bytes = 64 * 1024 * 1024;
+    private Integer journal_slow_flush_millis = 10000;          // Flush time considered slow, spill when queue is high
+    private Integer journal_replay_batch = 50;                  // Max records to replay per writer loop
+    private Boolean catch_up_enabled = false;                   // Switch to catch-up mode when consumer lag is high
+    private Long catch_up_enter_lag = 500000L;                  // Lag of bulk topics to enter catch-up mode
+    private Long catch_up_exit_lag = 20000L;                    // Lag of bulk topics to return to live mode
+    private Integer catch_up_batch_records = 20000;
+    private Integer catch_up_batch_time_millis = 2000;
+    private Boolean rpki_enabled = false;                       // Validate prefix origins using in-memory ROA table
+    private Integer rpki_reload_check_seconds = 300;            // Interval to check if the ROA table changed
+    private Integer rpki_state_cache_size = 2000000;            // Max number of cached prefix/origin states
+    private Integer rpki_retention_days = 7;                    // Days to keep states without a route, 0 disables
+    private Integer as_path_cache_size = 1000000;               // Max number of AS path ids tracked as written
+    private Boolean ls_cache_enabled = false;                   // Drop unchanged link-state records
+    private Integer ls_cache_size = 500000;                     // Max number of cached link-state records
+    private Integer ls_cache_max_age_seconds = 3600;            // Age after which unchanged records are rewritten
+    private Boolean stat_rollups_enabled = false;               // Roll up stats reports into 5 minute and hourly tables
+    private Boolean rib_counts_enabled = false;                 // Maintain stats_peer_rib counts in the consumer
+    private Integer rib_counts_interval_minutes = 15;           // Interval of stats_peer_rib rows
+    private Integer rib_counts_drift_check_peers = 10;          // Peers checked against ip_rib each interval
+    private Boolean off_heap_enabled = false;                   // Pack queued writer message values off-heap
+    private Long off_heap_max_bytes = 1024L * 1024 * 1024;      // Max direct memory of packed values
+    private Boolean off_heap_compress = true;                   // LZ4 compress packed values
+    private Boolean dampening_enabled = false;                  // Coalesce updates of flapping prefixes
+    private Integer dampening_window_seconds = 30;              // Coalescing window of a prefix
+    private Integer dampening_flap_threshold = 4;               // Updates in a window written before holding
+    private Integer dampening_max_windows = 1000000;            // Max open windows per consumer thread
+    private RecordFilter record_filter = null;                  // Early record filter, null if disabled
+    private Integer admin_port = 0;                             // Admin API port, 0 disables
+    private String admin_bind_address = "127.0.0.1";
+    private String admin_token = null;                          // Token required in the X-Admin-Token header
+    private Integer lookup_port = 0;                            // Route lookup API port, 0 disables
+    private String lookup_bind_address = "127.0.0.1";
+    private Integer lookup_seed_interval_seconds = 60;          // Interval to seed new and reset peers
+    private Boolean jfr_enabled = false;                        // Continuous flight recording of the pipeline
+    private String jfr_settings = "default";                    // JFR settings name or .jfc file
+    private Integer jfr_max_age_minutes = 60;
+    private Integer jfr_max_size_mb = 250;
+    private String jfr_dump_file = "obmp-psql.jfr";             // Recording dumped on shutdown
+    private Integer refdata_threads = 4;                        // Reference data sources loaded in parallel
+    private String refdata_rpki_file = null;                    // RPKI validator JSON export
+    private List<String> refdata_irr_files = new ArrayList<>(); // IRR RPSL database dumps
+    private String refdata_peeringdb_dir = null;                // Directory of PeeringDB API JSON dumps
+    private String refdata_geoip_file = null;                   // DB-IP City Lite CSV
 
 
 
@@ -76,6 +144,7 @@ public class Config {
         consumerConfigDefaults();
 
         kafka_topic_patterns = new LinkedHashSet<>();
+        topic_class_maps = new LinkedHashMap<>();
     }
 
     /**
@@ -175,9 +244,35 @@ public class Config {
                         else if (subEntry.getKey().equalsIgnoreCase("writer_queue_size"))
                             writer_queue_size = Integer.valueOf(subEntry.getValue().toString());
 
+                        else if (subEntry.getKey().equalsIgnoreCase("writer_connections"))
+                            writer_connections = Integer.valueOf(subEntry.getValue().toString());
+
                         else if (subEntry.getKey().equalsIgnoreCase("consumer_queue_size"))
                             consumer_queue_size = Integer.valueOf(subEntry.getValue().toString());
 
+                        else if (subEntry.getKey().equalsIgnoreCase("memory_budget_mb")) {
+                            long mb = Long.valueOf(subEntry.getValue().toString());
+
+                            // Zero keeps the default of half the max heap
+                            if (mb > 0)
+                                memory_budget_bytes = mb * 1024 * 1024;
+                        }
+
+                        else if (subEntry.getKey().equalsIgnoreCase("flow_control_high_percent"))
+                            flow_control_high_percent = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("flow_control_low_percent"))
+                            flow_control_low_percent = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("flow_control_bulk_topics"))
+                            flow_control_bulk_topics = Pattern.compile(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("rib_purge_interval_seconds"))
+                            rib_purge_interval_seconds = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("rib_stale_max_age_seconds"))
+                            rib_stale_max_age_seconds = Integer.valueOf(subEntry.getValue().toString());
+
                     }
                 }
 
@@ -212,9 +307,299 @@ public class Config {
 
                         else if (subEntry.getKey().equalsIgnoreCase("batch_time_millis"))
                             db_batch_time_millis = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("dead_letter_file"))
+                            dead_letter_file = subEntry.getValue().toString();
+
+                        else if (subEntry.getKey().equalsIgnoreCase("dead_letter_max_mb"))
+                            dead_letter_max_bytes = Long.valueOf(subEntry.getValue().toString()) * 1024 * 1024;
+
+                        else if (subEntry.getKey().equalsIgnoreCase("flush_single_transaction"))
+                            db_flush_single_transaction = Boolean.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("synchronous_commit")) {
+                            String value = subEntry.getValue().toString();
+                            db_synchronous_commit = !(value.equalsIgnoreCase("off") || value.equalsIgnoreCase("false"));
+                        }
+
+                        else if (subEntry.getKey().equalsIgnoreCase("checkpoint_millis"))
+                            db_checkpoint_millis = Integer.valueOf(subEntry.getValue().toString());
+                    }
+                }
+
+                /*
+                 * Writer autoscale Config
+                 */
+                if (entry.getKey().equalsIgnoreCase("autoscale")) {
+                    for (Map.Entry<String, Object> subEntry : ((Map<String, Object>) entry.getValue()).entrySet()) {
+                        if (subEntry.getKey().equalsIgnoreCase("enabled"))
+                            autoscale_enabled = Boolean.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("interval_seconds"))
+                            autoscale_interval_seconds = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("target_utilization_percent"))
+                            autoscale_target_utilization_percent = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("backoff_percent"))
+                            autoscale_backoff_percent = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("scale_down_intervals"))
+                            autoscale_scale_down_intervals = Integer.valueOf(subEntry.getValue().toString());
+                    }
+                }
+
+                /*
+                 * Journal Config
+                 */
+                if (entry.getKey().equalsIgnoreCase("journal")) {
+                    for (Map.Entry<String, Object> subEntry : ((Map<String, Object>) entry.getValue()).entrySet()) {
+                        if (subEntry.getKey().equalsIgnoreCase("enabled"))
+                            journal_enabled = Boolean.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("dir"))
+                            journal_dir = subEntry.getValue().toString();
+
+                        else if (subEntry.getKey().equalsIgnoreCase("segment_size_mb"))
+                            journal_segment_bytes = Integer.valueOf(subEntry.getValue().toString()) * 1024 * 1024;
+
+                        else if (subEntry.getKey().equalsIgnoreCase("slow_flush_millis"))
+                            journal_slow_flush_millis = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("replay_batch"))
+                            journal_replay_batch = Integer.valueOf(subEntry.getValue().toString());
+                    }
+                }
+
+                /*
+                 * Catch-up Config
+                 */
+                if (entry.getKey().equalsIgnoreCase("catch_up")) {
+                    for (Map.Entry<String, Object> subEntry : ((Map<String, Object>) entry.getValue()).entrySet()) {
+                        if (subEntry.getKey().equalsIgnoreCase("enabled"))
+                            catch_up_enabled = Boolean.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("enter_lag"))
+                            catch_up_enter_lag = Long.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("exit_lag"))
+                            catch_up_exit_lag = Long.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("batch_records"))
+                            catch_up_batch_records = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("batch_time_millis"))
+                            catch_up_batch_time_millis = Integer.valueOf(subEntry.getValue().toString());
+                    }
+                }
+
+                /*
+                 * RPKI Config
+                 */
+                if (entry.getKey().equalsIgnoreCase("rpki")) {
+                    for (Map.Entry<String, Object> subEntry : ((Map<String, Object>) entry.getValue()).entrySet()) {
+                        if (subEntry.getKey().equalsIgnoreCase("enabled"))
+                            rpki_enabled = Boolean.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("reload_check_seconds"))
+                            rpki_reload_check_seconds = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("state_cache_size"))
+                            rpki_state_cache_size = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("retention_days"))
+                            rpki_retention_days = Integer.valueOf(subEntry.getValue().toString());
+                    }
+                }
+
+                /*
+                 * AS path dictionary Config
+                 */
+                if (entry.getKey().equalsIgnoreCase("as_path")) {
+                    for (Map.Entry<String, Object> subEntry : ((Map<String, Object>) entry.getValue()).entrySet()) {
+                        if (subEntry.getKey().equalsIgnoreCase("cache_size"))
+                            as_path_cache_size = Integer.valueOf(subEntry.getValue().toString());
+                    }
+                }
+
+                /*
+                 * Link-state Config
+                 */
+                if (entry.getKey().equalsIgnoreCase("link_state")) {
+                    for (Map.Entry<String, Object> subEntry : ((Map<String, Object>) entry.getValue()).entrySet()) {
+                        if (subEntry.getKey().equalsIgnoreCase("cache_enabled"))
+                            ls_cache_enabled = Boolean.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("cache_size"))
+                            ls_cache_size = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("cache_max_age_seconds"))
+                            ls_cache_max_age_seconds = Integer.valueOf(subEntry.getValue().toString());
+                    }
+                }
+
+                /*
+                 * BMP stats Config
+                 */
+                if (entry.getKey().equalsIgnoreCase("bmp_stat")) {
+                    for (Map.Entry<String, Object> subEntry : ((Map<String, Object>) entry.getValue()).entrySet()) {
+                        if (subEntry.getKey().equalsIgnoreCase("rollups_enabled"))
+                            stat_rollups_enabled = Boolean.valueOf(subEntry.getValue().toString());
+                    }
+                }
+
+                /*
+                 * RIB counts Config
+                 */
+                if (entry.getKey().equalsIgnoreCase("rib_counts")) {
+                    for (Map.Entry<String, Object> subEntry : ((Map<String, Object>) entry.getValue()).entrySet()) {
+                        if (subEntry.getKey().equalsIgnoreCase("enabled"))
+                            rib_counts_enabled = Boolean.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("interval_minutes"))
+                            rib_counts_interval_minutes = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("drift_check_peers"))
+                            rib_counts_drift_check_peers = Integer.valueOf(subEntry.getValue().toString());
+                    }
+                }
+
+                /*
+                 * Reference data loader Config
+                 */
+                if (entry.getKey().equalsIgnoreCase("refdata")) {
+                    for (Map.Entry<String, Object> subEntry : ((Map<String, Object>) entry.getValue()).entrySet()) {
+                        if (subEntry.getValue() == null)
+                            continue;
+
+                        if (subEntry.getKey().equalsIgnoreCase("threads"))
+                            refdata_threads = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("rpki_file"))
+                            refdata_rpki_file = subEntry.getValue().toString();
+
+                        else if (subEntry.getKey().equalsIgnoreCase("irr_files")) {
+                            refdata_irr_files = new ArrayList<>();
+
+                            if (subEntry.getValue() instanceof List) {
+                                for (Object file : (List<Object>) subEntry.getValue())
+                                    refdata_irr_files.add(file.toString());
+                            } else {
+                                refdata_irr_files.add(subEntry.getValue().toString());
+                            }
+                        }
+
+                        else if (subEntry.getKey().equalsIgnoreCase("peeringdb_dir"))
+                            refdata_peeringdb_dir = subEntry.getValue().toString();
+
+                        else if (subEntry.getKey().equalsIgnoreCase("geoip_file"))
+                            refdata_geoip_file = subEntry.getValue().toString();
+                    }
+                }
+
+                /*
+                 * Off-heap buffer Config
+                 */
+                if (entry.getKey().equalsIgnoreCase("off_heap")) {
+                    for (Map.Entry<String, Object> subEntry : ((Map<String, Object>) entry.getValue()).entrySet()) {
+                        if (subEntry.getKey().equalsIgnoreCase("enabled"))
+                            off_heap_enabled = Boolean.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("max_mb"))
+                            off_heap_max_bytes = Long.valueOf(subEntry.getValue().toString()) * 1024 * 1024;
+
+                        else if (subEntry.getKey().equalsIgnoreCase("compress"))
+                            off_heap_compress = Boolean.valueOf(subEntry.getValue().toString());
+                    }
+                }
+
+                /*
+                 * Prefix dampening Config
+                 */
+                if (entry.getKey().equalsIgnoreCase("dampening")) {
+                    for (Map.Entry<String, Object> subEntry : ((Map<String, Object>) entry.getValue()).entrySet()) {
+                        if (subEntry.getKey().equalsIgnoreCase("enabled"))
+                            dampening_enabled = Boolean.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("window_seconds"))
+                            dampening_window_seconds = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("flap_threshold"))
+                            dampening_flap_threshold = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("max_windows"))
+                            dampening_max_windows = Integer.valueOf(subEntry.getValue().toString());
+                    }
+                }
+
+                /*
+                 * Record filter Config
+                 */
+                if (entry.getKey().equalsIgnoreCase("filter")) {
+                    record_filter = RecordFilter.load((Map<String, Object>) entry.getValue());
+                }
+
+                /*
+                 * Admin API Config
+                 */
+                if (entry.getKey().equalsIgnoreCase("admin")) {
+                    for (Map.Entry<String, Object> subEntry : ((Map<String, Object>) entry.getValue()).entrySet()) {
+                        if (subEntry.getKey().equalsIgnoreCase("port"))
+                            admin_port = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("bind_address"))
+                            admin_bind_address = subEntry.getValue().toString();
+
+                        else if (subEntry.getKey().equalsIgnoreCase("token") && subEntry.getValue() != null)
+                            admin_token = subEntry.getValue().toString();
                     }
                 }
 
+                /*
+                 * Route lookup API Config
+                 */
+                if (entry.getKey().equalsIgnoreCase("lookup")) {
+                    for (Map.Entry<String, Object> subEntry : ((Map<String, Object>) entry.getValue()).entrySet()) {
+                        if (subEntry.getKey().equalsIgnoreCase("port"))
+                            lookup_port = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("bind_address"))
+                            lookup_bind_address = subEntry.getValue().toString();
+
+                        else if (subEntry.getKey().equalsIgnoreCase("seed_interval_seconds"))
+                            lookup_seed_interval_seconds = Integer.valueOf(subEntry.getValue().toString());
+                    }
+                }
+
+                /*
+                 * Flight recorder Config
+                 */
+                if (entry.getKey().equalsIgnoreCase("jfr")) {
+                    for (Map.Entry<String, Object> subEntry : ((Map<String, Object>) entry.getValue()).entrySet()) {
+                        if (subEntry.getKey().equalsIgnoreCase("enabled"))
+                            jfr_enabled = Boolean.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("settings"))
+                            jfr_settings = subEntry.getValue().toString();
+
+                        else if (subEntry.getKey().equalsIgnoreCase("max_age_minutes"))
+                            jfr_max_age_minutes = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("max_size_mb"))
+                            jfr_max_size_mb = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("dump_file"))
+                            jfr_dump_file = subEntry.getValue() != null ? subEntry.getValue().toString() : null;
+                    }
+                }
+
+                /*
+                 * Topic classes Config
+                 */
+                if (entry.getKey().equalsIgnoreCase("topic_classes")) {
+                    topic_class_maps.putAll((Map<String, Object>) entry.getValue());
+                }
+
                 /*
                  * Kafka Config
                  */
@@ -224,6 +609,17 @@ public class Config {
                         if (subEntry.getKey().equalsIgnoreCase("topic_subscribe_delay_millis"))
                             topic_subscribe_delay_millis = Integer.valueOf(subEntry.getValue().toString());
 
+                        else if (subEntry.getKey().equalsIgnoreCase("offset_commit_interval_millis"))
+                            offset_commit_interval_millis = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("rebalance_drain_timeout_millis"))
+                            rebalance_drain_timeout_millis = Integer.valueOf(subEntry.getValue().toString());
+
+                        else if (subEntry.getKey().equalsIgnoreCase("static_member_id")) {
+                            if (subEntry.getValue() != null && subEntry.getValue().toString().length() > 0)
+                                static_member_id = subEntry.getValue().toString();
+                        }
+
                         else if (subEntry.getKey().equalsIgnoreCase("consumer_config")) {
                             /*
                              * Consumer Config
@@ -250,6 +646,41 @@ public class Config {
                 }
             }
 
+            /*
+             * Topic classes default to the base settings, so they are created after all sections are loaded
+             */
+            topic_classes = new ArrayList<>();
+
+            for (Map.Entry<String, Object> entry : topic_class_maps.entrySet()) {
+                TopicClass tc = TopicClass.load(entry.getKey(), this, (Map<String, Object>) entry.getValue());
+
+                if (tc.getTopic_patterns().isEmpty()) {
+                    logger.warn("Topic class %s has no subscribe_topic_patterns, ignoring", entry.getKey());
+                    continue;
+                }
+
+                topic_classes.add(tc);
+            }
+
+            if (topic_classes.isEmpty()) {
+                topic_classes.add(new TopicClass("default", this, new ArrayList<>(kafka_topic_patterns)));
+            }
+
+            // Peer changes are only ordered with the prefixes of the peer within a class
+            TopicClass peer_class = getTopicClass("openbmp.parsed.peer");
+            TopicClass prefix_class = getTopicClass("openbmp.parsed.unicast_prefix");
+
+            if (peer_class != null && prefix_class != null && peer_class != prefix_class) {
+                logger.warn("Topic class %s consumes peer and %s consumes unicast_prefix, peer changes are not"
+                            + " ordered with prefixes", peer_class.getName(), prefix_class.getName());
+            }
+
+            // Scheduled writers take batches of any queue, so they cannot spill a queue to its journal
+            if (journal_enabled && writer_connections > 0) {
+                logger.error("journal.enabled is not supported with base.writer_connections, disable one of them");
+                return false;
+            }
+
         } catch (Exception ex) {
             ex.printStackTrace();
             return false;
@@ -258,13 +689,27 @@ public class Config {
         return true;
     }
 
+    /*
+     * Topic class that consumes a topic, null if none
+     */
+    private TopicClass getTopicClass(String topic) {
+        for (TopicClass tc : topic_classes) {
+            for (Pattern pattern : tc.getTopic_patterns()) {
+                if (pattern.matcher(topic).matches())
+                    return tc;
+            }
+        }
+
+        return null;
+    }
+
     /*
      * Default consumer properties
      */
     private void consumerConfigDefaults() {
         kafka_consumer_props.setProperty("key.deserializer", StringDeserializer.class.getName());
         kafka_consumer_props.setProperty("value.deserializer", StringDeserializer.class.getName());
-        kafka_consumer_props.setProperty("enable.auto.commit", "true");
+        kafka_consumer_props.setProperty("enable.auto.commit", "false");
 
         kafka_consumer_props.setProperty("bootstrap.servers", "localhost:9092");
         kafka_consumer_props.setProperty("group.id", "openbmp-psql-consumer");
@@ -291,10 +736,58 @@ public class Config {
         return writer_queue_size;
     }
 
+    Long getMemory_budget_bytes() {
+        return memory_budget_bytes;
+    }
+
+    Integer getFlow_control_high_percent() {
+        return flow_control_high_percent;
+    }
+
+    Integer getFlow_control_low_percent() {
+        return flow_control_low_percent;
+    }
+
+    Pattern getFlow_control_bulk_topics() {
+        return flow_control_bulk_topics;
+    }
+
+    Integer getRib_purge_interval_seconds() {
+        return rib_purge_interval_seconds;
+    }
+
+    Integer getRib_stale_max_age_seconds() {
+        return rib_stale_max_age_seconds;
+    }
+
     Integer getWriter_max_threads_per_type() {
         return writer_max_threads_per_type;
     }
 
+    Integer getWriter_connections() {
+        return writer_connections;
+    }
+
+    Boolean getAutoscale_enabled() {
+        return autoscale_enabled;
+    }
+
+    Integer getAutoscale_interval_seconds() {
+        return autoscale_interval_seconds;
+    }
+
+    Integer getAutoscale_target_utilization_percent() {
+        return autoscale_target_utilization_percent;
+    }
+
+    Integer getAutoscale_backoff_percent() {
+        return autoscale_backoff_percent;
+    }
+
+    Integer getAutoscale_scale_down_intervals() {
+        return autoscale_scale_down_intervals;
+    }
+
     Integer getConsumer_threads() {
         return consumer_threads;
     }
@@ -324,6 +817,14 @@ public class Config {
         return kafka_topic_patterns;
     }
 
+    /**
+     * Topic classes, in config order.  If none are configured, one class named default has all the kafka
+     *      subscribe_topic_patterns and the base settings.
+     */
+    List<TopicClass> getTopic_classes() {
+        return topic_classes;
+    }
+
     Integer getTopic_subscribe_delay_millis() {
         return topic_subscribe_delay_millis;
     }
@@ -356,6 +857,225 @@ public class Config {
         return db_ssl_mode;
     }
 
+    String getDead_letter_file() {
+        return dead_letter_file;
+    }
+
+    Long getDead_letter_max_bytes() {
+        return dead_letter_max_bytes;
+    }
+
+    Boolean getDb_flush_single_transaction() {
+        return db_flush_single_transaction;
+    }
+
+    Boolean getDb_synchronous_commit() {
+        return db_synchronous_commit;
+    }
+
+    Integer getDb_checkpoint_millis() {
+        return db_checkpoint_millis;
+    }
+
+    Integer getOffset_commit_interval_millis() {
+        return offset_commit_interval_millis;
+    }
+
+    Integer getRebalance_drain_timeout_millis() {
+        return rebalance_drain_timeout_millis;
+    }
+
+    String getStatic_member_id() {
+        return static_member_id;
+    }
+
+    Boolean getJournal_enabled() {
+        return journal_enabled;
+    }
+
+    String getJournal_dir() {
+        return journal_dir;
+    }
+
+    Integer getJournal_segment_bytes() {
+        return journal_segment_bytes;
+    }
+
+    Integer getJournal_slow_flush_millis() {
+        return journal_slow_flush_millis;
+    }
+
+    Integer getJournal_replay_batch() {
+        return journal_replay_batch;
+    }
+
+    Boolean getCatch_up_enabled() {
+        return catch_up_enabled;
+    }
+
+    Long getCatch_up_enter_lag() {
+        return catch_up_enter_lag;
+    }
+
+    Long getCatch_up_exit_lag() {
+        return catch_up_exit_lag;
+    }
+
+    Integer getCatch_up_batch_records() {
+        return catch_up_batch_records;
+    }
+
+    Integer getCatch_up_batch_time_millis() {
+        return catch_up_batch_time_millis;
+    }
+
+    Boolean getRpki_enabled() {
+        return rpki_enabled;
+    }
+
+    Integer getRpki_reload_check_seconds() {
+        return rpki_reload_check_seconds;
+    }
+
+    Integer getRpki_state_cache_size() {
+        return rpki_state_cache_size;
+    }
+
+    Integer getRpki_retention_days() {
+        return rpki_retention_days;
+    }
+
+    Integer getAs_path_cache_size() {
+        return as_path_cache_size;
+    }
+
+    Boolean getOff_heap_enabled() {
+        return off_heap_enabled;
+    }
+
+    Long getOff_heap_max_bytes() {
+        return off_heap_max_bytes;
+    }
+
+    Boolean getOff_heap_compress() {
+        return off_heap_compress;
+    }
+
+    Boolean getDampening_enabled() {
+        return dampening_enabled;
+    }
+
+    Integer getDampening_window_seconds() {
+        return dampening_window_seconds;
+    }
+
+    Integer getDampening_flap_threshold() {
+        return dampening_flap_threshold;
+    }
+
+    Integer getDampening_max_windows() {
+        return dampening_max_windows;
+    }
+
+    /**
+     * Early record filter, null if disabled
+     */
+    RecordFilter getRecord_filter() {
+        return record_filter;
+    }
+
+    Boolean getLs_cache_enabled() {
+        return ls_cache_enabled;
+    }
+
+    Integer getLs_cache_size() {
+        return ls_cache_size;
+    }
+
+    Integer getLs_cache_max_age_seconds() {
+        return ls_cache_max_age_seconds;
+    }
+
+    Boolean getStat_rollups_enabled() {
+        return stat_rollups_enabled;
+    }
+
+    Boolean getRib_counts_enabled() {
+        return rib_counts_enabled;
+    }
+
+    Integer getRib_counts_interval_minutes() {
+        return rib_counts_interval_minutes;
+    }
+
+    Integer getRib_counts_drift_check_peers() {
+        return rib_counts_drift_check_peers;
+    }
+
+    Integer getRefdata_threads() {
+        return refdata_threads;
+    }
+
+    String getRefdata_rpki_file() {
+        return refdata_rpki_file;
+    }
+
+    List<String> getRefdata_irr_files() {
+        return refdata_irr_files;
+    }
+
+    String getRefdata_peeringdb_dir() {
+        return refdata_peeringdb_dir;
+    }
+
+    String getRefdata_geoip_file() {
+        return refdata_geoip_file;
+    }
+
+    Integer getAdmin_port() {
+        return admin_port;
+    }
+
+    String getAdmin_bind_address() {
+        return admin_bind_address;
+    }
+
+    String getAdmin_token() {
+        return admin_token;
+    }
+
+    Integer getLookup_port() {
+        return lookup_port;
+    }
+
+    String getLookup_bind_address() {
+        return lookup_bind_address;
+    }
+
+    Integer getLookup_seed_interval_seconds() {
+        return lookup_seed_interval_seconds;
+    }
+
+    Boolean getJfr_enabled() {
+        return jfr_enabled;
+    }
+
+    String getJfr_settings() {
+        return jfr_settings;
+    }
+
+    Integer getJfr_max_age_minutes() {
+        return jfr_max_age_minutes;
+    }
+
+    Integer getJfr_max_size_mb() {
+        return jfr_max_size_mb;
+    }
+
+    String getJfr_dump_file() {
+        return jfr_dump_file;
+    }
+
     public Integer getHeartbeatInterval() { return expected_heartbeat_interval; }
 
     Integer getStatsInterval() { return stats_interval; }
@@ -10,12 +10,15 @@
 package org.openbmp;
 
 
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.openbmp.jfr.JfrRecording;
 
 
 /**
@@ -26,6 +29,13 @@ public class ConsumerApp
 {
     private static final Logger logger = LogManager.getFormatterLogger(ConsumerApp.class.getName());
     private ExecutorService executor;
+    private ScheduledExecutorService maintenanceExecutor;
+    private RpkiValidator rpkiValidator;
+    private LinkStateCache linkStateCache;
+    private AdminServer adminServer;
+    private LookupServer lookupServer;
+    private JfrRecording jfrRecording;
+    private PSQLHandler maintenanceDb;
     private final Config cfg;
     private List<ConsumerRunnable> consumerThreads;
 
@@ -60,6 +70,15 @@ public class ConsumerApp
             }
         }
 
+        if (cfg.getWriter_connections() > 0) WriterScheduler.getInstance().shutdown();
+        if (adminServer != null) adminServer.shutdown();
+        if (lookupServer != null) lookupServer.shutdown();
+        if (maintenanceExecutor != null) maintenanceExecutor.shutdownNow();
+        if (rpkiValidator != null) rpkiValidator.shutdown();
+        if (cfg.getRib_counts_enabled()) PeerRibCounter.getInstance().shutdown();
+        if (cfg.getLookup_port() > 0) RouteTable.getInstance().shutdown();
+        if (maintenanceDb != null) maintenanceDb.disconnect();
+
         if (executor != null) executor.shutdown();
         try {
             if (!executor.awaitTermination(5000, TimeUnit.MILLISECONDS)) {
@@ -68,15 +87,125 @@ public class ConsumerApp
         } catch (InterruptedException e) {
             logger.warn("Interrupted during shutdown, exiting uncleanly");
         }
+
+        if (jfrRecording != null) jfrRecording.shutdown();
     }
 
     public void run() {
-        executor = Executors.newFixedThreadPool(cfg.getConsumer_threads());
+        maintenanceExecutor = Executors.newSingleThreadScheduledExecutor();
+
+        if (cfg.getJfr_enabled()) {
+            jfrRecording = new JfrRecording(cfg.getJfr_dump_file());
+
+            if (!jfrRecording.start(cfg.getJfr_settings(), cfg.getJfr_max_age_minutes(), cfg.getJfr_max_size_mb()))
+                jfrRecording = null;
+        }
+
+        if (cfg.getJournal_enabled()) {
+            // Replay journals left from a previous run before consuming
+            PSQLHandler db = new PSQLHandler(cfg);
+            db.connect();
+            WriteJournal.replayAll(cfg, db);
+            db.disconnect();
+        }
+
+        if (cfg.getRpki_enabled()) {
+            // Load the ROA table before consuming so that prefixes are validated from the start
+            rpkiValidator = new RpkiValidator(cfg);
+            rpkiValidator.run();
+
+            maintenanceExecutor.scheduleWithFixedDelay(rpkiValidator, cfg.getRpki_reload_check_seconds(),
+                    cfg.getRpki_reload_check_seconds(), TimeUnit.SECONDS);
+        }
+
+        if (cfg.getLs_cache_enabled()) {
+            linkStateCache = new LinkStateCache(cfg.getLs_cache_size(), cfg.getLs_cache_max_age_seconds());
+        }
+
+        if (cfg.getRib_counts_enabled()) {
+            long interval_seconds = cfg.getRib_counts_interval_minutes() * 60L;
+
+            // First run after the consumers have seen peers, which are then seeded
+            maintenanceExecutor.scheduleAtFixedRate(PeerRibCounter.getInstance(), 60, interval_seconds,
+                    TimeUnit.SECONDS);
+        }
+
+        if (cfg.getRib_purge_interval_seconds() > 0) {
+            maintenanceDb = new PSQLHandler(cfg);
+            maintenanceDb.connect();
+
+            maintenanceExecutor.scheduleWithFixedDelay(this::purgeStaleRib, cfg.getRib_purge_interval_seconds(),
+                    cfg.getRib_purge_interval_seconds(), TimeUnit.SECONDS);
+        }
+
+        if (cfg.getAdmin_port() > 0) {
+            adminServer = new AdminServer(cfg);
+
+            try {
+                adminServer.start(cfg.getAdmin_bind_address(), cfg.getAdmin_port());
+            } catch (IOException e) {
+                logger.error("Unable to start admin API on port %d: %s", cfg.getAdmin_port(), e.getMessage());
+                adminServer = null;
+            }
+        }
+
+        if (cfg.getLookup_port() > 0) {
+            maintenanceExecutor.scheduleWithFixedDelay(RouteTable.getInstance(), cfg.getLookup_seed_interval_seconds(),
+                    cfg.getLookup_seed_interval_seconds(), TimeUnit.SECONDS);
+
+            lookupServer = new LookupServer(RouteTable.getInstance());
+
+            try {
+                lookupServer.start(cfg.getLookup_bind_address(), cfg.getLookup_port());
+            } catch (IOException e) {
+                logger.error("Unable to start route lookup API on port %d: %s", cfg.getLookup_port(), e.getMessage());
+                lookupServer = null;
+            }
+        }
+
+        // Writers of all consumer threads share the scheduler connections
+        if (cfg.getWriter_connections() > 0)
+            WriterScheduler.getInstance().start();
+
+        int threads = 0;
+        for (TopicClass tc : cfg.getTopic_classes())
+            threads += tc.getConsumer_threads();
 
-        for (int i=0; i < cfg.getConsumer_threads(); i++) {
-            ConsumerRunnable consumer = new ConsumerRunnable(cfg);
-            executor.submit(consumer);
-            consumerThreads.add(consumer);
+        executor = Executors.newFixedThreadPool(threads);
+
+        // Classes are started in config order, each with its own consumer group and writers
+        for (TopicClass tc : cfg.getTopic_classes()) {
+            logger.info("Starting %d consumer threads for topic class %s, group %s", tc.getConsumer_threads(),
+                        tc.getName(), tc.getConsumer_props().getProperty("group.id"));
+
+            for (int i=0; i < tc.getConsumer_threads(); i++) {
+                ConsumerRunnable consumer = new ConsumerRunnable(cfg, tc, i, rpkiValidator, linkStateCache);
+                executor.submit(consumer);
+                consumerThreads.add(consumer);
+            }
+        }
+    }
+
+    /**
+     * Purge RIB entries from previous peer sessions that were not re-learned
+     */
+    private void purgeStaleRib() {
+        try {
+            if (!maintenanceDb.isDbConnected())
+                maintenanceDb.connect();
+
+            long start_time = System.currentTimeMillis();
+
+            List<Map<String, String>> rows = maintenanceDb.selectQuery(
+                    "SELECT purge_stale_ip_rib('" + cfg.getRib_stale_max_age_seconds() + " seconds'::interval) AS purged");
+
+            if (rows.size() > 0 && !"0".equals(rows.get(0).get("purged"))) {
+                logger.info("Purged %s stale RIB entries in %d ms", rows.get(0).get("purged"),
+                            System.currentTimeMillis() - start_time);
+            }
+
+        } catch (Exception ex) {
+            logger.warn("Purge of stale RIB entries failed: ", ex);
         }
     }
 
@@ -128,11 +257,78 @@ public class ConsumerApp
                 if (cfg.getStatsInterval() > 0) {
                     Thread.sleep(cfg.getStatsInterval() * 1000);
 
+                    MemoryBudget budget = MemoryBudget.getInstance();
+                    logger.info("-- STATS --   memory budget used: %d MB of %d MB (%.1f%%)",
+                                budget.getUsed() / (1024 * 1024), budget.getLimit() / (1024 * 1024),
+                                budget.getUsedPercent());
+                    logger.info("-- STATS --   dead letter rows: %d  deadlocks: %d",
+                                DeadLetterWriter.getInstance().getCount(), PSQLHandler.getDeadlockCount());
+
+                    if (psqlApp.cfg.getOff_heap_enabled()) {
+                        OffHeapBuffer buffer = OffHeapBuffer.getInstance();
+                        logger.info("-- STATS --   off-heap used: %d MB  allocated: %d MB  packed: %d  full: %d  compression: %.1f",
+                                    buffer.getUsed_bytes() / (1024 * 1024), buffer.getAllocated_bytes() / (1024 * 1024),
+                                    buffer.getPacked_count(), buffer.getFull_count(), buffer.getCompression_ratio());
+                    }
+
+                    AsPathDictionary dictionary = AsPathDictionary.getInstance();
+                    logger.info("-- STATS --   as path dictionary size: %d  already written: %d  new: %d",
+                                dictionary.getSize(), dictionary.getHits(), dictionary.getMisses());
+
+                    if (psqlApp.linkStateCache != null) {
+                        logger.info("-- STATS --   link-state cache size: %d  unchanged dropped: %d  changed: %d",
+                                    psqlApp.linkStateCache.getSize(), psqlApp.linkStateCache.getHits(),
+                                    psqlApp.linkStateCache.getMisses());
+                    }
+
+                    if (psqlApp.cfg.getRecord_filter() != null) {
+                        logger.info("-- STATS --   filter dropped messages: %d  rows: %d",
+                                    psqlApp.cfg.getRecord_filter().getMessages_dropped(),
+                                    psqlApp.cfg.getRecord_filter().getRows_dropped());
+                    }
+
+                    if (psqlApp.cfg.getRib_counts_enabled()) {
+                        logger.info("-- STATS --   rib count peers: %d",
+                                    PeerRibCounter.getInstance().getPeerCount());
+                    }
+
+                    if (psqlApp.cfg.getWriter_connections() > 0) {
+                        WriterScheduler scheduler = WriterScheduler.getInstance();
+
+                        logger.info("-- STATS --   writer scheduler connections: %d  busy: %d  queues: %d  queued: %d (%.1f%%)"
+                                        + "  batches: %d  messages: %d  rows: %d  rows/sec: %.0f",
+                                    scheduler.getConnections(), scheduler.getBusy_count(), scheduler.getQueue_count(),
+                                    scheduler.getQueued_messages(), scheduler.getQueued_percent(),
+                                    scheduler.getBatch_count(), scheduler.getMessage_count(), scheduler.getRow_count(),
+                                    scheduler.getRows_per_second());
+                    }
+
+                    if (psqlApp.cfg.getLookup_port() > 0) {
+                        logger.info("-- STATS --   route table peers: %d  routes: %d",
+                                    RouteTable.getInstance().getPeerCount(),
+                                    RouteTable.getInstance().getRouteCount());
+                    }
+
                     for (int i = 0; i < psqlApp.consumerThreads.size(); i++ ) {
-                        logger.info("-- STATS --   thread: %d  read: %-10d  consumer_queue: %-10d writer_queues: %-10d",
-                                    i, psqlApp.consumerThreads.get(i).getMessageCount(),
+                        logger.info("-- STATS --   thread: %d  class: %s  read: %-10d  consumer_queue: %-10d writer_queues: %-10d",
+                                    i, psqlApp.consumerThreads.get(i).getTopicClassName(),
+                                    psqlApp.consumerThreads.get(i).getMessageCount(),
                                     psqlApp.consumerThreads.get(i).getConsumerQueueSize(),
                                     psqlApp.consumerThreads.get(i).getQueueSize());
+                        logger.info("            paused partitions: %d",
+                                psqlApp.consumerThreads.get(i).getPaused_partition_count());
+                        logger.info("                         mode: %s  bulk lag: %d",
+                                psqlApp.consumerThreads.get(i).isCatch_up() ? "catch-up" : "live",
+                                psqlApp.consumerThreads.get(i).getBulk_lag());
+                        logger.info("       lane conflicts avoided: %d  unavoidable: %d",
+                                psqlApp.consumerThreads.get(i).getLane_conflicts_avoided(),
+                                psqlApp.consumerThreads.get(i).getLane_conflicts_unavoidable());
+                        if (psqlApp.consumerThreads.get(i).getPrefixDampener() != null) {
+                            PrefixDampener dampener = psqlApp.consumerThreads.get(i).getPrefixDampener();
+                            logger.info("            dampening windows: %d  flapping: %d  suppressed: %d",
+                                        dampener.getWindowCount(), dampener.getFlap_count(),
+                                        dampener.getSuppressed_count());
+                        }
                         logger.info("           collector messages: %d",
                                 psqlApp.consumerThreads.get(i).getCollector_msg_count());
                         logger.info("              router messages: %d",
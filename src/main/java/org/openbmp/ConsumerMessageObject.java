@@ -4,7 +4,9 @@
  */
 package org.openbmp;
 
-import java.util.Map;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
 
 /**
  * Consumer message object to be sent to writer
@@ -13,4 +15,7 @@ public class ConsumerMessageObject {
     public String key;
     public WriterQueueMsg writer_msg;
     public ConsumerRunnable.ThreadType thread_type;
+    public TopicPartition partition;                    ///< Kafka partition the message was consumed from
+    public boolean shared_rows;                         ///< Rows are shared by messages of other keys
+    public Collection<String> row_keys;                 ///< Row keys of messages with shared rows
 }
@@ -10,36 +10,74 @@
 package org.openbmp;
 
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * Rebalance Listener - Handle partition changes
+ *
+ *      Only the revoked partitions are drained and committed, so that partitions that are kept continue to
+ *      be written during a rebalance.  With the cooperative sticky assignor, only partitions that move to
+ *      another consumer are revoked.
  */
 public class ConsumerRebalanceListener implements org.apache.kafka.clients.consumer.ConsumerRebalanceListener {
     private static final Logger logger = LogManager.getFormatterLogger(ConsumerRebalanceListener.class.getName());
 
     private KafkaConsumer<?,?> consumer;
+    private ConsumerRunnable consumerRunnable;
+    private OffsetTracker offsetTracker;
 
-    public ConsumerRebalanceListener(KafkaConsumer<?,?> consumer) {
+    public ConsumerRebalanceListener(KafkaConsumer<?,?> consumer, ConsumerRunnable consumerRunnable,
+                                     OffsetTracker offsetTracker) {
 
         this.consumer = consumer;
+        this.consumerRunnable = consumerRunnable;
+        this.offsetTracker = offsetTracker;
     }
 
     public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
-        // save the offsets in an external store using some custom code not described here
+        if (partitions.isEmpty())
+            return;
+
         for(TopicPartition partition: partitions)
             logger.info("Revoke partition %s [ %d ] ", partition.topic(), partition.partition());
 
+        // Write the in-flight records of the revoked partitions
+        consumerRunnable.drainPartitions(partitions);
+
+        // Commit offsets of records already written, records still in-flight will be consumed again
+        try {
+            Map<TopicPartition, OffsetAndMetadata> offsets = offsetTracker.getCommittable(partitions);
+
+            if (!offsets.isEmpty())
+                consumer.commitSync(offsets);
+
+        } catch (KafkaException ex) {
+            logger.warn("Failed to commit offsets on revoke: %s", ex.getMessage());
+        }
+
+        offsetTracker.remove(partitions);
     }
 
-    public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+    public void onPartitionsLost(Collection<TopicPartition> partitions) {
+        for(TopicPartition partition: partitions)
+            logger.warn("Lost partition %s [ %d ] ", partition.topic(), partition.partition());
+
+        // Partitions are already owned by another consumer, offsets cannot be committed
+        consumerRunnable.dropPartitions(partitions);
+        offsetTracker.remove(partitions);
+    }
 
-        // read the offsets from an external store using some custom code not described here
+    public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
         for(TopicPartition partition: partitions)
             logger.info("Assign partition %s [ %d ] ", partition.topic(), partition.partition());
+
+        consumerRunnable.warmPartitions(partitions);
     }
 }
@@ -6,6 +6,7 @@ package org.openbmp;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.config.ConfigException;
@@ -22,8 +23,10 @@ import org.openbmp.api.parsed.processor.LsNode;
 import org.openbmp.api.parsed.processor.LsLink;
 import org.openbmp.api.parsed.processor.LsPrefix;
 
+import org.openbmp.jfr.*;
 import org.openbmp.psqlquery.*;
 
+import java.lang.management.ManagementFactory;
 import java.math.BigInteger;
 import java.time.Duration;
 import java.util.*;
@@ -66,7 +69,21 @@ public class ConsumerRunnable implements Runnable {
     private KafkaConsumer<String, String> consumer;
     private ConsumerRebalanceListener rebalanceListener;
     private Config cfg;
+    private final TopicClass topicClass;                        // Topic class consumed by this thread
+    private final int index;                                    // Index of the thread in the topic class
     private PSQLHandler db;
+    private RpkiValidator rpkiValidator;
+    private LinkStateCache linkStateCache;
+    private StatRollup statRollup;
+    private PeerRibCounter peerRibCounter;
+    private RouteTable routeTable;                              // Null if the route lookup API is disabled
+    private AsPathDictionary asPathDictionary;
+    private RecordFilter recordFilter;
+    private PrefixDampener prefixDampener;                      // Null if dampening is disabled
+    private long last_dampening_check_time;
+    private Map<ThreadType, WriterAutoscaler> autoscalers;      // Null if autoscaling is disabled
+    private final long[] arrivals;                              // Messages handed to writers by thread type
+    private long last_autoscale_time;
 
     private int topics_subscribed_count;
     private boolean topics_all_subscribed;
@@ -87,8 +104,41 @@ public class ConsumerRunnable implements Runnable {
     private long ls_prefix_msg_count;
     private long stat_msg_count;
 
-    private Collection<TopicPartition> pausedTopics;
+    /*
+     * Flow control
+     *      Bulk topic partitions are paused when the queues they feed are above the high watermark and
+     *      resumed when they are below the low watermark.  Other topics are never paused by flow control.
+     */
+    private final Set<TopicPartition> pausedTopics;             // Partitions paused by flow control, read by stats
     private long last_paused_time;
+    private final Map<TopicPartition, Set<WriterObject>> partition_writers;
+    private final Map<String, Boolean> bulk_topics;             // Cache of topic name to bulk topic match
+
+    private final MemoryBudget memoryBudget;                    // Process wide budget of queued writer messages
+    private final OffHeapBuffer offHeapBuffer;                  // Off-heap buffer of queued values, null if disabled
+
+    private final OffsetTracker offsetTracker;                  // In-flight offsets, committed once written
+    private TopicPartition held_partition;                      // Partition of the record being processed, null if none
+    private long held_offset;                                   // Offset of the record being processed
+    private long last_commit_time;
+
+    private boolean catch_up;                                   // Writers are in catch-up mode
+    private boolean draining;                                   // Queuing from the rebalance listener, don't poll
+    private final Set<TopicPartition> revoked_partitions;       // Revoked and not assigned again, not queued
+    private long bulk_lag;                                      // Lag of bulk topic partitions at the last check
+    private long last_lag_check_time;
+
+    /*
+     * Row owner lanes
+     *      Rows of some tables, such as base_attrs and rpki_origin_state, are shared by messages of
+     *      different keys, which are assigned to different writers.  Recently written row keys are mapped
+     *      to the writer (lane) that owns them.  Messages with shared rows are sent to the lane that
+     *      owns their rows so that concurrent writers do not wait on each other's row locks.
+     */
+    private static final int ROW_OWNER_MAX = 200000;
+    private final Map<String, WriterObject> row_owners;
+    private long lane_conflicts_avoided;                        // Messages routed to the owner lane of their rows
+    private long lane_conflicts_unavoidable;                    // Messages with rows owned by more than one lane
 
     /*
      * Writers thread map
@@ -117,10 +167,17 @@ public class ConsumerRunnable implements Runnable {
      * Constructor
      *
      * @param cfg                  Configuration from cli/config file
+     * @param topicClass           Topic class to consume
+     * @param index                Index of the thread in the topic class
+     * @param rpkiValidator        Shared RPKI origin validator, null if disabled
+     * @param linkStateCache       Shared link-state change cache, null if disabled
      */
-    public ConsumerRunnable(Config cfg) {
+    public ConsumerRunnable(Config cfg, TopicClass topicClass, int index, RpkiValidator rpkiValidator,
+                            LinkStateCache linkStateCache) {
 
-        message_queue = new LinkedBlockingQueue<>(cfg.getConsumer_queue_size());
+        this.topicClass = topicClass;
+        this.index = index;
+        message_queue = new LinkedBlockingQueue<>(topicClass.getConsumer_queue_size());
         writer_thread_map = new HashMap<>();
         last_writer_thread_chg_time = 0L;
 
@@ -128,14 +185,57 @@ public class ConsumerRunnable implements Runnable {
 
         messageCount = BigInteger.valueOf(0);
         this.cfg = cfg;
+        this.rpkiValidator = rpkiValidator;
+        this.linkStateCache = linkStateCache;
+        this.statRollup = cfg.getStat_rollups_enabled() ? StatRollup.getInstance() : null;
+        this.peerRibCounter = cfg.getRib_counts_enabled() ? PeerRibCounter.getInstance() : null;
+        this.routeTable = cfg.getLookup_port() > 0 ? RouteTable.getInstance() : null;
+        this.asPathDictionary = AsPathDictionary.getInstance();
+        this.recordFilter = cfg.getRecord_filter();
         this.routerMap = new HashMap<>();
         db = new PSQLHandler(cfg);
 
         this.running = true;
         this.nowShutdown = false;
 
-        pausedTopics = new HashSet<>();
+        pausedTopics = ConcurrentHashMap.newKeySet();
         last_paused_time = 0L;
+        partition_writers = new HashMap<>();
+        bulk_topics = new HashMap<>();
+        memoryBudget = MemoryBudget.getInstance();
+        offHeapBuffer = cfg.getOff_heap_enabled() ? OffHeapBuffer.getInstance() : null;
+        offsetTracker = new OffsetTracker();
+        revoked_partitions = new HashSet<>();
+
+        if (cfg.getDampening_enabled()) {
+            prefixDampener = new PrefixDampener(offsetTracker, cfg.getDampening_window_seconds() * 1000L,
+                                                cfg.getDampening_flap_threshold(), cfg.getDampening_max_windows());
+        }
+        last_commit_time = 0L;
+
+        // Scheduled writers share a fixed number of connections, which is not scaled
+        arrivals = new long[ThreadType.values().length];
+        last_autoscale_time = System.currentTimeMillis();
+
+        if (cfg.getAutoscale_enabled() && cfg.getWriter_connections() <= 0) {
+            autoscalers = new HashMap<>();
+
+            for (ThreadType t : ThreadType.values()) {
+                autoscalers.put(t, new WriterAutoscaler(cfg.getAutoscale_target_utilization_percent() / 100.0,
+                        cfg.getAutoscale_backoff_percent(), cfg.getAutoscale_scale_down_intervals()));
+            }
+        }
+
+        row_owners = new LinkedHashMap<String, WriterObject>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, WriterObject> eldest) {
+                return size() > ROW_OWNER_MAX;
+            }
+        };
+
+        if (Boolean.parseBoolean(topicClass.getConsumer_props().getProperty("enable.auto.commit"))) {
+            logger.warn("Kafka enable.auto.commit is true, offsets will be committed before records are written");
+        }
 
         /*
          * It's imperative to first process messages from some topics before subscribing to others.
@@ -147,25 +247,26 @@ public class ConsumerRunnable implements Runnable {
         this.topic_patterns = new LinkedList<>();
 
         // Convert to list so that we can access items by index.
-        for (Iterator<Pattern> it = cfg.getKafka_topic_patterns().iterator(); it.hasNext(); ) {
+        for (Iterator<Pattern> it = topicClass.getTopic_patterns().iterator(); it.hasNext(); ) {
             this.topic_patterns.add(it.next());
         }
 
         this.topic_regex_pattern = new StringBuilder();
 
-        this.rebalanceListener = new ConsumerRebalanceListener(consumer);
+        this.rebalanceListener = new ConsumerRebalanceListener(consumer, this, offsetTracker);
 
         /*
          * Start DB Writer thread - one thread per type
+         *      The pool is not bounded since writer_max_threads_per_type can be changed at runtime
          */
-        executor = Executors.newFixedThreadPool(cfg.getWriter_max_threads_per_type() * ThreadType.values().length);
+        executor = Executors.newCachedThreadPool();
 
         // Init the list of threads for each thread type
         for (ThreadType t: ThreadType.values()) {
             writer_thread_map.put(t, new ArrayList<WriterObject>());
 
             // Start max writers first
-            for (int i=0; i < cfg.getWriter_max_threads_per_type(); i++) {
+            for (int i=0; i < topicClass.getWriter_max_threads_per_type(); i++) {
                 addWriterThread(t);
             }
         }
@@ -184,6 +285,13 @@ public class ConsumerRunnable implements Runnable {
     public void shutdown() {
         logger.info("postgres consumer thread shutting down");
 
+        // Open stats rollups of the assigned partitions are written with the queue
+        if (statRollup != null && consumer != null) {
+            draining = true;
+            addRollupsToWriter(statRollup.flushPartitions(consumer.assignment()));
+            draining = false;
+        }
+
         // Drain message queue
         logger.info("draining message queue %d", message_queue.size());
         int i = 0;
@@ -218,10 +326,7 @@ public class ConsumerRunnable implements Runnable {
             shutdownWriters(t);
         }
 
-
-        logger.info("Shutting down consumer");
-        db.disconnect();
-
+        // Writers complete or fail their batches before offsets are committed
         if (executor != null) executor.shutdown();
 
         try {
@@ -232,6 +337,12 @@ public class ConsumerRunnable implements Runnable {
             logger.warn("Interrupted during shutdown, exiting uncleanly");
         }
 
+        // Commit offsets of records written by the writers
+        commitOffsets(true);
+
+        logger.info("Shutting down consumer");
+        db.disconnect();
+
         running = false;
 
         close_consumer();
@@ -256,10 +367,26 @@ public class ConsumerRunnable implements Runnable {
         try {
             close_consumer();
 
-            consumer = new KafkaConsumer<>(cfg.getKafka_consumer_props());
+            Properties props = new Properties();
+            props.putAll(topicClass.getConsumer_props());
+
+            // Static membership, so that a restarted consumer gets its partitions back without a rebalance
+            if (cfg.getStatic_member_id() != null) {
+                props.setProperty("group.instance.id",
+                                  cfg.getStatic_member_id() + "-" + topicClass.getName() + "-" + index);
+            }
+
+            // Same affinity id in each topic class group, so that the groups assign a router to the same thread index
+            if (props.getProperty("partition.assignment.strategy", "").contains(RouterAffinityAssignor.class.getName())) {
+                props.setProperty(RouterAffinityAssignor.AFFINITY_ID_CONFIG,
+                                  (cfg.getStatic_member_id() != null ? cfg.getStatic_member_id()
+                                                    : ManagementFactory.getRuntimeMXBean().getName()) + "-" + index);
+            }
+
+            consumer = new KafkaConsumer<>(props);
             logger.info("Connected to kafka, subscribing to topics");
 
-            this.rebalanceListener = new ConsumerRebalanceListener(consumer);
+            this.rebalanceListener = new ConsumerRebalanceListener(consumer, this, offsetTracker);
 
             status = true;
 
@@ -279,40 +406,111 @@ public class ConsumerRunnable implements Runnable {
         consumer.pause(consumer.assignment());
     }
 
+    /**
+     * Resume all partitions, except the ones paused by flow control
+     */
     private void resume() {
-        consumer.resume(consumer.paused());
+        Set<TopicPartition> partitions = new HashSet<>(consumer.paused());
+        partitions.removeAll(pausedTopics);
+
+        if (partitions.size() > 0)
+            consumer.resume(partitions);
     }
 
-    private void resumePausedTopics() {
-        if (pausedTopics.size() > 0) {
-            logger.info("Resumed %d paused topics", pausedTopics.size());
-            consumer.resume(pausedTopics);
-            pausedTopics.clear();
+    private boolean isBulkTopic(String topic) {
+        Boolean bulk = bulk_topics.get(topic);
+
+        if (bulk == null) {
+            bulk = cfg.getFlow_control_bulk_topics().matcher(topic).matches();
+            bulk_topics.put(topic, bulk);
         }
+
+        return bulk;
     }
 
-    private void pauseUnicastPrefix() {
-        Set<TopicPartition> topics = consumer.assignment();
-        last_paused_time = System.currentTimeMillis();
+    /**
+     * Get the max queue fill percent of the writers that a partition feeds
+     */
+    static double getWriterFillPercent(Set<WriterObject> writers) {
+        double fill = 0;
 
-        for (TopicPartition topic: topics) {
-            if (topic.topic().equalsIgnoreCase("openbmp.parsed.unicast_prefix")) {
-                if (! pausedTopics.contains(topic)) {
-                    logger.info("Paused openbmp.parsed.unicast_prefix");
-                    pausedTopics.add(topic);
-                    consumer.pause(pausedTopics);
-                }
-                break;
+        if (writers != null) {
+            for (WriterObject obj : writers) {
+                fill = Math.max(fill, obj.writerQueue.size() * 100.0 / obj.queue_capacity);
             }
         }
+
+        return fill;
+    }
+
+    /**
+     * Pause or resume bulk topic partitions based on queue watermarks
+     *
+     *      A bulk partition is paused when the memory budget, the consumer queue or one of the writer
+     *      queues it feeds is above the high watermark.  It is resumed when all are below the low watermark.
+     */
+    private void applyFlowControl() {
+        Set<TopicPartition> assignment = consumer.assignment();
+        pausedTopics.retainAll(assignment);
+
+        double consumer_fill = Math.max(memoryBudget.getUsedPercent(),
+                                        message_queue.size() * 100.0 / topicClass.getConsumer_queue_size());
+
+        List<TopicPartition> pause_list = new ArrayList<>();
+        List<TopicPartition> resume_list = new ArrayList<>();
+
+        for (TopicPartition tp : assignment) {
+            if (!isBulkTopic(tp.topic()))
+                continue;
+
+            double fill = Math.max(consumer_fill, getWriterFillPercent(partition_writers.get(tp)));
+            boolean paused = pausedTopics.contains(tp);
+
+            if (isFlowControlPaused(paused, fill, cfg.getFlow_control_high_percent(),
+                                    cfg.getFlow_control_low_percent()) != paused) {
+                if (paused)
+                    resume_list.add(tp);
+                else
+                    pause_list.add(tp);
+            }
+        }
+
+        if (pause_list.size() > 0) {
+            logger.info("Flow control paused %d partitions, consumer queue = %d", pause_list.size(), message_queue.size());
+            pausedTopics.addAll(pause_list);
+            consumer.pause(pause_list);
+            last_paused_time = System.currentTimeMillis();
+        }
+
+        if (resume_list.size() > 0) {
+            logger.info("Flow control resumed %d partitions after %d ms", resume_list.size(),
+                        System.currentTimeMillis() - last_paused_time);
+            pausedTopics.removeAll(resume_list);
+            consumer.resume(resume_list);
+        }
+    }
+
+    /**
+     * Flow control state of a partition by the watermarks
+     *
+     * @param paused        True if the partition is paused
+     * @param fill          Max fill percent of the queues the partition feeds
+     * @param high_percent  High watermark, pauses at or above
+     * @param low_percent   Low watermark, resumes at or below
+     *
+     * @return True if the partition should be paused
+     */
+    static boolean isFlowControlPaused(boolean paused, double fill, int high_percent, int low_percent) {
+        if (paused)
+            return fill > low_percent;
+        else
+            return fill >= high_percent;
     }
 
     /**
      * Run the thread
      */
     public void run() {
-        boolean unicast_prefix_paused = false;
-
         logger.info("Consumer started");
 
         db.connect();
@@ -350,17 +548,38 @@ public class ConsumerRunnable implements Runnable {
             if (!topics_all_subscribed) {
                 subscribe_prev_timestamp = subscribe_topics(subscribe_prev_timestamp);
 
-            } /* else if (pausedTopics.size() > 0 && (System.currentTimeMillis() - last_paused_time) > 90000) {
-                logger.info("Resumed paused %d topics", pausedTopics.size());
-                consumer.resume(pausedTopics);
-                pausedTopics.clear();
-            } */
+            }
+
+            if (System.currentTimeMillis() - last_commit_time > cfg.getOffset_commit_interval_millis()) {
+                commitOffsets(false);
+            }
+
+            if (cfg.getCatch_up_enabled() && System.currentTimeMillis() - last_lag_check_time > 5000) {
+                checkCatchUp();
+            }
+
+            if (prefixDampener != null && System.currentTimeMillis() - last_dampening_check_time > 1000) {
+                expireDampened();
+            }
 
             try {
+                KafkaPollEvent pollEvent = new KafkaPollEvent();
+                pollEvent.begin();
+
                 ConsumerRecords<String, String> records = consumer.poll(Duration.ofMillis(10));
 
+                pollEvent.end();
+                if (records != null && records.count() > 0 && pollEvent.shouldCommit()) {
+                    pollEvent.topicClass = topicClass.getName();
+                    pollEvent.records = records.count();
+                    for (ConsumerRecord<String, String> record : records)
+                        pollEvent.bytes += Math.max(record.serializedValueSize(), 0);
+                    pollEvent.commit();
+                }
+
                 if (records == null || records.count() <= 0) {
                     writePendingMessages();
+                    applyFlowControl();
                     continue;
                 }
 
@@ -371,6 +590,19 @@ public class ConsumerRunnable implements Runnable {
 
                 ThreadType thread_type;
                 for (ConsumerRecord<String, String> record : records) {
+                    TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+
+                    // Partition revoked by a rebalance in a heartbeat poll, the new owner consumes the record
+                    if (revoked_partitions.contains(partition))
+                        continue;
+
+                    // Hold the offset while processing, writer messages add their own references
+                    int generation = offsetTracker.add(partition, record.offset());
+                    held_partition = partition;
+                    held_offset = record.offset();
+
+                    DecodeEvent decodeEvent = new DecodeEvent();
+                    decodeEvent.begin();
 
                     try {
                         messageCount = messageCount.add(BigInteger.ONE);
@@ -378,7 +610,10 @@ public class ConsumerRunnable implements Runnable {
                         //Extract the Headers and Content from the message.
                         Message message = new Message(record.value());
 
-                        Base obj = null;
+                        // Drop unwanted messages before the content is parsed
+                        if (recordFilter != null && !recordFilter.matchMessage(record.topic(), message))
+                            continue;
+
                         Query dbQuery = null;
                         thread_type = ThreadType.THREAD_DEFAULT;
 
@@ -397,14 +632,14 @@ public class ConsumerRunnable implements Runnable {
                             last_collector_msg_time = System.currentTimeMillis();
 
                             if (collectorQuery != null) {
-                                db.updateQuery(create_sql_string(collectorQuery), cfg.getDb_retries());
+                                updateQueryDirect(create_sql_string(collectorQuery));
 
                                 String sql = collectorQuery.genRouterCollectorUpdate();
 
                                 if (sql != null && !sql.isEmpty()) {
                                     logger.debug("collectorUpdate: %s", sql);
 
-                                    db.updateQuery(sql, cfg.getDb_retries());
+                                    updateQueryDirect(sql);
                                 }
 
                                 consumer.poll(Duration.ofMillis(0));            // heartbeat
@@ -427,7 +662,7 @@ public class ConsumerRunnable implements Runnable {
                             if (routerQuery != null) {
                                 // Add/update routers
 
-                                db.updateQuery(create_sql_string(routerQuery), cfg.getDb_retries());
+                                updateQueryDirect(create_sql_string(routerQuery));
 
                                 consumer.poll(Duration.ZERO);       // heartbeat
 
@@ -436,7 +671,7 @@ public class ConsumerRunnable implements Runnable {
 
                                 if (sql != null && !sql.isEmpty()) {
                                     logger.debug("RouterUpdate = %s", sql);
-                                    db.updateQuery(sql, cfg.getDb_retries());
+                                    updateQueryDirect(sql);
                                 }
 
                                 // Update router tracking with indexes
@@ -456,10 +691,43 @@ public class ConsumerRunnable implements Runnable {
                             Peer peer = new org.openbmp.api.parsed.processor.Peer(message.getContent());
                             PeerQuery peerQuery = new PeerQuery(peer.records);
 
+                            // Records of a new peer session are written again
+                            if (linkStateCache != null) {
+                                for (PeerPojo pojo : peer.records)
+                                    linkStateCache.removePeer(pojo.getHash());
+                            }
+
+                            // Close the stats rollups of the peer session
+                            if (statRollup != null) {
+                                for (PeerPojo pojo : peer.records) {
+                                    for (StatRollupQuery rollupQuery : statRollup.removePeer(pojo.getHash())) {
+                                        addBulkQuerytoWriter(record.key(), partition, record.offset(),
+                                                rollupQuery.genInsertStatement(), rollupQuery.genValuesStatement(),
+                                                thread_type, false);
+                                    }
+                                }
+                            }
+
+                            if (peerRibCounter != null) {
+                                for (PeerPojo pojo : peer.records)
+                                    peerRibCounter.resetPeer(pojo.getHash());
+                            }
+
+                            if (routeTable != null) {
+                                for (PeerPojo pojo : peer.records)
+                                    routeTable.resetPeer(pojo.getHash());
+                            }
+
+                            // Held prefixes of the peer are written before the peer change
+                            if (prefixDampener != null) {
+                                for (PeerPojo pojo : peer.records)
+                                    addReleasedToWriter(prefixDampener.releasePeer(pojo.getHash()));
+                            }
+
                             if (peerQuery != null) {
 
                                 // Add/update peers
-                                db.updateQuery(create_sql_string(peerQuery), cfg.getDb_retries());
+                                updateQueryDirect(create_sql_string(peerQuery));
 
                                 consumer.poll(Duration.ofMillis(0));       // heartbeat
 
@@ -467,7 +735,7 @@ public class ConsumerRunnable implements Runnable {
                                 for (String sql : peerQuery.genRibPeerUpdate()) {
                                     logger.debug("Updating NLRI's for peer change: %s", sql);
 
-                                    db.updateQuery(sql, cfg.getDb_retries());
+                                    updateQueryDirect(sql);
 
                                     consumer.poll(Duration.ofMillis(0)); // heartbeat
                                 }
@@ -482,8 +750,13 @@ public class ConsumerRunnable implements Runnable {
 
                             //thread_type = ThreadType.THREAD_ATTRIBUTES;
 
-                            List<BaseAttributePojo> ba_list = new ArrayList();
-                            BaseAttribute ba_temp = new org.openbmp.api.parsed.processor.BaseAttribute(message.getContent());
+                            String content = recordFilter != null ? recordFilter.filterAttributeRows(message.getContent())
+                                                                  : message.getContent();
+                            if (content.isEmpty())
+                                continue;
+
+                            List<BaseAttributePojo> ba_list = new ArrayList<>();
+                            BaseAttribute ba_temp = new org.openbmp.api.parsed.processor.BaseAttribute(content);
 
                             // Cache in memory processed base attributes.  If processed, skip adding it to the DB again
                             for (BaseAttributePojo ba_entry : ba_temp.records) {
@@ -500,22 +773,57 @@ public class ConsumerRunnable implements Runnable {
                             if (ba_list.size() <= 0)
                                 continue;
 
-                            dbQuery = new BaseAttributeQuery(ba_list);
+                            dbQuery = new BaseAttributeQuery(ba_list, asPathDictionary);
 
                         } else if ((message.getType() != null && message.getType().equalsIgnoreCase("unicast_prefix"))
                                 || record.topic().equals("openbmp.parsed.unicast_prefix")) {
                             logger.trace("Parsing unicast_prefix message");
                             unicast_prefix_msg_count++;
 
-                            UnicastPrefix up = new UnicastPrefix(message.getContent());
-                            dbQuery = new UnicastPrefixQuery(up.records);
+                            String content = recordFilter != null ? recordFilter.filterPrefixRows(message.getContent())
+                                                                  : message.getContent();
+                            if (content.isEmpty())
+                                continue;
+
+                            UnicastPrefix up = new UnicastPrefix(content);
+
+                            // Updates of flapping prefixes are held by the dampener
+                            if (prefixDampener != null) {
+                                dbQuery = new UnicastPrefixQuery(prefixDampener.add(up.records, record.key(),
+                                        partition, record.offset(), System.currentTimeMillis()));
+                            } else {
+                                dbQuery = new UnicastPrefixQuery(up.records);
+                            }
+
+                            if (peerRibCounter != null)
+                                peerRibCounter.update(up.records, partition);
+
+                            if (routeTable != null)
+                                routeTable.update(up.records, partition);
+
+                            // Add RPKI origin state changes, same key so that they follow the prefix order
+                            if (rpkiValidator != null) {
+                                RpkiOriginStateQuery rpkiQuery = rpkiValidator.genStateQuery(up.records);
+
+                                // States are cached once written, so unwritten states are sent again
+                                if (rpkiQuery != null) {
+                                    addBulkQuerytoWriter(record.key(), partition, record.offset(), rpkiQuery.genInsertStatement(),
+                                            rpkiQuery.genValuesStatement(), thread_type, true,
+                                            () -> rpkiValidator.stateWritten(rpkiQuery));
+                                }
+                            }
 
                         } else if ((message.getType() != null && message.getType().equalsIgnoreCase("l3vpn"))
                                 || record.topic().equals("openbmp.parsed.l3vpn")) {
                             logger.trace("Parsing L3VPN prefix message");
                             l3vpn_prefix_msg_count++;
 
-                            L3VpnPrefix vp = new L3VpnPrefix(message.getContent());
+                            String content = recordFilter != null ? recordFilter.filterPrefixRows(message.getContent())
+                                                                  : message.getContent();
+                            if (content.isEmpty())
+                                continue;
+
+                            L3VpnPrefix vp = new L3VpnPrefix(content);
                             dbQuery = new L3VpnPrefixQuery(vp.records);
 
                         } else if ((message.getType() != null && message.getType().equalsIgnoreCase("bmp_stat"))
@@ -523,8 +831,18 @@ public class ConsumerRunnable implements Runnable {
                             logger.trace("Parsing bmp_stat message");
                             stat_msg_count++;
 
-                            obj = new BmpStat(message.getContent());
-                            dbQuery = new BmpStatQuery(obj.getRowMap());
+                            List<BmpStatQuery.Sample> samples =
+                                    BmpStatQuery.parse(new BmpStat(message.getContent()).getRowMap());
+                            dbQuery = new BmpStatQuery(samples);
+
+                            if (statRollup != null) {
+                                for (StatRollupQuery rollupQuery : statRollup.add(samples, record.key(),
+                                                                                  partition, record.offset())) {
+                                    addBulkQuerytoWriter(record.key(), partition, record.offset(),
+                                            rollupQuery.genInsertStatement(), rollupQuery.genValuesStatement(),
+                                            thread_type, false);
+                                }
+                            }
 
                         } else if ((message.getType() != null && message.getType().equalsIgnoreCase("ls_node"))
                                 || record.topic().equals("openbmp.parsed.ls_node")) {
@@ -532,7 +850,7 @@ public class ConsumerRunnable implements Runnable {
                             ls_node_msg_count++;
 
                             LsNode ls = new LsNode(message.getContent());
-                            dbQuery = new LsNodeQuery(ls.records);
+                            dbQuery = new LsNodeQuery(ls.records, linkStateCache);
 
                         } else if ((message.getType() != null && message.getType().equalsIgnoreCase("ls_link"))
                                 || record.topic().equals("openbmp.parsed.ls_link")) {
@@ -540,7 +858,7 @@ public class ConsumerRunnable implements Runnable {
                             ls_link_msg_count++;
 
                             LsLink ls = new LsLink(message.getContent());
-                            dbQuery = new LsLinkQuery(ls.records);
+                            dbQuery = new LsLinkQuery(ls.records, linkStateCache);
 
                         } else if ((message.getType() != null && message.getType().equalsIgnoreCase("ls_prefix"))
                                 || record.topic().equals("openbmp.parsed.ls_prefix")) {
@@ -548,7 +866,7 @@ public class ConsumerRunnable implements Runnable {
                             ls_prefix_msg_count++;
 
                             LsPrefix ls = new LsPrefix(message.getContent());
-                            dbQuery = new LsPrefixQuery(ls.records);
+                            dbQuery = new LsPrefixQuery(ls.records, linkStateCache);
 
                         } else {
                             logger.debug("Topic %s not implemented, ignoring", record.topic());
@@ -558,21 +876,62 @@ public class ConsumerRunnable implements Runnable {
                         /*
                          * Add query to writer queue
                          */
+                        decodeEvent.end();
+                        if (decodeEvent.shouldCommit()) {
+                            decodeEvent.recordType = record.topic();
+                            decodeEvent.bytes = Math.max(record.serializedValueSize(), 0);
+                            decodeEvent.commit();
+                        }
+
                         if (dbQuery != null) {
-                            addBulkQuerytoWriter(record.key(), dbQuery.genInsertStatement(),
-                                    dbQuery.genValuesStatement(), thread_type);
+                            QueryBuildEvent buildEvent = new QueryBuildEvent();
+                            buildEvent.begin();
+
+                            String[] statement = dbQuery.genInsertStatement();
+                            Map<String, String> values = dbQuery.genValuesStatement();
+
+                            buildEvent.end();
+                            if (buildEvent.shouldCommit()) {
+                                buildEvent.recordType = record.topic();
+                                buildEvent.rows = values.size();
+                                buildEvent.commit();
+                            }
+
+                            // New AS paths are queued before the attributes that reference them, and are
+                            //   added to the dictionary once written
+                            if (dbQuery instanceof BaseAttributeQuery) {
+                                AsPathQuery pathQuery = ((BaseAttributeQuery) dbQuery).genAsPathQuery();
+
+                                if (pathQuery != null) {
+                                    addBulkQuerytoWriter(record.key(), partition, record.offset(),
+                                            pathQuery.genInsertStatement(), pathQuery.genValuesStatement(),
+                                            thread_type, true,
+                                            () -> asPathDictionary.addAll(pathQuery.getPath_ids()));
+                                }
+                            }
+
+                            addBulkQuerytoWriter(record.key(), partition, record.offset(), statement,
+                                    values, thread_type, dbQuery instanceof BaseAttributeQuery);
                         }
 
                     } catch (Exception ex) {
                         // ignore
+                    } finally {
+                        held_partition = null;
+                        offsetTracker.ack(partition, record.offset(), generation);
                     }
                 }
 
                 // Check writer threads
                 prev_time = checkWriterThreads(prev_time);
 
+                if (autoscalers != null && System.currentTimeMillis() - last_autoscale_time
+                                                > cfg.getAutoscale_interval_seconds() * 1000L)
+                    autoscaleWriters();
+
                 writePendingMessages();
 
+                applyFlowControl();
                 resume();
 
 
@@ -628,6 +987,177 @@ public class ConsumerRunnable implements Runnable {
         }
     }
 
+    /**
+     * Switch writers between catch-up and live mode based on the lag of bulk topics
+     *
+     *      Catch-up mode is entered when the lag is above the enter lag and left when it's below the exit lag.
+     */
+    private void checkCatchUp() {
+        last_lag_check_time = System.currentTimeMillis();
+
+        long lag = 0;
+        for (TopicPartition tp : consumer.assignment()) {
+            if (isBulkTopic(tp.topic())) {
+                OptionalLong tp_lag = consumer.currentLag(tp);
+
+                if (tp_lag.isPresent())
+                    lag += tp_lag.getAsLong();
+            }
+        }
+
+        bulk_lag = lag;
+
+        boolean new_catch_up = catch_up ? lag > cfg.getCatch_up_exit_lag() : lag > cfg.getCatch_up_enter_lag();
+
+        if (new_catch_up != catch_up) {
+            catch_up = new_catch_up;
+            logger.info("Lag of bulk topics is %d, switching writers to %s mode", lag, catch_up ? "catch-up" : "live");
+
+            for (List<WriterObject> writers : writer_thread_map.values()) {
+                for (WriterObject obj : writers)
+                    obj.setCatchUp(catch_up);
+            }
+        }
+    }
+
+    /**
+     * Drain the messages of revoked partitions
+     *
+     *      Called by the rebalance listener before the partitions are revoked.  Queued messages are sent to
+     *      the writers, and this waits until the writers have written all in-flight records of the revoked
+     *      partitions, so that their offsets can be committed.  Writers keep writing messages of the
+     *      partitions that are kept.  Messages still queued after the drain timeout are dropped and will
+     *      be consumed again by the new owner.
+     *
+     *      When the rebalance runs in a heartbeat poll, the record being processed holds its offset until
+     *      this thread returns to it.  Only its queued messages are waited for; its offset is committed
+     *      as in-flight and the record is consumed again by the new owner.
+     *
+     * @param partitions        Revoked partitions
+     */
+    void drainPartitions(Collection<TopicPartition> partitions) {
+        long start_time = System.currentTimeMillis();
+        boolean pending = true;
+
+        // Writers are already drained and shutdown when the consumer is closed
+        if (nowShutdown || !running) {
+            dropPartitions(partitions);
+            return;
+        }
+
+        // Held prefixes are written so that their offsets can be committed, and open stats rollups so
+        //      that the new owner merges the rest of the interval
+        draining = true;
+
+        if (prefixDampener != null)
+            addReleasedToWriter(prefixDampener.releasePartitions(partitions));
+
+        if (statRollup != null)
+            addRollupsToWriter(statRollup.flushPartitions(partitions));
+
+        draining = false;
+
+        while (pending && System.currentTimeMillis() - start_time < cfg.getRebalance_drain_timeout_millis()) {
+            writePendingMessages();
+
+            pending = false;
+            for (TopicPartition tp : partitions) {
+                int pending_count = tp.equals(held_partition) ? offsetTracker.getPendingCount(tp, held_offset)
+                                                              : offsetTracker.getPendingCount(tp);
+
+                if (pending_count > 0) {
+                    pending = true;
+                    break;
+                }
+            }
+
+            if (pending) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+
+        if (pending) {
+            logger.warn("Timed out draining revoked partitions after %d ms, in-flight records will be consumed again",
+                        System.currentTimeMillis() - start_time);
+        } else {
+            logger.info("Drained revoked partitions in %d ms", System.currentTimeMillis() - start_time);
+        }
+
+        dropPartitions(partitions);
+    }
+
+    /**
+     * Drop queued messages and state of partitions that are no longer assigned
+     *
+     *      Messages are dropped from the consumer queue and the writer queues.  Messages already in a
+     *      writer batch are dropped by the writer when it flushes, once the offset tracker no longer
+     *      tracks the generation of their partition.
+     *
+     * @param partitions        Revoked or lost partitions
+     */
+    void dropPartitions(Collection<TopicPartition> partitions) {
+        Set<TopicPartition> revoked = new HashSet<>(partitions);
+        int dropped = 0;
+
+        message_queue.removeIf(msg -> {
+            if (msg.partition != null && revoked.contains(msg.partition)) {
+                memoryBudget.release(msg.writer_msg.estimated_bytes);
+
+                if (offHeapBuffer != null)
+                    offHeapBuffer.free(msg.writer_msg);
+                return true;
+            }
+            return false;
+        });
+
+        for (List<WriterObject> writers : writer_thread_map.values()) {
+            for (WriterObject obj : writers)
+                dropped += obj.discard(revoked);
+        }
+
+        if (dropped > 0)
+            logger.info("Dropped %d writer queue messages of revoked partitions", dropped);
+
+        partition_writers.keySet().removeAll(revoked);
+        pausedTopics.removeAll(revoked);
+
+        if (peerRibCounter != null)
+            peerRibCounter.dropPartitions(revoked);
+
+        if (routeTable != null)
+            routeTable.dropPartitions(revoked);
+
+        // Open stats rollups of lost partitions are not written, the partitions already have a new owner
+        if (statRollup != null)
+            statRollup.flushPartitions(revoked);
+
+        // Records of the poll being processed are no longer queued for these partitions
+        revoked_partitions.addAll(revoked);
+    }
+
+    /**
+     * Refresh the router map for newly assigned partitions before their records are processed
+     *
+     *      Base attribute caches are not preloaded.  They only skip duplicate inserts, which are upserts.
+     *
+     * @param partitions        Assigned partitions
+     */
+    void warmPartitions(Collection<TopicPartition> partitions) {
+        revoked_partitions.removeAll(partitions);
+
+        for (TopicPartition tp : partitions) {
+            if (tp.topic().equals("openbmp.parsed.router") || tp.topic().equals("openbmp.parsed.peer")) {
+                // Router states may have been changed by the previous owner of the partition
+                updateRouterMap();
+                break;
+            }
+        }
+    }
+
     private void resetOneWriter(WriterObject writer, ThreadType type) {
         logger.info("Resetting writer type %s, draining queue size = %d", type.toString(), writer.writerQueue.size());
 
@@ -651,6 +1181,11 @@ public class ConsumerRunnable implements Runnable {
         writer.assigned.clear();
         writer.above_count = 0;
         writer.message_count = 0L;
+
+        for (Set<WriterObject> writers : partition_writers.values())
+            writers.remove(writer);
+
+        row_owners.values().removeIf(owner -> owner == writer);
     }
 
     private void resetWriters(ThreadType thread_type) {
@@ -676,7 +1211,7 @@ public class ConsumerRunnable implements Runnable {
         if (writers != null) {
             logger.info("Shutting down all writers for type " + thread_type);
             for (WriterObject obj : writers) {
-                obj.writerThread.shutdown();
+                obj.shutdown();
             }
         }
     }
@@ -689,9 +1224,10 @@ public class ConsumerRunnable implements Runnable {
             logger.info("Adding new writer thread for type " + thread_type);
             resetWriters(thread_type);
 
-            WriterObject obj = new WriterObject(cfg);
+            WriterObject obj = new WriterObject(cfg, topicClass);
+            obj.setCatchUp(catch_up);
             writers.add(obj);
-            executor.submit(obj.writerThread);
+            obj.start(executor);
 
             last_writer_thread_chg_time = System.currentTimeMillis();
 
@@ -755,7 +1291,7 @@ public class ConsumerRunnable implements Runnable {
             logger.info("Deleting writer thread for type = " + thread_type);
             resetWriters(thread_type);
 
-            writers.get(1).writerThread.shutdown();
+            writers.get(1).shutdown();
             writers.remove(1);
 
             logger.info("Done deleting writer thread for type = " + thread_type);
@@ -782,6 +1318,10 @@ public class ConsumerRunnable implements Runnable {
             logger.info("purged %d attributes from cache, current size is %d", processed_attr.size() - new_processed_attr.size(), new_processed_attr.size());
             processed_attr = new_processed_attr;
 
+            // Writers are sized by the autoscaler instead
+            if (autoscalers != null)
+                return System.currentTimeMillis();
+
             for (ThreadType t: ThreadType.values()) {
                 List<WriterObject> writers = writer_thread_map.get(t);
                 int i = 0;
@@ -800,11 +1340,11 @@ public class ConsumerRunnable implements Runnable {
                                 obj.above_count,
                                 obj.message_count);
 
-                        if (obj.writerQueue.size() > cfg.getWriter_queue_size() * 0.75) {
+                        if (obj.writerQueue.size() > obj.queue_capacity * 0.75) {
 
                             if (obj.above_count > cfg.getWriter_allowed_over_queue_times()) {
 
-                                if (writers.size() < cfg.getWriter_max_threads_per_type()) {
+                                if (writers.size() < topicClass.getWriter_max_threads_per_type()) {
                                     // Add new thread
                                     logger.info("Writer %s %d: assigned = %d, queue = %d, above_count = %d, threads = %d : adding new thread",
                                             t.toString(), i,
@@ -841,7 +1381,7 @@ public class ConsumerRunnable implements Runnable {
                                         writers.size());
                             }
 
-                        } else if (obj.writerQueue.size() < (cfg.getWriter_queue_size() * .20)) {
+                        } else if (obj.writerQueue.size() < (obj.queue_capacity * .20)) {
                             obj.above_count = 0;
                             threadsBelowThreshold++;
                         }
@@ -862,6 +1402,147 @@ public class ConsumerRunnable implements Runnable {
         }
     }
 
+    /**
+     * Size the writers of each thread type by the autoscaler
+     *
+     *      Writers are added without draining the other writers.  New keys are assigned to the new writers,
+     *      and the keys of the busiest writer are released after draining only its queue.  A removed writer
+     *      is drained and its keys are released.  Each decision is logged and recorded as a JFR event.
+     */
+    private void autoscaleWriters() {
+        long now = System.currentTimeMillis();
+        double interval_seconds = (now - last_autoscale_time) / 1000.0;
+        last_autoscale_time = now;
+
+        int lock_waits = getLockWaits();
+        long[] queued = getQueuedByType(message_queue);
+
+        for (ThreadType t : ThreadType.values()) {
+            List<WriterObject> writers = writer_thread_map.get(t);
+
+            WriterAutoscaler.Sample sample = new WriterAutoscaler.Sample();
+            sample.writers = writers.size();
+            sample.arrived = arrivals[t.getValue()];
+            sample.queued = queued[t.getValue()];
+            sample.lock_waits = lock_waits;
+            sample.interval_seconds = interval_seconds;
+            arrivals[t.getValue()] = 0;
+
+            for (WriterObject obj : writers) {
+                long[] stats = obj.writerThread.takeFlushStats();
+
+                sample.queued += obj.writerQueue.size();
+                sample.flushed += stats[0];
+                sample.flush_millis += stats[1];
+            }
+
+            WriterAutoscaler.Decision decision = autoscalers.get(t).decide(sample,
+                                                        topicClass.getWriter_max_threads_per_type());
+
+            WriterScaleEvent event = new WriterScaleEvent();
+            if (event.shouldCommit()) {
+                event.topicClass = topicClass.getName();
+                event.thread = index;
+                event.writers = sample.writers;
+                event.newWriters = decision.writers;
+                event.target = decision.target;
+                event.arrivalRate = decision.arrival_rate;
+                event.serviceMillis = decision.service_millis;
+                event.queued = sample.queued;
+                event.lockWaits = lock_waits;
+                event.reason = decision.reason;
+                event.commit();
+            }
+
+            if (decision.writers == sample.writers) {
+                logger.debug("Autoscale %s %d type %s: writers = %d, target = %d, arrival = %.1f/s, flush = %.2f ms/msg: %s",
+                             topicClass.getName(), index, t, sample.writers, decision.target, decision.arrival_rate,
+                             decision.service_millis, decision.reason);
+                continue;
+            }
+
+            logger.info("Autoscale %s %d type %s: writers %d -> %d, target = %d, arrival = %.1f/s, flush = %.2f ms/msg,"
+                            + " queued = %d, lock waits = %d: %s",
+                        topicClass.getName(), index, t, sample.writers, decision.writers, decision.target,
+                        decision.arrival_rate, decision.service_millis, sample.queued, lock_waits, decision.reason);
+
+            pause();
+
+            if (decision.writers > writers.size()) {
+                while (writers.size() < decision.writers) {
+                    WriterObject obj = new WriterObject(cfg, topicClass);
+                    obj.setCatchUp(catch_up);
+                    writers.add(obj);
+                    obj.start(executor);
+                }
+
+                // Keys of the busiest writer are spread to the new writers
+                WriterObject busiest = null;
+                for (WriterObject obj : writers) {
+                    if (obj.assigned.size() > 1
+                            && (busiest == null || obj.writerQueue.size() > busiest.writerQueue.size()))
+                        busiest = obj;
+                }
+
+                if (busiest != null)
+                    resetOneWriter(busiest, t);
+
+            } else {
+                // Remove the writer with the fewest queued messages, keeping the first writer
+                WriterObject idlest = null;
+                for (int i = 1; i < writers.size(); i++) {
+                    if (idlest == null || writers.get(i).writerQueue.size() < idlest.writerQueue.size())
+                        idlest = writers.get(i);
+                }
+
+                if (idlest != null) {
+                    resetOneWriter(idlest, t);
+                    idlest.shutdown();
+                    writers.remove(idlest);
+                }
+            }
+
+            resume();
+            last_writer_thread_chg_time = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Count the queued messages of each thread type, so that a writer type is only sized for its own backlog
+     *
+     * @param queue         Consumer message queue
+     *
+     * @return Array of queued messages indexed by thread type value
+     */
+    static long[] getQueuedByType(Collection<ConsumerMessageObject> queue) {
+        long[] queued = new long[ThreadType.values().length];
+
+        for (ConsumerMessageObject msg : queue) {
+            if (msg.thread_type != null)
+                queued[msg.thread_type.getValue()]++;
+        }
+
+        return queued;
+    }
+
+    /**
+     * Number of postgres sessions of the database waiting on a lock
+     */
+    private int getLockWaits() {
+        if (!db.isDbConnected())
+            db.connect();
+
+        List<Map<String, String>> rows = db.selectQuery(
+                "SELECT count(*) AS waits FROM pg_stat_activity" +
+                        " WHERE datname = current_database() AND wait_event_type = 'Lock'");
+
+        try {
+            return rows.size() > 0 ? Integer.parseInt(rows.get(0).get("waits")) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
     /**
      * Gets the writer object for message object
      *
@@ -872,9 +1553,104 @@ public class ConsumerRunnable implements Runnable {
      * @return  Returns writer object or null if error
      */
     private WriterObject getWriter(ConsumerMessageObject msg) {
+        WriterObject key_obj = getKeyWriter(msg);
+
+        if (!msg.shared_rows || key_obj == null)
+            return key_obj;
+
+        return getRowOwnerWriter(msg, key_obj);
+    }
+
+    /**
+     * Get the writer that owns the rows of a message
+     *
+     *      The lane that owns the most rows of the message is used.  If none of the rows are owned, the
+     *      writer of the message key is used.  All rows of the message are then owned by the chosen lane.
+     *
+     * @param msg           Consumer message object with shared rows
+     * @param key_obj       Writer of the message key
+     *
+     * @return  Returns writer object
+     */
+    private WriterObject getRowOwnerWriter(ConsumerMessageObject msg, WriterObject key_obj) {
+        Map<WriterObject, Integer> owners = countRowOwners(msg.row_keys, row_owners,
+                                                           writer_thread_map.get(msg.thread_type));
+
+        WriterObject cur_obj = assignRowOwner(msg.row_keys, row_owners, owners, key_obj);
+
+        if (cur_obj != key_obj) {
+            lane_conflicts_avoided++;
+            cur_obj.message_count++;
+        }
+
+        if (owners.size() > 1)
+            lane_conflicts_unavoidable++;
+
+        return cur_obj;
+    }
+
+    /**
+     * Count the rows owned by each writer
+     *
+     * @param row_keys      Row keys of the message
+     * @param row_owners    Map of row key to the writer that owns it
+     * @param writers       Current writers, owners that were removed are ignored
+     *
+     * @return  Map of writer to the number of rows it owns
+     */
+    static Map<WriterObject, Integer> countRowOwners(Collection<String> row_keys, Map<String, WriterObject> row_owners,
+                                                     List<WriterObject> writers) {
+        Map<WriterObject, Integer> owners = new HashMap<>();
+
+        for (String row_key : row_keys) {
+            WriterObject owner = row_owners.get(row_key);
+
+            if (owner != null && writers.contains(owner))
+                owners.merge(owner, 1, Integer::sum);
+        }
+
+        return owners;
+    }
+
+    /**
+     * Assign the rows of a message to the writer that owns the most of them
+     *
+     * @param row_keys      Row keys of the message
+     * @param row_owners    Map of row key to the writer that owns it, updated with the chosen writer
+     * @param owners        Rows owned by each writer, see countRowOwners()
+     * @param key_obj       Writer of the message key, used if none of the rows are owned
+     *
+     * @return  Returns the chosen writer
+     */
+    static WriterObject assignRowOwner(Collection<String> row_keys, Map<String, WriterObject> row_owners,
+                                       Map<WriterObject, Integer> owners, WriterObject key_obj) {
+        WriterObject cur_obj = key_obj;
+        int max_rows = 0;
+
+        for (Map.Entry<WriterObject, Integer> entry : owners.entrySet()) {
+            if (entry.getValue() > max_rows) {
+                max_rows = entry.getValue();
+                cur_obj = entry.getKey();
+            }
+        }
+
+        for (String row_key : row_keys)
+            row_owners.put(row_key, cur_obj);
+
+        return cur_obj;
+    }
+
+    /**
+     * Get the writer of the message key
+     *
+     * @param msg           Consumer message object
+     *
+     * @return  Returns writer object or null if error
+     */
+    private WriterObject getKeyWriter(ConsumerMessageObject msg) {
         WriterObject cur_obj = null;
 
-        int queueSizeThreshold = cfg.getWriter_queue_size() / 2;
+        int queueSizeThreshold = topicClass.getWriter_queue_size() / 2;
 
         List<WriterObject> writers = writer_thread_map.get(msg.thread_type);
 
@@ -950,7 +1726,12 @@ public class ConsumerRunnable implements Runnable {
      *      message is sent to the writer.
      */
     private void writePendingMessages() {
-        Set<WriterRunnable> busy_writers = new HashSet<>();
+        Set<WriterObject> busy_writers = new HashSet<>();
+
+        QueueHandoffEvent event = new QueueHandoffEvent();
+        event.begin();
+        int handed_off = 0;
+        int requeued = 0;
 
         /*
          * Process in FIFO order all pending messages
@@ -963,10 +1744,14 @@ public class ConsumerRunnable implements Runnable {
             while (qmsg != null && i > 0) {
                 WriterObject wobj = getWriter(qmsg);
 
+                if (qmsg.partition != null)
+                    partition_writers.computeIfAbsent(qmsg.partition, k -> new HashSet<>()).add(wobj);
+
                 // Skip any writers that are currently busy by putting the message back
                 // TODO: This can cause out or order messages - Remove/Fix/Update
-                if (busy_writers.contains(wobj.writerThread) == true) {
+                if (busy_writers.contains(wobj) == true) {
                     message_queue.offer(qmsg);
+                    requeued++;
                 }
 
                 // Try to send to writer
@@ -974,7 +1759,12 @@ public class ConsumerRunnable implements Runnable {
 
                     // failed, so mark this thread as busy
                     message_queue.offer(qmsg);
-                    busy_writers.add(wobj.writerThread);
+                    busy_writers.add(wobj);
+                    requeued++;
+
+                } else {
+                    handed_off++;
+                    arrivals[qmsg.thread_type.getValue()]++;
                 }
 
                 // Get next message and send if possible
@@ -990,51 +1780,161 @@ public class ConsumerRunnable implements Runnable {
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+
+        event.end();
+        if ((handed_off > 0 || requeued > 0) && event.shouldCommit()) {
+            event.topicClass = topicClass.getName();
+            event.messages = handed_off;
+            event.requeued = requeued;
+            event.busyWriters = busy_writers.size();
+            event.commit();
+        }
     }
 
     private void addToMsgQueue(ConsumerMessageObject msg) {
         try {
+            /*
+             * Admit to the memory budget - block if needed.  Only bulk topics are held back by the
+             *      budget so that state changes keep flowing.
+             */
+            QueueWaitEvent wait = null;
+
+            if (msg.partition != null && isBulkTopic(msg.partition.topic())) {
+                while (memoryBudget.tryAcquire(msg.writer_msg.estimated_bytes) == false) {
+                    if (wait == null) {
+                        wait = new QueueWaitEvent();
+                        wait.begin();
+                    }
+
+                    if (!draining)
+                        consumer.poll(Duration.ofMillis(0));               // NOTE: consumer is paused already.
+
+                    writePendingMessages();
+                    Thread.sleep(1);
+                }
+
+                commitQueueWait(wait, "memory_budget", msg);
+                wait = null;
+
+            } else {
+                memoryBudget.forceAcquire(msg.writer_msg.estimated_bytes);
+            }
+
             // Add msg to queue - block if needed
-            while (message_queue.offer(msg) == false) {
+            while (!isRevoked(msg) && message_queue.offer(msg) == false) {
                 //logger.warn("message queue full: %d", message_queue.size());
+                if (wait == null) {
+                    wait = new QueueWaitEvent();
+                    wait.begin();
+                }
 
-                consumer.poll(Duration.ofMillis(0));                       // NOTE: consumer is paused already.
+                if (!draining)
+                    consumer.poll(Duration.ofMillis(0));                   // NOTE: consumer is paused already.
 
                 writePendingMessages();
                 Thread.sleep(1);
             }
 
+            commitQueueWait(wait, "consumer_queue", msg);
+
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Drop a message of a partition that was revoked while it waited to be queued
+     *
+     * @return True if the message was dropped
+     */
+    private boolean isRevoked(ConsumerMessageObject msg) {
+        if (msg.partition == null || !revoked_partitions.contains(msg.partition))
+            return false;
+
+        memoryBudget.release(msg.writer_msg.estimated_bytes);
+
+        if (offHeapBuffer != null)
+            offHeapBuffer.free(msg.writer_msg);
+
+        return true;
+    }
+
+    /**
+     * Commit a queue wait flight recorder event if the consumer waited
+     */
+    private void commitQueueWait(QueueWaitEvent wait, String reason, ConsumerMessageObject msg) {
+        if (wait == null)
+            return;
+
+        wait.end();
+        if (wait.shouldCommit()) {
+            wait.topicClass = topicClass.getName();
+            wait.reason = reason;
+            wait.bytes = msg.writer_msg.estimated_bytes;
+            wait.commit();
+        }
+    }
+
     /**
      * Add bulk query to writer
      *
      * \details This method will add the bulk object to the writer.
      *
      * @param key           Message key in kafka, such as the peer hash id
+     * @param partition     Kafka partition of the message
+     * @param offset        Kafka offset of the message
      * @param statement     String array statement from Query.getInsertStatement()
      * @param values        Values string from Query.getValuesStatement()
      * @param thread_type   Type of thread to use
+     * @param shared_rows   True if the rows are shared by messages of other keys, see row_owners
      */
-    private void addBulkQuerytoWriter(String key, String [] statement, Map<String,String> values, ThreadType thread_type) {
+    private void addBulkQuerytoWriter(String key, TopicPartition partition, long offset, String [] statement,
+                                      Map<String,String> values, ThreadType thread_type, boolean shared_rows) {
+        addBulkQuerytoWriter(key, partition, offset, statement, values, thread_type, shared_rows, null);
+    }
+
+    /**
+     * Add bulk query to writer
+     *
+     * @param on_written    Called by the writer once the message is written, null if none
+     *
+     * @see #addBulkQuerytoWriter(String, TopicPartition, long, String[], Map, ThreadType, boolean)
+     */
+    private void addBulkQuerytoWriter(String key, TopicPartition partition, long offset, String [] statement,
+                                      Map<String,String> values, ThreadType thread_type, boolean shared_rows,
+                                      Runnable on_written) {
         Map<String, String> query = new HashMap<>();
 
         try {
-            if (values.size() > 0) {
+            if (values.size() > 0 && (partition == null || !revoked_partitions.contains(partition))) {
                 WriterQueueMsg wmsg = new WriterQueueMsg();
 
                 wmsg.prefix = statement[0];
                 wmsg.suffix = statement[1];
                 wmsg.values = values;
 
+                // Values are moved off-heap until the writer takes the message
+                boolean packed = offHeapBuffer != null && offHeapBuffer.pack(wmsg);
+
+                wmsg.estimated_bytes = MemoryBudget.estimate(wmsg);
+
+                wmsg.offsetTracker = offsetTracker;
+                wmsg.partition = partition;
+                wmsg.offset = offset;
+                wmsg.on_written = on_written;
+                wmsg.generation = offsetTracker.add(partition, offset);
+
                 // block if space is not available
                 ConsumerMessageObject msg = new ConsumerMessageObject();
                 msg.key = key;
                 msg.writer_msg = wmsg;
                 msg.thread_type = thread_type;
+                msg.partition = partition;
+                msg.shared_rows = shared_rows;
+
+                // Row keys are kept on the heap to find the row owner lane
+                if (shared_rows)
+                    msg.row_keys = packed ? new ArrayList<>(values.keySet()) : values.keySet();
 
               addToMsgQueue(msg);
             }
@@ -1044,6 +1944,100 @@ public class ConsumerRunnable implements Runnable {
 
     }
 
+    /**
+     * Write the held prefixes and flap summaries of dampening windows that ended
+     *
+     *      Partitions are paused while the records are queued, like when processing a poll.
+     */
+    private void expireDampened() {
+        last_dampening_check_time = System.currentTimeMillis();
+
+        Collection<PrefixDampener.Release> releases = prefixDampener.expire(last_dampening_check_time);
+
+        if (releases.isEmpty())
+            return;
+
+        pause();
+        addReleasedToWriter(releases);
+        resume();
+    }
+
+    /**
+     * Add records released by the dampener to the writers
+     *
+     *      The writer messages reference the lowest offset of each release before the held
+     *      offsets are acknowledged.
+     */
+    private void addReleasedToWriter(Collection<PrefixDampener.Release> releases) {
+        for (PrefixDampener.Release release : releases) {
+            UnicastPrefixQuery prefixQuery = new UnicastPrefixQuery(release.records);
+            addBulkQuerytoWriter(release.key, release.partition, release.offset, prefixQuery.genInsertStatement(),
+                    prefixQuery.genValuesStatement(), ThreadType.THREAD_DEFAULT, false);
+
+            PrefixFlapQuery flapQuery = new PrefixFlapQuery(release.flaps);
+            addBulkQuerytoWriter(release.key, release.partition, release.offset, flapQuery.genInsertStatement(),
+                    flapQuery.genValuesStatement(), ThreadType.THREAD_DEFAULT, false);
+
+            prefixDampener.ack(release);
+        }
+    }
+
+    /**
+     * Add the open stats rollups flushed on revoke or shutdown to the writer queue
+     */
+    private void addRollupsToWriter(Collection<StatRollup.Flush> flushes) {
+        for (StatRollup.Flush flush : flushes) {
+            for (StatRollupQuery rollupQuery : flush.queries) {
+                addBulkQuerytoWriter(flush.key, flush.partition, flush.offset, rollupQuery.genInsertStatement(),
+                        rollupQuery.genValuesStatement(), ThreadType.THREAD_DEFAULT, false);
+            }
+        }
+    }
+
+    /**
+     * Run update query directly in the consumer thread
+     *
+     *      Used for collector, router and peer state changes.  Waits for postgres to reconnect if
+     *      unavailable, so that the offset does not advance past the change.
+     *
+     * @param query         Query string to run
+     */
+    private void updateQueryDirect(String query) {
+        while (!db.updateQuery(query, cfg.getDb_retries()) && !db.isDbConnected() && !nowShutdown) {
+            consumer.poll(Duration.ofMillis(0));                       // heartbeat, consumer is paused already.
+        }
+    }
+
+    /**
+     * Commit offsets of records that have been written to postgres or journaled
+     *
+     * @param sync      True to commit synchronously
+     */
+    private void commitOffsets(boolean sync) {
+        last_commit_time = System.currentTimeMillis();
+
+        if (consumer == null)
+            return;
+
+        Map<TopicPartition, OffsetAndMetadata> offsets = offsetTracker.getCommittable(consumer.assignment());
+
+        if (offsets.isEmpty())
+            return;
+
+        try {
+            if (sync) {
+                consumer.commitSync(offsets);
+            } else {
+                consumer.commitAsync(offsets, (committed, ex) -> {
+                    if (ex != null)
+                        logger.warn("Failed to commit offsets: %s", ex.getMessage());
+                });
+            }
+        } catch (KafkaException ex) {
+            logger.warn("Failed to commit offsets: %s", ex.getMessage());
+        }
+    }
+
     /**
      * Method will subscribe to pending topics
      *
@@ -1058,7 +2052,7 @@ public class ConsumerRunnable implements Runnable {
 
             if ((System.currentTimeMillis() - prev_timestamp) >= cfg.getTopic_subscribe_delay_millis()) {
 
-                consumer.commitSync();
+                commitOffsets(true);
 
                 if (topics_subscribed_count > 0)
                     topic_regex_pattern.append('|');
@@ -1104,6 +2098,37 @@ public class ConsumerRunnable implements Runnable {
 
         return qSize;
     }
+    public String getTopicClassName() {
+        return topicClass.getName();
+    }
+
+    public boolean isCatch_up() {
+        return catch_up;
+    }
+
+    public long getBulk_lag() {
+        return bulk_lag;
+    }
+
+    public int getPaused_partition_count() {
+        return pausedTopics.size();
+    }
+
+    public long getLane_conflicts_avoided() {
+        return lane_conflicts_avoided;
+    }
+
+    /**
+     * Dampener of this thread, null if dampening is disabled
+     */
+    public PrefixDampener getPrefixDampener() {
+        return prefixDampener;
+    }
+
+    public long getLane_conflicts_unavoidable() {
+        return lane_conflicts_unavoidable;
+    }
+
     public synchronized Long getLast_collector_msg_time() { return last_collector_msg_time; }
 
     public long getCollector_msg_count() {
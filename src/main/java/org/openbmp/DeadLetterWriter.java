@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dead letter file of rejected rows
+ *
+ *      Rows that postgres rejects, after retries, are written to the dead letter file
+ *      instead of being dropped.  Each line is a JSON object with the Kafka coordinates of the
+ *      record, the SQLState and error, and a single row statement that can be replayed once the
+ *      cause is fixed.  The file is rotated to a single backup (.1) when above the max size.
+ */
+public class DeadLetterWriter {
+    private static final Logger logger = LogManager.getFormatterLogger(DeadLetterWriter.class.getName());
+
+    private static DeadLetterWriter instance = null;
+
+    private final File file;
+    private final long max_bytes;
+    private final ObjectMapper mapper;
+    private final AtomicLong count;                             // Number of dead letters written
+
+    private Writer out;
+    private long file_bytes;
+
+    //Turns this class to a singleton
+    public static synchronized DeadLetterWriter getInstance() {
+        if (instance == null) {
+            Config cfg = Config.getInstance();
+            instance = new DeadLetterWriter(new File(cfg.getDead_letter_file()), cfg.getDead_letter_max_bytes());
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param file          Dead letter file, appended to if it exists
+     * @param max_bytes     Size in bytes to rotate the file
+     */
+    DeadLetterWriter(File file, long max_bytes) {
+        this.file = file;
+        this.max_bytes = max_bytes;
+        mapper = new ObjectMapper();
+        count = new AtomicLong(0);
+    }
+
+    /**
+     * Write a rejected statement to the dead letter file
+     *
+     * @param msg           Writer message of the row, null if not known
+     * @param sql_state     SQLState of the failure
+     * @param error         Error message of the failure
+     * @param query         Statement that was rejected
+     */
+    public synchronized void write(WriterQueueMsg msg, String sql_state, String error, String query) {
+        ObjectNode node = mapper.createObjectNode();
+
+        node.put("timestamp", System.currentTimeMillis());
+
+        if (msg != null && msg.partition != null) {
+            node.put("topic", msg.partition.topic());
+            node.put("partition", msg.partition.partition());
+            node.put("offset", msg.offset);
+        }
+
+        node.put("sql_state", sql_state);
+        node.put("error", error);
+        node.put("query", query);
+
+        count.incrementAndGet();
+
+        try {
+            if (out == null || file_bytes > max_bytes)
+                open();
+
+            String line = mapper.writeValueAsString(node) + "\n";
+            out.write(line);
+            out.flush();
+
+            file_bytes += line.getBytes(StandardCharsets.UTF_8).length;
+
+        } catch (IOException e) {
+            logger.error("Failed to write dead letter to %s: %s", file.getPath(), e.getMessage());
+            logger.error("Dead letter: %s", node.toString());
+        }
+    }
+
+    private void open() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+
+            File backup = new File(file.getPath() + ".1");
+            backup.delete();
+
+            if (!file.renameTo(backup))
+                logger.warn("Unable to rotate dead letter file %s", file.getPath());
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory())
+            parent.mkdirs();
+
+        out = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+        file_bytes = file.length();
+    }
+
+    /**
+     * Number of dead letters written since start
+     */
+    public long getCount() {
+        return count.get();
+    }
+}
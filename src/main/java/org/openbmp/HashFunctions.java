@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+/**
+ * Non-cryptographic hash functions
+ */
+public final class HashFunctions {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private HashFunctions() {
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the characters of a string
+     */
+    public static long fnv1a64(CharSequence s) {
+        long h = FNV_OFFSET;
+
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= FNV_PRIME;
+        }
+
+        return h;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Link-state change detection cache
+ *
+ *      IGP refresh floods re-advertise unchanged LSAs with the same sequence number.  Each upsert
+ *      of an unchanged ls_nodes, ls_links or ls_prefixes row still runs the update trigger and
+ *      writes a *_log row.  The cache holds the last sequence number and a digest of the attributes
+ *      of each (hash_id, peer_hash_id) so that unchanged records are dropped before they are sent to
+ *      the writers.
+ *
+ *      The cache is shared by all consumer threads.  Entries are evicted least recently used and
+ *      expire after a max age, so rows are rewritten periodically even if unchanged.  This bounds
+ *      how long the table can differ from the cache, such as after a failed write.
+ */
+public class LinkStateCache {
+
+    private static class Entry {
+        Long seq;
+        long digest;
+        long updated;
+    }
+
+    private final Map<String, Entry> entries;
+    private final long max_age_millis;
+
+    private long hits;                          // Unchanged records dropped
+    private long misses;                        // New or changed records
+
+    /**
+     * Constructor
+     *
+     * @param max_size          Max number of records to cache
+     * @param max_age_seconds   Seconds after which a cached record is treated as changed
+     */
+    public LinkStateCache(final int max_size, int max_age_seconds) {
+        max_age_millis = max_age_seconds * 1000L;
+
+        entries = new LinkedHashMap<String, Entry>(1024, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > max_size;
+            }
+        };
+    }
+
+    /**
+     * Check if a record changed and update the cache
+     *
+     * @param hash_id       Hash of the node, link or prefix
+     * @param peer_hash_id  Hash of the peer
+     * @param seq           BGP-LS sequence number
+     * @param attrs         Attributes of the record, including the withdrawn flag but not the timestamp
+     *
+     * @return True if the record is new or changed and should be written, false if unchanged
+     */
+    public boolean update(String hash_id, String peer_hash_id, Long seq, CharSequence attrs) {
+        long digest = digest(attrs);
+        long now = System.currentTimeMillis();
+
+        String key = hash_id + '|' + peer_hash_id;
+
+        synchronized (this) {
+            Entry entry = entries.get(key);
+
+            if (entry != null && Objects.equals(entry.seq, seq) && entry.digest == digest
+                    && now - entry.updated < max_age_millis) {
+                hits++;
+                return false;
+            }
+
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+
+            entry.seq = seq;
+            entry.digest = digest;
+            entry.updated = now;
+
+            misses++;
+            return true;
+        }
+    }
+
+    /**
+     * Remove cached records of a peer, such as when the peer goes down
+     */
+    public synchronized void removePeer(String peer_hash_id) {
+        String suffix = '|' + peer_hash_id;
+        entries.keySet().removeIf(key -> key.endsWith(suffix));
+    }
+
+    /**
+     * 64-bit FNV-1a digest
+     */
+    static long digest(CharSequence attrs) {
+        return HashFunctions.fnv1a64(attrs);
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
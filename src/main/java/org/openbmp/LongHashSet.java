@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Compact set of long values
+ *
+ *      Open addressing with linear probing in a primitive array, about 13 bytes per value at the
+ *      max load, instead of the ~50 bytes of a HashSet<Long>.  Zero is stored as a separate flag.
+ *      Not thread safe.
+ */
+public class LongHashSet {
+    private static final float MAX_LOAD = 0.65f;
+
+    private long[] slots;
+    private int size;
+    private boolean has_zero;
+
+    public LongHashSet() {
+        this(16);
+    }
+
+    public LongHashSet(int expected) {
+        int capacity = 16;
+        while (capacity * MAX_LOAD < expected)
+            capacity <<= 1;
+
+        slots = new long[capacity];
+    }
+
+    /**
+     * Add a value
+     *
+     * @return True if added, false if already in the set
+     */
+    public boolean add(long value) {
+        if (value == 0) {
+            if (has_zero)
+                return false;
+
+            has_zero = true;
+            size++;
+            return true;
+        }
+
+        if (size + 1 > slots.length * MAX_LOAD)
+            resize(slots.length << 1);
+
+        int mask = slots.length - 1;
+        int idx = mix(value) & mask;
+
+        while (slots[idx] != 0) {
+            if (slots[idx] == value)
+                return false;
+
+            idx = (idx + 1) & mask;
+        }
+
+        slots[idx] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * Remove a value
+     *
+     * @return True if removed, false if not in the set
+     */
+    public boolean remove(long value) {
+        if (value == 0) {
+            if (!has_zero)
+                return false;
+
+            has_zero = false;
+            size--;
+            return true;
+        }
+
+        int mask = slots.length - 1;
+        int idx = mix(value) & mask;
+
+        while (slots[idx] != value) {
+            if (slots[idx] == 0)
+                return false;
+
+            idx = (idx + 1) & mask;
+        }
+
+        // Shift back following entries of the probe sequence to fill the gap
+        int gap = idx;
+        idx = (idx + 1) & mask;
+
+        while (slots[idx] != 0) {
+            int home = mix(slots[idx]) & mask;
+
+            if (((idx - home) & mask) >= ((idx - gap) & mask)) {
+                slots[gap] = slots[idx];
+                gap = idx;
+            }
+
+            idx = (idx + 1) & mask;
+        }
+
+        slots[gap] = 0;
+        size--;
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == 0)
+            return has_zero;
+
+        int mask = slots.length - 1;
+        int idx = mix(value) & mask;
+
+        while (slots[idx] != 0) {
+            if (slots[idx] == value)
+                return true;
+
+            idx = (idx + 1) & mask;
+        }
+
+        return false;
+    }
+
+    /**
+     * Call the action for each value, in no particular order
+     */
+    public void forEach(LongConsumer action) {
+        if (has_zero)
+            action.accept(0);
+
+        for (long value : slots) {
+            if (value != 0)
+                action.accept(value);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        slots = new long[16];
+        size = 0;
+        has_zero = false;
+    }
+
+    private void resize(int capacity) {
+        long[] prev = slots;
+        slots = new long[capacity];
+
+        int mask = capacity - 1;
+
+        for (long value : prev) {
+            if (value == 0)
+                continue;
+
+            int idx = mix(value) & mask;
+            while (slots[idx] != 0)
+                idx = (idx + 1) & mask;
+
+            slots[idx] = value;
+        }
+    }
+
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded route lookup HTTP API, answered from the in-memory route table
+ *
+ *      GET  /lookup?ip=<address or prefix>[&peer=<peer hash>]
+ *                                          Longest prefix match of each peer
+ *      GET  /covering?prefix=<address or prefix>[&peer=<peer hash>]
+ *                                          All covering prefixes of each peer, least specific first
+ *      GET  /origins?ip=<address or prefix>
+ *                                          Origin ASNs of the longest prefix matches, with peer counts
+ *      GET  /stats                         Peers and routes in the route table
+ *
+ *      Lookups do not query the database.  Routes of a peer are complete once the peer is seeded
+ *      from ip_rib, which is reported as seeded in the response.
+ */
+public class LookupServer {
+    private static final Logger logger = LogManager.getFormatterLogger(LookupServer.class.getName());
+
+    private final RouteTable routeTable;
+    private final ObjectMapper mapper;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Constructor
+     *
+     * @param routeTable    Route table to answer lookups from
+     */
+    public LookupServer(RouteTable routeTable) {
+        this.routeTable = routeTable;
+        mapper = new ObjectMapper();
+    }
+
+    /**
+     * Start the HTTP server
+     */
+    public void start(String bind_address, int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(bind_address, port), 0);
+        server.createContext("/lookup", exchange -> handle(exchange, "ip"));
+        server.createContext("/covering", exchange -> handle(exchange, "prefix"));
+        server.createContext("/origins", exchange -> handle(exchange, "ip"));
+        server.createContext("/stats", exchange -> handle(exchange, null));
+        executor = Executors.newFixedThreadPool(2);
+        server.setExecutor(executor);
+        server.start();
+
+        logger.info("Route lookup API listening on %s:%d", bind_address, port);
+    }
+
+    /**
+     * Stop the HTTP server
+     */
+    public void shutdown() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    private void handle(HttpExchange exchange, String param) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("GET")) {
+                respond(exchange, 405, error("method not allowed"));
+                return;
+            }
+
+            String path = exchange.getHttpContext().getPath();
+
+            if (param == null) {
+                ObjectNode node = mapper.createObjectNode();
+                node.put("peers", routeTable.getPeerCount());
+                node.put("routes", routeTable.getRouteCount());
+                respond(exchange, 200, node);
+                return;
+            }
+
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            String prefix = params.get(param);
+
+            if (prefix == null || prefix.isEmpty()) {
+                respond(exchange, 400, error("missing " + param));
+                return;
+            }
+
+            ObjectNode root = mapper.createObjectNode();
+            root.put(param, prefix);
+
+            try {
+                if (path.equals("/origins")) {
+                    ObjectNode origins = root.putObject("origins");
+
+                    for (Map.Entry<Long, Integer> origin : routeTable.origins(prefix).entrySet())
+                        origins.put(String.valueOf(origin.getKey()), origin.getValue());
+
+                } else {
+                    String peer = params.get("peer");
+                    List<RouteTable.Match> matches = path.equals("/lookup") ? routeTable.lookup(prefix, peer)
+                                                                            : routeTable.covering(prefix, peer);
+
+                    addMatches(root.putArray("routes"), matches);
+                }
+
+            } catch (IllegalArgumentException ex) {
+                respond(exchange, 400, error(ex.getMessage()));
+                return;
+            }
+
+            respond(exchange, 200, root);
+
+        } catch (Exception ex) {
+            logger.warn("Route lookup API request failed: ", ex);
+            respond(exchange, 500, error(ex.getMessage()));
+
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void addMatches(ArrayNode routes, List<RouteTable.Match> matches) {
+        for (RouteTable.Match match : matches) {
+            ObjectNode node = routes.addObject();
+
+            node.put("peer_hash_id", match.peer_hash_id);
+            node.put("seeded", routeTable.isSeeded(match.peer_hash_id));
+            node.put("prefix", match.prefix);
+            node.put("origin_as", match.route.origin_as);
+            node.put("as_path", match.route.as_path);
+            node.put("next_hop", match.route.next_hop);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> params = new LinkedHashMap<>();
+
+        if (query == null || query.isEmpty())
+            return params;
+
+        for (String pair : query.split("&")) {
+            int idx = pair.indexOf('=');
+
+            if (idx > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, idx), "UTF-8"),
+                           URLDecoder.decode(pair.substring(idx + 1), "UTF-8"));
+            }
+        }
+
+        return params;
+    }
+
+    private ObjectNode error(String message) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("error", message);
+        return node;
+    }
+
+    private void respond(HttpExchange exchange, int status, ObjectNode body) throws IOException {
+        byte[] bytes = (mapper.writerWithDefaultPrettyPrinter().writeValueAsString(body) + "\n")
+                            .getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
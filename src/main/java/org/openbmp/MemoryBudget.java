@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide memory budget of queued writer messages
+ *
+ *      Writer messages are accounted by estimated bytes from the time they are added to the consumer
+ *      queue until the writer has flushed them to the DB.  Bulk messages are only admitted when they
+ *      fit in the budget, which bounds the heap used by the consumer and writer queues and the writer
+ *      batch buffers regardless of the message sizes.
+ */
+public class MemoryBudget {
+    private static MemoryBudget instance = null;
+
+    // Estimated overhead of a message (queue node, message object and values map)
+    private static final int MSG_OVERHEAD_BYTES = 160;
+
+    // Estimated overhead per value entry (map node, two string objects and their arrays)
+    private static final int ENTRY_OVERHEAD_BYTES = 112;
+
+    // Estimated overhead of values packed off-heap (packed object and page array) and per page
+    private static final int PACKED_OVERHEAD_BYTES = 48;
+    private static final int PAGE_OVERHEAD_BYTES = 8;
+
+    private final long limit;
+    private final AtomicLong used;
+
+    //Turns this class to a singleton
+    public static synchronized MemoryBudget getInstance() {
+        if (instance == null) {
+            instance = new MemoryBudget(Config.getInstance().getMemory_budget_bytes());
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param limit     Budget in bytes
+     */
+    MemoryBudget(long limit) {
+        this.limit = limit;
+        used = new AtomicLong(0);
+    }
+
+    /**
+     * Estimate the heap bytes of a writer message
+     */
+    public static long estimate(WriterQueueMsg msg) {
+        long bytes = MSG_OVERHEAD_BYTES;
+
+        if (msg.values != null) {
+            for (Map.Entry<String, String> entry : msg.values.entrySet()) {
+                bytes += ENTRY_OVERHEAD_BYTES + entry.getKey().length() + entry.getValue().length();
+            }
+        } else if (msg.packed != null) {
+            bytes += PACKED_OVERHEAD_BYTES + msg.packed.pages.length * PAGE_OVERHEAD_BYTES;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Acquire bytes if they fit in the budget.  A request is always admitted if nothing is held, so
+     *      that a message larger than the budget cannot block forever.
+     *
+     * @return True if acquired, false if the budget is exceeded
+     */
+    public boolean tryAcquire(long bytes) {
+        while (true) {
+            long cur = used.get();
+
+            if (cur > 0 && cur + bytes > limit)
+                return false;
+
+            if (used.compareAndSet(cur, cur + bytes))
+                return true;
+        }
+    }
+
+    /**
+     * Acquire bytes without checking the budget
+     */
+    public void forceAcquire(long bytes) {
+        used.addAndGet(bytes);
+    }
+
+    /**
+     * Release bytes back to the budget
+     */
+    public void release(long bytes) {
+        used.addAndGet(-bytes);
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    public double getUsedPercent() {
+        return used.get() * 100.0 / limit;
+    }
+}
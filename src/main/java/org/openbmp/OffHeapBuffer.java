@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Off-heap buffer of queued writer message values
+ *
+ *      The values of a writer message are serialized, optionally LZ4 compressed, and stored in
+ *      fixed size pages of direct memory while the message is queued.  The writer decodes the values
+ *      when it takes the message from its queue.  A queued message then only holds a few objects on
+ *      the heap, so that ingest spikes do not inflate the heap and GC pauses.
+ *
+ *      Pages are allocated in slabs up to the max size and are reused; they are not returned to the
+ *      OS.  Messages that don't fit are kept on the heap and are accounted by the memory budget as
+ *      before.  The max size counts against -XX:MaxDirectMemorySize.
+ *
+ *      Messages are packed by consumer threads and unpacked by writer threads, so page allocation
+ *      is synchronized.
+ */
+public class OffHeapBuffer {
+    static final int PAGE_SIZE = 64 * 1024;
+    private static final int SLAB_PAGES = 256;                  // 16 MB per direct allocation
+
+    private static OffHeapBuffer instance = null;
+
+    /**
+     * Packed values of a message
+     */
+    static class Packed {
+        final ByteBuffer[] pages;
+        final int length;                                       // Bytes stored in the pages
+        final int raw_length;                                   // Bytes before compression
+        final boolean compressed;
+
+        Packed(ByteBuffer[] pages, int length, int raw_length, boolean compressed) {
+            this.pages = pages;
+            this.length = length;
+            this.raw_length = raw_length;
+            this.compressed = compressed;
+        }
+    }
+
+    /**
+     * Byte array output stream that exposes its buffer, to avoid a copy
+     */
+    private static class Bytes extends ByteArrayOutputStream {
+        Bytes(int size) {
+            super(size);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        void writeInt(int v) {
+            write(v >>> 24); write(v >>> 16); write(v >>> 8); write(v);
+        }
+
+        void writeString(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            writeInt(b.length);
+            write(b, 0, b.length);
+        }
+    }
+
+    private final int max_pages;
+    private final LZ4Compressor compressor;                     // Null if not compressed
+    private final LZ4FastDecompressor decompressor;
+
+    private final ArrayDeque<ByteBuffer> free_pages;
+    private int allocated_pages;
+    private int used_pages;
+
+    private long packed_count;                                  // Messages packed
+    private long full_count;                                    // Messages kept on the heap, buffer was full
+    private long raw_bytes;                                     // Serialized bytes of the packed messages
+    private long stored_bytes;                                  // Stored bytes of the packed messages
+
+    //Turns this class to a singleton
+    public static synchronized OffHeapBuffer getInstance() {
+        if (instance == null) {
+            Config cfg = Config.getInstance();
+            instance = new OffHeapBuffer(cfg.getOff_heap_max_bytes(), cfg.getOff_heap_compress());
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param max_bytes     Max direct memory to allocate
+     * @param compress      LZ4 compress the values
+     */
+    OffHeapBuffer(long max_bytes, boolean compress) {
+        max_pages = (int) Math.min(Integer.MAX_VALUE, max_bytes / PAGE_SIZE);
+
+        if (compress) {
+            LZ4Factory factory = LZ4Factory.fastestInstance();
+            compressor = factory.fastCompressor();
+            decompressor = factory.fastDecompressor();
+        } else {
+            compressor = null;
+            decompressor = null;
+        }
+
+        free_pages = new ArrayDeque<>();
+    }
+
+    /**
+     * Move the values of a message off-heap
+     *
+     * @param msg       Writer message with values, values are set to null if packed
+     *
+     * @return True if packed, false if the buffer is full and the values are kept on the heap
+     */
+    public boolean pack(WriterQueueMsg msg) {
+        Bytes out = new Bytes(256 * msg.values.size());
+
+        out.writeInt(msg.values.size());
+        for (Map.Entry<String, String> entry : msg.values.entrySet()) {
+            out.writeString(entry.getKey());
+            out.writeString(entry.getValue());
+        }
+
+        byte[] data = out.buffer();
+        int raw_length = out.size();
+        int length = raw_length;
+
+        if (compressor != null) {
+            byte[] compressed = new byte[compressor.maxCompressedLength(raw_length)];
+            length = compressor.compress(data, 0, raw_length, compressed, 0, compressed.length);
+            data = compressed;
+        }
+
+        ByteBuffer[] pages = allocate((length + PAGE_SIZE - 1) / PAGE_SIZE);
+
+        if (pages == null)
+            return false;
+
+        for (int i = 0, off = 0; i < pages.length; i++, off += PAGE_SIZE) {
+            ByteBuffer page = pages[i].duplicate();
+
+            // Called as Buffer methods, which JDK 9+ overrides with ByteBuffer returns missing on Java 8
+            ((Buffer) page).clear();
+            page.put(data, off, Math.min(PAGE_SIZE, length - off));
+        }
+
+        msg.packed = new Packed(pages, length, raw_length, compressor != null);
+        msg.values = null;
+
+        synchronized (this) {
+            packed_count++;
+            raw_bytes += raw_length;
+            stored_bytes += length;
+        }
+
+        return true;
+    }
+
+    /**
+     * Restore the values of a packed message and free its pages
+     *
+     * @param msg       Writer message, values are set if packed
+     */
+    public void unpack(WriterQueueMsg msg) {
+        Packed packed = msg.packed;
+
+        if (packed == null)
+            return;
+
+        byte[] data = new byte[packed.length];
+
+        for (int i = 0, off = 0; i < packed.pages.length; i++, off += PAGE_SIZE) {
+            ByteBuffer page = packed.pages[i].duplicate();
+            ((Buffer) page).clear();
+            page.get(data, off, Math.min(PAGE_SIZE, packed.length - off));
+        }
+
+        free(msg);
+
+        if (packed.compressed) {
+            byte[] raw = new byte[packed.raw_length];
+            decompressor.decompress(data, 0, raw, 0, packed.raw_length);
+            data = raw;
+        }
+
+        ByteBuffer in = ByteBuffer.wrap(data);
+        int count = in.getInt();
+        Map<String, String> values = new HashMap<>((int) (count / 0.75f) + 1);
+
+        for (int i = 0; i < count; i++)
+            values.put(readString(in, data), readString(in, data));
+
+        msg.values = values;
+    }
+
+    /**
+     * Free the pages of a packed message, such as when it is dropped
+     */
+    public synchronized void free(WriterQueueMsg msg) {
+        if (msg.packed == null)
+            return;
+
+        for (ByteBuffer page : msg.packed.pages)
+            free_pages.push(page);
+
+        used_pages -= msg.packed.pages.length;
+        msg.packed = null;
+    }
+
+    public synchronized long getUsed_bytes() {
+        return (long) used_pages * PAGE_SIZE;
+    }
+
+    public synchronized long getAllocated_bytes() {
+        return (long) allocated_pages * PAGE_SIZE;
+    }
+
+    public synchronized long getPacked_count() {
+        return packed_count;
+    }
+
+    public synchronized long getFull_count() {
+        return full_count;
+    }
+
+    /**
+     * Ratio of the serialized bytes to the stored bytes of packed messages
+     */
+    public synchronized double getCompression_ratio() {
+        return stored_bytes > 0 ? (double) raw_bytes / stored_bytes : 1.0;
+    }
+
+    private synchronized ByteBuffer[] allocate(int count) {
+        if (used_pages + count > max_pages) {
+            full_count++;
+            return null;
+        }
+
+        while (free_pages.size() < count) {
+            int slab_pages = Math.min(SLAB_PAGES, max_pages - allocated_pages);
+            ByteBuffer slab = ByteBuffer.allocateDirect(slab_pages * PAGE_SIZE);
+
+            for (int i = 0; i < slab_pages; i++) {
+                ((Buffer) slab).limit((i + 1) * PAGE_SIZE);
+                ((Buffer) slab).position(i * PAGE_SIZE);
+                free_pages.push(slab.slice());
+            }
+
+            allocated_pages += slab_pages;
+        }
+
+        ByteBuffer[] pages = new ByteBuffer[count];
+
+        for (int i = 0; i < count; i++)
+            pages[i] = free_pages.pop();
+
+        used_pages += count;
+        return pages;
+    }
+
+    private static String readString(ByteBuffer in, byte[] data) {
+        int length = in.getInt();
+        String s = new String(data, in.position(), length, StandardCharsets.UTF_8);
+        ((Buffer) in).position(in.position() + length);
+        return s;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tracks in-flight Kafka offsets per partition
+ *
+ *      An offset is in-flight from the time the record is consumed until all the writer messages
+ *      generated from it are committed to the DB or journaled.  The committable offset of a partition
+ *      is the lowest in-flight offset, or the next offset after the highest consumed if none are
+ *      in-flight.
+ *
+ *      Each assignment of a partition has its own generation.  References are released with the
+ *      generation they were added in, so that acks of messages from before a revoke do not release
+ *      references of the records consumed again after the partition is reassigned.
+ *
+ *      Writers acknowledge offsets from their own threads, so all methods are synchronized.
+ */
+public class OffsetTracker {
+
+    private static class PartitionOffsets {
+        final int generation;                                     // Assignment generation of the partition
+        final TreeMap<Long, Integer> pending = new TreeMap<>();   // In-flight offset to reference count
+        long next_offset = -1;                                    // Offset after the highest consumed
+        long committed_offset = -1;                               // Last offset returned to commit
+
+        PartitionOffsets(int generation) {
+            this.generation = generation;
+        }
+    }
+
+    private final Map<TopicPartition, PartitionOffsets> partitions;
+    private int generations;                                      // Last assignment generation
+
+    public OffsetTracker() {
+        partitions = new HashMap<>();
+    }
+
+    /**
+     * Add a reference to an in-flight offset
+     *
+     * @return Generation of the partition, to release the reference with
+     */
+    public synchronized int add(TopicPartition partition, long offset) {
+        PartitionOffsets po = partitions.computeIfAbsent(partition, k -> new PartitionOffsets(++generations));
+
+        po.pending.merge(offset, 1, Integer::sum);
+        po.next_offset = Math.max(po.next_offset, offset + 1);
+        return po.generation;
+    }
+
+    /**
+     * Release a reference to an in-flight offset.  Offsets of partitions that are no longer
+     *      tracked, such as revoked partitions, or tracked by a later generation are ignored.
+     */
+    public synchronized void ack(TopicPartition partition, long offset, int generation) {
+        PartitionOffsets po = partitions.get(partition);
+
+        if (po == null || po.generation != generation)
+            return;
+
+        Integer count = po.pending.get(offset);
+
+        if (count == null)
+            return;
+
+        if (count <= 1)
+            po.pending.remove(offset);
+        else
+            po.pending.put(offset, count - 1);
+    }
+
+    /**
+     * Check if a reference is of the current generation of its partition
+     *
+     * @return False if the partition was revoked since the reference was added
+     */
+    public synchronized boolean isCurrent(TopicPartition partition, int generation) {
+        PartitionOffsets po = partitions.get(partition);
+
+        return po != null && po.generation == generation;
+    }
+
+    /**
+     * Number of in-flight offsets of a partition
+     */
+    public synchronized int getPendingCount(TopicPartition partition) {
+        PartitionOffsets po = partitions.get(partition);
+
+        return po != null ? po.pending.size() : 0;
+    }
+
+    /**
+     * Number of in-flight offsets of a partition, not counting the reference held by the consumer on the
+     *      record it is processing.  The offset of the record is counted if writer messages reference it.
+     *
+     * @param held_offset   Offset of the record being processed
+     */
+    public synchronized int getPendingCount(TopicPartition partition, long held_offset) {
+        PartitionOffsets po = partitions.get(partition);
+
+        if (po == null)
+            return 0;
+
+        Integer count = po.pending.get(held_offset);
+
+        return count != null && count <= 1 ? po.pending.size() - 1 : po.pending.size();
+    }
+
+    /**
+     * Get the offsets that can be committed and have changed since the last call
+     *
+     * @param assigned      Partitions to get offsets for
+     *
+     * @return Map of offsets to commit, empty if none changed
+     */
+    public synchronized Map<TopicPartition, OffsetAndMetadata> getCommittable(Collection<TopicPartition> assigned) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+
+        for (TopicPartition tp : assigned) {
+            PartitionOffsets po = partitions.get(tp);
+
+            if (po == null || po.next_offset < 0)
+                continue;
+
+            long offset = po.pending.isEmpty() ? po.next_offset : po.pending.firstKey();
+
+            if (offset > po.committed_offset) {
+                po.committed_offset = offset;
+                offsets.put(tp, new OffsetAndMetadata(offset));
+            }
+        }
+
+        return offsets;
+    }
+
+    /**
+     * Stop tracking partitions, such as on revoke
+     */
+    public synchronized void remove(Collection<TopicPartition> revoked) {
+        for (TopicPartition tp : revoked)
+            partitions.remove(tp);
+    }
+}
@@ -11,10 +11,21 @@ package org.openbmp;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-
+import org.openbmp.jfr.DbCommitEvent;
+import org.openbmp.jfr.DbExecuteEvent;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.lang.management.ManagementFactory;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -26,10 +37,16 @@ import java.util.*;
 public class PSQLHandler {
     private static final Logger logger = LogManager.getFormatterLogger(PSQLHandler.class.getName());
 
+    // Number of deadlocks detected by postgres, expected to be zero since writers lock rows in key order
+    private static final AtomicLong deadlock_count = new AtomicLong(0);
+
     private Connection con;                                     // PSQL connection
     private Boolean dbConnected;                                // Indicates if DB is connected or not
     private Config cfg;
     private int pid;                                            // PID of process
+    private String lastSqlState;                                // SQLState of the last failed update
+    private String lastError;                                   // Error message of the last failed update
+    private boolean synchronousCommit;                          // Session commits wait for the WAL flush
 
     /**
      * Constructor
@@ -40,6 +57,62 @@ public class PSQLHandler {
 
         this.cfg = cfg;
         con = null;
+        dbConnected = false;
+        synchronousCommit = true;
+    }
+
+    /**
+     * Set synchronous commit of the session, applied on connect
+     *
+     *      Asynchronous commits return before the WAL is flushed.  A crash of postgres can lose the last
+     *      transactions, so callers must not consider data durable until durableCheckpoint() succeeds.
+     *
+     * @param synchronous   False to commit asynchronously
+     */
+    public void setSynchronousCommit(boolean synchronous) {
+        synchronousCommit = synchronous;
+    }
+
+    /**
+     * Durable checkpoint of asynchronous commits
+     *
+     *      Commits a transaction synchronously, which waits for the WAL flush of all prior commits.
+     *
+     * @return True if all prior commits are durable, false on error
+     */
+    public boolean durableCheckpoint() {
+        if (!dbConnected)
+            return false;
+
+        boolean success = false;
+
+        try (Statement stmt = con.createStatement()) {
+            con.setAutoCommit(false);
+
+            // An xid is needed for the commit to write and flush a commit record
+            stmt.execute("SET LOCAL synchronous_commit = on");
+            stmt.execute("SELECT txid_current()");
+
+            con.commit();
+            success = true;
+
+        } catch (SQLException e) {
+            logger.warn("Durable checkpoint failed: %s", e.getMessage());
+
+            try {
+                con.rollback();
+            } catch (SQLException e1) {
+                // ignore
+            }
+        }
+
+        try {
+            con.setAutoCommit(true);
+        } catch (SQLException e) {
+            // ignore
+        }
+
+        return success;
     }
 
     public void disconnect() {
@@ -95,6 +168,12 @@ public class PSQLHandler {
 
             con.setAutoCommit(true);
 
+            if (!synchronousCommit) {
+                try (Statement stmt = con.createStatement()) {
+                    stmt.execute("SET synchronous_commit = off");
+                }
+            }
+
             logger.info("Writer connected to postgres");
 
             dbConnected = true;
@@ -147,19 +226,137 @@ public class PSQLHandler {
         return rows;
     }
 
+    /**
+     * Handler for rows of a streamed select query
+     */
+    public interface RowHandler {
+        void handle(ResultSet rs) throws SQLException;
+    }
+
+    /**
+     * Run PSQL select query and stream the rows to a handler
+     *
+     *      Rows are fetched in batches using a cursor, so large tables can be read without
+     *      holding all the rows in memory.
+     *
+     * @param query         Select query string to run
+     * @param fetchSize     Number of rows to fetch per round trip
+     * @param handler       Handler called for each row
+     *
+     * @return True if the query completed, false on error
+     */
+    public boolean selectQuery(String query, int fetchSize, RowHandler handler) {
+        boolean success = false;
+        Statement stmt = null;
+
+        try {
+            // Cursor based fetch requires a transaction
+            con.setAutoCommit(false);
+
+            stmt = con.createStatement();
+            stmt.setFetchSize(fetchSize);
+
+            ResultSet rs = stmt.executeQuery(query);
+
+            while (rs.next()) {
+                handler.handle(rs);
+            }
+
+            rs.close();
+            con.commit();
+            success = true;
+
+        } catch (SQLException e) {
+            logger.warn("Select query failed: %s", e.getMessage());
+
+            try {
+                con.rollback();
+            } catch (SQLException e1) {
+                // ignore
+            }
+        }
+
+        try {
+            if (stmt != null)
+                stmt.close();
+
+            con.setAutoCommit(true);
+
+        } catch (SQLException e) {
+            // ignore
+        }
+
+        return success;
+    }
+
+    /**
+     * Commit the transaction of the connection, recording a flight recorder event
+     */
+    private void commit() throws SQLException {
+        DbCommitEvent event = new DbCommitEvent();
+        event.begin();
+
+        con.commit();
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.synchronous = synchronousCommit;
+            event.commit();
+        }
+    }
+
+    /**
+     * Indicates if a failed statement with the SQLState can succeed if retried
+     *
+     *      Connection, transaction rollback (deadlock, serialization), resource and operator
+     *      intervention classes are retryable.  Data, integrity and syntax errors, such as a bad value
+     *      in a row, fail the same way every time and are not retried.
+     *
+     * @param state         SQLState of the exception, null if not known
+     *
+     * @return True if retryable, false otherwise
+     */
+    public static boolean isRetryableSqlState(String state) {
+        if (state == null || state.length() < 2)
+            return true;
+
+        switch (state.substring(0, 2)) {
+            case "08":          // connection exception
+            case "40":          // transaction rollback, such as deadlock and serialization failure
+            case "53":          // insufficient resources
+            case "57":          // operator intervention, such as admin shutdown and query canceled
+            case "58":          // system error
+                return true;
+
+            default:
+                return state.equals("55P03");       // lock not available
+        }
+    }
+
     /**
      * Run PSQL update query
      *
      * @param query         Query string to run
      * @param retries       Number of times to retry, zero means no retries
+     *
+     * @return True if the query was committed, false if it failed.  The DB is not connected
+     *         (see isDbConnected()) if it failed because the connection was lost and could not be
+     *         reestablished.  Otherwise getLastSqlState() returns the state of the failure.
      */
-    public void updateQuery(String query, int retries) {
+    public boolean updateQuery(String query, int retries) {
         Boolean success = Boolean.FALSE;
 
-        if (!dbConnected) {
-            connect();
+        lastSqlState = null;
+        lastError = null;
+
+        if (!dbConnected && !connect()) {
+            return false;
         }
 
+        DbExecuteEvent event = new DbExecuteEvent();
+        event.begin();
+        int attempts = 0;
+
         // Loop the request if broken pipe, connection timed out, or deadlock
         Statement stmt = null;
         for (int i = 0; i < retries; i++) {
@@ -170,46 +367,60 @@ public class PSQLHandler {
                 }
 
                 logger.trace("SQL Query retry = %d: %s", i, query);
+                attempts = i;
 
                 stmt.executeUpdate(query);
-                con.commit();
+                commit();
 
                 i = retries;
                 success = Boolean.TRUE;
                 break;
 
             } catch (SQLException e) {
-                // state 42804 can be invalid query, should not really retry for that.
+                lastSqlState = e.getSQLState();
+                lastError = e.getMessage();
 
-                if (!e.getSQLState().equals("42601")  && i >= (retries - 1)) {
-                    logger.info("SQL exception state " + i + " : " + e.getSQLState());
-                    logger.info("SQL exception: " + e.getMessage());
+                try {
+                    con.rollback();
+                } catch (SQLException e1) {
+                    // ignore, connection is checked below
                 }
 
                 if (e.getMessage().contains("connection") ||
                         e.getMessage().contains("Broken pipe")) {
                     logger.error("Not connected to psql: " + e.getMessage());
 
-                    while (!connect()) {
-                        try {
-                            Thread.sleep(1000);
-                        } catch (InterruptedException e1) {
-                            // ignore
-                        }
-                    }
-                } else if (e.getMessage().contains("deadlock") ) {
+                    // Caller decides to wait or spill if the connection cannot be reestablished
+                    if (!connect())
+                        break;
 
                     try {
-                        Thread.sleep(150);
-                    } catch (InterruptedException e2) {
-                        // ignore
+                        con.setAutoCommit(false);
+                        stmt = con.createStatement();
+                    } catch (SQLException e1) {
+                        break;
                     }
+
+                } else if (!isRetryableSqlState(lastSqlState)) {
+                    // Retrying will fail the same way
+                    logger.debug("SQL exception state %s is not retryable: %s", lastSqlState, e.getMessage());
+                    break;
+
+                } else if ("40P01".equals(lastSqlState)) {
+                    deadlock_count.incrementAndGet();
+                    logger.warn("Deadlock detected, retrying: %s", e.getMessage());
+                }
+
+                if (i >= (retries - 1)) {
+                    logger.info("SQL exception state " + i + " : " + e.getSQLState());
+                    logger.info("SQL exception: " + e.getMessage());
                 }
             }
         }
 
         try {
-            con.setAutoCommit(true);
+            if (dbConnected)
+                con.setAutoCommit(true);
 
             if (stmt != null)
                 stmt.close();
@@ -219,10 +430,203 @@ public class PSQLHandler {
         }
 
 
+        event.end();
+        if (event.shouldCommit()) {
+            event.bytes = query.length();
+            event.retries = attempts;
+            event.success = success;
+            event.sqlState = lastSqlState;
+            event.commit();
+        }
+
         if (!success) {
-            logger.warn("Failed to insert/update after %d max retires", retries);
+            if (!dbConnected)
+                logger.warn("Failed to insert/update, not connected to psql");
+            else if (isRetryableSqlState(lastSqlState))
+                logger.warn("Failed to insert/update after %d max retires", retries);
+            else
+                logger.debug("Failed to insert/update, state %s: %s", lastSqlState, lastError);
+
             logger.debug("query: " + query);
         }
+
+        return success;
+    }
+
+    /**
+     * Writer of the rows of a streamed copy
+     */
+    public interface CopyHandler {
+        void write(Writer out) throws IOException;
+    }
+
+    /**
+     * Stream a COPY into a staging table and run merge statements in one transaction
+     *
+     *      Rows are written by the handler as they are produced, so the data does not need to fit in memory.
+     *
+     * @param setup         Statements to run before the copy, such as creating the staging table
+     * @param copy          COPY ... FROM STDIN statement
+     * @param data          Handler that writes COPY text format rows
+     * @param merge         Statements to merge the staging table, run in order
+     *
+     * @return Update counts of the merge statements, or null if it failed and was rolled back
+     */
+    public int[] copyStream(List<String> setup, String copy, CopyHandler data, List<String> merge) {
+        int[] counts = null;
+
+        lastSqlState = null;
+        lastError = null;
+
+        if (!dbConnected && !connect()) {
+            return null;
+        }
+
+        PGCopyOutputStream copyOut = null;
+
+        try (Statement stmt = con.createStatement()) {
+            con.setAutoCommit(false);
+
+            for (String sql : setup)
+                stmt.execute(sql);
+
+            copyOut = new PGCopyOutputStream(con.unwrap(PGConnection.class), copy);
+
+            Writer out = new BufferedWriter(new OutputStreamWriter(copyOut, StandardCharsets.UTF_8), 1024 * 1024);
+            data.write(out);
+            out.close();
+            copyOut = null;
+
+            int[] result = new int[merge.size()];
+            for (int i = 0; i < merge.size(); i++)
+                result[i] = stmt.executeUpdate(merge.get(i));
+
+            commit();
+            counts = result;
+
+        } catch (SQLException e) {
+            lastSqlState = e.getSQLState();
+            lastError = e.getMessage();
+
+            logger.warn("Copy failed, state %s: %s", lastSqlState, e.getMessage());
+
+            if (e.getMessage().contains("connection") || e.getMessage().contains("Broken pipe")) {
+                connect();
+                return null;
+            }
+
+        } catch (IOException e) {
+            lastError = e.getMessage();
+            logger.warn("Copy failed: %s", e.getMessage());
+        }
+
+        if (counts == null) {
+            try {
+                if (copyOut != null && copyOut.isActive())
+                    copyOut.cancelCopy();
+
+                con.rollback();
+            } catch (SQLException e1) {
+                // ignore
+            }
+        }
+
+        try {
+            if (dbConnected)
+                con.setAutoCommit(true);
+        } catch (SQLException e) {
+            // ignore
+        }
+
+        return counts;
+    }
+
+    /**
+     * Run a COPY into a staging table and a merge in one transaction
+     *
+     * @param setup         Statements to run before the copy, such as creating the staging table
+     * @param copy          COPY ... FROM STDIN statement
+     * @param data          COPY text format rows
+     * @param merge         Statement to merge the staging table
+     *
+     * @return True if committed, false if it failed.  See updateQuery() for the failure state.
+     */
+    public boolean copyQuery(String setup, String copy, String data, String merge) {
+        boolean success = false;
+
+        lastSqlState = null;
+        lastError = null;
+
+        if (!dbConnected && !connect()) {
+            return false;
+        }
+
+        try (Statement stmt = con.createStatement()) {
+            con.setAutoCommit(false);
+
+            stmt.execute(setup);
+            con.unwrap(PGConnection.class).getCopyAPI().copyIn(copy, new StringReader(data));
+            stmt.execute(merge);
+
+            commit();
+            success = true;
+
+        } catch (SQLException e) {
+            lastSqlState = e.getSQLState();
+            lastError = e.getMessage();
+
+            logger.warn("Copy failed, state %s: %s", lastSqlState, e.getMessage());
+
+            try {
+                con.rollback();
+            } catch (SQLException e1) {
+                // ignore
+            }
+
+            if (e.getMessage().contains("connection") || e.getMessage().contains("Broken pipe"))
+                connect();
+
+        } catch (IOException e) {
+            lastError = e.getMessage();
+            logger.warn("Copy failed: %s", e.getMessage());
+
+            // Enabling auto commit would commit the setup and the partial copy
+            try {
+                con.rollback();
+            } catch (SQLException e1) {
+                // ignore
+            }
+        }
+
+        try {
+            if (dbConnected)
+                con.setAutoCommit(true);
+        } catch (SQLException e) {
+            // ignore
+        }
+
+        return success;
+    }
+
+    /**
+     * Number of deadlocks detected by postgres since start, across all handlers
+     */
+    public static long getDeadlockCount() {
+        return deadlock_count.get();
+    }
+
+    /**
+     * SQLState of the last failed update query, null if it succeeded or the state is not known
+     */
+    public String getLastSqlState() {
+        return lastSqlState;
+    }
+
+    /**
+     * Error message of the last failed update query, null if it succeeded
+     */
+    public String getLastError() {
+        return lastError;
     }
 
      /**
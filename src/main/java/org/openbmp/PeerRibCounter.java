@@ -0,0 +1,372 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbmp.api.parsed.message.UnicastPrefixPojo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Incrementally maintained per-peer RIB prefix counts
+ *
+ *      Replaces the update_peer_rib_counts() scan of ip_rib.  The active unicast prefixes of each peer
+ *      are tracked in compact sets of ip_rib hash ids, updated from the advertise and withdraw
+ *      transitions of the consumed records.
+ *
+ *      Sets of peers that are first seen, such as after a start or a partition assignment, are
+ *      seeded from ip_rib by the next run.  A peer message can start a new peer session
+ *      (session_epoch), so the peer is seeded again.  Counts of a peer are written to
+ *      stats_peer_rib once seeded.  Each run also checks the counts of a few peers against ip_rib,
+ *      round robin, and reseeds the peer if they drifted, such as from records in flight while seeding.
+ *      Counts include records still queued to the writers, so a difference up to the records of the peer
+ *      consumed in the last two runs is tolerated.  A peer is reseeded only if its counts are off by more
+ *      than that at two checks in a row; the second check is made by the next run.
+ *
+ *      Only peers of the unicast_prefix partitions assigned to this process are counted and written.
+ *      Peers of revoked partitions are dropped, so that the new owner alone writes their counts.
+ *
+ *      The run() method is scheduled at the stats_peer_rib interval.
+ */
+public class PeerRibCounter implements Runnable {
+    private static final Logger logger = LogManager.getFormatterLogger(PeerRibCounter.class.getName());
+
+    private static PeerRibCounter instance = null;
+
+    /**
+     * Active prefixes of a peer
+     */
+    static class PeerRib extends SeededPeer<LongHashSet> {
+        final LongHashSet v4 = new LongHashSet();
+        final LongHashSet v6 = new LongHashSet();
+
+        int updates;                                    // Records since the last run, possibly in flight
+        int prev_updates;                               // Records of the run before
+        boolean drifted;                                // Counts were off at the last drift check
+
+        synchronized void update(long hash, boolean ipv4, boolean withdrawn) {
+            LongHashSet set = ipv4 ? v4 : v6;
+            updates++;
+
+            if (withdrawn) {
+                set.remove(hash);
+
+                if (removed != null)
+                    removed.add(hash);
+
+            } else {
+                set.add(hash);
+
+                if (removed != null)
+                    removed.remove(hash);
+            }
+        }
+
+        PeerRib() {
+            super(LongHashSet::new);
+        }
+
+        @Override
+        void clear() {
+            v4.clear();
+            v6.clear();
+            drifted = false;
+        }
+
+        /**
+         * Merge the hashes read from ip_rib, except the ones withdrawn while seeding
+         *
+         * @param generation    Generation when the seed started
+         *
+         * @return False if the peer was reset while seeding and the seed is discarded
+         */
+        boolean seed(LongHashSet seed_v4, LongHashSet seed_v6, int generation) {
+            return seed(generation, removed -> {
+                merge(seed_v4, v4, removed);
+                merge(seed_v6, v6, removed);
+            });
+        }
+
+        /**
+         * Start a new run window of the update counts
+         */
+        synchronized void rollUpdates() {
+            prev_updates = updates;
+            updates = 0;
+        }
+
+        /**
+         * Check the counts against ip_rib
+         *
+         * @return True if the counts are off by more than the records in flight at this and the previous check
+         */
+        synchronized boolean isDrifted(long db_v4, long db_v6) {
+            long diff = Math.abs(db_v4 - v4.size()) + Math.abs(db_v6 - v6.size());
+            boolean off = diff > (long) updates + prev_updates;
+            boolean persisted = off && drifted;
+
+            drifted = off && !persisted;
+            return persisted;
+        }
+    }
+
+    private final Config cfg;
+    private final PSQLHandler db;
+    private final Map<String, PeerRib> peers;
+    private final List<String> drift_check_order;
+    private final List<String> drift_recheck;                   // Peers off at their last check, checked first
+
+    //Turns this class to a singleton
+    public static synchronized PeerRibCounter getInstance() {
+        if (instance == null) {
+            instance = new PeerRibCounter(Config.getInstance());
+        }
+        return instance;
+    }
+
+    PeerRibCounter(Config cfg) {
+        this.cfg = cfg;
+        db = new PSQLHandler(cfg);
+        peers = new ConcurrentHashMap<>();
+        drift_check_order = new ArrayList<>();
+        drift_recheck = new ArrayList<>();
+    }
+
+    /**
+     * Update the counts from unicast prefix records
+     *
+     * @param records       Unicast prefix records
+     * @param partition     Kafka partition of the records
+     */
+    public void update(List<UnicastPrefixPojo> records, TopicPartition partition) {
+        for (UnicastPrefixPojo pojo : records) {
+            if (pojo.getPrefix_len() > 128)
+                continue;                                   // Not written to ip_rib
+
+            PeerRib rib = peers.computeIfAbsent(pojo.getPeer_hash(), k -> new PeerRib());
+            rib.partition = partition;
+
+            rib.update(hashToLong(pojo.getHash()), Boolean.TRUE.equals(pojo.getIPv4()),
+                       Boolean.TRUE.equals(pojo.getWithdrawn()));
+        }
+    }
+
+    /**
+     * Reset the counts of a peer on a peer message, which can start a new peer session.  The
+     * peer is seeded again by the next run, after the peer update of ip_rib.  Peers without
+     * prefix records consumed by this process are not added.
+     */
+    public void resetPeer(String peer_hash_id) {
+        PeerRib rib = peers.get(peer_hash_id);
+
+        if (rib != null)
+            rib.reset();
+    }
+
+    /**
+     * Drop the peers of partitions that are no longer assigned
+     *
+     * @param partitions        Revoked or lost partitions
+     */
+    public void dropPartitions(Collection<TopicPartition> partitions) {
+        SeededPeer.dropPartitions(peers, partitions);
+    }
+
+    /**
+     * Seed new peers, check drift and write the counts to stats_peer_rib
+     */
+    public void run() {
+        try {
+            if (!db.isDbConnected())
+                db.connect();
+
+            for (Map.Entry<String, PeerRib> entry : peers.entrySet()) {
+                if (!entry.getValue().seeded)
+                    seed(entry.getKey(), entry.getValue());
+            }
+
+            checkDrift();
+
+            writeCounts();
+
+            for (PeerRib rib : peers.values())
+                rib.rollUpdates();
+
+        } catch (Exception ex) {
+            logger.warn("Peer RIB counts update failed: ", ex);
+        }
+    }
+
+    /**
+     * Shutdown the counter
+     */
+    public void shutdown() {
+        db.disconnect();
+    }
+
+    private void seed(String peer_hash_id, PeerRib rib) {
+        long start_time = System.currentTimeMillis();
+        int generation = rib.getGeneration();
+
+        LongHashSet v4 = new LongHashSet();
+        LongHashSet v6 = new LongHashSet();
+
+        boolean success = db.selectQuery(
+                "SELECT r.hash_id::text AS hash_id, r.isIPv4 FROM ip_rib r" +
+                        " JOIN bgp_peers p ON (r.peer_hash_id = p.hash_id)" +
+                        " WHERE r.peer_hash_id = '" + peer_hash_id + "'" +
+                        " AND r.isWithdrawn = false AND r.peer_epoch >= p.session_epoch",
+                10000, rs -> (rs.getBoolean(2) ? v4 : v6).add(hashToLong(rs.getString(1))));
+
+        // Discarded if reset by a peer message while seeding
+        if (!success || !rib.seed(v4, v6, generation))
+            return;
+
+        logger.info("Seeded RIB counts of peer %s, v4 = %d v6 = %d in %d ms", peer_hash_id,
+                    rib.v4.size(), rib.v6.size(), System.currentTimeMillis() - start_time);
+    }
+
+    /**
+     * Merge seeded hashes into the set of a peer, except the ones withdrawn while seeding
+     */
+    private static void merge(LongHashSet seed, LongHashSet target, LongHashSet removed) {
+        seed.forEach(hash -> {
+            if (removed == null || !removed.contains(hash))
+                target.add(hash);
+        });
+    }
+
+    /**
+     * Compare the counts of the next peers against ip_rib and reseed peers that drifted
+     */
+    private void checkDrift() {
+        if (drift_check_order.isEmpty())
+            drift_check_order.addAll(peers.keySet());
+
+        List<String> order = new ArrayList<>(drift_recheck);
+        drift_recheck.clear();
+        drift_check_order.removeAll(order);
+
+        int checks = Math.max(0, cfg.getRib_counts_drift_check_peers() - order.size());
+        Iterator<String> it = drift_check_order.iterator();
+        while (checks-- > 0 && it.hasNext()) {
+            order.add(it.next());
+            it.remove();
+        }
+
+        for (String peer_hash_id : order) {
+            PeerRib rib = peers.get(peer_hash_id);
+            if (rib == null || !rib.seeded)
+                continue;                                   // Dropped on revoke or not seeded yet
+
+            List<Map<String, String>> rows = db.selectQuery(
+                    "SELECT count(*) FILTER (WHERE r.isIPv4) AS v4, count(*) FILTER (WHERE NOT r.isIPv4) AS v6" +
+                            " FROM ip_rib r JOIN bgp_peers p ON (r.peer_hash_id = p.hash_id)" +
+                            " WHERE r.peer_hash_id = '" + peer_hash_id + "'" +
+                            " AND r.isWithdrawn = false AND r.peer_epoch >= p.session_epoch");
+
+            if (rows.size() <= 0)
+                continue;
+
+            long db_v4 = Long.parseLong(rows.get(0).get("v4"));
+            long db_v6 = Long.parseLong(rows.get(0).get("v6"));
+
+            int v4, v6;
+            synchronized (rib) {
+                v4 = rib.v4.size();
+                v6 = rib.v6.size();
+            }
+
+            if (rib.isDrifted(db_v4, db_v6)) {
+                logger.info("RIB counts of peer %s drifted, v4 = %d (db %d) v6 = %d (db %d), reseeding",
+                            peer_hash_id, v4, db_v4, v6, db_v6);
+
+                rib.reset();
+                seed(peer_hash_id, rib);
+
+            } else if (rib.drifted) {
+                drift_recheck.add(peer_hash_id);
+            }
+        }
+    }
+
+    private void writeCounts() {
+        StringBuilder values = new StringBuilder();
+
+        for (Map.Entry<String, PeerRib> entry : peers.entrySet()) {
+            PeerRib rib = entry.getValue();
+
+            synchronized (rib) {
+                if (!rib.seeded)
+                    continue;
+
+                if (values.length() > 0)
+                    values.append(',');
+
+                values.append("('"); values.append(entry.getKey()); values.append("'::uuid,");
+                values.append(rib.v4.size()); values.append(',');
+                values.append(rib.v6.size()); values.append(')');
+            }
+        }
+
+        if (values.length() == 0)
+            return;
+
+        db.updateQuery("INSERT INTO stats_peer_rib (interval_time,peer_hash_id,v4_prefixes,v6_prefixes)" +
+                        " SELECT time_bucket('" + cfg.getRib_counts_interval_minutes() + " minutes', now()), v.*" +
+                        " FROM (VALUES " + values + ") v(peer_hash_id,v4_prefixes,v6_prefixes)" +
+                        " ON CONFLICT (interval_time,peer_hash_id) DO UPDATE SET v4_prefixes=excluded.v4_prefixes," +
+                        " v6_prefixes=excluded.v6_prefixes",
+                cfg.getDb_retries());
+    }
+
+    /**
+     * Convert an ip_rib hash id, with or without dashes, to a long of its first 64 bits
+     */
+    static long hashToLong(String hash) {
+        long value = 0;
+        int digits = 0;
+
+        for (int i = 0; i < hash.length() && digits < 16; i++) {
+            int d = Character.digit(hash.charAt(i), 16);
+
+            if (d >= 0) {
+                value = (value << 4) | d;
+                digits++;
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Counts of a peer
+     *
+     * @return Array of {v4, v6} prefixes, null if the peer is not tracked
+     */
+    int[] getCounts(String peer_hash_id) {
+        PeerRib rib = peers.get(peer_hash_id);
+
+        if (rib == null)
+            return null;
+
+        synchronized (rib) {
+            return new int[] { rib.v4.size(), rib.v6.size() };
+        }
+    }
+
+    /**
+     * Number of tracked peers
+     */
+    public int getPeerCount() {
+        return peers.size();
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import org.apache.kafka.common.TopicPartition;
+import org.openbmp.api.parsed.message.UnicastPrefixPojo;
+import org.openbmp.psqlquery.PrefixFlapQuery;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Per-prefix churn dampening
+ *
+ *      Each (peer, prefix) has a coalescing window that starts with its first update.  The first
+ *      flap_threshold updates within the window are written as usual.  After that the prefix is
+ *      flapping and only its latest state is held, which is written when the window ends.  A flapping
+ *      prefix is therefore written at most flap_threshold + 1 times per window, and ip_rib_log only has
+ *      the transitions that were written.  The number of updates and suppressed updates of the window
+ *      are written to ip_rib_flaps, so flapping prefixes stay visible.
+ *
+ *      Held records keep a reference on their Kafka offset until they are written, so the offset is not
+ *      committed before the latest state is written.  Held records of a peer are released before peer
+ *      messages are processed and held records of revoked partitions are released before the drain.
+ *
+ *      Each consumer thread has its own dampener; it is not thread safe.
+ */
+public class PrefixDampener {
+
+    /**
+     * Records released from the dampener, of one record key and partition
+     */
+    public static class Release {
+        public final String key;
+        public final TopicPartition partition;
+        public long offset = Long.MAX_VALUE;                    ///< Lowest offset of the released records
+        public final List<UnicastPrefixPojo> records = new ArrayList<>();
+        public final List<PrefixFlapQuery.Flap> flaps = new ArrayList<>();
+        final List<Long> held_offsets = new ArrayList<>();
+        final List<Integer> held_generations = new ArrayList<>();
+
+        Release(String key, TopicPartition partition) {
+            this.key = key;
+            this.partition = partition;
+        }
+    }
+
+    /**
+     * Window of a (peer, prefix)
+     */
+    private static class Window {
+        final long start_millis;
+        final String start_timestamp;
+        String last_timestamp;
+        int updates;
+        int suppressed;
+
+        // Latest held state, null if none
+        UnicastPrefixPojo held;
+        String key;
+        TopicPartition partition;
+        long offset;
+        int generation;                                 // Offset tracker generation of the held reference
+
+        Window(long start_millis, String start_timestamp) {
+            this.start_millis = start_millis;
+            this.start_timestamp = start_timestamp;
+        }
+    }
+
+    private final OffsetTracker offsetTracker;
+    private final long window_millis;
+    private final int flap_threshold;
+    private final int max_windows;
+
+    // Windows in start order, which is the order they end
+    private final LinkedHashMap<String, Window> windows;
+
+    private long suppressed_count;                              // Updates not written
+    private long flap_count;                                    // Windows with suppressed updates
+
+    /**
+     * Constructor
+     *
+     * @param offsetTracker     Offset tracker of the consumer, held records keep a reference
+     * @param window_millis     Coalescing window of a prefix
+     * @param flap_threshold    Updates within a window that are written before the prefix is held
+     * @param max_windows       Max number of open windows, prefixes beyond are not dampened
+     */
+    public PrefixDampener(OffsetTracker offsetTracker, long window_millis, int flap_threshold, int max_windows) {
+        this.offsetTracker = offsetTracker;
+        this.window_millis = window_millis;
+        this.flap_threshold = flap_threshold;
+        this.max_windows = max_windows;
+
+        windows = new LinkedHashMap<>();
+    }
+
+    /**
+     * Add the records of a message
+     *
+     * @param records       Unicast prefix records
+     * @param key           Record key of the message
+     * @param partition     Partition of the message
+     * @param offset        Offset of the message
+     * @param now           Current time in millis
+     *
+     * @return Records to write now, the others are held
+     */
+    public List<UnicastPrefixPojo> add(List<UnicastPrefixPojo> records, String key, TopicPartition partition,
+                                       long offset, long now) {
+        List<UnicastPrefixPojo> write = new ArrayList<>(records.size());
+
+        for (UnicastPrefixPojo pojo : records) {
+            String window_key = pojo.getPeer_hash() + pojo.getHash();
+            Window window = windows.get(window_key);
+
+            if (window == null) {
+                if (windows.size() < max_windows) {
+                    window = new Window(now, pojo.getTimestamp());
+                    window.updates = 1;
+                    window.last_timestamp = pojo.getTimestamp();
+                    windows.put(window_key, window);
+                }
+
+                write.add(pojo);
+                continue;
+            }
+
+            window.updates++;
+            window.last_timestamp = pojo.getTimestamp();
+
+            if (window.updates <= flap_threshold) {
+                write.add(pojo);
+                continue;
+            }
+
+            // Flapping, hold the latest state
+            window.suppressed++;
+            suppressed_count++;
+
+            if (window.held != null) {
+                // The state of the next write replaces the held state
+                if (window.partition.equals(partition) && window.offset == offset) {
+                    window.held = pojo;
+                    continue;
+                }
+
+                offsetTracker.ack(window.partition, window.offset, window.generation);
+            }
+
+            window.generation = offsetTracker.add(partition, offset);
+            window.held = pojo;
+            window.key = key;
+            window.partition = partition;
+            window.offset = offset;
+        }
+
+        return write;
+    }
+
+    /**
+     * Release the held records and flap summaries of windows that ended
+     *
+     * @param now           Current time in millis
+     *
+     * @return Released records, grouped by key and partition
+     */
+    public Collection<Release> expire(long now) {
+        Map<String, Release> releases = new LinkedHashMap<>();
+        Iterator<Window> it = windows.values().iterator();
+
+        while (it.hasNext()) {
+            Window window = it.next();
+
+            if (now - window.start_millis < window_millis)
+                break;
+
+            release(window, releases);
+            it.remove();
+        }
+
+        return releases.values();
+    }
+
+    /**
+     * Release the held records of a peer, such as before a peer message
+     */
+    public Collection<Release> releasePeer(String peer_hash) {
+        return release(window_key -> window_key.startsWith(peer_hash), window -> true);
+    }
+
+    /**
+     * Release the held records of partitions, such as before they are revoked
+     */
+    public Collection<Release> releasePartitions(Collection<TopicPartition> partitions) {
+        Set<TopicPartition> revoked = new HashSet<>(partitions);
+        return release(window_key -> true, window -> window.held != null && revoked.contains(window.partition));
+    }
+
+    /**
+     * Release all held records, such as on shutdown
+     */
+    public Collection<Release> releaseAll() {
+        return release(window_key -> true, window -> true);
+    }
+
+    /**
+     * Acknowledge the offsets of released records, after they have been added to the writer queue
+     */
+    public void ack(Release release) {
+        for (int i = 0; i < release.held_offsets.size(); i++)
+            offsetTracker.ack(release.partition, release.held_offsets.get(i), release.held_generations.get(i));
+    }
+
+    public int getWindowCount() {
+        return windows.size();
+    }
+
+    public long getSuppressed_count() {
+        return suppressed_count;
+    }
+
+    public long getFlap_count() {
+        return flap_count;
+    }
+
+    private Collection<Release> release(Predicate<String> key_match, Predicate<Window> window_match) {
+        Map<String, Release> releases = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, Window>> it = windows.entrySet().iterator();
+
+        while (it.hasNext()) {
+            Map.Entry<String, Window> entry = it.next();
+
+            if (key_match.test(entry.getKey()) && window_match.test(entry.getValue())) {
+                release(entry.getValue(), releases);
+                it.remove();
+            }
+        }
+
+        return releases.values();
+    }
+
+    private void release(Window window, Map<String, Release> releases) {
+        // Windows with suppressed updates always have a held record
+        if (window.held == null)
+            return;
+
+        flap_count++;
+
+        UnicastPrefixPojo pojo = window.held;
+        Release release = releases.computeIfAbsent(window.key + ' ' + window.partition,
+                                                   k -> new Release(window.key, window.partition));
+
+        release.records.add(pojo);
+        release.flaps.add(new PrefixFlapQuery.Flap(pojo.getPeer_hash(), pojo.getHash(), pojo.getPrefix(),
+                                                   pojo.getPrefix_len(), window.updates, window.suppressed,
+                                                   window.start_timestamp, window.last_timestamp));
+        release.held_offsets.add(window.offset);
+        release.held_generations.add(window.generation);
+        release.offset = Math.min(release.offset, window.offset);
+    }
+}
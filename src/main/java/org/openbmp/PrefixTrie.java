@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Path compressed binary (patricia) trie of IP prefixes
+ *
+ *      Keys are up to 128 bits and are stored left aligned in two longs (hi/lo).  IPv4 and IPv6
+ *      are not mixed in one trie; use one trie per address family.  Only nodes that hold a value or
+ *      that branch are kept, so the trie size is bounded by 2 * number of prefixes.
+ *
+ *      The trie is not thread safe.  Readers that share a trie between threads should treat it
+ *      as immutable after it is built and publish it by reference.
+ *
+ * @param <V>   Value stored for each prefix
+ */
+public class PrefixTrie<V> {
+
+    /**
+     * Visitor called for each matching prefix
+     */
+    public interface Visitor<V> {
+        /**
+         * @param hi        Upper 64 bits of prefix
+         * @param lo        Lower 64 bits of prefix
+         * @param len       Prefix length in bits
+         * @param value     Value of the prefix
+         */
+        void visit(long hi, long lo, int len, V value);
+    }
+
+    private static class Node<V> {
+        final long hi;
+        final long lo;
+        final int len;
+        V value;
+        Node<V> left;
+        Node<V> right;
+
+        Node(long hi, long lo, int len, V value) {
+            this.hi = hi;
+            this.lo = lo;
+            this.len = len;
+            this.value = value;
+        }
+    }
+
+    private Node<V> root;
+    private int size;
+
+    /**
+     * Number of prefixes in the trie
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove all prefixes
+     */
+    public void clear() {
+        root = null;
+        size = 0;
+    }
+
+    /**
+     * Add or replace a prefix
+     *
+     * @param hi        Upper 64 bits of prefix
+     * @param lo        Lower 64 bits of prefix
+     * @param len       Prefix length in bits
+     * @param value     Value to store, cannot be null
+     *
+     * @return Previous value or null if the prefix was not present
+     */
+    public V put(long hi, long lo, int len, V value) {
+        hi = maskHi(hi, len);
+        lo = maskLo(lo, len);
+
+        if (root == null) {
+            root = new Node<>(hi, lo, len, value);
+            size++;
+            return null;
+        }
+
+        Node<V> parent = null;
+        Node<V> node = root;
+
+        while (true) {
+            int common = commonLength(node.hi, node.lo, hi, lo, Math.min(node.len, len));
+
+            if (common < node.len) {
+                Node<V> added = new Node<>(hi, lo, len, value);
+
+                if (common == len) {
+                    // New prefix covers the node
+                    setChild(added, node);
+                    replaceChild(parent, node, added);
+
+                } else {
+                    // Prefixes diverge, add a branch node
+                    Node<V> branch = new Node<>(maskHi(hi, common), maskLo(lo, common), common, null);
+                    setChild(branch, node);
+                    setChild(branch, added);
+                    replaceChild(parent, node, branch);
+                }
+
+                size++;
+                return null;
+            }
+
+            if (node.len == len) {
+                V prev = node.value;
+                node.value = value;
+
+                if (prev == null)
+                    size++;
+
+                return prev;
+            }
+
+            Node<V> child = bit(hi, lo, node.len) == 0 ? node.left : node.right;
+
+            if (child == null) {
+                setChild(node, new Node<>(hi, lo, len, value));
+                size++;
+                return null;
+            }
+
+            parent = node;
+            node = child;
+        }
+    }
+
+    /**
+     * Get the value of an exact prefix
+     *
+     * @return Value or null if not found
+     */
+    public V get(long hi, long lo, int len) {
+        Node<V> node = findNode(maskHi(hi, len), maskLo(lo, len), len);
+
+        return node != null ? node.value : null;
+    }
+
+    /**
+     * Remove an exact prefix
+     *
+     * @return Removed value or null if not found
+     */
+    public V remove(long hi, long lo, int len) {
+        hi = maskHi(hi, len);
+        lo = maskLo(lo, len);
+
+        Node<V> grandparent = null;
+        Node<V> parent = null;
+        Node<V> node = root;
+
+        while (node != null && node.len <= len
+                && commonLength(node.hi, node.lo, hi, lo, node.len) == node.len) {
+
+            if (node.len == len)
+                break;
+
+            grandparent = parent;
+            parent = node;
+            node = bit(hi, lo, node.len) == 0 ? node.left : node.right;
+        }
+
+        if (node == null || node.len != len || node.value == null)
+            return null;
+
+        V prev = node.value;
+        node.value = null;
+        size--;
+
+        // Compress the path by removing branch nodes that are no longer needed
+        if (node.left != null && node.right != null) {
+            return prev;
+
+        } else if (node.left != null || node.right != null) {
+            replaceChild(parent, node, node.left != null ? node.left : node.right);
+
+        } else {
+            replaceChild(parent, node, null);
+
+            if (parent != null && parent.value == null) {
+                replaceChild(grandparent, parent, parent.left != null ? parent.left : parent.right);
+            }
+        }
+
+        return prev;
+    }
+
+    /**
+     * Visit all prefixes in the trie that cover (are equal to or less specific than) the given prefix.
+     *      Prefixes are visited from least to most specific.
+     */
+    public void forEachCovering(long hi, long lo, int len, Visitor<V> visitor) {
+        Node<V> node = root;
+
+        while (node != null && node.len <= len
+                && commonLength(node.hi, node.lo, hi, lo, node.len) == node.len) {
+
+            if (node.value != null)
+                visitor.visit(node.hi, node.lo, node.len, node.value);
+
+            if (node.len == len)
+                break;
+
+            node = bit(hi, lo, node.len) == 0 ? node.left : node.right;
+        }
+    }
+
+    /**
+     * Visit all prefixes in the trie that are equal to or more specific than the given prefix.
+     */
+    public void forEachCovered(long hi, long lo, int len, Visitor<V> visitor) {
+        Node<V> node = root;
+
+        while (node != null && node.len < len) {
+            if (commonLength(node.hi, node.lo, hi, lo, node.len) < node.len)
+                return;
+
+            node = bit(hi, lo, node.len) == 0 ? node.left : node.right;
+        }
+
+        if (node != null && commonLength(node.hi, node.lo, hi, lo, len) == len)
+            visitSubtree(node, visitor);
+    }
+
+    /**
+     * Longest prefix match
+     *
+     * @return Value of the most specific prefix covering the given prefix, or null if none
+     */
+    public V longestMatch(long hi, long lo, int len) {
+        V found = null;
+        Node<V> node = root;
+
+        while (node != null && node.len <= len
+                && commonLength(node.hi, node.lo, hi, lo, node.len) == node.len) {
+
+            if (node.value != null)
+                found = node.value;
+
+            if (node.len == len)
+                break;
+
+            node = bit(hi, lo, node.len) == 0 ? node.left : node.right;
+        }
+
+        return found;
+    }
+
+    /**
+     * Visit all prefixes in the trie
+     */
+    public void forEach(Visitor<V> visitor) {
+        if (root != null)
+            visitSubtree(root, visitor);
+    }
+
+    private void visitSubtree(Node<V> start, Visitor<V> visitor) {
+        java.util.ArrayDeque<Node<V>> stack = new java.util.ArrayDeque<>();
+        stack.push(start);
+
+        while (!stack.isEmpty()) {
+            Node<V> node = stack.pop();
+
+            if (node.value != null)
+                visitor.visit(node.hi, node.lo, node.len, node.value);
+
+            if (node.right != null)
+                stack.push(node.right);
+            if (node.left != null)
+                stack.push(node.left);
+        }
+    }
+
+    private Node<V> findNode(long hi, long lo, int len) {
+        Node<V> node = root;
+
+        while (node != null && node.len <= len
+                && commonLength(node.hi, node.lo, hi, lo, node.len) == node.len) {
+
+            if (node.len == len)
+                return node;
+
+            node = bit(hi, lo, node.len) == 0 ? node.left : node.right;
+        }
+
+        return null;
+    }
+
+    private void setChild(Node<V> parent, Node<V> child) {
+        if (bit(child.hi, child.lo, parent.len) == 0)
+            parent.left = child;
+        else
+            parent.right = child;
+    }
+
+    private void replaceChild(Node<V> parent, Node<V> old, Node<V> node) {
+        if (parent == null)
+            root = node;
+        else if (parent.left == old)
+            parent.left = node;
+        else
+            parent.right = node;
+    }
+
+    /*
+     * Bit helpers
+     */
+    static int bit(long hi, long lo, int index) {
+        return (int) (index < 64 ? (hi >>> (63 - index)) & 1 : (lo >>> (127 - index)) & 1);
+    }
+
+    static int commonLength(long hi1, long lo1, long hi2, long lo2, int max) {
+        int common;
+        long diff = hi1 ^ hi2;
+
+        if (diff != 0)
+            common = Long.numberOfLeadingZeros(diff);
+        else
+            common = 64 + Long.numberOfLeadingZeros(lo1 ^ lo2);
+
+        return Math.min(common, max);
+    }
+
+    static long maskHi(long hi, int len) {
+        if (len <= 0)
+            return 0;
+        else if (len >= 64)
+            return hi;
+        else
+            return hi & (-1L << (64 - len));
+    }
+
+    static long maskLo(long lo, int len) {
+        if (len <= 64)
+            return 0;
+        else if (len >= 128)
+            return lo;
+        else
+            return lo & (-1L << (128 - len));
+    }
+
+    /**
+     * Convert trie key bits to an IP address string
+     *
+     * @param hi        Upper 64 bits of the key
+     * @param lo        Lower 64 bits of the key
+     * @param ipv4      True if the key is an IPv4 address
+     *
+     * @return Address string, such as 10.0.0.0 or 2001:db8:0:0:0:0:0:0
+     */
+    public static String keyToAddress(long hi, long lo, boolean ipv4) {
+        if (ipv4) {
+            long value = hi >>> 32;
+            return ((value >>> 24) & 0xFF) + "." + ((value >>> 16) & 0xFF) + "." + ((value >>> 8) & 0xFF) + "."
+                    + (value & 0xFF);
+        }
+
+        StringBuilder sb = new StringBuilder(39);
+
+        for (int i = 0; i < 8; i++) {
+            long word = i < 4 ? hi >>> (48 - i * 16) : lo >>> (48 - (i - 4) * 16);
+
+            if (i > 0)
+                sb.append(':');
+            sb.append(Long.toHexString(word & 0xFFFF));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Convert an IP address string to trie key bits
+     *
+     * @param addr      IPv4 or IPv6 address string, without prefix length
+     *
+     * @return Array of {hi, lo} or null if the address is invalid.  IPv4 addresses are stored in
+     *         the upper 32 bits of hi.
+     */
+    public static long[] addressToKey(String addr) {
+        if (addr == null || addr.isEmpty())
+            return null;
+
+        if (addr.indexOf(':') < 0) {
+            // IPv4 fast path
+            long value = 0;
+            int octet = -1;
+            int octets = 0;
+
+            for (int i = 0; i < addr.length(); i++) {
+                char c = addr.charAt(i);
+
+                if (c >= '0' && c <= '9') {
+                    octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+
+                    if (octet > 255)
+                        return null;
+
+                } else if (c == '.' && octet >= 0) {
+                    value = (value << 8) | octet;
+                    octet = -1;
+                    octets++;
+
+                } else {
+                    return null;
+                }
+            }
+
+            if (octet < 0 || octets != 3)
+                return null;
+
+            value = (value << 8) | octet;
+
+            return new long[] { value << 32, 0L };
+        }
+
+        try {
+            byte[] bytes = InetAddress.getByName(addr).getAddress();
+
+            if (bytes.length == 4) {
+                // IPv4 mapped IPv6 address, ::ffff:a.b.c.d, is kept in the IPv6 key space (RFC 6811)
+                long value = ((bytes[0] & 0xFFL) << 24) | ((bytes[1] & 0xFFL) << 16)
+                                | ((bytes[2] & 0xFFL) << 8) | (bytes[3] & 0xFFL);
+                return new long[] { 0L, 0xFFFF00000000L | value };
+            }
+
+            long hi = 0;
+            long lo = 0;
+
+            for (int i = 0; i < 8; i++)
+                hi = (hi << 8) | (bytes[i] & 0xFF);
+
+            for (int i = 8; i < 16; i++)
+                lo = (lo << 8) | (bytes[i] & 0xFF);
+
+            return new long[] { hi, lo };
+
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+}
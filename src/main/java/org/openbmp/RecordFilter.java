@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import org.openbmp.api.parsed.message.Message;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Early record filter
+ *
+ *      Drops records of collectors, routers, peers, address families, RIBs and prefixes that are not
+ *      wanted, before they are parsed and written.  Messages are matched on the topic and the message
+ *      header.  Unicast, L3VPN and base attribute rows are matched on the few columns needed, read
+ *      directly from the TSV rows, and only matching rows are parsed.
+ *
+ *      The filter is compiled once when the config is loaded and is shared by all consumer threads.
+ *      Criteria that are not configured match all records.  Rows with fewer columns than expected
+ *      are not filtered.
+ */
+public class RecordFilter {
+    private static final Pattern RANGE = Pattern.compile(
+            "\\s*([0-9a-fA-F.:]+)/(\\d+)(?:\\s+ge\\s+(\\d+))?(?:\\s+le\\s+(\\d+))?\\s*");
+
+    /*
+     * Column indexes of the message bus (v1.7) rows.  L3VPN rows have the unicast prefix columns
+     *      followed by the route distinguisher.
+     */
+    private static final int PREFIX_ROUTER_HASH = 3;
+    private static final int PREFIX_PEER_HASH = 6;
+    private static final int PREFIX_PREFIX = 10;
+    private static final int PREFIX_PREFIX_LEN = 11;
+    private static final int PREFIX_IPV4 = 12;
+    private static final int PREFIX_PRE_POLICY = 29;
+    private static final int PREFIX_ADJ_RIB_IN = 30;
+
+    private static final int ATTR_ROUTER_HASH = 3;
+    private static final int ATTR_PEER_HASH = 5;
+
+    private final Pattern topics;                       // Null matches all topics
+    private final Set<String> collector_hashes;         // Empty matches all
+    private final Set<String> router_hashes;
+    private final Set<String> peer_hashes;
+    private final boolean ipv4;
+    private final boolean ipv6;
+    private final boolean pre_policy;
+    private final boolean post_policy;
+    private final boolean adj_rib_in;
+    private final boolean loc_rib;
+
+    // Prefix ranges, value is the list of {ge, le} of the prefix.  Null matches all prefixes.
+    private final PrefixTrie<int[]> v4_ranges;
+    private final PrefixTrie<int[]> v6_ranges;
+
+    private final AtomicLong messages_dropped = new AtomicLong();
+    private final AtomicLong rows_dropped = new AtomicLong();
+
+    private RecordFilter(Pattern topics, Set<String> collector_hashes, Set<String> router_hashes,
+                         Set<String> peer_hashes, boolean ipv4, boolean ipv6, boolean pre_policy,
+                         boolean post_policy, boolean adj_rib_in, boolean loc_rib,
+                         PrefixTrie<int[]> v4_ranges, PrefixTrie<int[]> v6_ranges) {
+        this.topics = topics;
+        this.collector_hashes = collector_hashes;
+        this.router_hashes = router_hashes;
+        this.peer_hashes = peer_hashes;
+        this.ipv4 = ipv4;
+        this.ipv6 = ipv6;
+        this.pre_policy = pre_policy;
+        this.post_policy = post_policy;
+        this.adj_rib_in = adj_rib_in;
+        this.loc_rib = loc_rib;
+        this.v4_ranges = v4_ranges;
+        this.v6_ranges = v6_ranges;
+    }
+
+    /**
+     * Compile a filter from its config map
+     *
+     * @param map       Config map of the filter
+     *
+     * @return Filter, or null if the filter is disabled
+     *
+     * @throws IllegalArgumentException if a prefix range or address family is invalid
+     */
+    static RecordFilter load(Map<String, Object> map) {
+        boolean enabled = false;
+        Pattern topics = null;
+        Set<String> collector_hashes = new HashSet<>();
+        Set<String> router_hashes = new HashSet<>();
+        Set<String> peer_hashes = new HashSet<>();
+        boolean ipv4 = true, ipv6 = true;
+        boolean pre_policy = true, post_policy = true;
+        boolean adj_rib_in = true, loc_rib = true;
+        PrefixTrie<int[]> v4_ranges = null;
+        PrefixTrie<int[]> v6_ranges = null;
+
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            if (entry.getValue() == null)
+                continue;
+
+            if (entry.getKey().equalsIgnoreCase("enabled"))
+                enabled = Boolean.valueOf(entry.getValue().toString());
+
+            else if (entry.getKey().equalsIgnoreCase("topics"))
+                topics = Pattern.compile(String.join("|", toList(entry.getValue())));
+
+            else if (entry.getKey().equalsIgnoreCase("collector_hashes"))
+                addHashes(collector_hashes, entry.getValue());
+
+            else if (entry.getKey().equalsIgnoreCase("router_hashes"))
+                addHashes(router_hashes, entry.getValue());
+
+            else if (entry.getKey().equalsIgnoreCase("peer_hashes"))
+                addHashes(peer_hashes, entry.getValue());
+
+            else if (entry.getKey().equalsIgnoreCase("afi")) {
+                ipv4 = ipv6 = false;
+
+                for (String afi : toList(entry.getValue())) {
+                    if (afi.equals("4") || afi.equalsIgnoreCase("ipv4"))
+                        ipv4 = true;
+                    else if (afi.equals("6") || afi.equalsIgnoreCase("ipv6"))
+                        ipv6 = true;
+                    else
+                        throw new IllegalArgumentException("Invalid filter afi, must be 4 or 6: " + afi);
+                }
+            }
+
+            else if (entry.getKey().equalsIgnoreCase("pre_policy"))
+                pre_policy = Boolean.valueOf(entry.getValue().toString());
+
+            else if (entry.getKey().equalsIgnoreCase("post_policy"))
+                post_policy = Boolean.valueOf(entry.getValue().toString());
+
+            else if (entry.getKey().equalsIgnoreCase("adj_rib_in"))
+                adj_rib_in = Boolean.valueOf(entry.getValue().toString());
+
+            else if (entry.getKey().equalsIgnoreCase("loc_rib"))
+                loc_rib = Boolean.valueOf(entry.getValue().toString());
+
+            else if (entry.getKey().equalsIgnoreCase("prefixes")) {
+                v4_ranges = new PrefixTrie<>();
+                v6_ranges = new PrefixTrie<>();
+
+                for (String range : toList(entry.getValue()))
+                    addRange(range, v4_ranges, v6_ranges);
+            }
+        }
+
+        if (!enabled)
+            return null;
+
+        return new RecordFilter(topics, collector_hashes, router_hashes, peer_hashes, ipv4, ipv6,
+                                pre_policy, post_policy, adj_rib_in, loc_rib, v4_ranges, v6_ranges);
+    }
+
+    /**
+     * Match a message on the topic and the message header
+     *
+     * @param topic         Topic of the record
+     * @param message       Message with the parsed header
+     *
+     * @return True if the message should be processed, false to drop it
+     */
+    public boolean matchMessage(String topic, Message message) {
+        if ((topics != null && !topics.matcher(topic).matches())
+                || !matchHash(collector_hashes, message.getCollector_hash_id())
+                || !matchHash(router_hashes, message.getRouter_hash_id())) {
+
+            messages_dropped.incrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Filter unicast or L3VPN prefix rows
+     *
+     * @param content       Message content, TSV rows
+     *
+     * @return Content with only the matching rows, empty if none match
+     */
+    public String filterPrefixRows(String content) {
+        if (peer_hashes.isEmpty() && router_hashes.isEmpty() && ipv4 && ipv6 && pre_policy && post_policy
+                && adj_rib_in && loc_rib && v4_ranges == null)
+            return content;
+
+        return filterRows(content, PREFIX_ADJ_RIB_IN, this::matchPrefixRow);
+    }
+
+    /**
+     * Filter base attribute rows
+     *
+     * @param content       Message content, TSV rows
+     *
+     * @return Content with only the matching rows, empty if none match
+     */
+    public String filterAttributeRows(String content) {
+        if (peer_hashes.isEmpty() && router_hashes.isEmpty())
+            return content;
+
+        return filterRows(content, ATTR_PEER_HASH, this::matchAttributeRow);
+    }
+
+    public long getMessages_dropped() {
+        return messages_dropped.get();
+    }
+
+    public long getRows_dropped() {
+        return rows_dropped.get();
+    }
+
+    private interface RowMatcher {
+        boolean match(String row, int[] cols);
+    }
+
+    /**
+     * Filter rows, rows with fewer than max_col + 1 columns are kept
+     */
+    private String filterRows(String content, int max_col, RowMatcher matcher) {
+        StringBuilder sb = new StringBuilder(content.length());
+        int[] cols = new int[max_col + 2];
+        int dropped = 0;
+        int start = 0;
+
+        while (start < content.length()) {
+            int end = content.indexOf('\n', start);
+            if (end < 0)
+                end = content.length();
+
+            String row = content.substring(start, end);
+            start = end + 1;
+
+            if (row.isEmpty())
+                continue;
+
+            if (columns(row, cols) > max_col && !matcher.match(row, cols)) {
+                dropped++;
+                continue;
+            }
+
+            sb.append(row).append('\n');
+        }
+
+        if (dropped > 0)
+            rows_dropped.addAndGet(dropped);
+
+        return sb.toString();
+    }
+
+    private boolean matchPrefixRow(String row, int[] cols) {
+        if (!matchHash(router_hashes, column(row, cols, PREFIX_ROUTER_HASH))
+                || !matchHash(peer_hashes, column(row, cols, PREFIX_PEER_HASH)))
+            return false;
+
+        boolean row_ipv4 = isTrue(row, cols, PREFIX_IPV4);
+        if (!(row_ipv4 ? ipv4 : ipv6))
+            return false;
+
+        if (!(isTrue(row, cols, PREFIX_PRE_POLICY) ? pre_policy : post_policy))
+            return false;
+
+        if (!(isTrue(row, cols, PREFIX_ADJ_RIB_IN) ? adj_rib_in : loc_rib))
+            return false;
+
+        if (v4_ranges != null) {
+            long[] key = PrefixTrie.addressToKey(column(row, cols, PREFIX_PREFIX));
+            int len;
+
+            try {
+                len = Integer.parseInt(column(row, cols, PREFIX_PREFIX_LEN));
+            } catch (NumberFormatException e) {
+                return true;
+            }
+
+            if (key == null)
+                return true;
+
+            return matchRange(row_ipv4 ? v4_ranges : v6_ranges, key, len);
+        }
+
+        return true;
+    }
+
+    private boolean matchAttributeRow(String row, int[] cols) {
+        return matchHash(router_hashes, column(row, cols, ATTR_ROUTER_HASH))
+                && matchHash(peer_hashes, column(row, cols, ATTR_PEER_HASH));
+    }
+
+    /**
+     * Match a prefix against the configured ranges that cover it
+     */
+    static boolean matchRange(PrefixTrie<int[]> ranges, long[] key, int len) {
+        boolean[] match = new boolean[1];
+
+        ranges.forEachCovering(key[0], key[1], len, (hi, lo, range_len, ge_le) -> {
+            for (int i = 0; i < ge_le.length && !match[0]; i += 2)
+                match[0] = len >= ge_le[i] && len <= ge_le[i + 1];
+        });
+
+        return match[0];
+    }
+
+    /**
+     * Add a prefix range, such as 10.0.0.0/8, 10.0.0.0/8 le 24 or 2001:db8::/32 ge 48 le 64.  Like a
+     *      prefix list, a prefix without ge or le matches only that prefix length.
+     */
+    static void addRange(String range, PrefixTrie<int[]> v4_ranges, PrefixTrie<int[]> v6_ranges) {
+        Matcher m = RANGE.matcher(range);
+        long[] key = m.matches() ? PrefixTrie.addressToKey(m.group(1)) : null;
+
+        if (key == null)
+            throw new IllegalArgumentException("Invalid filter prefix range: " + range);
+
+        boolean v4 = m.group(1).indexOf(':') < 0;
+        int max = v4 ? 32 : 128;
+        int len = Integer.parseInt(m.group(2));
+        int ge = m.group(3) != null ? Integer.parseInt(m.group(3)) : len;
+        int le = m.group(4) != null ? Integer.parseInt(m.group(4)) : (m.group(3) != null ? max : ge);
+
+        if (len > max || ge < len || le < ge || le > max)
+            throw new IllegalArgumentException("Invalid filter prefix range: " + range);
+
+        PrefixTrie<int[]> trie = v4 ? v4_ranges : v6_ranges;
+        int[] ge_le = trie.get(key[0], key[1], len);
+
+        if (ge_le == null) {
+            ge_le = new int[] { ge, le };
+        } else {
+            ge_le = Arrays.copyOf(ge_le, ge_le.length + 2);
+            ge_le[ge_le.length - 2] = ge;
+            ge_le[ge_le.length - 1] = le;
+        }
+
+        trie.put(key[0], key[1], len, ge_le);
+    }
+
+    /**
+     * Find the tab positions of a row
+     *
+     * @param cols      Filled with the end offset of each column, up to its length
+     *
+     * @return Number of columns found, up to cols.length
+     */
+    private static int columns(String row, int[] cols) {
+        int count = 0;
+        int pos = -1;
+
+        while (count < cols.length) {
+            pos = row.indexOf('\t', pos + 1);
+
+            if (pos < 0) {
+                cols[count++] = row.length();
+                break;
+            }
+
+            cols[count++] = pos;
+        }
+
+        return count;
+    }
+
+    private static String column(String row, int[] cols, int index) {
+        return row.substring(index == 0 ? 0 : cols[index - 1] + 1, cols[index]);
+    }
+
+    private static boolean isTrue(String row, int[] cols, int index) {
+        int start = index == 0 ? 0 : cols[index - 1] + 1;
+        int length = cols[index] - start;
+
+        return (length == 1 && row.charAt(start) == '1') || (length == 4 && row.regionMatches(true, start, "true", 0, 4));
+    }
+
+    private static boolean matchHash(Set<String> hashes, String hash) {
+        return hashes.isEmpty() || hash == null || hash.isEmpty() || hashes.contains(normalizeHash(hash));
+    }
+
+    private static String normalizeHash(String hash) {
+        return hash.indexOf('-') >= 0 ? hash.replace("-", "").toLowerCase() : hash.toLowerCase();
+    }
+
+    private static void addHashes(Set<String> hashes, Object value) {
+        for (String hash : toList(value))
+            hashes.add(normalizeHash(hash));
+    }
+
+    private static List<String> toList(Object value) {
+        if (value instanceof List) {
+            String[] values = new String[((List<Object>) value).size()];
+
+            for (int i = 0; i < values.length; i++)
+                values[i] = ((List<Object>) value).get(i).toString().trim();
+
+            return Arrays.asList(values);
+        }
+
+        return Arrays.asList(value.toString().trim());
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbmp.refdata.CopyWriter;
+import org.openbmp.refdata.GeoIpSource;
+import org.openbmp.refdata.IrrRouteSource;
+import org.openbmp.refdata.PeeringDbSource;
+import org.openbmp.refdata.RefDataSource;
+import org.openbmp.refdata.RpkiRoaSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bulk reference data loader
+ *
+ *      Loads the RPKI, IRR, PeeringDB and GeoIP dump files of the refdata config into their tables,
+ *      replacing the cron scripts.  Sources are loaded in parallel, each with its own connection.
+ *      See RefDataSource for how a source is loaded.
+ *
+ *      java -cp obmp-psql-consumer.jar org.openbmp.RefDataLoader -cf obmp-psql.yml
+ */
+public class RefDataLoader {
+    private static final Logger logger = LogManager.getFormatterLogger(RefDataLoader.class.getName());
+
+    private final Config cfg;
+
+    public RefDataLoader(Config cfg) {
+        this.cfg = cfg;
+    }
+
+    /**
+     * Sources of the configured dump files
+     */
+    List<RefDataSource> getSources() {
+        List<RefDataSource> sources = new ArrayList<>();
+
+        if (cfg.getRefdata_rpki_file() != null)
+            sources.add(new RpkiRoaSource(cfg.getRefdata_rpki_file()));
+
+        if (cfg.getRefdata_irr_files().size() > 0)
+            sources.add(new IrrRouteSource(cfg.getRefdata_irr_files()));
+
+        if (cfg.getRefdata_peeringdb_dir() != null) {
+            sources.add(new PeeringDbSource(cfg.getRefdata_peeringdb_dir(), PeeringDbSource.Type.ASN));
+            sources.add(new PeeringDbSource(cfg.getRefdata_peeringdb_dir(), PeeringDbSource.Type.IX));
+        }
+
+        if (cfg.getRefdata_geoip_file() != null)
+            sources.add(new GeoIpSource(cfg.getRefdata_geoip_file()));
+
+        return sources;
+    }
+
+    /**
+     * Load all sources
+     *
+     * @return True if all sources loaded
+     */
+    public boolean run() {
+        List<RefDataSource> sources = getSources();
+
+        if (sources.size() <= 0) {
+            logger.warn("No reference data files configured, see the refdata config");
+            return true;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(cfg.getRefdata_threads(), sources.size()));
+        List<Future<Boolean>> results = new ArrayList<>();
+
+        for (RefDataSource source : sources)
+            results.add(executor.submit(() -> load(source)));
+
+        boolean success = true;
+
+        for (Future<Boolean> result : results) {
+            try {
+                success &= result.get();
+
+            } catch (InterruptedException | ExecutionException e) {
+                logger.error("Reference data load failed: ", e);
+                success = false;
+            }
+        }
+
+        executor.shutdown();
+
+        return success;
+    }
+
+    /**
+     * Load a source
+     *
+     * @return True if loaded, false if it failed and the table is unchanged
+     */
+    boolean load(RefDataSource source) {
+        long start_time = System.currentTimeMillis();
+        long[] rows = new long[1];
+
+        PSQLHandler db = new PSQLHandler(cfg);
+
+        if (!db.connect()) {
+            logger.error("Unable to connect to load %s", source.getName());
+            return false;
+        }
+
+        logger.info("Loading %s into %s", source.getName(), source.getTable());
+
+        int[] counts = db.copyStream(source.genSetup(), source.genCopy(),
+                                     out -> rows[0] = source.write(new CopyWriter(out)),
+                                     source.genMerge());
+
+        db.disconnect();
+
+        if (counts == null) {
+            logger.error("Failed to load %s into %s: %s", source.getName(), source.getTable(), db.getLastError());
+            return false;
+        }
+
+        logger.info("Loaded %s into %s, rows = %d changed = %d removed = %d in %d ms", source.getName(),
+                    source.getTable(), rows[0], counts[1], counts[2], System.currentTimeMillis() - start_time);
+
+        return true;
+    }
+
+    public static void main(String[] args) {
+        Config cfg = Config.getInstance();
+
+        cfg.parse(args);
+
+        if (! cfg.loadConfig()) {
+            logger.error("Failed to load the configuration file, exiting");
+            System.exit(1);
+        }
+
+        System.exit(new RefDataLoader(cfg).run() ? 0 : 3);
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbmp.api.parsed.message.UnicastPrefixPojo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory RIB of the current unicast routes of each peer
+ *
+ *      Each peer has a v4 and a v6 prefix trie of its active routes, updated from the consumed unicast
+ *      prefix records, so that longest prefix match, covering prefix and origin lookups are answered
+ *      without querying ip_rib.  Peers that are first seen and peers reset by a peer message are
+ *      seeded from ip_rib by the next run, like the RIB counts.  Routes withdrawn while a peer is
+ *      seeding are not added by the seed.  Peers of revoked partitions are dropped, since their routes
+ *      are no longer updated by this process.
+ *
+ *      AS paths are shared between routes with the same path.  Lookups and updates of a peer are
+ *      synchronized on the peer.
+ */
+public class RouteTable implements Runnable {
+    private static final Logger logger = LogManager.getFormatterLogger(RouteTable.class.getName());
+
+    private static final int MAX_SHARED_PATHS = 500000;
+
+    private static RouteTable instance = null;
+
+    /**
+     * Route of a prefix
+     */
+    public static class Route {
+        public final long origin_as;
+        public final String as_path;
+        public final String next_hop;
+
+        Route(long origin_as, String as_path, String next_hop) {
+            this.origin_as = origin_as;
+            this.as_path = as_path;
+            this.next_hop = next_hop;
+        }
+    }
+
+    /**
+     * Route of a peer matched by a lookup
+     */
+    public static class Match {
+        public final String peer_hash_id;
+        public final String prefix;
+        public final Route route;
+
+        Match(String peer_hash_id, String prefix, Route route) {
+            this.peer_hash_id = peer_hash_id;
+            this.prefix = prefix;
+            this.route = route;
+        }
+    }
+
+    /**
+     * Routes of a peer
+     */
+    static class PeerRoutes extends SeededPeer<Set<String>> {
+        final PrefixTrie<Route> v4 = new PrefixTrie<>();
+        final PrefixTrie<Route> v6 = new PrefixTrie<>();
+
+        PeerRoutes() {
+            super(HashSet::new);
+        }
+
+        synchronized void update(String prefix, int len, Route route) {
+            long[] key = PrefixTrie.addressToKey(prefix);
+
+            if (key == null)
+                return;
+
+            PrefixTrie<Route> trie = prefix.indexOf(':') < 0 ? v4 : v6;
+
+            if (route == null) {
+                trie.remove(key[0], key[1], len);
+
+                if (removed != null)
+                    removed.add(prefix + '/' + len);
+
+            } else {
+                trie.put(key[0], key[1], len, route);
+
+                if (removed != null)
+                    removed.remove(prefix + '/' + len);
+            }
+        }
+
+        @Override
+        void clear() {
+            v4.clear();
+            v6.clear();
+        }
+
+        synchronized int size() {
+            return v4.size() + v6.size();
+        }
+    }
+
+    private final PSQLHandler db;
+    private final Map<String, PeerRoutes> peers;
+    private final Map<String, String> shared_paths;
+
+    //Turns this class to a singleton
+    public static synchronized RouteTable getInstance() {
+        if (instance == null) {
+            instance = new RouteTable(new PSQLHandler(Config.getInstance()));
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param db        DB handler to seed peers, null to not seed
+     */
+    RouteTable(PSQLHandler db) {
+        this.db = db;
+        peers = new ConcurrentHashMap<>();
+        shared_paths = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Update the routes from unicast prefix records
+     *
+     * @param records       Unicast prefix records
+     * @param partition     Kafka partition of the records
+     */
+    public void update(List<UnicastPrefixPojo> records, TopicPartition partition) {
+        for (UnicastPrefixPojo pojo : records) {
+            if (pojo.getPrefix_len() > 128)
+                continue;                                   // Not written to ip_rib
+
+            PeerRoutes routes = peers.computeIfAbsent(pojo.getPeer_hash(), k -> new PeerRoutes());
+            routes.partition = partition;
+
+            if (Boolean.TRUE.equals(pojo.getWithdrawn())) {
+                routes.update(pojo.getPrefix(), pojo.getPrefix_len(), null);
+            } else {
+                routes.update(pojo.getPrefix(), pojo.getPrefix_len(),
+                              new Route(pojo.getOrigin_asn() != null ? pojo.getOrigin_asn() : 0,
+                                        sharedPath(pojo.getAs_path()), pojo.getNext_hop()));
+            }
+        }
+    }
+
+    /**
+     * Reset the routes of a peer on a peer message, which can start a new peer session.  The
+     * peer is seeded again by the next run, after the peer update of ip_rib.  Peers without
+     * prefix records consumed by this process are not added.
+     */
+    public void resetPeer(String peer_hash_id) {
+        PeerRoutes routes = peers.get(peer_hash_id);
+
+        if (routes != null)
+            routes.reset();
+    }
+
+    /**
+     * Drop the peers of partitions that are no longer assigned, so that their routes are not served
+     *      once they stop being updated
+     *
+     * @param partitions        Revoked or lost partitions
+     */
+    public void dropPartitions(Collection<TopicPartition> partitions) {
+        SeededPeer.dropPartitions(peers, partitions);
+    }
+
+    /**
+     * Longest prefix match of an address or prefix
+     *
+     * @param prefix        Address or prefix, such as 10.1.1.1 or 10.1.0.0/16
+     * @param peer_hash_id  Peer to look up, null for all peers
+     *
+     * @return Most specific covering route of each peer that has one
+     */
+    public List<Match> lookup(String prefix, String peer_hash_id) {
+        return find(prefix, peer_hash_id, true);
+    }
+
+    /**
+     * All covering prefixes of an address or prefix, least specific first
+     *
+     * @param prefix        Address or prefix, such as 10.1.1.1 or 10.1.0.0/16
+     * @param peer_hash_id  Peer to look up, null for all peers
+     *
+     * @return Covering routes of each peer
+     */
+    public List<Match> covering(String prefix, String peer_hash_id) {
+        return find(prefix, peer_hash_id, false);
+    }
+
+    /**
+     * Origin ASNs of the longest prefix match of an address or prefix
+     *
+     * @param prefix        Address or prefix, such as 10.1.1.1 or 10.1.0.0/16
+     *
+     * @return Map of origin ASN to the number of peers with it as origin
+     */
+    public Map<Long, Integer> origins(String prefix) {
+        Map<Long, Integer> origins = new TreeMap<>();
+
+        for (Match match : find(prefix, null, true))
+            origins.merge(match.route.origin_as, 1, Integer::sum);
+
+        return origins;
+    }
+
+    /**
+     * True if the routes of the peer are complete, seeded from ip_rib
+     */
+    public boolean isSeeded(String peer_hash_id) {
+        PeerRoutes routes = peers.get(peer_hash_id);
+        return routes != null && routes.seeded;
+    }
+
+    public int getPeerCount() {
+        return peers.size();
+    }
+
+    public long getRouteCount() {
+        long count = 0;
+
+        for (PeerRoutes routes : peers.values())
+            count += routes.size();
+
+        return count;
+    }
+
+    /**
+     * Seed new and reset peers
+     */
+    public void run() {
+        try {
+            if (!db.isDbConnected())
+                db.connect();
+
+            for (Map.Entry<String, PeerRoutes> entry : peers.entrySet()) {
+                if (!entry.getValue().seeded)
+                    seed(entry.getKey(), entry.getValue());
+            }
+
+            // Unused paths are dropped from the shared paths; routes keep their copy
+            if (shared_paths.size() > MAX_SHARED_PATHS)
+                shared_paths.clear();
+
+        } catch (Exception ex) {
+            logger.warn("Route table seed failed: ", ex);
+        }
+    }
+
+    /**
+     * Shutdown the route table
+     */
+    public void shutdown() {
+        db.disconnect();
+    }
+
+    private List<Match> find(String prefix, String peer_hash_id, boolean longest) {
+        List<Match> matches = new ArrayList<>();
+
+        int slash = prefix.indexOf('/');
+        String addr = slash > 0 ? prefix.substring(0, slash) : prefix;
+        boolean ipv4 = addr.indexOf(':') < 0;
+        long[] key = PrefixTrie.addressToKey(addr);
+
+        if (key == null)
+            throw new IllegalArgumentException("Invalid address " + addr);
+
+        int len = slash > 0 ? Integer.parseInt(prefix.substring(slash + 1)) : (ipv4 ? 32 : 128);
+
+        if (len < 0 || len > (ipv4 ? 32 : 128))
+            throw new IllegalArgumentException("Invalid prefix length " + len);
+
+        for (Map.Entry<String, PeerRoutes> entry : peers.entrySet()) {
+            if (peer_hash_id != null && !peer_hash_id.equals(entry.getKey()))
+                continue;
+
+            PeerRoutes routes = entry.getValue();
+            List<Match> peer_matches = new ArrayList<>();
+
+            synchronized (routes) {
+                (ipv4 ? routes.v4 : routes.v6).forEachCovering(key[0], key[1], len, (hi, lo, route_len, route) -> {
+                    if (longest)
+                        peer_matches.clear();
+
+                    peer_matches.add(new Match(entry.getKey(),
+                                               PrefixTrie.keyToAddress(hi, lo, ipv4) + '/' + route_len, route));
+                });
+            }
+
+            matches.addAll(peer_matches);
+        }
+
+        return matches;
+    }
+
+    private String sharedPath(String as_path) {
+        if (as_path == null)
+            return "";
+
+        as_path = as_path.trim();
+
+        String shared = shared_paths.putIfAbsent(as_path, as_path);
+        return shared != null ? shared : as_path;
+    }
+
+    private void seed(String peer_hash_id, PeerRoutes routes) {
+        long start_time = System.currentTimeMillis();
+        int generation = routes.getGeneration();
+
+        List<Object[]> rows = new ArrayList<>();
+
+        boolean success = db.selectQuery(
+                "SELECT host(r.prefix) AS prefix, r.prefix_len, r.origin_as, array_to_string(ap.as_path, ' ') AS as_path," +
+                        " host(ba.next_hop) AS next_hop FROM ip_rib r" +
+                        " JOIN bgp_peers p ON (r.peer_hash_id = p.hash_id)" +
+                        " LEFT JOIN base_attrs ba ON (ba.hash_id = r.base_attr_hash_id)" +
+                        " LEFT JOIN as_paths ap ON (ap.path_id = ba.as_path_id)" +
+                        " WHERE r.peer_hash_id = '" + peer_hash_id + "'" +
+                        " AND r.isWithdrawn = false AND r.peer_epoch >= p.session_epoch",
+                10000, rs -> rows.add(new Object[] { rs.getString(1), rs.getInt(2),
+                        new Route(rs.getLong(3), sharedPath(rs.getString(4)), rs.getString(5)) }));
+
+        if (!success)
+            return;
+
+        // Discarded if reset by a peer message while seeding
+        boolean seeded = routes.seed(generation, removed -> {
+            for (Object[] row : rows) {
+                String prefix = (String) row[0];
+                int len = (Integer) row[1];
+                long[] key = PrefixTrie.addressToKey(prefix);
+
+                if (key == null || removed.contains(prefix + '/' + len))
+                    continue;
+
+                PrefixTrie<Route> trie = prefix.indexOf(':') < 0 ? routes.v4 : routes.v6;
+
+                // Routes updated while seeding are newer than the seed
+                if (trie.get(key[0], key[1], len) == null)
+                    trie.put(key[0], key[1], len, (Route) row[2]);
+            }
+        });
+
+        if (!seeded)
+            return;
+
+        logger.info("Seeded routes of peer %s, routes = %d in %d ms", peer_hash_id, rows.size(),
+                    System.currentTimeMillis() - start_time);
+    }
+}
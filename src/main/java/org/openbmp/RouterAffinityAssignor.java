@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import org.apache.kafka.clients.consumer.ConsumerGroupMetadata;
+import org.apache.kafka.clients.consumer.ConsumerPartitionAssignor;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Kafka partition assignor that keeps the records of a router on one consumer
+ *
+ *      The collector publishes the records of a router with the same key to all openbmp.parsed.*
+ *      topics, so with equal partition counts a router's collector, router, peer, base_attribute and
+ *      unicast_prefix records are in the same partition number of each topic.  This assignor assigns
+ *      all partitions with the same number to one consumer, so that the router, peer and attribute
+ *      caches of a consumer are complete and peer changes are consumed by the same consumer as the
+ *      prefixes of the peer.
+ *
+ *      Partition numbers are assigned sticky: a consumer keeps its numbers when the group changes,
+ *      as long as the numbers stay balanced.  Other numbers are assigned by rendezvous hashing of the
+ *      consumer affinity id, which is the same in each topic class consumer group of an instance.
+ *      Groups with the same instances and partition counts then assign a partition number to the
+ *      same instance.  Both the eager and the cooperative rebalance protocols are supported.
+ *
+ *      Enable by setting partition.assignment.strategy to org.openbmp.RouterAffinityAssignor.
+ */
+public class RouterAffinityAssignor implements ConsumerPartitionAssignor, Configurable {
+    private static final Logger logger = LogManager.getFormatterLogger(RouterAffinityAssignor.class.getName());
+
+    /**
+     * Consumer config of the affinity id, set by the consumer.  Defaults to the process name.
+     */
+    public static final String AFFINITY_ID_CONFIG = "openbmp.affinity.id";
+
+    private String affinity_id;
+    private Set<Integer> assigned_numbers = new TreeSet<>();        // Numbers of the last assignment
+
+    public RouterAffinityAssignor() {
+        affinity_id = ManagementFactory.getRuntimeMXBean().getName();
+    }
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        Object id = configs.get(AFFINITY_ID_CONFIG);
+
+        if (id != null && id.toString().length() > 0)
+            affinity_id = id.toString();
+    }
+
+    @Override
+    public String name() {
+        return "router-affinity";
+    }
+
+    @Override
+    public List<RebalanceProtocol> supportedProtocols() {
+        return Arrays.asList(RebalanceProtocol.COOPERATIVE, RebalanceProtocol.EAGER);
+    }
+
+    /**
+     * User data is the affinity id and the partition numbers of the last assignment, which are kept
+     *      when possible.  Eager consumers revoke all partitions before they join, so the owned
+     *      partitions are not in the subscription.
+     */
+    @Override
+    public ByteBuffer subscriptionUserData(Set<String> topics) {
+        StringBuilder sb = new StringBuilder(affinity_id).append('\n');
+
+        synchronized (this) {
+            for (Integer number : assigned_numbers)
+                sb.append(number).append(',');
+        }
+
+        return ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void onAssignment(Assignment assignment, ConsumerGroupMetadata metadata) {
+        Set<Integer> numbers = new TreeSet<>();
+
+        for (TopicPartition tp : assignment.partitions())
+            numbers.add(tp.partition());
+
+        synchronized (this) {
+            assigned_numbers = numbers;
+        }
+    }
+
+    @Override
+    public GroupAssignment assign(Cluster metadata, GroupSubscription groupSubscription) {
+        Map<String, Subscription> subscriptions = groupSubscription.groupSubscription();
+
+        // Members are ordered by affinity id, so that groups of the same instances assign alike
+        TreeMap<String, String> members = new TreeMap<>();             // affinity id -> member id
+        Map<String, Set<Integer>> previous = new HashMap<>();          // member id -> previous numbers
+        Map<String, Set<String>> topics = new HashMap<>();             // member id -> subscribed topics
+        Map<TopicPartition, String> owners = new HashMap<>();          // Owned partitions, cooperative
+
+        for (Map.Entry<String, Subscription> entry : subscriptions.entrySet()) {
+            String member_id = entry.getKey();
+            Subscription sub = entry.getValue();
+            Set<Integer> numbers = new HashSet<>();
+            String id = parseUserData(sub.userData(), numbers);
+
+            if (id == null)
+                id = sub.groupInstanceId().orElse(member_id);
+
+            // Affinity ids should be unique, but don't drop a member if they are not
+            while (members.containsKey(id))
+                id = id + "#" + member_id;
+
+            members.put(id, member_id);
+            topics.put(member_id, new HashSet<>(sub.topics()));
+
+            for (TopicPartition tp : sub.ownedPartitions()) {
+                owners.put(tp, member_id);
+                numbers.add(tp.partition());
+            }
+
+            previous.put(member_id, numbers);
+        }
+
+        // Partitions of each number
+        TreeMap<Integer, List<TopicPartition>> partitions = new TreeMap<>();
+
+        for (String topic : new TreeSet<>(allTopics(topics))) {
+            Integer count = metadata.partitionCountForTopic(topic);
+
+            if (count == null)
+                continue;
+
+            for (int i = 0; i < count; i++)
+                partitions.computeIfAbsent(i, k -> new ArrayList<>()).add(new TopicPartition(topic, i));
+        }
+
+        Map<String, List<TopicPartition>> assignment = new HashMap<>();
+        for (String member_id : subscriptions.keySet())
+            assignment.put(member_id, new ArrayList<>());
+
+        Map<Integer, String> number_owner = assignNumbers(partitions.keySet(), members, previous);
+
+        for (Map.Entry<Integer, List<TopicPartition>> entry : partitions.entrySet()) {
+            String member_id = number_owner.get(entry.getKey());
+
+            for (TopicPartition tp : entry.getValue()) {
+                String owner = member_id;
+
+                // Topics not subscribed by the member go to the best ranked member that does
+                if (!topics.get(owner).contains(tp.topic()))
+                    owner = rankedSubscriber(members, topics, tp);
+
+                if (owner == null)
+                    continue;
+
+                // Cooperative: a partition owned by another member is first revoked by its owner,
+                //      then assigned by the rebalance that follows
+                String current = owners.get(tp);
+                if (current != null && !current.equals(owner))
+                    continue;
+
+                assignment.get(owner).add(tp);
+            }
+        }
+
+        Map<String, Assignment> group = new HashMap<>();
+        for (Map.Entry<String, List<TopicPartition>> entry : assignment.entrySet())
+            group.put(entry.getKey(), new Assignment(entry.getValue()));
+
+        logger.info("Router affinity assigned %d partition numbers of %d topics to %d consumers",
+                    partitions.size(), allTopics(topics).size(), members.size());
+
+        return new GroupAssignment(group);
+    }
+
+    /**
+     * Assign partition numbers to members, balanced
+     *
+     *      Each member gets at least floor(numbers / members) numbers and the remainder of the numbers
+     *      go to one member each.  Members keep their previous numbers up to their share, so a new
+     *      member takes numbers from members above it.
+     *
+     * @param numbers       Partition numbers
+     * @param members       Map of affinity id to member id
+     * @param previous      Map of member id to the numbers it previously had
+     *
+     * @return Map of partition number to member id
+     */
+    static Map<Integer, String> assignNumbers(Set<Integer> numbers, TreeMap<String, String> members,
+                                              Map<String, Set<Integer>> previous) {
+        Map<Integer, String> owner = new HashMap<>();
+        Map<String, Integer> load = new HashMap<>();
+
+        if (members.isEmpty() || numbers.isEmpty())
+            return owner;
+
+        int share = numbers.size() / members.size();
+        int extra = numbers.size() % members.size();            // Members that can still have share + 1
+
+        // Keep previous numbers up to the share, then one more while the remainder allows, in affinity
+        //      id order so that a number previously had by more than one member is kept by one
+        for (int pass = 0; pass < 2; pass++) {
+            for (String member_id : members.values()) {
+                for (Integer number : new TreeSet<>(previous.getOrDefault(member_id, new HashSet<>()))) {
+                    int member_load = load.getOrDefault(member_id, 0);
+
+                    if (!numbers.contains(number) || owner.containsKey(number)
+                            || !canTake(member_load, share, pass == 0 ? 0 : extra))
+                        continue;
+
+                    if (member_load == share)
+                        extra--;
+
+                    owner.put(number, member_id);
+                    load.put(member_id, member_load + 1);
+                }
+            }
+        }
+
+        // Remaining numbers go to the highest ranked member below its share
+        for (Integer number : numbers) {
+            if (owner.containsKey(number))
+                continue;
+
+            String best = null;
+            long best_rank = 0;
+
+            for (Map.Entry<String, String> member : members.entrySet()) {
+                if (!canTake(load.getOrDefault(member.getValue(), 0), share, extra))
+                    continue;
+
+                long rank = rank(member.getKey(), number);
+                if (best == null || Long.compareUnsigned(rank, best_rank) > 0) {
+                    best = member.getValue();
+                    best_rank = rank;
+                }
+            }
+
+            if (load.getOrDefault(best, 0) == share)
+                extra--;
+
+            owner.put(number, best);
+            load.merge(best, 1, Integer::sum);
+        }
+
+        return owner;
+    }
+
+    /**
+     * Check if a member can take another number
+     *
+     * @param load          Numbers the member has
+     * @param share         Numbers each member has at least
+     * @param extra         Members that can still have share + 1
+     */
+    private static boolean canTake(int load, int share, int extra) {
+        return load < share || (load == share && extra > 0);
+    }
+
+    /**
+     * Rendezvous hash rank of a member for a partition number
+     */
+    static long rank(String affinity_id, int number) {
+        long h = affinity_id.hashCode() * 0x9E3779B97F4A7C15L + number;
+
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    private static String rankedSubscriber(TreeMap<String, String> members, Map<String, Set<String>> topics,
+                                           TopicPartition tp) {
+        String best = null;
+        long best_rank = 0;
+
+        for (Map.Entry<String, String> member : members.entrySet()) {
+            if (!topics.get(member.getValue()).contains(tp.topic()))
+                continue;
+
+            long rank = rank(member.getKey(), tp.partition());
+            if (best == null || Long.compareUnsigned(rank, best_rank) > 0) {
+                best = member.getValue();
+                best_rank = rank;
+            }
+        }
+
+        return best;
+    }
+
+    private static Set<String> allTopics(Map<String, Set<String>> topics) {
+        Set<String> all = new HashSet<>();
+
+        for (Set<String> member_topics : topics.values())
+            all.addAll(member_topics);
+
+        return all;
+    }
+
+    /**
+     * Parse subscription user data
+     *
+     * @param userData      User data of the subscription
+     * @param numbers       Set to add the previous partition numbers to
+     *
+     * @return Affinity id or null if there is no user data
+     */
+    static String parseUserData(ByteBuffer userData, Set<Integer> numbers) {
+        if (userData == null || !userData.hasRemaining())
+            return null;
+
+        byte[] bytes = new byte[userData.remaining()];
+        userData.duplicate().get(bytes);
+
+        String[] parts = new String(bytes, StandardCharsets.UTF_8).split("\n", 2);
+
+        if (parts.length > 1) {
+            for (String number : parts[1].split(",")) {
+                if (number.length() > 0)
+                    numbers.add(Integer.valueOf(number));
+            }
+        }
+
+        return parts[0];
+    }
+}
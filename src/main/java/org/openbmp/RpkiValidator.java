@@ -0,0 +1,368 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openbmp.api.parsed.message.UnicastPrefixPojo;
+import org.openbmp.psqlquery.RpkiOriginStateQuery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.openbmp.psqlquery.PsqlFunctions.create_sql_string;
+
+/**
+ * RPKI origin validation
+ *
+ *      Loads the rpki_validator ROA table into an in-memory prefix trie (one per address family) and
+ *      validates prefixes as they are consumed (RFC 6811).  Validation results are written to
+ *      rpki_origin_state only when they change.  The state cache is updated once a state is written,
+ *      so a state that is rejected or not written is sent again.
+ *
+ *      The run() method checks if the ROA table changed and reloads it.  The new table is built
+ *      off to the side and swapped in by reference, so consumer threads never see a partial table.
+ *      After a reload, the stored validation states are revalidated and only the changed ones
+ *      are updated.  Rows not written within the retention and without an advertised route are
+ *      purged.  The state cache is cleared at half the retention, so cached states always have a row.
+ */
+public class RpkiValidator implements Runnable {
+    private static final Logger logger = LogManager.getFormatterLogger(RpkiValidator.class.getName());
+
+    private static final long PURGE_INTERVAL_MILLIS = 3600000;         // Interval of the state purge
+
+    public static final String STATE_VALID = "valid";
+    public static final String STATE_INVALID = "invalid";
+    public static final String STATE_NOT_FOUND = "notfound";
+
+    /**
+     * ROA table
+     *
+     *      Each trie value is an array of ROAs for the prefix.  A ROA is encoded as
+     *      (origin_as << 8) | max_length.
+     */
+    static class RoaTable {
+        final PrefixTrie<long[]> v4 = new PrefixTrie<>();
+        final PrefixTrie<long[]> v6 = new PrefixTrie<>();
+        int count;
+
+        void add(String prefix, int prefix_len, int max_len, long origin_as) {
+            long[] key = PrefixTrie.addressToKey(prefix);
+
+            if (key == null)
+                return;
+
+            PrefixTrie<long[]> trie = prefix.indexOf(':') < 0 ? v4 : v6;
+
+            long roa = (origin_as << 8) | (max_len & 0xFF);
+            long[] roas = trie.get(key[0], key[1], prefix_len);
+
+            if (roas == null) {
+                roas = new long[] { roa };
+            } else {
+                long[] expanded = new long[roas.length + 1];
+                System.arraycopy(roas, 0, expanded, 0, roas.length);
+                expanded[roas.length] = roa;
+                roas = expanded;
+            }
+
+            trie.put(key[0], key[1], prefix_len, roas);
+            count++;
+        }
+
+        /**
+         * Validate prefix origin
+         *
+         * @return Validation entry or null if the prefix is invalid
+         */
+        RpkiOriginStateQuery.Entry validate(String prefix, int prefix_len, long origin_as) {
+            long[] key = PrefixTrie.addressToKey(prefix);
+
+            if (key == null)
+                return null;
+
+            boolean isIPv4 = prefix.indexOf(':') < 0;
+
+            if ((isIPv4 && prefix_len > 32) || prefix_len > 128)
+                return null;
+
+            // [0] = origin of matching ROA, [1] = origin of ROA matching length, [2] = origin of any covering ROA
+            final long[] match = { -1, -1, -1 };
+
+            (isIPv4 ? v4 : v6).forEachCovering(key[0], key[1], prefix_len, (hi, lo, len, roas) -> {
+                for (long roa : roas) {
+                    long roa_origin = roa >>> 8;
+                    boolean len_ok = prefix_len <= (roa & 0xFF);
+
+                    if (match[2] < 0)
+                        match[2] = roa_origin;
+
+                    if (len_ok && match[1] < 0)
+                        match[1] = roa_origin;
+
+                    if (len_ok && roa_origin == origin_as && roa_origin != 0)
+                        match[0] = roa_origin;
+                }
+            });
+
+            RpkiOriginStateQuery.Entry entry = new RpkiOriginStateQuery.Entry();
+            entry.prefix = prefix;
+            entry.prefix_len = prefix_len;
+            entry.origin_as = origin_as;
+
+            if (match[0] >= 0) {
+                entry.state = STATE_VALID;
+                entry.rpki_origin_as = match[0];
+
+            } else if (match[2] >= 0) {
+                entry.state = STATE_INVALID;
+                entry.rpki_origin_as = match[1] >= 0 ? match[1] : match[2];
+
+            } else {
+                entry.state = STATE_NOT_FOUND;
+                entry.rpki_origin_as = null;
+            }
+
+            return entry;
+        }
+    }
+
+    private final Config cfg;
+    private final PSQLHandler db;
+
+    private volatile RoaTable roaTable;                         // Current table, swapped on reload
+    private String roaSignature;                                // Count and last update of the loaded table
+
+    /**
+     * Last validation state sent per prefix/origin.  Used to only send changed states.
+     *      Key is "prefix/len origin", value is encoded by encodeState()
+     */
+    private final Map<String, Long> stateCache;
+    private volatile long cache_clear_time;
+    private long last_purge_time;
+
+    /**
+     * Constructor
+     *
+     * @param cfg       Configuration - e.g. DB credentials
+     */
+    public RpkiValidator(Config cfg) {
+        this.cfg = cfg;
+
+        stateCache = new ConcurrentHashMap<>();
+        cache_clear_time = System.currentTimeMillis();
+
+        db = new PSQLHandler(cfg);
+        db.connect();
+    }
+
+    /**
+     * Indicates if the ROA table is loaded
+     */
+    public boolean isLoaded() {
+        return roaTable != null;
+    }
+
+    /**
+     * Validate a prefix origin using the current ROA table
+     *
+     * @return Validation entry or null if the ROA table is not loaded or the prefix is invalid
+     */
+    public RpkiOriginStateQuery.Entry validate(String prefix, int prefix_len, long origin_as) {
+        RoaTable table = roaTable;
+
+        return table != null ? table.validate(prefix, prefix_len, origin_as) : null;
+    }
+
+    /**
+     * Generate RPKI state query for advertised prefixes that changed validation state
+     *
+     * @param records       Unicast prefix records
+     *
+     * @return Query of changed states or null if nothing changed
+     */
+    public RpkiOriginStateQuery genStateQuery(List<UnicastPrefixPojo> records) {
+        RoaTable table = roaTable;
+
+        if (table == null)
+            return null;
+
+        expireCache();
+
+        List<RpkiOriginStateQuery.Entry> changed = new ArrayList<>();
+
+        for (UnicastPrefixPojo pojo : records) {
+            if (Boolean.TRUE.equals(pojo.getWithdrawn()))
+                continue;
+
+            RpkiOriginStateQuery.Entry entry = table.validate(pojo.getPrefix(), pojo.getPrefix_len(),
+                                                              pojo.getOrigin_asn());
+            if (entry == null)
+                continue;
+
+            if (!encodeState(entry).equals(stateCache.get(cacheKey(entry))))
+                changed.add(entry);
+        }
+
+        return changed.size() > 0 ? new RpkiOriginStateQuery(changed) : null;
+    }
+
+    /**
+     * Cache the states of a query once it's written
+     *
+     * @param query         Query from genStateQuery()
+     */
+    public void stateWritten(RpkiOriginStateQuery query) {
+        expireCache();
+
+        for (RpkiOriginStateQuery.Entry entry : query.getRecords())
+            stateCache.put(cacheKey(entry), encodeState(entry));
+    }
+
+    /**
+     * Clear the state cache when above its max size or half the retention old
+     */
+    private void expireCache() {
+        long retention_millis = cfg.getRpki_retention_days() * 86400000L;
+
+        if (stateCache.size() > cfg.getRpki_state_cache_size()
+                || (retention_millis > 0 && System.currentTimeMillis() - cache_clear_time > retention_millis / 2)) {
+            logger.debug("RPKI state cache is above max size or age, clearing cache");
+            stateCache.clear();
+            cache_clear_time = System.currentTimeMillis();
+        }
+    }
+
+    private static String cacheKey(RpkiOriginStateQuery.Entry entry) {
+        return entry.prefix + '/' + entry.prefix_len + ' ' + entry.origin_as;
+    }
+
+    /**
+     * Check if the ROA table changed and reload it if needed
+     */
+    public void run() {
+        try {
+            if (!db.isDbConnected())
+                db.connect();
+
+            List<Map<String, String>> rows = db.selectQuery(
+                    "SELECT count(*) AS roa_count, max(timestamp) AS last_updated FROM rpki_validator");
+
+            purgeStates();
+
+            if (rows.size() <= 0)
+                return;
+
+            String signature = rows.get(0).get("roa_count") + "/" + rows.get(0).get("last_updated");
+
+            if (signature.equals(roaSignature))
+                return;
+
+            long start_time = System.currentTimeMillis();
+
+            RoaTable table = loadRoaTable();
+
+            if (table == null)
+                return;
+
+            roaTable = table;
+            roaSignature = signature;
+            stateCache.clear();
+
+            logger.info("Loaded %d RPKI ROAs in %d ms", table.count, System.currentTimeMillis() - start_time);
+
+            revalidateStates(table);
+
+        } catch (Exception ex) {
+            logger.warn("RPKI ROA reload failed: ", ex);
+        }
+    }
+
+    /**
+     * Purge states not written within the retention and without an advertised route
+     */
+    private void purgeStates() {
+        if (cfg.getRpki_retention_days() <= 0 || System.currentTimeMillis() - last_purge_time < PURGE_INTERVAL_MILLIS)
+            return;
+
+        last_purge_time = System.currentTimeMillis();
+
+        List<Map<String, String>> rows = db.selectQuery(
+                "SELECT purge_rpki_origin_state('" + cfg.getRpki_retention_days() + " days'::interval) AS purged");
+
+        if (rows.size() > 0 && !"0".equals(rows.get(0).get("purged"))) {
+            logger.info("Purged %s RPKI origin states in %d ms", rows.get(0).get("purged"),
+                        System.currentTimeMillis() - last_purge_time);
+        }
+    }
+
+    /**
+     * Shutdown the validator
+     */
+    public void shutdown() {
+        db.disconnect();
+    }
+
+    private RoaTable loadRoaTable() {
+        RoaTable table = new RoaTable();
+
+        boolean success = db.selectQuery(
+                "SELECT host(prefix) AS prefix,prefix_len,prefix_len_max,origin_as FROM rpki_validator",
+                10000,
+                rs -> table.add(rs.getString(1), rs.getInt(2), rs.getInt(3), rs.getLong(4)));
+
+        if (!success) {
+            logger.warn("Failed to load RPKI ROAs, keeping current table");
+            return null;
+        }
+
+        return table;
+    }
+
+    /**
+     * Revalidate all stored states against the new table and update the ones that changed
+     */
+    private void revalidateStates(RoaTable table) {
+        long start_time = System.currentTimeMillis();
+        List<RpkiOriginStateQuery.Entry> changed = new ArrayList<>();
+
+        db.selectQuery("SELECT host(prefix) AS prefix,masklen(prefix),origin_as,state,rpki_origin_as " +
+                               "FROM rpki_origin_state",
+                10000,
+                rs -> {
+                    RpkiOriginStateQuery.Entry entry = table.validate(rs.getString(1), rs.getInt(2), rs.getLong(3));
+
+                    if (entry == null)
+                        return;
+
+                    long rpki_origin_as = rs.getLong(5);
+                    Long stored_origin = rs.wasNull() ? null : rpki_origin_as;
+
+                    if (!entry.state.equals(rs.getString(4))
+                            || (entry.rpki_origin_as == null ? stored_origin != null
+                                                             : !entry.rpki_origin_as.equals(stored_origin))) {
+                        changed.add(entry);
+                    }
+                });
+
+        for (int i = 0; i < changed.size(); i += cfg.getDb_batch_records()) {
+            List<RpkiOriginStateQuery.Entry> batch =
+                    changed.subList(i, Math.min(i + cfg.getDb_batch_records(), changed.size()));
+
+            db.updateQuery(create_sql_string(new RpkiOriginStateQuery(batch)), cfg.getDb_retries());
+        }
+
+        logger.info("Revalidated RPKI states, %d changed in %d ms", changed.size(),
+                    System.currentTimeMillis() - start_time);
+    }
+
+    private static Long encodeState(RpkiOriginStateQuery.Entry entry) {
+        long origin = entry.rpki_origin_as != null ? entry.rpki_origin_as + 1 : 0;
+        int state = entry.state.equals(STATE_VALID) ? 1 : entry.state.equals(STATE_INVALID) ? 2 : 3;
+
+        return (origin << 2) | state;
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Seeding state of a peer that is maintained in memory from unicast prefix records and seeded from ip_rib
+ *
+ *      A peer is updated from records as soon as it's first seen and is seeded from ip_rib by the next
+ *      run.  Keys withdrawn while seeding are kept so that the seed does not add them back.  A reset, such
+ *      as by a peer message, clears the peer and increments the generation, so that a seed in progress is
+ *      discarded.  Peers are dropped when the partition of their records is revoked.
+ *
+ *      State is synchronized on the peer.
+ *
+ * @param <R>   Set of keys withdrawn while seeding
+ */
+abstract class SeededPeer<R> {
+    private final Supplier<R> new_removed;
+
+    volatile boolean seeded;
+    R removed;                                      // Withdrawn while seeding, null once seeded
+    int generation;                                 // Incremented on reset, to discard a seed in progress
+    volatile TopicPartition partition;              // Partition of the last prefix records
+
+    /**
+     * Constructor
+     *
+     * @param new_removed   Creates an empty set of withdrawn keys
+     */
+    SeededPeer(Supplier<R> new_removed) {
+        this.new_removed = new_removed;
+        removed = new_removed.get();
+    }
+
+    /**
+     * Clear the state of the peer, called on reset
+     */
+    abstract void clear();
+
+    synchronized void reset() {
+        clear();
+        seeded = false;
+        removed = new_removed.get();
+        generation++;
+    }
+
+    synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Complete a seed
+     *
+     * @param generation    Generation when the seed started
+     * @param merge         Merges the seed, given the keys withdrawn while seeding
+     *
+     * @return False if the peer was reset while seeding and the seed is discarded
+     */
+    synchronized boolean seed(int generation, Consumer<R> merge) {
+        if (this.generation != generation)
+            return false;
+
+        merge.accept(removed);
+
+        seeded = true;
+        removed = null;
+        return true;
+    }
+
+    /**
+     * Drop the peers of partitions that are no longer assigned
+     *
+     * @param peers         Map of peer hash id to peer
+     * @param partitions    Revoked or lost partitions
+     */
+    static void dropPartitions(Map<String, ? extends SeededPeer<?>> peers, Collection<TopicPartition> partitions) {
+        peers.values().removeIf(peer -> peer.partition != null && partitions.contains(peer.partition));
+    }
+}
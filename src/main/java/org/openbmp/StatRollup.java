@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import org.apache.kafka.common.TopicPartition;
+import org.openbmp.psqlquery.BmpStatQuery;
+import org.openbmp.psqlquery.StatRollupQuery;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory rollups of peer stats reports
+ *
+ *      Stats reports are written at full resolution to stat_reports, which has a short retention.
+ *      The samples are also rolled up per peer into 5 minute and hourly intervals, which are
+ *      written to stat_reports_5min and stat_reports_1hour when the interval closes, which is when
+ *      a sample of a later interval is received or the peer changes state.  Open intervals are also
+ *      written when the partition of the peer's stats records is revoked and on shutdown, and the
+ *      rows are merged with the rest of the interval written later.
+ *
+ *      Samples older than the open interval of a peer are not rolled up.
+ */
+public class StatRollup {
+
+    /**
+     * Open buckets written on revoke or shutdown, of one record key and partition
+     */
+    public static class Flush {
+        public final String key;
+        public final TopicPartition partition;
+        public long offset = Long.MAX_VALUE;                    ///< Lowest offset of the last records of the peers
+        public List<StatRollupQuery> queries;
+        final List<List<StatRollupQuery.Bucket>> buckets = newClosed();
+
+        Flush(String key, TopicPartition partition) {
+            this.key = key;
+            this.partition = partition;
+        }
+    }
+
+    /**
+     * Open buckets of a peer and its last stats record
+     */
+    private static class Peer {
+        final StatRollupQuery.Bucket[] buckets = new StatRollupQuery.Bucket[INTERVALS_MILLIS.length];
+        String key;
+        TopicPartition partition;
+        long offset;
+    }
+
+    static final long[] INTERVALS_MILLIS = { 5 * 60 * 1000L, 60 * 60 * 1000L };
+    static final String[] TABLES = { "stat_reports_5min", "stat_reports_1hour" };
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static StatRollup instance = null;
+
+    private final Map<String, Peer> peers;                      // Open buckets of each peer, per interval
+
+    //Turns this class to a singleton
+    public static synchronized StatRollup getInstance() {
+        if (instance == null) {
+            instance = new StatRollup();
+        }
+        return instance;
+    }
+
+    StatRollup() {
+        peers = new HashMap<>();
+    }
+
+    /**
+     * Add samples to the rollups
+     *
+     * @param samples       Samples of a stats report message
+     * @param key           Record key of the message
+     * @param partition     Partition of the message
+     * @param offset        Offset of the message
+     *
+     * @return Queries of the closed buckets, empty if none closed
+     */
+    public synchronized List<StatRollupQuery> add(List<BmpStatQuery.Sample> samples, String key,
+                                                  TopicPartition partition, long offset) {
+        List<List<StatRollupQuery.Bucket>> closed = newClosed();
+
+        for (BmpStatQuery.Sample sample : samples) {
+            long sample_millis = parseMillis(sample.timestamp);
+
+            if (sample_millis < 0)
+                continue;
+
+            Peer peer = peers.computeIfAbsent(sample.peer_hash_id, k -> new Peer());
+            StatRollupQuery.Bucket[] buckets = peer.buckets;
+
+            peer.key = key;
+            peer.partition = partition;
+            peer.offset = offset;
+
+            for (int i = 0; i < INTERVALS_MILLIS.length; i++) {
+                long interval_millis = sample_millis - (sample_millis % INTERVALS_MILLIS[i]);
+
+                if (buckets[i] != null && interval_millis < buckets[i].interval_millis)
+                    continue;                               // Late sample
+
+                if (buckets[i] != null && interval_millis > buckets[i].interval_millis) {
+                    closed.get(i).add(buckets[i]);
+                    buckets[i] = null;
+                }
+
+                if (buckets[i] == null) {
+                    buckets[i] = new StatRollupQuery.Bucket(sample.peer_hash_id, interval_millis,
+                            formatMillis(interval_millis), sample.counters.length);
+                }
+
+                buckets[i].add(sample, sample_millis);
+            }
+        }
+
+        return toQueries(closed);
+    }
+
+    /**
+     * Close the open buckets of a peer, such as on a peer state change
+     *
+     * @return Queries of the closed buckets, empty if the peer has none
+     */
+    public synchronized List<StatRollupQuery> removePeer(String peer_hash_id) {
+        List<List<StatRollupQuery.Bucket>> closed = newClosed();
+        Peer peer = peers.remove(peer_hash_id);
+
+        if (peer != null)
+            addBuckets(peer, closed);
+
+        return toQueries(closed);
+    }
+
+    /**
+     * Write the open buckets of the peers of partitions, such as on revoke or shutdown
+     *
+     * @param partitions    Partitions of the last stats records of the peers
+     *
+     * @return Open buckets, grouped by record key and partition
+     */
+    public synchronized Collection<Flush> flushPartitions(Collection<TopicPartition> partitions) {
+        Map<String, Flush> flushes = new LinkedHashMap<>();
+        Iterator<Peer> it = peers.values().iterator();
+
+        while (it.hasNext()) {
+            Peer peer = it.next();
+
+            if (!partitions.contains(peer.partition))
+                continue;
+
+            Flush flush = flushes.computeIfAbsent(peer.key + ' ' + peer.partition,
+                                                  k -> new Flush(peer.key, peer.partition));
+
+            addBuckets(peer, flush.buckets);
+            flush.offset = Math.min(flush.offset, peer.offset);
+            it.remove();
+        }
+
+        for (Flush flush : flushes.values())
+            flush.queries = toQueries(flush.buckets);
+
+        return flushes.values();
+    }
+
+    private static void addBuckets(Peer peer, List<List<StatRollupQuery.Bucket>> closed) {
+        for (int i = 0; i < INTERVALS_MILLIS.length; i++) {
+            if (peer.buckets[i] != null)
+                closed.get(i).add(peer.buckets[i]);
+        }
+    }
+
+    private static List<List<StatRollupQuery.Bucket>> newClosed() {
+        List<List<StatRollupQuery.Bucket>> closed = new ArrayList<>();
+
+        for (int i = 0; i < INTERVALS_MILLIS.length; i++)
+            closed.add(new ArrayList<>());
+
+        return closed;
+    }
+
+    private static List<StatRollupQuery> toQueries(List<List<StatRollupQuery.Bucket>> closed) {
+        List<StatRollupQuery> queries = new ArrayList<>();
+
+        for (int i = 0; i < INTERVALS_MILLIS.length; i++) {
+            if (closed.get(i).size() > 0)
+                queries.add(new StatRollupQuery(TABLES[i], closed.get(i)));
+        }
+
+        return queries;
+    }
+
+    /**
+     * Parse a UTC timestamp, such as 2022-01-02 03:04:05.123456
+     *
+     * @return Epoch millis or -1 if invalid
+     */
+    static long parseMillis(String timestamp) {
+        try {
+            LocalDateTime time = LocalDateTime.parse(timestamp.trim().replace(' ', 'T'));
+            return time.toInstant(ZoneOffset.UTC).toEpochMilli();
+
+        } catch (DateTimeParseException | NullPointerException e) {
+            return -1;
+        }
+    }
+
+    static String formatMillis(long millis) {
+        return LocalDateTime.ofEpochSecond(millis / 1000, 0, ZoneOffset.UTC).format(TIMESTAMP_FORMAT);
+    }
+
+    /**
+     * Number of peers with open buckets
+     */
+    public synchronized int getPeerCount() {
+        return peers.size();
+    }
+}
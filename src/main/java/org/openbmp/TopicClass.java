@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * Topic class configuration
+ *
+ *      A topic class is a set of topic patterns consumed by its own consumer group, consumer threads and
+ *      writer pools, such as control (collector, router), rib (peer, attributes, prefixes), link-state
+ *      and stats.  Each class is sized and scales independently, so that heavy RIB topics do not delay
+ *      control messages.  Records of different classes are not ordered with each other, so the peer
+ *      topic belongs to the class of the prefix topics.
+ *
+ *      Settings that are not configured for a class default to the base and postgres settings.
+ *      Writer and batch settings can be changed at runtime by the admin API.
+ */
+public class TopicClass {
+    private final String name;
+    private final List<Pattern> topic_patterns;
+    private final Properties consumer_props;
+
+    private Integer consumer_threads;
+    private Integer consumer_queue_size;
+
+    // Tuning that can be changed at runtime by the admin API.  Writers and consumers read them on each use.
+    private volatile Integer writer_queue_size;
+    private volatile Integer writer_max_threads_per_type;
+    private volatile Integer batch_records;
+    private volatile Integer batch_time_millis;
+
+    /**
+     * Constructor
+     *
+     * @param name              Name of the class
+     * @param cfg               Configuration to copy defaults from
+     * @param topic_patterns    Topic patterns of the class
+     */
+    TopicClass(String name, Config cfg, List<Pattern> topic_patterns) {
+        this.name = name;
+        this.topic_patterns = topic_patterns;
+
+        consumer_props = new Properties();
+        consumer_props.putAll(cfg.getKafka_consumer_props());
+
+        consumer_threads = cfg.getConsumer_threads();
+        consumer_queue_size = cfg.getConsumer_queue_size();
+        writer_queue_size = cfg.getWriter_queue_size();
+        writer_max_threads_per_type = cfg.getWriter_max_threads_per_type();
+        batch_records = cfg.getDb_batch_records();
+        batch_time_millis = cfg.getDb_batch_time_millis();
+    }
+
+    /**
+     * Load a class from its config map
+     *
+     *      Each class uses its own consumer group, by default the configured group.id suffixed with the class
+     *      name, so that its partitions are assigned and its offsets are committed independently.
+     *
+     * @param name      Name of the class
+     * @param cfg       Configuration to copy defaults from
+     * @param map       Config map of the class
+     *
+     * @return Topic class
+     */
+    static TopicClass load(String name, Config cfg, Map<String, Object> map) {
+        TopicClass tc = new TopicClass(name, cfg, new ArrayList<>());
+
+        tc.consumer_props.setProperty("group.id", cfg.getKafka_consumer_props().getProperty("group.id") + "-" + name);
+        tc.consumer_props.setProperty("client.id", cfg.getKafka_consumer_props().getProperty("client.id") + "-" + name);
+
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase("subscribe_topic_patterns")) {
+                for (String pat : (List<String>) entry.getValue())
+                    tc.topic_patterns.add(Pattern.compile(pat));
+            }
+
+            else if (entry.getKey().equalsIgnoreCase("group_id"))
+                tc.consumer_props.setProperty("group.id", entry.getValue().toString());
+
+            else if (entry.getKey().equalsIgnoreCase("consumer_threads"))
+                tc.consumer_threads = Integer.valueOf(entry.getValue().toString());
+
+            else if (entry.getKey().equalsIgnoreCase("consumer_queue_size"))
+                tc.consumer_queue_size = Integer.valueOf(entry.getValue().toString());
+
+            else if (entry.getKey().equalsIgnoreCase("writer_queue_size"))
+                tc.writer_queue_size = Integer.valueOf(entry.getValue().toString());
+
+            else if (entry.getKey().equalsIgnoreCase("writer_max_threads_per_type"))
+                tc.writer_max_threads_per_type = Integer.valueOf(entry.getValue().toString());
+
+            else if (entry.getKey().equalsIgnoreCase("batch_records"))
+                tc.batch_records = Integer.valueOf(entry.getValue().toString());
+
+            else if (entry.getKey().equalsIgnoreCase("batch_time_millis"))
+                tc.batch_time_millis = Integer.valueOf(entry.getValue().toString());
+
+            else if (entry.getKey().equalsIgnoreCase("consumer_config")) {
+                // Kafka consumer config overrides for the class
+                for (Map.Entry<String, Object> cEntry : ((Map<String, Object>) entry.getValue()).entrySet())
+                    tc.consumer_props.setProperty(cEntry.getKey(), cEntry.getValue().toString());
+            }
+        }
+
+        return tc;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    List<Pattern> getTopic_patterns() {
+        return topic_patterns;
+    }
+
+    Properties getConsumer_props() {
+        return consumer_props;
+    }
+
+    Integer getConsumer_threads() {
+        return consumer_threads;
+    }
+
+    Integer getConsumer_queue_size() {
+        return consumer_queue_size;
+    }
+
+    Integer getWriter_queue_size() {
+        return writer_queue_size;
+    }
+
+    Integer getWriter_max_threads_per_type() {
+        return writer_max_threads_per_type;
+    }
+
+    Integer getBatch_records() {
+        return batch_records;
+    }
+
+    Integer getBatch_time_millis() {
+        return batch_time_millis;
+    }
+
+    void setWriter_queue_size(Integer writer_queue_size) {
+        this.writer_queue_size = writer_queue_size;
+    }
+
+    void setWriter_max_threads_per_type(Integer writer_max_threads_per_type) {
+        this.writer_max_threads_per_type = writer_max_threads_per_type;
+    }
+
+    void setBatch_records(Integer batch_records) {
+        this.batch_records = batch_records;
+    }
+
+    void setBatch_time_millis(Integer batch_time_millis) {
+        this.batch_time_millis = batch_time_millis;
+    }
+}
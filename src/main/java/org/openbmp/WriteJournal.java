@@ -0,0 +1,402 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Append only journal of SQL statements
+ *
+ *      Writers spill statements to the journal when the DB is unavailable or too slow, and replay them
+ *      in order once the DB recovers.  The journal is a directory of memory mapped segment files.
+ *      Each record is a 4 byte length followed by a statement of rows: its prefix, suffix and the
+ *      values of each row with the Kafka coordinates of the row.  A zero length marks the end of the
+ *      records in a segment.  Rows rejected on replay are isolated the same as by the writer and are
+ *      written to the dead letter file with their coordinates.
+ *
+ *      Segments are deleted once they are fully replayed.  Replay is at least once; a segment that
+ *      was partially replayed before a restart is replayed again from the start.
+ *
+ *      The journal is not thread safe.  Each writer owns its own journal.
+ */
+public class WriteJournal {
+    private static final Logger logger = LogManager.getFormatterLogger(WriteJournal.class.getName());
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    /**
+     * Journal record, a statement of rows
+     */
+    public static class Record {
+        final String prefix;
+        final String suffix;                                    // Null if none
+        final List<String> values;
+        final List<WriterQueueMsg> sources;                     // Kafka coordinates of each row, partition
+                                                                //      null if not known
+
+        Record(String prefix, String suffix, List<String> values, List<WriterQueueMsg> sources) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.values = values;
+            this.sources = sources;
+        }
+
+        /**
+         * Statement of some of the rows of the record
+         */
+        String statement(List<String> rows) {
+            return WriterRunnable.buildQuery(prefix, suffix, rows);
+        }
+    }
+
+    private static class Segment {
+        final File file;
+        final RandomAccessFile raf;
+        final MappedByteBuffer buf;
+        int write_pos;
+        int read_pos;
+
+        Segment(File file, int size) throws IOException {
+            this.file = file;
+            raf = new RandomAccessFile(file, "rw");
+
+            if (raf.length() < size)
+                raf.setLength(size);
+
+            buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+        }
+
+        void close() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    private final File dir;
+    private final int segment_size;
+    private final Deque<Segment> segments;
+    private long next_seq;
+    private long record_count;                                  // Records pending replay
+
+    /**
+     * Open or create a journal
+     *
+     * @param dir               Journal directory
+     * @param segment_size      Size in bytes of each segment file
+     *
+     * @throws IOException if the journal directory or an existing segment cannot be opened
+     */
+    public WriteJournal(File dir, int segment_size) throws IOException {
+        this.dir = dir;
+        this.segment_size = segment_size;
+        segments = new ArrayDeque<>();
+        next_seq = 0;
+
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Unable to create journal directory " + dir.getPath());
+
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+
+        if (files != null) {
+            Arrays.sort(files, (a, b) -> Long.compare(segmentSeq(a), segmentSeq(b)));
+
+            for (File file : files) {
+                Segment seg = new Segment(file, 0);
+
+                // Find the end of the records
+                while (seg.write_pos + 4 <= seg.buf.capacity()) {
+                    int len = seg.buf.getInt(seg.write_pos);
+
+                    if (len <= 0 || seg.write_pos + 4 + len > seg.buf.capacity())
+                        break;
+
+                    seg.write_pos += 4 + len;
+                    record_count++;
+                }
+
+                segments.add(seg);
+                next_seq = Math.max(next_seq, segmentSeq(file) + 1);
+            }
+        }
+
+        if (record_count > 0)
+            logger.info("Journal %s opened with %d pending records", dir.getPath(), record_count);
+    }
+
+    private static long segmentSeq(File file) {
+        String name = file.getName();
+
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Indicates if there are records pending replay
+     */
+    public boolean isEmpty() {
+        return record_count == 0;
+    }
+
+    /**
+     * Number of records pending replay
+     */
+    public long size() {
+        return record_count;
+    }
+
+    /**
+     * Append a statement of rows to the journal
+     *
+     * @param prefix        Statement prefix
+     * @param suffix        Statement suffix, such as on conflict, null if none
+     * @param values        Row values
+     * @param sources       Writer message of each row, for its Kafka coordinates
+     *
+     * @return True if appended, false if the journal could not be written
+     */
+    public boolean append(String prefix, String suffix, List<String> values, List<WriterQueueMsg> sources) {
+        try {
+            byte[] data = encode(prefix, suffix, values, sources);
+            Segment seg = segments.peekLast();
+
+            // Record plus the end marker must fit
+            if (seg == null || seg.write_pos + 8 + data.length > seg.buf.capacity()) {
+                seg = new Segment(new File(dir, String.format("%020d%s", next_seq++, SEGMENT_SUFFIX)),
+                                  Math.max(segment_size, data.length + 8));
+                segments.add(seg);
+            }
+
+            seg.buf.putInt(seg.write_pos + 4 + data.length, 0);
+
+            // Buffer method, the ByteBuffer override of JDK 9+ is missing on Java 8
+            ((Buffer) seg.buf).position(seg.write_pos + 4);
+            seg.buf.put(data);
+
+            // Length is written last so that a partial record is not read back
+            seg.buf.putInt(seg.write_pos, data.length);
+            seg.write_pos += 4 + data.length;
+
+            record_count++;
+            return true;
+
+        } catch (IOException e) {
+            logger.error("Failed to append to journal %s: %s", dir.getPath(), e.getMessage());
+            return false;
+        }
+    }
+
+    private static byte[] encode(String prefix, String suffix, List<String> values, List<WriterQueueMsg> sources)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(values.size());
+        writeString(out, prefix);
+        writeString(out, suffix != null ? suffix : "");
+
+        for (int i = 0; i < values.size(); i++) {
+            WriterQueueMsg source = sources.get(i);
+
+            if (source != null && source.partition != null) {
+                writeString(out, source.partition.topic());
+                out.writeInt(source.partition.partition());
+                out.writeLong(source.offset);
+            } else {
+                writeString(out, "");
+                out.writeInt(-1);
+                out.writeLong(-1);
+            }
+
+            writeString(out, values.get(i));
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] b = new byte[in.getInt()];
+        in.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Flush appended records to disk
+     */
+    public void sync() {
+        Segment seg = segments.peekLast();
+
+        if (seg != null)
+            seg.buf.force();
+    }
+
+    /**
+     * Get the next record to replay without removing it
+     *
+     * @return Record or null if the journal is empty
+     */
+    public Record peek() {
+        Segment seg = segments.peekFirst();
+
+        if (seg == null || seg.read_pos >= seg.write_pos)
+            return null;
+
+        int len = seg.buf.getInt(seg.read_pos);
+        byte[] data = new byte[len];
+
+        ((Buffer) seg.buf).position(seg.read_pos + 4);
+        seg.buf.get(data);
+
+        ByteBuffer in = ByteBuffer.wrap(data);
+        int count = in.getInt();
+        String prefix = readString(in);
+        String suffix = readString(in);
+
+        List<String> values = new ArrayList<>(count);
+        List<WriterQueueMsg> sources = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            WriterQueueMsg source = new WriterQueueMsg();
+            String topic = readString(in);
+            int partition = in.getInt();
+            source.offset = in.getLong();
+
+            if (partition >= 0)
+                source.partition = new TopicPartition(topic, partition);
+
+            sources.add(source);
+            values.add(readString(in));
+        }
+
+        return new Record(prefix, suffix.isEmpty() ? null : suffix, values, sources);
+    }
+
+    /**
+     * Remove the record returned by peek().  Segments are deleted once fully replayed.
+     */
+    public void advance() {
+        Segment seg = segments.peekFirst();
+
+        if (seg == null || seg.read_pos >= seg.write_pos)
+            return;
+
+        seg.read_pos += 4 + seg.buf.getInt(seg.read_pos);
+        record_count--;
+
+        if (seg.read_pos >= seg.write_pos) {
+            segments.pollFirst();
+            seg.close();
+
+            if (!seg.file.delete())
+                logger.warn("Unable to delete journal segment %s", seg.file.getPath());
+        }
+    }
+
+    /**
+     * Close the journal.  Pending records remain on disk.
+     */
+    public void close() {
+        for (Segment seg : segments) {
+            seg.buf.force();
+            seg.close();
+        }
+
+        segments.clear();
+
+        if (record_count == 0)
+            dir.delete();
+    }
+
+    /**
+     * Replay a record
+     *
+     *      Rejected rows are isolated by splitting the statement and are written to the dead letter file
+     *      with their Kafka coordinates.  Other rows are committed.
+     *
+     * @param record        Record to replay
+     * @param db            Connected DB handler to replay to
+     * @param retries       Number of times to retry
+     *
+     * @return True if replayed, false if the DB connection was lost and the record needs to be replayed again
+     */
+    static boolean replay(Record record, PSQLHandler db, int retries) {
+        WriterRunnable.bisectRows(record.values, record.sources,
+                (values, sources) -> db.updateQuery(record.statement(values), retries),
+                () -> !db.isDbConnected(),
+                (value, source) -> DeadLetterWriter.getInstance().write(source, db.getLastSqlState(),
+                        db.getLastError(), record.statement(Collections.singletonList(value))));
+
+        return db.isDbConnected();
+    }
+
+    /**
+     * Replay all journals under the journal directory, such as journals left from a previous run.
+     *
+     * @param cfg       Configuration
+     * @param db        Connected DB handler to replay to
+     */
+    public static void replayAll(Config cfg, PSQLHandler db) {
+        File[] dirs = new File(cfg.getJournal_dir()).listFiles(File::isDirectory);
+
+        if (dirs == null)
+            return;
+
+        for (File dir : dirs) {
+            try {
+                WriteJournal journal = new WriteJournal(dir, cfg.getJournal_segment_bytes());
+                long count = journal.size();
+
+                Record record;
+                while ((record = journal.peek()) != null) {
+                    if (!replay(record, db, cfg.getDb_retries())) {
+                        logger.error("DB connection lost while replaying journal %s", dir.getPath());
+                        journal.close();
+                        return;
+                    }
+
+                    journal.advance();
+                }
+
+                journal.close();
+
+                if (count > 0)
+                    logger.info("Replayed %d records from journal %s", count, dir.getPath());
+
+            } catch (IOException e) {
+                logger.error("Failed to replay journal %s: %s", dir.getPath(), e.getMessage());
+            }
+        }
+    }
+}
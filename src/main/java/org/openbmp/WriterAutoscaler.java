@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+/**
+ * Writer concurrency autoscaler
+ *
+ *      Sizes the writers of a consumer thread type from measurements of each interval instead of queue
+ *      thresholds.  By Little's law, the writers busy on average are the arrival rate times the flush
+ *      time per message.  The target is that divided by the target utilization, plus the writers needed
+ *      to drain the queued backlog within an interval.
+ *
+ *      Scaling up is held while postgres reports lock waits, since more writers then add contention
+ *      rather than throughput.  After a scale up, if the flush time per message rose so much that the
+ *      writers can write fewer messages than before, the step is reverted and the count is capped for a
+ *      while.  Scale down is one writer at a time and only after the target stayed below the count for
+ *      a number of intervals.
+ *
+ *      The autoscaler only decides; the consumer applies the count.  Not thread safe.
+ */
+public class WriterAutoscaler {
+    private static final int CAP_HOLD_INTERVALS = 30;           // Intervals to keep a backed off cap
+
+    /**
+     * Measurements of an interval
+     */
+    public static class Sample {
+        int writers;                                            // Writers during the interval
+        long arrived;                                           // Messages handed to the writers
+        long queued;                                            // Messages queued at the end of the interval
+        long flushed;                                           // Messages flushed by the writers
+        long flush_millis;                                      // Time the writers spent flushing
+        int lock_waits;                                         // Postgres sessions waiting on a lock
+        double interval_seconds;
+    }
+
+    /**
+     * Scaling decision
+     */
+    public static class Decision {
+        public final int writers;                               // Writer count to apply
+        public final int target;                                // Count sized by Little's law
+        public final double arrival_rate;                       // Messages per second
+        public final double service_millis;                     // Flush time per message
+        public final String reason;
+
+        Decision(int writers, int target, double arrival_rate, double service_millis, String reason) {
+            this.writers = writers;
+            this.target = target;
+            this.arrival_rate = arrival_rate;
+            this.service_millis = service_millis;
+            this.reason = reason;
+        }
+    }
+
+    private final double target_utilization;
+    private final double backoff_ratio;                         // Service time increase that reverts a scale up
+    private final int scale_down_intervals;
+
+    private double service_millis;                              // Smoothed flush time per message
+    private int below_count;                                    // Consecutive intervals with target below count
+
+    private int prev_writers;                                   // Count and service time before the last scale up,
+    private double prev_service_millis;                         //      0 if the last decision was not a scale up
+
+    private int cap;                                            // Backed off max count, 0 if none
+    private int cap_intervals;
+
+    /**
+     * Constructor
+     *
+     * @param target_utilization        Target fraction of time writers are flushing, such as 0.7
+     * @param backoff_percent           Percent increase of the flush time per message after a scale up
+     *                                  that reverts it, if the writers can write fewer messages than before
+     * @param scale_down_intervals      Intervals the target must stay below the count to scale down
+     */
+    public WriterAutoscaler(double target_utilization, int backoff_percent, int scale_down_intervals) {
+        this.target_utilization = target_utilization;
+        this.backoff_ratio = 1 + backoff_percent / 100.0;
+        this.scale_down_intervals = scale_down_intervals;
+    }
+
+    /**
+     * Decide the writer count for the next interval
+     *
+     * @param sample        Measurements of the interval
+     * @param max_writers   Max writers, writer_max_threads_per_type
+     *
+     * @return Decision, writers equal to the sample writers if unchanged
+     */
+    public Decision decide(Sample sample, int max_writers) {
+        int writers = sample.writers;
+        double arrival_rate = sample.interval_seconds > 0 ? sample.arrived / sample.interval_seconds : 0;
+
+        if (sample.flushed > 0) {
+            double millis = (double) sample.flush_millis / sample.flushed;
+            service_millis = service_millis > 0 ? 0.5 * service_millis + 0.5 * millis : millis;
+        }
+
+        if (cap > 0 && --cap_intervals <= 0)
+            cap = 0;
+
+        if (service_millis <= 0)
+            return new Decision(writers, writers, arrival_rate, 0, "no flushes measured");
+
+        // Little's law, with the backlog drained within an interval
+        double backlog_rate = sample.interval_seconds > 0 ? sample.queued / sample.interval_seconds : 0;
+        double busy = (arrival_rate + backlog_rate) * service_millis / 1000.0;
+        int target = Math.max(1, Math.min(max_writers, (int) Math.ceil(busy / target_utilization)));
+
+        if (cap > 0)
+            target = Math.min(target, cap);
+
+        // Revert a scale up that lowered the messages per second the writers can write
+        if (prev_writers > 0) {
+            int before = prev_writers;
+            double before_millis = prev_service_millis;
+            prev_writers = 0;
+
+            if (writers > before && service_millis > before_millis * backoff_ratio
+                    && writers / service_millis < before / before_millis) {
+                cap = before;
+                cap_intervals = CAP_HOLD_INTERVALS;
+                below_count = 0;
+
+                return new Decision(before, target, arrival_rate, service_millis,
+                        String.format("flush time per message rose from %.2f to %.2f ms, backing off",
+                                      before_millis, service_millis));
+            }
+        }
+
+        if (target > writers) {
+            below_count = 0;
+
+            if (sample.lock_waits > 0)
+                return new Decision(writers, target, arrival_rate, service_millis,
+                        sample.lock_waits + " postgres lock waits, holding");
+
+            prev_writers = writers;
+            prev_service_millis = service_millis;
+
+            return new Decision(target, target, arrival_rate, service_millis, "arrival above capacity");
+
+        } else if (target < writers || writers > max_writers) {
+            if (++below_count < scale_down_intervals && writers <= max_writers)
+                return new Decision(writers, target, arrival_rate, service_millis, "below target, waiting");
+
+            below_count = 0;
+            return new Decision(writers - 1, target, arrival_rate, service_millis, "capacity above arrival");
+        }
+
+        below_count = 0;
+        return new Decision(writers, target, arrival_rate, service_millis, "at target");
+    }
+}
@@ -3,10 +3,14 @@
  */
 package org.openbmp;
 
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
 
 /**
  *
@@ -20,8 +24,19 @@ public class WriterObject {
 
 
     Long message_count;
+
+    ///< Writer thread of the queue, null if the queue is written by the writer scheduler
     WriterRunnable writerThread;
 
+    ///< Topic class of the writer, for batch settings
+    final TopicClass topicClass;
+
+    ///< Catch-up mode of the queue, used by the writer scheduler
+    private volatile boolean catch_up;
+
+    ///< Time of the last batch written by the writer scheduler
+    long last_flush_time;
+
     /**
      * FIFO queue for SQL messages to be written/inserted
      *      Queue message:
@@ -32,16 +47,117 @@ public class WriterObject {
      */
     BlockingQueue<WriterQueueMsg> writerQueue;
 
+    ///< Capacity of the writer queue, the writer_queue_size when the writer was created
+    final int queue_capacity;
+
     /**
      * Constructor
      *
      * @param cfg            Configuration from cli/config file
+     * @param topicClass     Topic class of the writer
      */
-    WriterObject(Config cfg) {
+    WriterObject(Config cfg, TopicClass topicClass) {
+        this.topicClass = topicClass;
         message_count = 0L;
         assigned = new HashMap<>();
-        writerQueue = new ArrayBlockingQueue(cfg.getWriter_queue_size());
-        writerThread = new WriterRunnable(cfg, writerQueue);
+        queue_capacity = topicClass.getWriter_queue_size();
+        writerQueue = new ArrayBlockingQueue(queue_capacity);
         above_count = 0;
+
+        if (cfg.getWriter_connections() <= 0)
+            writerThread = new WriterRunnable(cfg, topicClass, writerQueue);
+    }
+
+    /**
+     * Start writing the queue, by its own writer thread or by the writer scheduler
+     *
+     * @param executor      Executor to run the writer thread
+     */
+    void start(ExecutorService executor) {
+        if (writerThread != null)
+            executor.submit(writerThread);
+        else
+            WriterScheduler.getInstance().register(this);
+    }
+
+    /**
+     * Stop writing the queue.  The writer scheduler writes the messages left in the queue first.
+     */
+    void shutdown() {
+        if (writerThread != null)
+            writerThread.shutdown();
+        else
+            WriterScheduler.getInstance().unregister(this);
+    }
+
+    /**
+     * Discard the messages left in the queue that will not be written
+     *
+     * @see #discard(BlockingQueue)
+     */
+    int discard() {
+        return discard(writerQueue);
+    }
+
+    /**
+     * Discard the messages left in a writer queue that will not be written.  Their heap budget and
+     *      off-heap pages are released; their offsets stay in flight, so the records are consumed again.
+     *
+     * @param queue         Writer queue
+     *
+     * @return Number of messages discarded
+     */
+    static int discard(BlockingQueue<WriterQueueMsg> queue) {
+        int count = 0;
+        WriterQueueMsg msg;
+
+        while ((msg = queue.poll()) != null) {
+            MemoryBudget.getInstance().release(msg.estimated_bytes);
+
+            if (msg.packed != null)
+                OffHeapBuffer.getInstance().free(msg);
+
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Discard the queued messages of partitions that are no longer assigned, the new owner of the
+     *      partitions writes them
+     *
+     * @param partitions    Revoked or lost partitions
+     *
+     * @return Number of messages discarded
+     */
+    int discard(Collection<TopicPartition> partitions) {
+        int[] count = { 0 };
+
+        writerQueue.removeIf(msg -> {
+            if (msg.partition == null || !partitions.contains(msg.partition))
+                return false;
+
+            MemoryBudget.getInstance().release(msg.estimated_bytes);
+
+            if (msg.packed != null)
+                OffHeapBuffer.getInstance().free(msg);
+
+            count[0]++;
+            return true;
+        });
+
+        return count[0];
+    }
+
+    void setCatchUp(boolean catch_up) {
+        this.catch_up = catch_up;
+
+        if (writerThread != null)
+            writerThread.setCatchUp(catch_up);
+    }
+
+    boolean isCatchUp() {
+        return catch_up;
     }
 }
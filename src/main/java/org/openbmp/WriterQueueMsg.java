@@ -3,6 +3,8 @@
  */
 package org.openbmp;
 
+import org.apache.kafka.common.TopicPartition;
+
 import java.util.Map;
 
 /**
@@ -18,9 +20,27 @@ public class WriterQueueMsg {
     ///< Postgres insert suffix string
     String suffix;
 
-    ///< Map of values (postgres bulk syntax)
+    ///< Map of values (postgres bulk syntax), null while the values are packed off-heap
     Map<String, String> values;
 
+    ///< Values packed off-heap while queued, null if on the heap
+    OffHeapBuffer.Packed packed;
+
+    ///< Estimated bytes of the message accounted in the memory budget
+    long estimated_bytes;
+
+    ///< Kafka offset of the record, acknowledged to the tracker once committed or journaled
+    OffsetTracker offsetTracker;
+    TopicPartition partition;
+    long offset;
+    int generation;
+
+    ///< Called once the message is committed or journaled, null if none.  Not called if rows were rejected.
+    Runnable on_written;
+
+    ///< Rows of the message were rejected and written to the dead letter file
+    boolean rejected;
+
     WriterQueueMsg () {
         bulk_ok = Boolean.TRUE;
     }
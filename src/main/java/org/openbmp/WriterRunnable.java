@@ -9,13 +9,28 @@
  */
 package org.openbmp;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.BooleanSupplier;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.openbmp.jfr.WriterFlushEvent;
+import org.openbmp.psqlquery.PsqlFunctions;
+import org.openbmp.psqlquery.UnicastPrefixQuery;
 
 /**
  * PSQL writer thread class
@@ -26,32 +41,551 @@ import org.apache.logging.log4j.Logger;
 public class WriterRunnable implements  Runnable {
     private static final Logger logger = LogManager.getFormatterLogger(WriterRunnable.class.getName());
 
+    // Journal directory names are unique per process start and writer
+    private static final long START_TIME = System.currentTimeMillis();
+    private static final AtomicInteger writer_index = new AtomicInteger(0);
+
+    // Flush order of tables, referenced tables first.  Tables not listed are written last.
+    private static final String[] TABLE_ORDER = { "as_paths", "base_attrs", "ip_rib", "l3vpn_rib", "ls_nodes", "ls_links",
+                                                  "ls_prefixes", "rpki_origin_state", "stat_reports",
+                                                  "stat_reports_5min", "stat_reports_1hour" };
+
     private PSQLHandler db;                                     // DB handler
     private Config cfg;
+    private TopicClass topicClass;                              // Batch settings, which can change at runtime
+    private final int lane;                                     // Index of the writer, unique in the process
+    private volatile boolean catch_up;                          // Catch-up mode, set by the consumer on high lag
     private BlockingQueue<WriterQueueMsg> writerQueue;          // Reference to the writer FIFO queue
-    private boolean run;
+    private final WriterScheduler scheduler;                    // Scheduler to take queues from, null if own queue
+    private volatile boolean run;
+    private boolean aborted;                                    // Shutdown while postgres is unavailable,
+                                                                //      the batch is left unacknowledged
+    private final MemoryBudget memoryBudget;                    // Budget to release flushed messages to
+
+    private WriteJournal journal;                               // Journal to spill to, null if disabled
+    private boolean spilling;                                   // Indicates new queries are spilled to the journal
+    private boolean journal_appended;                           // Indicates journal needs sync before acking
+    private long last_replay_attempt;
+
+    /*
+     * Batch of messages
+     *      bulk query map has a key of : <prefix|suffix>
+     *      Prefix and suffix are from the query FIFO message.  Value is the VALUE to be inserted/updated/deleted
+     */
+    private int bulk_count;
+    private final List<WriterQueueMsg> bulk_msgs = new ArrayList<>();                   // Messages in the bulk query map
+    private final Map<String, Map<String, String>> bulk_query = new LinkedHashMap<>();
+
+    // Writer message of each value in the bulk query map, used to report rejected rows
+    private final Map<String, Map<String, WriterQueueMsg>> bulk_sources = new HashMap<>();
+
+    // Flush measurements, taken by the autoscaler
+    private final AtomicLong flushed_messages = new AtomicLong();
+    private final AtomicLong flush_millis = new AtomicLong();
+
+    private final boolean async_commit;                         // Commits do not wait for the WAL flush
+    private final List<WriterQueueMsg> unsynced_msgs;           // Messages committed since the last checkpoint
+    private long last_checkpoint_time;
 
     /**
      * Constructor
      *
-     * @param cfg       Configuration - e.g. DB credentials
-     * @param queue     FIFO queue to read from
+     * @param cfg           Configuration - e.g. DB credentials
+     * @param topicClass    Topic class of the writer, for batch settings
+     * @param queue         FIFO queue to read from
+     */
+    public WriterRunnable(Config cfg, TopicClass topicClass, BlockingQueue queue) {
+        this(cfg, topicClass, queue, null, new PSQLHandler(cfg));
+    }
+
+    /**
+     * Constructor with a DB handler, such as a stub
+     *
+     * @param cfg           Configuration - e.g. DB credentials
+     * @param topicClass    Topic class of the writer, for batch settings
+     * @param queue         FIFO queue to read from
+     * @param db            DB handler, connected by the writer
      */
-    public WriterRunnable(Config cfg, BlockingQueue queue) {
+    WriterRunnable(Config cfg, TopicClass topicClass, BlockingQueue queue, PSQLHandler db) {
+        this(cfg, topicClass, queue, null, db);
+    }
+
+    /**
+     * Constructor of a scheduled writer
+     *
+     *      The writer takes the queue and batch settings of each batch from the scheduler.  Scheduled writers
+     *      do not spill to the journal, since the next batch of a queue can be written by another writer.
+     *
+     * @param cfg           Configuration - e.g. DB credentials
+     * @param scheduler     Scheduler to take queues from
+     */
+    public WriterRunnable(Config cfg, WriterScheduler scheduler) {
+        this(cfg, null, null, scheduler, new PSQLHandler(cfg));
+    }
+
+    private WriterRunnable(Config cfg, TopicClass topicClass, BlockingQueue queue, WriterScheduler scheduler,
+                           PSQLHandler db) {
 
         this.cfg = cfg;
+        this.topicClass = topicClass;
+        this.scheduler = scheduler;
+        lane = writer_index.getAndIncrement();
         writerQueue = queue;
         run = true;
+        memoryBudget = MemoryBudget.getInstance();
+
+        async_commit = !cfg.getDb_synchronous_commit();
+        unsynced_msgs = new ArrayList<>();
+        last_checkpoint_time = System.currentTimeMillis();
 
-        db = new PSQLHandler(cfg);
+        this.db = db;
+        db.setSynchronousCommit(!async_commit);
         db.connect();
+
+        if (cfg.getJournal_enabled() && scheduler == null) {
+            File dir = new File(cfg.getJournal_dir(),
+                                "writer-" + START_TIME + "-" + lane);
+            try {
+                journal = new WriteJournal(dir, cfg.getJournal_segment_bytes());
+            } catch (IOException e) {
+                logger.error("Unable to open journal, writer will not spill: %s", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Execute query
+     *
+     *      Without a journal, this waits for postgres to reconnect.  With a journal, the writer starts spilling
+     *      when postgres is unavailable and the caller journals the query rows instead.
+     *
+     * @param query         Query string to run
+     * @param retries       Number of times to retry
+     *
+     * @return True if committed, false if postgres rejected the query, postgres is unavailable and the
+     *         writer is spilling, or the writer was shutdown while postgres is unavailable (see aborted)
+     */
+    private boolean executeQuery(String query, int retries) {
+        long start_time = System.currentTimeMillis();
+
+        boolean success;
+        while (!(success = db.updateQuery(query, retries)) && !db.isDbConnected()) {
+            if (journal != null) {
+                logger.warn("Postgres is unavailable, spilling to journal");
+                spilling = true;
+                return false;
+            }
+
+            if (!run) {
+                aborted = true;
+                return false;
+            }
+        }
+
+        long elapsed = System.currentTimeMillis() - start_time;
+
+        if (journal != null && elapsed > cfg.getJournal_slow_flush_millis()
+                && writerQueue.size() > (writerQueue.size() + writerQueue.remainingCapacity()) * 0.75) {
+            logger.warn("Postgres is slow, flush took %d ms, spilling to journal", elapsed);
+            spilling = true;
+        }
+
+        return success;
+    }
+
+    /**
+     * Indicates new statements are journaled.  Once spilled, statements are journaled until the journal is
+     *      replayed so that order is kept.
+     */
+    private boolean isJournaling() {
+        return journal != null && (spilling || !journal.isEmpty());
+    }
+
+    /**
+     * Build a bulk statement of rows
+     */
+    static String buildQuery(String prefix, String suffix, List<String> values) {
+        StringBuilder query = new StringBuilder();
+        query.append(prefix);
+
+        boolean add_comma = false;
+        for (String value : values) {
+
+            if (add_comma) {
+                query.append(',');
+            } else {
+                add_comma = true;
+            }
+
+            query.append(value);
+        }
+
+        // Ending suffix statement, such as on conflict
+        if (suffix != null && suffix.length() > 0)
+            query.append(suffix);
+
+        query.append(';');
+
+        return query.toString();
+    }
+
+    /**
+     * Execute a statement of rows, isolating rows that are rejected
+     *
+     *      When the statement fails, after the retries of the executor, it's split in half and each half
+     *      is executed, recursively, until the rejected rows are found.  Other rows are committed.  This
+     *      includes retryable failures, such as a lock timeout, which a smaller statement may not hit.
+     *
+     * @param values        Row values
+     * @param sources       Source of each row value
+     * @param execute       Executes a statement of rows, true if committed
+     * @param stopped       Indicates to stop without rejecting rows, such as when the DB is unavailable
+     * @param reject        Called with the value and source of each rejected row
+     */
+    static <T> void bisectRows(List<String> values, List<T> sources, BiPredicate<List<String>, List<T>> execute,
+                               BooleanSupplier stopped, BiConsumer<String, T> reject) {
+        if (values.isEmpty() || execute.test(values, sources) || stopped.getAsBoolean())
+            return;
+
+        if (values.size() > 1) {
+            int mid = values.size() / 2;
+
+            logger.debug("Statement of %d rows failed, splitting", values.size());
+
+            bisectRows(values.subList(0, mid), sources.subList(0, mid), execute, stopped, reject);
+            bisectRows(values.subList(mid, values.size()), sources.subList(mid, sources.size()),
+                       execute, stopped, reject);
+            return;
+        }
+
+        reject.accept(values.get(0), sources.get(0));
+    }
+
+    /**
+     * Execute a bulk statement of rows, isolating rows that postgres rejects
+     *
+     *      Rejected rows are written to the dead letter file with the Kafka coordinates of their message.
+     *
+     * @param prefix        Statement prefix
+     * @param suffix        Statement suffix, such as on conflict
+     * @param values        Row values
+     * @param sources       Writer message of each row value
+     * @param retries       Number of times to retry
+     */
+    private void executeRows(String prefix, String suffix, List<String> values, List<WriterQueueMsg> sources,
+                             int retries) {
+        bisectRows(values, sources,
+                   (rows, row_sources) -> writeRows(prefix, suffix, rows, row_sources, retries),
+                   () -> aborted,
+                   (value, source) -> {
+                       String state = db.getLastSqlState();
+
+                       logger.warn("Postgres rejected row with state %s: %s", state, db.getLastError());
+
+                       source.rejected = true;
+                       DeadLetterWriter.getInstance().write(source, state, db.getLastError(),
+                                                            prefix + value + (suffix != null ? suffix : "") + ";");
+                   });
+    }
+
+    /**
+     * Commit a statement of rows or spill it to the journal
+     *
+     * @return True if committed or journaled
+     */
+    private boolean writeRows(String prefix, String suffix, List<String> values, List<WriterQueueMsg> sources,
+                              int retries) {
+        if (aborted)
+            return false;
+
+        if (!isJournaling() && executeQuery(buildQuery(prefix, suffix, values), retries))
+            return true;
+
+        if (!isJournaling())
+            return false;
+
+        if (journal.append(prefix, suffix, values, sources)) {
+            journal_appended = true;
+            return true;
+        }
+
+        // Journal is not writable, fall back to waiting for postgres
+        logger.error("Journal append failed, disabling journal");
+        journal = null;
+        spilling = false;
+
+        return executeQuery(buildQuery(prefix, suffix, values), retries);
+    }
+
+    /**
+     * Replay journaled queries in order
+     *
+     *      When spilling, replay starts once postgres is reachable and the writer queue has drained.
+     */
+    private void replayJournal() {
+        if (journal == null || (!spilling && journal.isEmpty()))
+            return;
+
+        if (spilling) {
+            if (writerQueue.size() > (writerQueue.size() + writerQueue.remainingCapacity()) * 0.20
+                    || System.currentTimeMillis() - last_replay_attempt < 5000)
+                return;
+
+            last_replay_attempt = System.currentTimeMillis();
+
+            if (!db.isDbConnected() && !db.connect())
+                return;
+
+            spilling = false;
+            logger.info("Replaying %d journal records", journal.size());
+        }
+
+        if (journal_appended) {
+            journal.sync();
+            journal_appended = false;
+        }
+
+        int count = 0;
+        WriteJournal.Record record;
+        while (count < cfg.getJournal_replay_batch() && (record = journal.peek()) != null) {
+            if (!WriteJournal.replay(record, db, cfg.getDb_retries())) {
+                logger.warn("Postgres is unavailable, replay of journal paused");
+                spilling = true;
+                return;
+            }
+
+            journal.advance();
+            count++;
+        }
+
+        if (count > 0 && journal.isEmpty())
+            logger.info("Journal replay done");
+    }
+
+    /**
+     * Flush the bulk query map
+     *
+     *      Each batch key is a statement of rows.  In single transaction mode, all statements are written in
+     *      one transaction in table dependency order.  If the transaction is rejected, or single transaction
+     *      mode is disabled, each statement is committed on its own, isolating rejected rows.
+     *
+     * @param bulk_query        Map of batch key to map of row key to row value
+     * @param bulk_sources      Map of batch key to map of row key to writer message
+     */
+    private void flushBulkQuery(Map<String, Map<String, String>> bulk_query,
+                                Map<String, Map<String, WriterQueueMsg>> bulk_sources) {
+
+        List<String> keys = new ArrayList<>(bulk_query.keySet());
+        keys.sort(Comparator.comparingInt(WriterRunnable::tableOrder));
+
+        List<String[]> statements = new ArrayList<>(keys.size());
+        List<List<String>> statement_values = new ArrayList<>(keys.size());
+        List<List<WriterQueueMsg>> statement_sources = new ArrayList<>(keys.size());
+
+        // ip_rib rows merged by COPY in catch-up mode, after the other statements
+        String[] copy_statement = null;
+        List<String> copy_values = null;
+        List<WriterQueueMsg> copy_sources = null;
+
+        for (String key : keys) {
+            Map<String, String> key_values = bulk_query.get(key);
+            Map<String, WriterQueueMsg> key_sources = bulk_sources.get(key);
+
+            List<String> values = new ArrayList<>(key_values.size());
+            List<WriterQueueMsg> sources = new ArrayList<>(key_values.size());
+
+            // Rows are sorted by key so that all writers lock rows in the same order,
+            //   which prevents deadlocks between writers updating the same rows
+            List<Map.Entry<String, String>> rows = new ArrayList<>(key_values.entrySet());
+            rows.sort(Map.Entry.comparingByKey());
+
+            for (Map.Entry<String, String> value : rows) {
+                values.add(value.getValue());
+                sources.add(key_sources.get(value.getKey()));
+            }
+
+            String[] ins = key.split("[|]");
+            String[] statement = new String[] { ins[0], ins.length > 1 ? ins[1] : null };
+
+            if (catch_up && "ip_rib".equals(tableName(key))
+                    && (journal == null || (!spilling && journal.isEmpty()))) {
+                copy_statement = statement;
+                copy_values = values;
+                copy_sources = sources;
+                continue;
+            }
+
+            statements.add(statement);
+            statement_values.add(values);
+            statement_sources.add(sources);
+        }
+
+        boolean done = false;
+
+        // Journaled statements are appended on their own, with the Kafka coordinates of their rows
+        if (cfg.getDb_flush_single_transaction() && statements.size() > 1 && !isJournaling()) {
+            StringBuilder query = new StringBuilder();
+
+            for (int i = 0; i < statements.size(); i++)
+                query.append(buildQuery(statements.get(i)[0], statements.get(i)[1], statement_values.get(i)));
+
+            done = executeQuery(query.toString(), cfg.getDb_retries());
+
+            if (!done && !aborted) {
+                logger.debug("Single transaction flush rejected with state %s, committing each statement",
+                             db.getLastSqlState());
+            }
+        }
+
+        for (int i = 0; !done && i < statements.size(); i++) {
+            executeRows(statements.get(i)[0], statements.get(i)[1], statement_values.get(i),
+                        statement_sources.get(i), cfg.getDb_retries());
+        }
+
+        if (copy_values != null && !aborted && !copyRows(copy_values)) {
+            // Rejected rows are isolated by the regular statement
+            executeRows(copy_statement[0], copy_statement[1], copy_values, copy_sources, cfg.getDb_retries());
+        }
+    }
+
+    /**
+     * Merge ip_rib values rows using COPY into a staging table
+     *
+     * @param values        Row values
+     *
+     * @return True if committed, false if the rows need to be written by the regular statement
+     */
+    private boolean copyRows(List<String> values) {
+        StringBuilder data = new StringBuilder();
+
+        for (String value : values) {
+            String row = PsqlFunctions.values_to_copy_row(value);
+
+            if (row == null)
+                return false;
+
+            data.append(row).append('\n');
+        }
+
+        String[] stmt = UnicastPrefixQuery.genCatchUpStatements();
+
+        return db.copyQuery(stmt[0], stmt[1], data.toString(), stmt[2]);
+    }
+
+    /**
+     * Take the flush measurements since the last call
+     *
+     * @return Array of {messages flushed, milliseconds flushing}
+     */
+    public long[] takeFlushStats() {
+        return new long[] { flushed_messages.getAndSet(0), flush_millis.getAndSet(0) };
+    }
+
+    /**
+     * Set catch-up mode
+     *
+     *      In catch-up mode, batches are larger so more updates of the same rows are coalesced, and ip_rib
+     *      rows are merged using COPY.
+     *
+     * @param catch_up      True to enable catch-up mode
+     */
+    public void setCatchUp(boolean catch_up) {
+        this.catch_up = catch_up;
+    }
+
+    /**
+     * Order of a batch key in a flush, so that referenced tables are written first.  Writers use the same
+     *      order so that multi-table transactions lock tables in the same order.
+     *
+     * @param key       Batch key, prefix|suffix
+     *
+     * @return Order of the table in the statement prefix
+     */
+    static int tableOrder(String key) {
+        String table = tableName(key);
+
+        for (int i = 0; table != null && i < TABLE_ORDER.length; i++) {
+            if (TABLE_ORDER[i].equals(table))
+                return i;
+        }
+
+        return TABLE_ORDER.length;
+    }
+
+    /**
+     * Table name of a batch key
+     *
+     * @param key       Batch key, prefix|suffix
+     *
+     * @return Table name of the insert statement, or null if not an insert
+     */
+    static String tableName(String key) {
+        int idx = key.toUpperCase().indexOf("INSERT INTO ");
+
+        if (idx < 0)
+            return null;
+
+        return key.substring(idx + 12).trim().split("[ (]", 2)[0].toLowerCase();
+    }
+
+    /**
+     * Acknowledge messages that have been committed or journaled
+     *
+     *      Heap budget is released right away.  When commits are asynchronous, offsets are acknowledged
+     *      by the next durable checkpoint.
+     */
+    private void ackMessages(List<WriterQueueMsg> msgs) {
+        if (journal_appended) {
+            journal.sync();
+            journal_appended = false;
+        }
+
+        for (WriterQueueMsg msg : msgs) {
+            memoryBudget.release(msg.estimated_bytes);
+
+            if (msg.on_written != null && !msg.rejected)
+                msg.on_written.run();
+
+            if (msg.offsetTracker == null)
+                continue;
+
+            if (async_commit) {
+                msg.values = null;
+                unsynced_msgs.add(msg);
+            } else {
+                msg.offsetTracker.ack(msg.partition, msg.offset, msg.generation);
+            }
+        }
+    }
+
+    /**
+     * Durable checkpoint of asynchronous commits
+     *
+     *      Runs a synchronous commit, which flushes the WAL of all prior asynchronous commits, and then
+     *      acknowledges the offsets of the messages committed before it.
+     */
+    void checkpoint(boolean force) {
+        if (unsynced_msgs.isEmpty()
+                || (!force && System.currentTimeMillis() - last_checkpoint_time < cfg.getDb_checkpoint_millis()))
+            return;
+
+        last_checkpoint_time = System.currentTimeMillis();
+
+        if (!db.durableCheckpoint())
+            return;
+
+        for (WriterQueueMsg msg : unsynced_msgs)
+            msg.offsetTracker.ack(msg.partition, msg.offset, msg.generation);
+
+        unsynced_msgs.clear();
     }
 
     /**
      * Shutdown this thread
+     *
+     *      The writer completes or fails the batch it is writing and then disconnects from postgres.
      */
-    public synchronized void shutdown() {
-        db.disconnect();
+    public void shutdown() {
         run = false;
     }
 
@@ -65,122 +599,261 @@ public class WriterRunnable implements  Runnable {
         }
         logger.debug("writer thread started");
 
+        try {
+            if (scheduler != null)
+                runScheduled();
+            else
+                runQueue();
+
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        } catch (Exception e) {
+            logger.error("Exception: ", e);
+
+            // Batch in progress is not acknowledged, its records are consumed again
+            for (WriterQueueMsg msg : bulk_msgs)
+                memoryBudget.release(msg.estimated_bytes);
+
+            bulk_msgs.clear();
+        }
+
+        // Acknowledge asynchronous commits before disconnecting
+        if (!aborted)
+            checkpoint(true);
+
+        // Messages left in the queue are no longer written, release their budget
+        if (scheduler == null) {
+            int discarded = WriterObject.discard(writerQueue);
+
+            if (discarded > 0)
+                logger.info("Writer discarded %d queued messages, they will be consumed again", discarded);
+        }
+
+        db.disconnect();
+
+        if (journal != null)
+            journal.close();
+
+        logger.info("Writer thread done");
+    }
+
+    /**
+     * Write batches of the writer queue
+     */
+    private void runQueue() throws InterruptedException {
         long cur_time = 0;
         long prev_time = System.currentTimeMillis();
 
-        int bulk_count = 0;
+        while (run) {
+            cur_time = System.currentTimeMillis();
 
-        /*
-         * bulk query map has a key of : <prefix|suffix>
-         *      Prefix and suffix are from the query FIFO message.  Value is the VALUE to be inserted/updated/deleted
-         */
-        Map<String, Map<String, String>> bulk_query = new LinkedHashMap<>();
+            /*
+             * Do insert/query if max wait/duration has been reached or if max statements have been reached.
+             */
+            int batch_time_millis = topicClass.getBatch_time_millis();
+            int max_records = catch_up ? cfg.getCatch_up_batch_records() : topicClass.getBatch_records();
+            int max_millis = catch_up ? cfg.getCatch_up_batch_time_millis() : batch_time_millis;
 
-        try {
-            while (run) {
-                cur_time = System.currentTimeMillis();
+            if (cur_time - prev_time > max_millis ||
+                    bulk_count >= max_records) {
 
-                /*
-                 * Do insert/query if max wait/duration has been reached or if max statements have been reached.
-                 */
-                if (cur_time - prev_time > cfg.getDb_batch_time_millis() ||
-                        bulk_count >= cfg.getDb_batch_records()) {
+                if (bulk_count > 0) {
+                    logger.trace("Max reached, doing insert: wait_ms=%d bulk_count=%d",
+                                cur_time - prev_time, bulk_count);
 
-                    if (bulk_count > 0) {
-                        logger.trace("Max reached, doing insert: wait_ms=%d bulk_count=%d",
-                                    cur_time - prev_time, bulk_count);
+                    flush();
+                }
 
+                prev_time = System.currentTimeMillis();
+            }
 
-                        // Loop through queries and add as unique values to map
-                        for (Map.Entry<String, Map<String, String>> entry : bulk_query.entrySet()) {
-                            StringBuilder query = new StringBuilder();
+            replayJournal();
+            checkpoint(false);
 
-                            String key = entry.getKey();
+            // Get next query from queue
+            WriterQueueMsg wmsg = writerQueue.poll(batch_time_millis, TimeUnit.MILLISECONDS);
 
-                            String[] ins = key.split("[|]");
-                            query.append(ins[0]);       // Insert statement
+            if (wmsg != null)
+                addMessage(wmsg);
+        }
 
-                            boolean add_comma = false;
-                            for (String value : entry.getValue().values()) {
+        // Write the batch in progress, the messages left in the queue are consumed again
+        if (bulk_count > 0)
+            flush();
+    }
 
-                                if (add_comma) {
-                                    query.append(',');
-                                } else {
-                                    add_comma = true;
-                                }
+    /**
+     * Write batches of the queues given by the scheduler
+     *
+     *      A queue is held by this writer until its batch is written, so that the messages of a queue are
+     *      written in order.
+     */
+    private void runScheduled() throws InterruptedException {
+        while (run) {
+            WriterObject queue = scheduler.claim();
 
-                                query.append(value);
-                            }
+            if (queue != null) {
+                int messages = 0;
+                int rows = 0;
 
-                            // Ending suffix statement, such as on conflict
-                            if (ins.length > 1 && ins[1] != null && ins[1].length() > 0)
-                                query.append(ins[1]);
+                try {
+                    topicClass = queue.topicClass;
+                    catch_up = queue.isCatchUp();
 
-                            query.append(';');
-                            db.updateQuery(query.toString(), cfg.getDb_retries());
-                        }
+                    int max_records = catch_up ? cfg.getCatch_up_batch_records() : topicClass.getBatch_records();
 
-                        bulk_count = 0;
-                        bulk_query.clear();
+                    WriterQueueMsg wmsg;
+                    while (bulk_count < max_records && (wmsg = queue.writerQueue.poll()) != null) {
+                        addMessage(wmsg);
+                        messages++;
                     }
 
-                    prev_time = System.currentTimeMillis();
+                    rows = bulk_count;
+                    if (bulk_count > 0)
+                        flush();
+
+                } finally {
+                    scheduler.release(queue, messages, rows);
                 }
+            }
 
-                // Get next query from queue
-                WriterQueueMsg wmsg = writerQueue.poll(cfg.getDb_batch_time_millis(), TimeUnit.MILLISECONDS);
-
-                if (wmsg != null && wmsg.prefix != null && wmsg != null && wmsg.values.size() > 0) {
-                    if (wmsg.bulk_ok) {
-
-                        // First map key is the key for the bulk query statement
-                        String key = wmsg.prefix + "|" + wmsg.suffix;
-
-                        // merge the data to existing bulk map if already present
-                        if (bulk_query.containsKey(key)) {
-                            Map<String, String> query_entry = bulk_query.get(key);
-
-                            // Below will state compress records based on the value hash_id/key.  The last entry
-                            //   will be the final one that gets added to postgres.  State compression will only happen
-                            //   for same hash_id in the batch_time_millis timeframe. This is normally 500ms or less.
-                            for (Map.Entry<String, String> value: wmsg.values.entrySet()) {
-                                query_entry.put(value.getKey(), value.getValue());
-                                ++bulk_count;
-                            }
-                        } else { // Add new statement/query to bulk map
-                            bulk_query.put(key, wmsg.values);
-                            bulk_count += wmsg.values.size();
-                        }
-                    }
-                    else {  // Do not bulk/batch this query, run it now
-                        logger.debug("Non bulk query");
+            checkpoint(false);
+        }
+    }
+
+    /**
+     * Add a message to the batch, or run it now if it can't be batched
+     */
+    void addMessage(WriterQueueMsg wmsg) {
+        // Partition revoked since the message was queued, the new owner writes it
+        if (isRevoked(wmsg)) {
+            memoryBudget.release(wmsg.estimated_bytes);
 
-                        StringBuilder queryStr = new StringBuilder();
-                        queryStr.append(wmsg.prefix);
+            if (wmsg.packed != null)
+                OffHeapBuffer.getInstance().free(wmsg);
+            return;
+        }
 
-                        boolean add_comma = false;
-                        for (String value: wmsg.values.values()) {
-                            if (add_comma) {
-                                queryStr.append(',');
-                            } else {
-                                add_comma = true;
-                            }
+        // Values packed off-heap are decoded when added to the batch
+        if (wmsg.packed != null)
+            OffHeapBuffer.getInstance().unpack(wmsg);
 
-                            queryStr.append(value);
-                        }
+        if (wmsg.prefix == null || wmsg.values.size() <= 0) {
+            ackMessages(Collections.singletonList(wmsg));
 
-                        queryStr.append(wmsg.suffix);
+        } else if (wmsg.bulk_ok) {
+            bulk_msgs.add(wmsg);
 
-                        db.updateQuery(queryStr.toString(), 3);
-                    }
+            // First map key is the key for the bulk query statement
+            String key = wmsg.prefix + "|" + wmsg.suffix;
+
+            Map<String, WriterQueueMsg> key_sources = bulk_sources.computeIfAbsent(key, k -> new HashMap<>());
+            for (String value_key : wmsg.values.keySet())
+                key_sources.put(value_key, wmsg);
+
+            // merge the data to existing bulk map if already present
+            if (bulk_query.containsKey(key)) {
+                Map<String, String> query_entry = bulk_query.get(key);
+
+                // Below will state compress records based on the value hash_id/key.  The last entry
+                //   will be the final one that gets added to postgres.  State compression will only happen
+                //   for same hash_id in the batch_time_millis timeframe. This is normally 500ms or less.
+                for (Map.Entry<String, String> value: wmsg.values.entrySet()) {
+                    query_entry.put(value.getKey(), value.getValue());
+                    ++bulk_count;
                 }
+            } else { // Add new statement/query to bulk map, values of the message are kept as queued
+                bulk_query.put(key, new HashMap<>(wmsg.values));
+                bulk_count += wmsg.values.size();
             }
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        } catch (Exception e) {
-            logger.error("Exception: ", e);
         }
+        else {  // Do not bulk/batch this query, run it now
+            logger.debug("Non bulk query");
 
-        logger.info("Writer thread done");
+            List<String> values = new ArrayList<>(wmsg.values.values());
+            executeRows(wmsg.prefix, wmsg.suffix, values, Collections.nCopies(values.size(), wmsg), 3);
+
+            if (aborted)
+                memoryBudget.release(wmsg.estimated_bytes);
+            else
+                ackMessages(Collections.singletonList(wmsg));
+        }
+    }
+
+    /**
+     * Check if the partition of a message was revoked since it was queued
+     */
+    private static boolean isRevoked(WriterQueueMsg wmsg) {
+        return wmsg.offsetTracker != null && !wmsg.offsetTracker.isCurrent(wmsg.partition, wmsg.generation);
+    }
+
+    /**
+     * Rebuild the batch without the messages of partitions revoked since they were added
+     */
+    private void dropRevoked() {
+        boolean revoked = false;
+
+        for (WriterQueueMsg msg : bulk_msgs) {
+            if (isRevoked(msg)) {
+                revoked = true;
+                break;
+            }
+        }
+
+        if (!revoked)
+            return;
+
+        List<WriterQueueMsg> msgs = new ArrayList<>(bulk_msgs);
+
+        bulk_count = 0;
+        bulk_query.clear();
+        bulk_sources.clear();
+        bulk_msgs.clear();
+
+        for (WriterQueueMsg msg : msgs)
+            addMessage(msg);
+    }
+
+    /**
+     * Write the batch and acknowledge its messages
+     */
+    void flush() {
+        dropRevoked();
+
+        WriterFlushEvent event = new WriterFlushEvent();
+        event.begin();
+        long start_time = System.currentTimeMillis();
+
+        flushBulkQuery(bulk_query, bulk_sources);
+
+        flush_millis.addAndGet(System.currentTimeMillis() - start_time);
+        flushed_messages.addAndGet(bulk_msgs.size());
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.topicClass = topicClass.getName();
+            event.lane = lane;
+            event.statements = bulk_query.size();
+            event.rows = bulk_count;
+            event.catchUp = catch_up;
+            for (WriterQueueMsg msg : bulk_msgs)
+                event.bytes += msg.estimated_bytes;
+            event.commit();
+        }
+
+        bulk_count = 0;
+        bulk_query.clear();
+        bulk_sources.clear();
+
+        if (aborted) {
+            // Not written, offsets stay in flight so the records are consumed again
+            logger.warn("Shutdown while postgres is unavailable, %d messages not written", bulk_msgs.size());
+
+            for (WriterQueueMsg msg : bulk_msgs)
+                memoryBudget.release(msg.estimated_bytes);
+        } else {
+            ackMessages(bulk_msgs);
+        }
+        bulk_msgs.clear();
     }
 }
@@ -0,0 +1,300 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide writer scheduler
+ *
+ *      Writer queues of all consumer threads are written by a fixed pool of writers, one postgres
+ *      connection each, instead of each queue having its own writer thread and connection.  Writers
+ *      take the next ready queue round robin, so that busy consumers use idle connections and every
+ *      queue gets its turn.  A queue is ready when it has a batch of messages or when its batch time
+ *      has passed since its last batch.
+ *
+ *      A queue is held by one writer until its batch is written, so the messages of a queue, and
+ *      therefore of a record key, are written in order.  Consumers assign keys to queues and scale
+ *      their queues as before; writer_max_threads_per_type is then the number of queues.
+ */
+public class WriterScheduler {
+    private static final Logger logger = LogManager.getFormatterLogger(WriterScheduler.class.getName());
+
+    private static final int IDLE_WAIT_MILLIS = 10;             // Wait for a queue to become ready
+
+    private static WriterScheduler instance = null;
+
+    private final Config cfg;
+    private final int connections;
+
+    private final List<WriterObject> queues;
+    private final Set<WriterObject> claimed;                    // Queues held by a writer
+    private final Set<WriterObject> retiring;                   // Unregistered queues written until empty
+    private int cursor;                                         // Next queue to check, round robin
+
+    private final List<WriterRunnable> writers;
+    private ExecutorService executor;
+
+    private long batch_count;
+    private long message_count;
+    private long row_count;
+    private long rate_time;                                     // Time and row count of the last rate
+    private long rate_rows;
+
+    //Turns this class to a singleton
+    public static synchronized WriterScheduler getInstance() {
+        if (instance == null) {
+            Config cfg = Config.getInstance();
+            instance = new WriterScheduler(cfg, cfg.getWriter_connections());
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor
+     *
+     * @param cfg           Configuration
+     * @param connections   Number of writers and postgres connections
+     */
+    WriterScheduler(Config cfg, int connections) {
+        this.cfg = cfg;
+        this.connections = connections;
+
+        queues = new ArrayList<>();
+        claimed = new HashSet<>();
+        retiring = new HashSet<>();
+        writers = new ArrayList<>();
+        rate_time = System.currentTimeMillis();
+    }
+
+    /**
+     * Start the writers
+     */
+    public void start() {
+        executor = Executors.newFixedThreadPool(connections);
+
+        for (int i = 0; i < connections; i++) {
+            WriterRunnable writer = new WriterRunnable(cfg, this);
+            writers.add(writer);
+            executor.submit(writer);
+        }
+
+        logger.info("Writer scheduler started with %d connections", connections);
+    }
+
+    /**
+     * Shutdown the writers, after the batches being written.  Messages left in the queues are discarded.
+     */
+    public void shutdown() {
+        long start_time = System.currentTimeMillis();
+        List<WriterObject> removed;
+
+        synchronized (this) {
+            removed = new ArrayList<>(queues);
+            queues.clear();
+            retiring.clear();
+
+            while (!claimed.isEmpty() && System.currentTimeMillis() - start_time < 5000) {
+                try {
+                    wait(100);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+
+        for (WriterRunnable writer : writers)
+            writer.shutdown();
+
+        if (executor != null) {
+            executor.shutdown();
+
+            try {
+                if (!executor.awaitTermination(5000, TimeUnit.MILLISECONDS))
+                    logger.warn("Timed out waiting for scheduled writers to shut down");
+            } catch (InterruptedException e) {
+                logger.warn("Interrupted during writer scheduler shutdown");
+            }
+        }
+
+        // Messages left in the queues are no longer written, release their budget
+        int discarded = 0;
+        for (WriterObject queue : removed)
+            discarded += queue.discard();
+
+        if (discarded > 0)
+            logger.info("Writer scheduler discarded %d queued messages, they will be consumed again", discarded);
+    }
+
+    /**
+     * Add a queue to be written
+     */
+    public synchronized void register(WriterObject queue) {
+        queues.add(queue);
+    }
+
+    /**
+     * Remove a queue.  Messages left in the queue are written first, without waiting for the batch time,
+     *      and the queue is removed once it's empty.
+     */
+    public synchronized void unregister(WriterObject queue) {
+        if (queue.writerQueue.isEmpty() && !claimed.contains(queue))
+            remove(queue);
+        else if (queues.contains(queue))
+            retiring.add(queue);
+    }
+
+    private void remove(WriterObject queue) {
+        int idx = queues.indexOf(queue);
+
+        retiring.remove(queue);
+
+        if (idx >= 0) {
+            queues.remove(idx);
+
+            if (cursor > idx)
+                cursor--;
+        }
+    }
+
+    /**
+     * Take the next ready queue, waiting briefly if none is ready
+     *
+     * @return Queue held by the caller until released, or null if none is ready
+     */
+    synchronized WriterObject claim() throws InterruptedException {
+        WriterObject queue = nextReady();
+
+        if (queue == null) {
+            wait(IDLE_WAIT_MILLIS);
+            queue = nextReady();
+        }
+
+        if (queue != null)
+            claimed.add(queue);
+
+        return queue;
+    }
+
+    /**
+     * Release a queue after its batch is written
+     *
+     * @param queue         Queue taken by claim()
+     * @param messages      Messages written
+     * @param rows          Rows written
+     */
+    synchronized void release(WriterObject queue, int messages, int rows) {
+        claimed.remove(queue);
+        queue.last_flush_time = System.currentTimeMillis();
+
+        if (retiring.contains(queue) && queue.writerQueue.isEmpty())
+            remove(queue);
+
+        if (messages > 0) {
+            batch_count++;
+            message_count += messages;
+            row_count += rows;
+        }
+
+        notifyAll();
+    }
+
+    private WriterObject nextReady() {
+        long now = System.currentTimeMillis();
+        int size = queues.size();
+
+        for (int i = 0; i < size; i++) {
+            int idx = (cursor + i) % size;
+            WriterObject queue = queues.get(idx);
+            int queued = queue.writerQueue.size();
+
+            if (queued == 0 || claimed.contains(queue))
+                continue;
+
+            TopicClass tc = queue.topicClass;
+            int max_records = queue.isCatchUp() ? cfg.getCatch_up_batch_records() : tc.getBatch_records();
+            int max_millis = queue.isCatchUp() ? cfg.getCatch_up_batch_time_millis() : tc.getBatch_time_millis();
+
+            if (queued >= max_records || now - queue.last_flush_time >= max_millis || retiring.contains(queue)) {
+                cursor = (idx + 1) % size;
+                return queue;
+            }
+        }
+
+        return null;
+    }
+
+    public int getConnections() {
+        return connections;
+    }
+
+    public synchronized int getQueue_count() {
+        return queues.size();
+    }
+
+    public synchronized int getBusy_count() {
+        return claimed.size();
+    }
+
+    /**
+     * Messages in all queues
+     */
+    public synchronized long getQueued_messages() {
+        long queued = 0;
+
+        for (WriterObject queue : queues)
+            queued += queue.writerQueue.size();
+
+        return queued;
+    }
+
+    /**
+     * Percent full of all queues
+     */
+    public synchronized double getQueued_percent() {
+        long queued = 0;
+        long capacity = 0;
+
+        for (WriterObject queue : queues) {
+            queued += queue.writerQueue.size();
+            capacity += queue.queue_capacity;
+        }
+
+        return capacity > 0 ? 100.0 * queued / capacity : 0;
+    }
+
+    public synchronized long getBatch_count() {
+        return batch_count;
+    }
+
+    public synchronized long getMessage_count() {
+        return message_count;
+    }
+
+    public synchronized long getRow_count() {
+        return row_count;
+    }
+
+    /**
+     * Rows written per second since the last call
+     */
+    public synchronized double getRows_per_second() {
+        long now = System.currentTimeMillis();
+        double rate = now > rate_time ? (row_count - rate_rows) * 1000.0 / (now - rate_time) : 0;
+
+        rate_time = now;
+        rate_rows = row_count;
+
+        return rate;
+    }
+}
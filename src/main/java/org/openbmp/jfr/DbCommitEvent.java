@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDBC commit of a transaction
+ */
+@Name("org.openbmp.DbCommit")
+@Label("DB Commit")
+@Category({"OpenBMP", "Postgres"})
+@Description("JDBC commit of a transaction")
+@StackTrace(false)
+public class DbCommitEvent extends Event {
+    @Label("Synchronous")
+    @Description("Commit waits for the WAL flush")
+    public boolean synchronous;
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Execute and commit of a statement, including retries
+ */
+@Name("org.openbmp.DbExecute")
+@Label("DB Execute")
+@Category({"OpenBMP", "Postgres"})
+@Description("JDBC execute and commit of a statement, including retries")
+@StackTrace(false)
+public class DbExecuteEvent extends Event {
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Retries")
+    public int retries;
+
+    @Label("Success")
+    public boolean success;
+
+    @Label("SQL State")
+    public String sqlState;
+}
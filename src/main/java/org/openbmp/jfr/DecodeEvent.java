@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Decode of a Kafka record, from the message headers to the parsed records
+ *
+ *      Emitted per record, so only slow decodes are recorded by default.
+ */
+@Name("org.openbmp.Decode")
+@Label("Record Decode")
+@Category({"OpenBMP", "Consumer"})
+@Description("Decode of a Kafka record into parsed records")
+@Threshold("1 ms")
+@StackTrace(false)
+public class DecodeEvent extends Event {
+    @Label("Record Type")
+    public String recordType;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
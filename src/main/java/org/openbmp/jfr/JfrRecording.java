@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.text.ParseException;
+import java.time.Duration;
+
+/**
+ * Continuous flight recording
+ *
+ *      Starts a disk based recording with the pipeline events and the JVM events of a JFR settings
+ *      file, such as "default" which has low overhead.  The recording keeps a max age and size of
+ *      data, which can be dumped at any time with "jcmd <pid> JFR.dump name=obmp-psql filename=...".
+ *      It is dumped to the dump file on shutdown.
+ */
+public class JfrRecording {
+    private static final Logger logger = LogManager.getFormatterLogger(JfrRecording.class.getName());
+
+    public static final String NAME = "obmp-psql";
+
+    private Recording recording;
+    private final String dump_file;
+
+    /**
+     * Constructor
+     *
+     * @param dump_file     File to dump the recording to on shutdown, null to not dump
+     */
+    public JfrRecording(String dump_file) {
+        this.dump_file = dump_file;
+    }
+
+    /**
+     * Start the recording
+     *
+     * @param settings          JFR settings name, such as default or profile, or path to a .jfc file
+     * @param max_age_minutes   Max age of recorded data
+     * @param max_size_mb       Max size of recorded data
+     *
+     * @return True if started
+     */
+    public boolean start(String settings, int max_age_minutes, int max_size_mb) {
+        try {
+            Configuration config = settings.endsWith(".jfc")
+                    ? Configuration.create(Paths.get(settings))
+                    : Configuration.getConfiguration(settings);
+
+            recording = new Recording(config);
+            recording.setName(NAME);
+            recording.setToDisk(true);
+            recording.setMaxAge(Duration.ofMinutes(max_age_minutes));
+            recording.setMaxSize(max_size_mb * 1024L * 1024L);
+
+            // Pipeline events are enabled regardless of the settings
+            recording.enable(KafkaPollEvent.class);
+            recording.enable(DecodeEvent.class);
+            recording.enable(QueryBuildEvent.class);
+            recording.enable(QueueHandoffEvent.class);
+            recording.enable(QueueWaitEvent.class);
+            recording.enable(WriterFlushEvent.class);
+            recording.enable(DbExecuteEvent.class);
+            recording.enable(DbCommitEvent.class);
+
+            recording.start();
+
+            logger.info("Started flight recording %s with %s settings, max age %d minutes, max size %d MB",
+                        NAME, settings, max_age_minutes, max_size_mb);
+            return true;
+
+        } catch (IOException | ParseException | IllegalStateException | SecurityException e) {
+            logger.error("Unable to start flight recording: %s", e.getMessage());
+            recording = null;
+            return false;
+        }
+    }
+
+    /**
+     * Stop the recording, dumping it to the dump file if configured
+     */
+    public void shutdown() {
+        if (recording == null)
+            return;
+
+        try {
+            if (dump_file != null && dump_file.length() > 0) {
+                recording.dump(Paths.get(dump_file));
+                logger.info("Dumped flight recording to %s", dump_file);
+            }
+        } catch (IOException e) {
+            logger.error("Unable to dump flight recording to %s: %s", dump_file, e.getMessage());
+        }
+
+        recording.close();
+        recording = null;
+    }
+}
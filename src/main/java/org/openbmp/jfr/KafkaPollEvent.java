@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Kafka poll that returned records
+ */
+@Name("org.openbmp.KafkaPoll")
+@Label("Kafka Poll")
+@Category({"OpenBMP", "Consumer"})
+@Description("Kafka consumer poll that returned records")
+@StackTrace(false)
+public class KafkaPollEvent extends Event {
+    @Label("Topic Class")
+    public String topicClass;
+
+    @Label("Records")
+    public int records;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
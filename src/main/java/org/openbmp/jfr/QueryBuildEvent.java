@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Build of the insert statement and values of a Kafka record
+ *
+ *      Emitted per record, so only slow builds are recorded by default.
+ */
+@Name("org.openbmp.QueryBuild")
+@Label("Query Build")
+@Category({"OpenBMP", "Consumer"})
+@Description("Build of the SQL statement and values rows of a record")
+@Threshold("1 ms")
+@StackTrace(false)
+public class QueryBuildEvent extends Event {
+    @Label("Record Type")
+    public String recordType;
+
+    @Label("Rows")
+    public int rows;
+}
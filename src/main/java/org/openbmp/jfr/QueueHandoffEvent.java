@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Handoff of pending consumer messages to the writer queues
+ */
+@Name("org.openbmp.QueueHandoff")
+@Label("Queue Handoff")
+@Category({"OpenBMP", "Consumer"})
+@Description("Handoff of pending consumer queue messages to the writer queues")
+@StackTrace(false)
+public class QueueHandoffEvent extends Event {
+    @Label("Topic Class")
+    public String topicClass;
+
+    @Label("Messages")
+    @Description("Messages handed off to writers")
+    public int messages;
+
+    @Label("Requeued")
+    @Description("Messages put back in the consumer queue since the writer queue is full")
+    public int requeued;
+
+    @Label("Busy Writers")
+    public int busyWriters;
+}
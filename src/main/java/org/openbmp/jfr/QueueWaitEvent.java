@@ -0,0 +1,32 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Consumer blocked adding a message, waiting for the memory budget or consumer queue
+ */
+@Name("org.openbmp.QueueWait")
+@Label("Queue Wait")
+@Category({"OpenBMP", "Consumer"})
+@Description("Consumer blocked waiting for the memory budget or consumer queue space")
+@StackTrace(false)
+public class QueueWaitEvent extends Event {
+    @Label("Topic Class")
+    public String topicClass;
+
+    @Label("Reason")
+    public String reason;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flush of a writer batch to postgres
+ */
+@Name("org.openbmp.WriterFlush")
+@Label("Writer Flush")
+@Category({"OpenBMP", "Writer"})
+@Description("Flush of a writer batch to postgres")
+@StackTrace(false)
+public class WriterFlushEvent extends Event {
+    @Label("Topic Class")
+    public String topicClass;
+
+    @Label("Writer Lane")
+    public int lane;
+
+    @Label("Statements")
+    public int statements;
+
+    @Label("Rows")
+    public int rows;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Catch-up Mode")
+    public boolean catchUp;
+}
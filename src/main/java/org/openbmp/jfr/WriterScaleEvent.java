@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Writer autoscaler decision
+ */
+@Name("org.openbmp.WriterScale")
+@Label("Writer Scale")
+@Category({"OpenBMP", "Writer"})
+@Description("Writer count decision of the autoscaler and its measurements")
+@StackTrace(false)
+public class WriterScaleEvent extends Event {
+    @Label("Topic Class")
+    public String topicClass;
+
+    @Label("Consumer Thread")
+    public int thread;
+
+    @Label("Writers")
+    public int writers;
+
+    @Label("New Writers")
+    public int newWriters;
+
+    @Label("Target Writers")
+    public int target;
+
+    @Label("Arrival Rate")
+    @Description("Messages per second handed to the writers")
+    public double arrivalRate;
+
+    @Label("Flush Millis Per Message")
+    public double serviceMillis;
+
+    @Label("Queued Messages")
+    public long queued;
+
+    @Label("Lock Waits")
+    public int lockWaits;
+
+    @Label("Reason")
+    public String reason;
+}
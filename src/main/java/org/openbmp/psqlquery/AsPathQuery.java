@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+
+package org.openbmp.psqlquery;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Interned AS paths, referenced by base_attrs.as_path_id
+ *
+ *      Paths are never updated, so existing rows are not touched.
+ */
+public class AsPathQuery extends Query {
+    private final Map<Long, String> paths;
+
+    /**
+     * Constructor
+     *
+     * @param paths         Path ids and paths, in postgres bigint[] literal format
+     */
+    public AsPathQuery(Map<Long, String> paths) {
+
+        this.paths = paths;
+    }
+
+    /**
+     * Ids of the paths of the query, added to the AS path dictionary once written
+     */
+    public Collection<Long> getPath_ids() {
+        return paths.keySet();
+    }
+
+    public String[] genInsertStatement() {
+        String [] stmt = { " INSERT INTO as_paths (path_id,as_path) VALUES ",
+                           " ON CONFLICT DO NOTHING" };
+        return stmt;
+    }
+
+    public Map<String, String> genValuesStatement() {
+        Map<String, String> values = new HashMap<>();
+
+        for (Map.Entry<Long, String> path: paths.entrySet()) {
+            values.put("as_path " + path.getKey(), "(" + path.getKey() + ',' + path.getValue() + ')');
+        }
+
+        return values;
+    }
+
+}
@@ -6,6 +6,7 @@ package org.openbmp.psqlquery;
 
 import java.util.*;
 
+import org.openbmp.AsPathDictionary;
 import org.openbmp.api.parsed.message.BaseAttributePojo;
 import org.openbmp.api.parsed.message.MsgBusFields;
 
@@ -14,14 +15,40 @@ import static org.openbmp.psqlquery.PsqlFunctions.create_psql_array_long_string;
 
 public class BaseAttributeQuery extends Query{
 	private final List<BaseAttributePojo> records;
+	private final AsPathDictionary dictionary;
+	private final Map<Long, String> new_paths;
 
 	public BaseAttributeQuery(List<BaseAttributePojo> records){
-		
+
+		this(records, null);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param records       Base attribute records
+	 * @param dictionary    Dictionary of the AS paths already written, null to write all paths
+	 */
+	public BaseAttributeQuery(List<BaseAttributePojo> records, AsPathDictionary dictionary){
+
 		this.records = records;
+		this.dictionary = dictionary;
+		this.new_paths = new HashMap<>();
+	}
+
+	/**
+	 * Generate the query of the AS paths that are not yet written
+	 *
+	 *      Must be called after genValuesStatement()
+	 *
+	 * @return Query or null if all paths are already written
+	 */
+	public AsPathQuery genAsPathQuery() {
+		return new_paths.size() > 0 ? new AsPathQuery(new_paths) : null;
 	}
 	
     public String[] genInsertStatement() {
-        final String [] stmt = { " INSERT INTO base_attrs (hash_id,peer_hash_id,origin,as_path,origin_as,next_hop,med,local_pref," +
+        final String [] stmt = { " INSERT INTO base_attrs (hash_id,peer_hash_id,origin,as_path_id,origin_as,next_hop,med,local_pref," +
                                  "isAtomicAgg,aggregator,community_list,ext_community_list,large_community_list," +
                                  "cluster_list,originator_id,as_path_count,nexthop_isIPv4,timestamp)" +
                                   " VALUES ",
@@ -47,7 +74,13 @@ public class BaseAttributeQuery extends Query{
             sb.append('\''); sb.append(pojo.getPeer_hash()); sb.append("'::uuid,");
             sb.append('\''); sb.append(pojo.getOrigin()); sb.append("',");
 
-            sb.append(create_psql_array_long_string(pojo.getAs_path())); sb.append(',');
+            String as_path = create_psql_array_long_string(pojo.getAs_path());
+            long path_id = AsPathDictionary.pathId(as_path);
+
+            if (dictionary == null || !dictionary.isWritten(path_id))
+                new_paths.put(path_id, as_path);
+
+            sb.append(path_id); sb.append(',');
 
             sb.append(pojo.getOrigin_asn()); sb.append(',');
             sb.append('\''); sb.append(pojo.getNext_hop()); sb.append("'::inet,");
@@ -3,6 +3,7 @@
  */
 package org.openbmp.psqlquery;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,43 +11,110 @@ import java.util.Map;
 import org.openbmp.api.parsed.message.MsgBusFields;
 
 public class BmpStatQuery extends Query{
-	
-	public BmpStatQuery(List<Map<String, Object>> rowMap){
-		
-		this.rowMap = rowMap;
-	}
-	
+
+    /**
+     * Counters of a stats report, in stat_reports column order
+     */
+    public static final MsgBusFields[] COUNTER_FIELDS = {
+            MsgBusFields.REJECTED, MsgBusFields.KNOWN_DUP_UPDATES, MsgBusFields.KNOWN_DUP_WITHDRAWS,
+            MsgBusFields.INVALID_CLUSTER_LIST, MsgBusFields.INVALID_AS_PATH, MsgBusFields.INVALID_ORIGINATOR,
+            MsgBusFields.INVALID_AS_CONFED, MsgBusFields.PRE_POLICY, MsgBusFields.POST_POLICY };
+
+    public static final String COUNTER_COLUMNS = "prefixes_rejected,known_dup_prefixes,known_dup_withdraws," +
+            "updates_invalid_by_cluster_list,updates_invalid_by_as_path_loop,updates_invalid_by_originagtor_id," +
+            "updates_invalid_by_as_confed_loop,num_routes_adj_rib_in,num_routes_local_rib";
+
+    /**
+     * Stats report sample of a peer
+     */
+    public static class Sample {
+        public final String peer_hash_id;
+        public final String timestamp;
+        public final long[] counters;
+
+        public Sample(String peer_hash_id, String timestamp, long[] counters) {
+            this.peer_hash_id = peer_hash_id;
+            this.timestamp = timestamp;
+            this.counters = counters;
+        }
+    }
+
+    private final List<Sample> samples;
+
+    public BmpStatQuery(List<Sample> samples){
+
+        this.samples = samples;
+    }
+
+    /**
+     * Parse the stats report rows of a message to typed samples
+     *
+     * @param rowMap        Rows of the parsed bmp_stat message
+     *
+     * @return List of samples
+     */
+    public static List<Sample> parse(List<Map<String, Object>> rowMap) {
+        List<Sample> samples = new ArrayList<>(rowMap.size());
+
+        for (Map<String, Object> row : rowMap) {
+            long[] counters = new long[COUNTER_FIELDS.length];
+
+            for (int c = 0; c < COUNTER_FIELDS.length; c++)
+                counters[c] = toLong(lookup(row, COUNTER_FIELDS[c]));
+
+            samples.add(new Sample(String.valueOf(lookup(row, MsgBusFields.PEER_HASH)),
+                                   String.valueOf(lookup(row, MsgBusFields.TIMESTAMP)), counters));
+        }
+
+        return samples;
+    }
+
+    private static Object lookup(Map<String, Object> row, MsgBusFields header) {
+        Object value = row != null ? row.get(header.getName()) : null;
+
+        return value == null ? header.getDefaultValue() : value;
+    }
+
+    private static long toLong(Object value) {
+        if (value instanceof Number)
+            return ((Number) value).longValue();
+
+        try {
+            return Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException | NullPointerException e) {
+            return 0L;
+        }
+    }
+
     public String[] genInsertStatement() {
-        String [] stmt = { " INSERT INTO stat_reports (peer_hash_id,timestamp,prefixes_rejected,known_dup_prefixes,known_dup_withdraws," +
-                           "updates_invalid_by_cluster_list,updates_invalid_by_as_path_loop,updates_invalid_by_originagtor_id," +
-                           "updates_invalid_by_as_confed_loop,num_routes_adj_rib_in,num_routes_local_rib) VALUES ",
+        String [] stmt = { " INSERT INTO stat_reports (peer_hash_id,timestamp," + COUNTER_COLUMNS + ") VALUES ",
 
                            " " };
         return stmt;
     }
 
+    /**
+     * Generate the values of each sample
+     *
+     *      Values are keyed by peer and timestamp so that all samples of a peer in a batch are written.
+     */
     public Map<String, String> genValuesStatement() {
         Map<String, String> values = new HashMap<>();
 
-        for (int i=0; i < rowMap.size(); i++) {
+        for (Sample sample : samples) {
             StringBuilder sb = new StringBuilder();
 
-            sb.append('(');
-            sb.append("'" + lookupValue(MsgBusFields.PEER_HASH, i) + "',");
-            sb.append("'" + lookupValue(MsgBusFields.TIMESTAMP, i) + "',");
-            sb.append(lookupValue(MsgBusFields.REJECTED, i) + ",");
-            sb.append(lookupValue(MsgBusFields.KNOWN_DUP_UPDATES, i) + ",");
-            sb.append(lookupValue(MsgBusFields.KNOWN_DUP_WITHDRAWS, i) + ",");
-            sb.append(lookupValue(MsgBusFields.INVALID_CLUSTER_LIST, i) + ",");
-            sb.append(lookupValue(MsgBusFields.INVALID_AS_PATH, i) + ",");
-            sb.append(lookupValue(MsgBusFields.INVALID_ORIGINATOR, i) + ",");
-            sb.append(lookupValue(MsgBusFields.INVALID_AS_CONFED, i) + ",");
-            sb.append(lookupValue(MsgBusFields.PRE_POLICY, i) + ",");
-            sb.append(lookupValue(MsgBusFields.POST_POLICY, i) + "");
+            sb.append("('");
+            sb.append(sample.peer_hash_id); sb.append("'::uuid,");
+            sb.append('\''); sb.append(sample.timestamp); sb.append("'::timestamp");
+
+            for (long counter : sample.counters) {
+                sb.append(','); sb.append(counter);
+            }
 
             sb.append(')');
 
-            values.put(lookupValue(MsgBusFields.PEER_HASH, i).toString(), sb.toString());
+            values.put(sample.peer_hash_id + ' ' + sample.timestamp, sb.toString());
         }
 
         return values;
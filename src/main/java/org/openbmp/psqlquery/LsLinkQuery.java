@@ -7,6 +7,8 @@ package org.openbmp.psqlquery;
 import org.openbmp.api.helpers.IpAddr;
 import org.openbmp.api.parsed.message.LsLinkPojo;
 
+import org.openbmp.LinkStateCache;
+
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,10 +16,23 @@ import java.util.Map;
 
 public class LsLinkQuery extends Query {
     private final List<LsLinkPojo> records;
+    private final LinkStateCache cache;
 
     public LsLinkQuery(List<LsLinkPojo> records){
 
+        this(records, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param records       Records of the message
+     * @param cache         Link-state cache to drop unchanged records, null to write all records
+     */
+    public LsLinkQuery(List<LsLinkPojo> records, LinkStateCache cache){
+
         this.records = records;
+        this.cache = cache;
     }
 
 
@@ -121,6 +136,11 @@ public class LsLinkQuery extends Query {
             sb.append('\''); sb.append(pojo.getAdjacency_segment_id()); sb.append("',");
 
             sb.append(pojo.getWithdrawn()); sb.append(',');
+
+            // Unchanged records, excluding the timestamp, are not written
+            if (cache != null && !cache.update(pojo.getHash(), pojo.getPeer_hash(), pojo.getSequence(), sb))
+                continue;
+
             sb.append('\''); sb.append(pojo.getTimestamp()); sb.append("'::timestamp");
             sb.append(')');
 
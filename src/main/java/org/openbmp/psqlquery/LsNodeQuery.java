@@ -8,15 +8,29 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.openbmp.LinkStateCache;
 import org.openbmp.api.parsed.message.LsNodePojo;
 
 
 public class LsNodeQuery extends Query {
     private final List<LsNodePojo> records;
+    private final LinkStateCache cache;
 
     public LsNodeQuery(List<LsNodePojo> records){
 
+        this(records, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param records       Records of the message
+     * @param cache         Link-state cache to drop unchanged records, null to write all records
+     */
+    public LsNodeQuery(List<LsNodePojo> records, LinkStateCache cache){
+
         this.records = records;
+        this.cache = cache;
     }
 
     public String[] genInsertStatement() {
@@ -74,6 +88,11 @@ public class LsNodeQuery extends Query {
             sb.append('\''); sb.append(pojo.getSr_capabilities()); sb.append("',");
 
             sb.append(pojo.getWithdrawn()); sb.append(',');
+
+            // Unchanged records, excluding the timestamp, are not written
+            if (cache != null && !cache.update(pojo.getHash(), pojo.getPeer_hash(), pojo.getSequence(), sb))
+                continue;
+
             sb.append('\''); sb.append(pojo.getTimestamp()); sb.append("'::timestamp");
             sb.append(')');
 
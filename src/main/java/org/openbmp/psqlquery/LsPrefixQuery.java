@@ -7,6 +7,8 @@ package org.openbmp.psqlquery;
 import org.openbmp.api.helpers.IpAddr;
 import org.openbmp.api.parsed.message.LsPrefixPojo;
 
+import org.openbmp.LinkStateCache;
+
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -14,10 +16,23 @@ import java.util.Map;
 
 public class LsPrefixQuery extends Query {
     private final List<LsPrefixPojo> records;
+    private final LinkStateCache cache;
 
     public LsPrefixQuery(List<LsPrefixPojo> records){
 
+        this(records, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param records       Records of the message
+     * @param cache         Link-state cache to drop unchanged records, null to write all records
+     */
+    public LsPrefixQuery(List<LsPrefixPojo> records, LinkStateCache cache){
+
         this.records = records;
+        this.cache = cache;
     }
 
 
@@ -89,6 +104,11 @@ public class LsPrefixQuery extends Query {
 
 
             sb.append(pojo.getWithdrawn()); sb.append(',');
+
+            // Unchanged records, excluding the timestamp, are not written
+            if (cache != null && !cache.update(pojo.getHash(), pojo.getPeer_hash(), pojo.getSequence(), sb))
+                continue;
+
             sb.append('\''); sb.append(pojo.getTimestamp()); sb.append("'::timestamp");
             sb.append(')');
 
@@ -35,7 +35,11 @@ public class PeerQuery extends Query{
                                    "remote_hold_time=excluded.remote_hold_time,sent_capabilities=excluded.sent_capabilities," +
                                    "recv_capabilities=excluded.recv_capabilities,bmp_reason=excluded.bmp_reason," +
                                    "bgp_err_code=excluded.bgp_err_code,bgp_err_subcode=excluded.bgp_err_subcode," +
-                                   "error_text=excluded.error_text,table_name=excluded.table_name" };
+                                   "error_text=excluded.error_text,table_name=excluded.table_name," +
+                                   "session_epoch=CASE WHEN excluded.timestamp > bgp_peers.timestamp " +
+                                        "THEN bgp_peers.session_epoch + 1 ELSE bgp_peers.session_epoch END," +
+                                   "session_start=CASE WHEN excluded.timestamp > bgp_peers.timestamp " +
+                                        "THEN excluded.timestamp ELSE bgp_peers.session_start END" };
         return stmt;
     }
 
@@ -110,11 +114,14 @@ public class PeerQuery extends Query{
 
 
     /**
-     * Generate SQL RIB update statement to withdraw all rib entries
+     * Generate SQL RIB update statement to reconcile rib entries with the peer session
      *
-     * Upon peer up or down, withdraw all RIB entries.  When the PEER is up all
-     *   RIB entries will get updated.  Depending on how long the peer was down, some
-     *   entries may not be present anymore, thus they are withdrawn.
+     * Upon peer up or down, the peer session epoch is incremented (see genInsertStatement).  RIB
+     *   entries stamped with a previous epoch are treated as withdrawn until they are re-learned,
+     *   and entries that are not re-learned are purged in the background by purge_stale_ip_rib().
+     *
+     * Prefix messages are consumed in parallel to peer messages, so entries from the new session can
+     *   be stored before the epoch is incremented.  Those entries are promoted to the current epoch.
      *
      * @return  List of query strings to execute
      */
@@ -124,12 +131,11 @@ public class PeerQuery extends Query{
         for (PeerPojo pojo : records) {
             StringBuilder sb = new StringBuilder();
 
-            //sb.append("UPDATE ip_rib SET isWithdrawn = true WHERE peer_hash_id = '");
-            sb.append("LOCK ip_rib IN EXCLUSIVE MODE;");
-            sb.append("DELETE FROM ip_rib WHERE peer_hash_id = '");
-            sb.append(pojo.getHash());
-            sb.append("' AND timestamp < '");
-            sb.append(pojo.getTimestamp()); sb.append('\'');
+            sb.append("UPDATE ip_rib r SET peer_epoch = p.session_epoch FROM bgp_peers p");
+            sb.append(" WHERE p.hash_id = '"); sb.append(pojo.getHash()); sb.append("'");
+            sb.append(" AND r.peer_hash_id = p.hash_id");
+            sb.append(" AND r.peer_epoch < p.session_epoch");
+            sb.append(" AND r.timestamp >= p.session_start");
 
 //            sb.append("; UPDATE ls_nodes SsET isWithdrawn = True WHERE peer_hash_id = '");
 //            sb.append(lookupValue(MsgBusFields.HASH, i));
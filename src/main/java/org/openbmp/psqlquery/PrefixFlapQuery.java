@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+
+package org.openbmp.psqlquery;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Flap summaries of dampened prefixes, written to ip_rib_flaps
+ *
+ *      Each row is a coalescing window of a (peer, prefix) that had updates suppressed.
+ */
+public class PrefixFlapQuery extends Query {
+
+    /**
+     * Coalescing window of a flapping prefix
+     */
+    public static class Flap {
+        public final String peer_hash_id;
+        public final String hash_id;
+        public final String prefix;
+        public final int prefix_len;
+        public final int updates;                   ///< Updates received within the window
+        public final int suppressed;                ///< Updates not written
+        public final String first_timestamp;        ///< Timestamp of the first update of the window
+        public final String last_timestamp;         ///< Timestamp of the last update of the window
+
+        public Flap(String peer_hash_id, String hash_id, String prefix, int prefix_len, int updates,
+                    int suppressed, String first_timestamp, String last_timestamp) {
+            this.peer_hash_id = peer_hash_id;
+            this.hash_id = hash_id;
+            this.prefix = prefix;
+            this.prefix_len = prefix_len;
+            this.updates = updates;
+            this.suppressed = suppressed;
+            this.first_timestamp = first_timestamp;
+            this.last_timestamp = last_timestamp;
+        }
+    }
+
+    private final List<Flap> records;
+
+    /**
+     * Constructor
+     *
+     * @param records       Flap summaries to write
+     */
+    public PrefixFlapQuery(List<Flap> records) {
+
+        this.records = records;
+    }
+
+    public String[] genInsertStatement() {
+        String [] stmt = { " INSERT INTO ip_rib_flaps (peer_hash_id,hash_id,prefix,prefix_len,updates,suppressed," +
+                                "first_timestamp,timestamp) VALUES ",
+                           " " };
+        return stmt;
+    }
+
+    public Map<String, String> genValuesStatement() {
+        Map<String, String> values = new HashMap<>();
+
+        for (Flap flap: records) {
+            StringBuilder sb = new StringBuilder();
+
+            sb.append("('");
+            sb.append(flap.peer_hash_id); sb.append("'::uuid,");
+            sb.append('\''); sb.append(flap.hash_id); sb.append("'::uuid,");
+            sb.append('\''); sb.append(flap.prefix); sb.append('/'); sb.append(flap.prefix_len); sb.append("'::inet,");
+            sb.append(flap.prefix_len); sb.append(',');
+            sb.append(flap.updates); sb.append(',');
+            sb.append(flap.suppressed); sb.append(',');
+            sb.append('\''); sb.append(flap.first_timestamp); sb.append("'::timestamp,");
+            sb.append('\''); sb.append(flap.last_timestamp); sb.append("'::timestamp");
+            sb.append(')');
+
+            values.put(flap.peer_hash_id + ' ' + flap.hash_id + ' ' + flap.last_timestamp, sb.toString());
+        }
+
+        return values;
+    }
+
+}
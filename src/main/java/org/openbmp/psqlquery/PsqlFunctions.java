@@ -204,4 +204,87 @@ public class PsqlFunctions {
         return sb.toString();
     }
 
+
+    /**
+     * Convert a values row to a COPY text format row
+     *
+     *      The values row is a row generated by genValuesStatement(), such as ('a'::uuid,1,null::uuid,true).
+     *      Quoted strings, numbers, booleans and nulls are supported.  Casts are removed, COPY converts the
+     *      text to the column type of the table.
+     *
+     * @param values        Values row string
+     *
+     * @return COPY text row, tab delimited without the newline, or null if the row has unsupported expressions
+     */
+    public static String values_to_copy_row(String values) {
+        StringBuilder sb = new StringBuilder();
+
+        int i = values.indexOf('(') + 1;
+        int end = values.lastIndexOf(')');
+
+        if (i <= 0 || end < i)
+            return null;
+
+        boolean first_item = true;
+        while (i < end) {
+            while (i < end && values.charAt(i) == ' ')
+                i++;
+
+            if (!first_item)
+                sb.append('\t');
+            else
+                first_item = false;
+
+            if (i < end && values.charAt(i) == '\'') {
+                for (i++; i < end; i++) {
+                    char c = values.charAt(i);
+
+                    if (c == '\'') {
+                        if (i + 1 < end && values.charAt(i + 1) == '\'') {
+                            sb.append('\'');
+                            i++;
+                            continue;
+                        }
+                        break;
+                    }
+
+                    switch (c) {
+                        case '\\': sb.append("\\\\"); break;
+                        case '\t': sb.append("\\t"); break;
+                        case '\n': sb.append("\\n"); break;
+                        case '\r': sb.append("\\r"); break;
+                        default: sb.append(c);
+                    }
+                }
+
+                // Skip the closing quote and cast
+                while (i < end && values.charAt(i) != ',')
+                    i++;
+
+            } else {
+                int start = i;
+                while (i < end && values.charAt(i) != ',')
+                    i++;
+
+                String item = values.substring(start, i).trim();
+
+                int cast = item.indexOf("::");
+                if (cast >= 0)
+                    item = item.substring(0, cast).trim();
+
+                if (item.equalsIgnoreCase("null"))
+                    sb.append("\\N");
+                else if (item.equalsIgnoreCase("true") || item.equalsIgnoreCase("false")
+                        || item.matches("-?[0-9]+([.][0-9]+)?"))
+                    sb.append(item);
+                else
+                    return null;
+            }
+
+            i++;        // comma
+        }
+
+        return sb.toString();
+    }
+
 }
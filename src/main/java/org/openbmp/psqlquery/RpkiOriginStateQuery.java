@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+
+package org.openbmp.psqlquery;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * RPKI origin validation state of a prefix and origin ASN
+ *
+ *      Rows are only updated when the state or the matched ROA origin changed, which avoids
+ *      creating new row versions for revalidated prefixes that did not change.  The timestamp of
+ *      an unchanged row is refreshed when it's older than an hour, so that rows still written by
+ *      the consumer are not purged by purge_rpki_origin_state().
+ */
+public class RpkiOriginStateQuery extends Query {
+
+    /**
+     * Validation state entry
+     */
+    public static class Entry {
+        public String prefix;               ///< Prefix address, without length
+        public int prefix_len;
+        public long origin_as;              ///< Received origin ASN
+        public String state;                ///< rpki_state enum value (valid, invalid, notfound)
+        public Long rpki_origin_as;         ///< Origin ASN of the matched ROA, null if not found
+    }
+
+    private final List<Entry> records;
+
+    public RpkiOriginStateQuery(List<Entry> records) {
+
+        this.records = records;
+    }
+
+    public List<Entry> getRecords() {
+        return records;
+    }
+
+    public String[] genInsertStatement() {
+        String [] stmt = { " INSERT INTO rpki_origin_state (prefix,origin_as,state,rpki_origin_as,timestamp) " +
+                            " VALUES ",
+
+                           " ON CONFLICT (prefix,origin_as) DO UPDATE SET state=excluded.state," +
+                               "rpki_origin_as=excluded.rpki_origin_as,timestamp=excluded.timestamp " +
+                           " WHERE rpki_origin_state.state <> excluded.state" +
+                               " OR rpki_origin_state.rpki_origin_as IS DISTINCT FROM excluded.rpki_origin_as" +
+                               " OR rpki_origin_state.timestamp < excluded.timestamp - interval '1 hour'"
+                        };
+        return stmt;
+    }
+
+    public Map<String, String> genValuesStatement() {
+        Map<String, String> values = new HashMap<>();
+
+        for (Entry entry: records) {
+            StringBuilder sb = new StringBuilder();
+
+            sb.append("('");
+            sb.append(entry.prefix); sb.append('/'); sb.append(entry.prefix_len);
+            sb.append("'::inet,");
+            sb.append(entry.origin_as); sb.append(',');
+            sb.append('\''); sb.append(entry.state); sb.append("'::rpki_state,");
+
+            if (entry.rpki_origin_as != null) {
+                sb.append(entry.rpki_origin_as);
+                sb.append(',');
+            } else {
+                sb.append("null,");
+            }
+
+            sb.append("now() at time zone 'utc'");
+            sb.append(')');
+
+            values.put(entry.prefix + '/' + entry.prefix_len + ' ' + entry.origin_as, sb.toString());
+        }
+
+        return values;
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+
+package org.openbmp.psqlquery;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Downsampled stats reports of a peer, such as stat_reports_5min and stat_reports_1hour
+ *
+ *      Each row is the rollup of the samples of a peer within an interval.  Counters are the values
+ *      of the last sample and the route counts also have the max of the interval.  Rows of the same
+ *      interval, such as from a restart or a rebalance, are merged.
+ *
+ *      Counters and max merge the same when a row is written again, but samples are added.  Samples of
+ *      records consumed again, such as after a crash or a drain timeout, are counted twice, so samples
+ *      is an upper bound of the samples of the interval.
+ */
+public class StatRollupQuery extends Query {
+
+    /**
+     * Index of the route count counters in the sample counters
+     */
+    public static final int[] MAX_COUNTERS = { 7, 8 };
+
+    /**
+     * Rollup of the samples of a peer within an interval
+     */
+    public static class Bucket {
+        public final String peer_hash_id;
+        public final long interval_millis;          ///< Start of the interval, epoch millis
+        public final String interval_time;          ///< Start of the interval, timestamp string
+
+        public int samples;
+        public long last_millis;                    ///< Time of the last sample, epoch millis
+        public String last_timestamp;               ///< Timestamp of the last sample
+        public final long[] last;                   ///< Counters of the last sample
+        public final long[] max;                    ///< Max of the MAX_COUNTERS within the interval
+
+        public Bucket(String peer_hash_id, long interval_millis, String interval_time, int counters) {
+            this.peer_hash_id = peer_hash_id;
+            this.interval_millis = interval_millis;
+            this.interval_time = interval_time;
+            last = new long[counters];
+            max = new long[MAX_COUNTERS.length];
+        }
+
+        /**
+         * Add a sample within the interval
+         */
+        public void add(BmpStatQuery.Sample sample, long sample_millis) {
+            if (samples == 0 || sample_millis >= last_millis) {
+                System.arraycopy(sample.counters, 0, last, 0, last.length);
+                last_millis = sample_millis;
+                last_timestamp = sample.timestamp;
+            }
+
+            for (int i = 0; i < MAX_COUNTERS.length; i++) {
+                if (samples == 0 || sample.counters[MAX_COUNTERS[i]] > max[i])
+                    max[i] = sample.counters[MAX_COUNTERS[i]];
+            }
+
+            samples++;
+        }
+    }
+
+    private final String table;
+    private final List<Bucket> records;
+
+    /**
+     * Constructor
+     *
+     * @param table         Rollup table name
+     * @param records       Closed buckets to write
+     */
+    public StatRollupQuery(String table, List<Bucket> records) {
+
+        this.table = table;
+        this.records = records;
+    }
+
+    public String[] genInsertStatement() {
+        StringBuilder update = new StringBuilder();
+
+        // Samples of records consumed again are counted twice, see the class doc
+        update.append(" ON CONFLICT (peer_hash_id,interval_time) DO UPDATE SET samples=t.samples + excluded.samples,");
+        update.append("timestamp=greatest(t.timestamp, excluded.timestamp)");
+
+        for (String column : BmpStatQuery.COUNTER_COLUMNS.split(",")) {
+            update.append(','); update.append(column);
+            update.append("=CASE WHEN excluded.timestamp >= t.timestamp THEN excluded.");
+            update.append(column); update.append(" ELSE t."); update.append(column); update.append(" END");
+        }
+
+        update.append(",num_routes_adj_rib_in_max=greatest(t.num_routes_adj_rib_in_max, excluded.num_routes_adj_rib_in_max)");
+        update.append(",num_routes_local_rib_max=greatest(t.num_routes_local_rib_max, excluded.num_routes_local_rib_max)");
+
+        String [] stmt = { " INSERT INTO " + table + " AS t (peer_hash_id,interval_time,samples,timestamp," +
+                                BmpStatQuery.COUNTER_COLUMNS + ",num_routes_adj_rib_in_max,num_routes_local_rib_max) " +
+                            " VALUES ",
+
+                           update.toString()
+                        };
+        return stmt;
+    }
+
+    public Map<String, String> genValuesStatement() {
+        Map<String, String> values = new HashMap<>();
+
+        for (Bucket bucket: records) {
+            StringBuilder sb = new StringBuilder();
+
+            sb.append("('");
+            sb.append(bucket.peer_hash_id); sb.append("'::uuid,");
+            sb.append('\''); sb.append(bucket.interval_time); sb.append("'::timestamp,");
+            sb.append(bucket.samples); sb.append(',');
+            sb.append('\''); sb.append(bucket.last_timestamp); sb.append("'::timestamp");
+
+            for (long counter : bucket.last) {
+                sb.append(','); sb.append(counter);
+            }
+
+            for (long counter : bucket.max) {
+                sb.append(','); sb.append(counter);
+            }
+
+            sb.append(')');
+
+            values.put(bucket.peer_hash_id + ' ' + bucket.interval_time, sb.toString());
+        }
+
+        return values;
+    }
+
+}
@@ -15,6 +15,25 @@ import org.openbmp.api.parsed.message.UnicastPrefixPojo;
 public class UnicastPrefixQuery extends Query {
     private final List<UnicastPrefixPojo> records;
 
+    private static final String ON_CONFLICT =
+            " ON CONFLICT (peer_hash_id,hash_id) DO UPDATE SET timestamp=excluded.timestamp," +
+                "base_attr_hash_id=CASE excluded.isWithdrawn WHEN true THEN ip_rib.base_attr_hash_id ELSE excluded.base_attr_hash_id END," +
+                "origin_as=CASE excluded.isWithdrawn WHEN true THEN ip_rib.origin_as ELSE excluded.origin_as END," +
+                "isWithdrawn=excluded.isWithdrawn," +
+                "path_id=excluded.path_id, labels=excluded.labels," +
+                "isPrePolicy=excluded.isPrePolicy, isAdjRibIn=excluded.isAdjRibIn," +
+                "peer_epoch=excluded.peer_epoch " +
+            " WHERE ip_rib.peer_epoch <= excluded.peer_epoch ";       // Late rows do not replace a newer session
+
+    /*
+     * Peer session epoch of a row.  Rows of the current session, from its start on, get the current epoch.
+     *   Rows of the previous session still in flight after the peer up/down get the previous epoch, so that
+     *   they stay stale and are purged.
+     */
+    static final String PEER_EPOCH =
+            "COALESCE(CASE WHEN v.timestamp >= p.session_start THEN p.session_epoch" +
+                " ELSE GREATEST(p.session_epoch - 1,0) END,0)";
+
 	public UnicastPrefixQuery(List<UnicastPrefixPojo> records){
 		
 		this.records = records;
@@ -23,25 +42,75 @@ public class UnicastPrefixQuery extends Query {
     public String[] genInsertStatement() {
         String [] stmt = { " INSERT INTO ip_rib (hash_id,peer_hash_id,base_attr_hash_id,isIPv4," +
                            "origin_as,prefix,prefix_len,timestamp," +
-                           "isWithdrawn,path_id,labels,isPrePolicy,isAdjRibIn) " +
+                           "isWithdrawn,path_id,labels,isPrePolicy,isAdjRibIn,peer_epoch) " +
 
-                            " VALUES ",
+                           // Stamp entries with the peer session epoch of their timestamp
+                           " SELECT v.*," + PEER_EPOCH + " FROM ( VALUES ",
 //                            "SELECT DISTINCT ON (hash_id) * FROM ( VALUES ",
 //
 //                            ") t(hash_id,peer_hash_id,base_attr_hash_id,isIPv4," +
 //                                "origin_as,prefix,prefix_len,prefix_bits,timestamp,"  +
 //                                "isWithdrawn,path_id,labels,isPrePolicy,isAdjRibIn) " +
 //                           " ORDER BY hash_id,timestamp desc" +
-                           " ON CONFLICT (peer_hash_id,hash_id) DO UPDATE SET timestamp=excluded.timestamp," +
-                               "base_attr_hash_id=CASE excluded.isWithdrawn WHEN true THEN ip_rib.base_attr_hash_id ELSE excluded.base_attr_hash_id END," +
-                               "origin_as=CASE excluded.isWithdrawn WHEN true THEN ip_rib.origin_as ELSE excluded.origin_as END," +
-                               "isWithdrawn=excluded.isWithdrawn," +
-                               "path_id=excluded.path_id, labels=excluded.labels," +
-                               "isPrePolicy=excluded.isPrePolicy, isAdjRibIn=excluded.isAdjRibIn "
+                           ") v(hash_id,peer_hash_id,base_attr_hash_id,isIPv4,origin_as,prefix,prefix_len,timestamp," +
+                               "isWithdrawn,path_id,labels,isPrePolicy,isAdjRibIn) " +
+                           " LEFT JOIN bgp_peers p ON (p.hash_id = v.peer_hash_id) " +
+
+                           // Keep the writer row order after the join so rows are locked in key order
+                           " ORDER BY v.hash_id " +
+                           ON_CONFLICT
                         };
         return stmt;
     }
 
+    /**
+     * Generate the catch-up statements that merge a COPY of values rows into ip_rib
+     *
+     *      Rows are copied into a session staging table and merged with one set-based statement.  Updates of the
+     *      same row are coalesced to the latest.  The row trigger that writes ip_rib_log is bypassed for the
+     *      transaction; the merge writes the log rows of changed entries instead, like the trigger does.
+     *
+     * @return String array of the setup, COPY and merge statements, run in one transaction
+     */
+    public static String[] genCatchUpStatements() {
+        String [] stmt = {
+                "SET LOCAL obmp.defer_rib_log = 'on';" +
+                " CREATE TEMP TABLE IF NOT EXISTS ip_rib_stage (hash_id uuid,peer_hash_id uuid,base_attr_hash_id uuid," +
+                    "isIPv4 boolean,origin_as bigint,prefix inet,prefix_len smallint,timestamp timestamp(6)," +
+                    "isWithdrawn boolean,path_id bigint,labels varchar(255),isPrePolicy boolean,isAdjRibIn boolean)" +
+                    " ON COMMIT DELETE ROWS",
+
+                "COPY ip_rib_stage FROM STDIN",
+
+                "WITH s AS (" +
+                    " SELECT DISTINCT ON (v.peer_hash_id,v.hash_id) v.*," + PEER_EPOCH + " AS peer_epoch" +
+                    " FROM ip_rib_stage v LEFT JOIN bgp_peers p ON (p.hash_id = v.peer_hash_id)" +
+                    " ORDER BY v.peer_hash_id,v.hash_id,v.timestamp DESC" +
+                "), prev AS (" +
+                    " SELECT r.peer_hash_id,r.hash_id,r.isWithdrawn,r.base_attr_hash_id,r.origin_as,r.peer_epoch" +
+                    " FROM ip_rib r JOIN s ON (r.peer_hash_id = s.peer_hash_id AND r.hash_id = s.hash_id)" +
+                "), upsert AS (" +
+                    " INSERT INTO ip_rib (hash_id,peer_hash_id,base_attr_hash_id,isIPv4," +
+                        "origin_as,prefix,prefix_len,timestamp," +
+                        "isWithdrawn,path_id,labels,isPrePolicy,isAdjRibIn,peer_epoch)" +
+                    " SELECT hash_id,peer_hash_id,base_attr_hash_id,isIPv4,origin_as,prefix,prefix_len,timestamp," +
+                        "isWithdrawn,path_id,labels,isPrePolicy,isAdjRibIn,peer_epoch FROM s ORDER BY hash_id" +
+                    ON_CONFLICT +
+                ")" +
+                " INSERT INTO ip_rib_log (isWithdrawn,prefix,prefix_len,base_attr_hash_id,peer_hash_id,origin_as,timestamp)" +
+                " SELECT s.isWithdrawn,s.prefix,s.prefix_len," +
+                    "CASE WHEN s.isWithdrawn THEN prev.base_attr_hash_id ELSE s.base_attr_hash_id END," +
+                    "s.peer_hash_id," +
+                    "CASE WHEN s.isWithdrawn THEN prev.origin_as ELSE s.origin_as END,s.timestamp" +
+                " FROM s JOIN prev ON (prev.peer_hash_id = s.peer_hash_id AND prev.hash_id = s.hash_id)" +
+                " WHERE s.peer_epoch >= prev.peer_epoch" +
+                    " AND (s.isWithdrawn <> prev.isWithdrawn" +
+                        " OR (NOT s.isWithdrawn AND s.base_attr_hash_id <> prev.base_attr_hash_id))"
+        };
+
+        return stmt;
+    }
+
     public Map<String, String> genValuesStatement() {
         Map<String, String> values = new HashMap<>();
 
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp.refdata;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes rows in the COPY text format
+ */
+public class CopyWriter {
+    private final Writer out;
+
+    public CopyWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Write a row
+     *
+     * @param values        Column values, null for NULL
+     */
+    public void row(Object... values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                out.write('\t');
+
+            if (values[i] == null)
+                out.write("\\N");
+            else
+                escape(values[i].toString());
+        }
+
+        out.write('\n');
+    }
+
+    private void escape(String value) throws IOException {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            switch (c) {
+                case '\\': out.write("\\\\"); break;
+                case '\t': out.write("\\t"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\0': break;                                   // Not allowed in text values
+                default:   out.write(c); break;
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp.refdata;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Geo locations of a DB-IP City Lite CSV, see https://db-ip.com/db/download/ip-to-city-lite
+ *
+ *      ip_start,ip_end,continent,country,stateprov,city,latitude,longitude
+ *
+ *      Replaces the DB-IP import of geo-csv-to-psql.py.  Ranges are converted to the CIDRs that cover
+ *      them.  Routers within changed or removed prefixes are located again.  Peers are located again
+ *      by the bgp_peers trigger on their next update.
+ */
+public class GeoIpSource extends RefDataSource {
+    private static final Pattern ADDRESS = Pattern.compile("[0-9a-fA-F.:]+");
+
+    private final String file;
+
+    public GeoIpSource(String file) {
+        super("geoip", "geo_ip",
+              new String[] { "family", "ip", "city", "stateprov", "country", "latitude", "longitude",
+                             "timezone_offset", "timezone_name", "isp_name" },
+              new String[] { "ip" });
+
+        this.file = file;
+    }
+
+    @Override
+    protected boolean hasTimestamp() {
+        return false;
+    }
+
+    @Override
+    public long write(CopyWriter out) throws IOException {
+        long count = 0;
+
+        try (BufferedReader in = open(file)) {
+            String line;
+
+            while ((line = in.readLine()) != null) {
+                List<String> r = splitCsv(line);
+
+                // Addresses are validated so that a header is not resolved as a host name
+                if (r.size() < 8 || !ADDRESS.matcher(r.get(0)).matches() || !ADDRESS.matcher(r.get(1)).matches())
+                    continue;
+
+                int family = r.get(0).indexOf(':') >= 0 ? 6 : 4;
+
+                for (String cidr : rangeToCidrs(r.get(0), r.get(1))) {
+                    out.row(family, cidr, truncate(r.get(5), 80), truncate(r.get(4), 80), r.get(3),
+                            r.get(6), r.get(7), 0, "UTC", "");
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    @Override
+    protected List<String> genEnrichment() {
+        return Arrays.asList(
+                "UPDATE routers r SET geo_ip_start = find_geo_ip(r.ip_address)" +
+                        " WHERE EXISTS (SELECT 1 FROM " + CHANGED_TABLE + " c WHERE c.ip >>= r.ip_address)" +
+                        " OR EXISTS (SELECT 1 FROM " + REMOVED_TABLE + " d WHERE d.ip >>= r.ip_address)");
+    }
+
+    /**
+     * Split a CSV line, with optionally double quoted values
+     */
+    static List<String> splitCsv(String line) {
+        List<String> values = new ArrayList<>();
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    value.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    value.append(c);
+                }
+
+            } else if (c == '"') {
+                quoted = true;
+
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+
+            } else {
+                value.append(c);
+            }
+        }
+
+        values.add(value.toString());
+        return values;
+    }
+
+    /**
+     * Convert an address range to the list of CIDRs that exactly cover it
+     *
+     * @param start         First address of the range
+     * @param end           Last address of the range
+     *
+     * @return CIDRs, such as 1.1.1.18/31, or empty if the range is invalid
+     */
+    static List<String> rangeToCidrs(String start, String end) throws IOException {
+        List<String> cidrs = new ArrayList<>();
+
+        byte[] start_bytes = InetAddress.getByName(start).getAddress();
+        byte[] end_bytes = InetAddress.getByName(end).getAddress();
+
+        if (start_bytes.length != end_bytes.length)
+            return cidrs;
+
+        int bits = start_bytes.length * 8;
+        BigInteger first = new BigInteger(1, start_bytes);
+        BigInteger last = new BigInteger(1, end_bytes);
+
+        while (first.compareTo(last) <= 0) {
+            // Largest block aligned at first that does not go past last
+            int size = first.signum() == 0 ? bits : first.getLowestSetBit();
+
+            while (size > 0 && first.add(BigInteger.ONE.shiftLeft(size)).subtract(BigInteger.ONE).compareTo(last) > 0)
+                size--;
+
+            cidrs.add(toAddress(first, start_bytes.length) + "/" + (bits - size));
+
+            first = first.add(BigInteger.ONE.shiftLeft(size));
+        }
+
+        return cidrs;
+    }
+
+    private static String toAddress(BigInteger value, int length) throws IOException {
+        byte[] bytes = value.toByteArray();
+        byte[] address = new byte[length];
+
+        // toByteArray() can have a leading sign byte or fewer bytes than the address
+        int copy = Math.min(bytes.length, length);
+        System.arraycopy(bytes, bytes.length - copy, address, length - copy, copy);
+
+        return InetAddress.getByAddress(address).getHostAddress();
+    }
+}
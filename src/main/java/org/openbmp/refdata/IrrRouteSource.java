@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp.refdata;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * IRR route and route6 objects of RPSL database dumps, such as radb.db.gz or ripe.db.route.gz
+ *
+ *      Replaces gen_whois_route.py.  The source of a dump is its file name up to the first dot, such
+ *      as radb.  All dumps are loaded together, so info_route is replaced by the objects of the
+ *      configured dumps.  The IRR columns of global_ip_rib are updated for changed and removed prefixes.
+ */
+public class IrrRouteSource extends RefDataSource {
+    private static final Pattern PREFIX = Pattern.compile("[0-9a-fA-F.:]+/[0-9]{1,3}");
+
+    private final List<String> files;
+
+    public IrrRouteSource(List<String> files) {
+        super("irr", "info_route",
+              new String[] { "prefix", "prefix_len", "origin_as", "descr", "source" },
+              new String[] { "prefix", "prefix_len", "origin_as" });
+
+        this.files = files;
+    }
+
+    @Override
+    public long write(CopyWriter out) throws IOException {
+        long count = 0;
+
+        for (String file : files) {
+            String source = new File(file).getName();
+            if (source.indexOf('.') > 0)
+                source = source.substring(0, source.indexOf('.'));
+
+            source = truncate(source, 32);
+
+            try (BufferedReader in = open(file)) {
+                count += parse(in, source, out);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Parse the route objects of an RPSL dump
+     *
+     * @return Number of routes written
+     */
+    static long parse(BufferedReader in, String source, CopyWriter out) throws IOException {
+        long count = 0;
+
+        String prefix = null;
+        String origin = null;
+        StringBuilder descr = new StringBuilder();
+        String prev_attr = "";
+
+        String line;
+        while (true) {
+            line = in.readLine();
+
+            // Empty line or end of file completes the object
+            if (line == null || line.trim().isEmpty()) {
+                if (prefix != null && origin != null) {
+                    out.row(prefix, prefix.substring(prefix.indexOf('/') + 1), origin,
+                            truncate(descr.toString(), 254), source);
+                    count++;
+                }
+
+                if (line == null)
+                    break;
+
+                prefix = null;
+                origin = null;
+                descr.setLength(0);
+                prev_attr = "";
+                continue;
+            }
+
+            if (line.charAt(0) == '#' || line.charAt(0) == '%')
+                continue;
+
+            // Continuation of the previous attribute
+            if (line.charAt(0) == ' ' || line.charAt(0) == '\t' || line.charAt(0) == '+') {
+                if (prev_attr.equals("descr"))
+                    descr.append('\n').append(line.substring(1).trim());
+
+                continue;
+            }
+
+            int idx = line.indexOf(':');
+            if (idx <= 0)
+                continue;
+
+            String attr = line.substring(0, idx).trim().toLowerCase();
+            String value = line.substring(idx + 1).trim();
+            prev_attr = attr;
+
+            switch (attr) {
+                case "route":
+                case "route6":
+                    prefix = PREFIX.matcher(value).matches() ? value : null;    // Invalid values fail the copy
+                    break;
+
+                case "origin":
+                    origin = parseAsn(value);
+                    break;
+
+                case "descr":
+                    if (descr.length() > 0)
+                        descr.append('\n');
+
+                    descr.append(value);
+                    break;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Parse an origin ASN, such as AS65000, AS1.10 or AS65000 # comment
+     *
+     * @return ASN or null if invalid
+     */
+    static String parseAsn(String value) {
+        String asn = value.toUpperCase().startsWith("AS") ? value.substring(2) : value;
+
+        int idx = asn.indexOf(' ');
+        if (idx > 0)
+            asn = asn.substring(0, idx);
+
+        try {
+            // asdot notation
+            idx = asn.indexOf('.');
+            if (idx > 0)
+                return Long.toString((Long.parseLong(asn.substring(0, idx)) << 16) + Long.parseLong(asn.substring(idx + 1)));
+
+            return Long.toString(Long.parseLong(asn));
+
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    protected List<String> genEnrichment() {
+        return Arrays.asList(
+                "UPDATE global_ip_rib r SET irr_origin_as = i.origin_as, irr_source = i.source, irr_descr = i.descr" +
+                        " FROM info_route i WHERE i.prefix = r.prefix" +
+                        " AND i.prefix IN (SELECT prefix FROM " + CHANGED_TABLE +
+                        " UNION SELECT prefix FROM " + REMOVED_TABLE + ")",
+
+                "UPDATE global_ip_rib r SET irr_origin_as = NULL, irr_source = NULL, irr_descr = NULL" +
+                        " FROM (SELECT DISTINCT prefix FROM " + REMOVED_TABLE + ") d WHERE d.prefix = r.prefix" +
+                        " AND NOT EXISTS (SELECT 1 FROM info_route i WHERE i.prefix = r.prefix)");
+    }
+}
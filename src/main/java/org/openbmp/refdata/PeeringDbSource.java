@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp.refdata;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * PeeringDB objects of a directory of API dumps, such as net.json saved from https://www.peeringdb.com/api/net
+ *
+ *      Replaces peeringdb.py.  The ASN source loads the networks into info_asn, owning the rows of
+ *      source peeringdb.  The IX source loads the IX peerings into pdb_exchange_peers.
+ */
+public class PeeringDbSource extends RefDataSource {
+    public enum Type { ASN, IX }
+
+    private final String dir;
+    private final Type type;
+
+    public PeeringDbSource(String dir, Type type) {
+        super(type == Type.ASN ? "peeringdb_asn" : "peeringdb_ix",
+              type == Type.ASN ? "info_asn" : "pdb_exchange_peers",
+              type == Type.ASN
+                    ? new String[] { "asn", "as_name", "org_id", "org_name", "remarks", "address", "city",
+                                     "state_prov", "postal_code", "country", "source" }
+                    : new String[] { "ix_id", "ix_name", "ix_prefix_v4", "ix_prefix_v6", "rs_peer", "peer_name",
+                                     "peer_ipv4", "peer_ipv6", "peer_asn", "speed", "policy", "poc_policy_email",
+                                     "poc_noc_email", "ix_city", "ix_country", "ix_region" },
+              type == Type.ASN
+                    ? new String[] { "asn" }
+                    : new String[] { "ix_id", "peer_ipv4", "peer_ipv6" });
+
+        this.dir = dir;
+        this.type = type;
+    }
+
+    @Override
+    protected String scope() {
+        return type == Type.ASN ? "source = 'peeringdb'" : null;
+    }
+
+    @Override
+    public long write(CopyWriter out) throws IOException {
+        return type == Type.ASN ? writeAsns(out) : writeIxPeers(out);
+    }
+
+    private long writeAsns(CopyWriter out) throws IOException {
+        long count = 0;
+
+        Map<Long, JsonNode> orgs = load("org");
+
+        for (JsonNode net : load("net").values()) {
+            JsonNode org = orgs.get(net.path("org_id").asLong());
+
+            if (org == null)
+                continue;
+
+            String as_name = text(net, "name");
+            String route_server = text(net, "route_server");
+            String looking_glass = text(net, "looking_glass");
+
+            StringBuilder remarks = new StringBuilder();
+            if (route_server.length() > 1)
+                remarks.append("route_server: ").append(truncate(route_server, 240)).append('\n');
+            if (looking_glass.length() > 1)
+                remarks.append("looking_glass: ").append(truncate(looking_glass, 240));
+            remarks.append(truncate(text(net, "notes"), 1500));
+
+            out.row(net.path("asn").asLong(),
+                    truncate(as_name, 240),
+                    text(net, "org_id"),
+                    truncate(as_name + " - " + text(net, "aka"), 240),
+                    remarks,
+                    truncate(text(org, "address1") + ", " + text(org, "address2"), 240),
+                    truncate(text(org, "city"), 240),
+                    truncate(text(org, "state"), 240),
+                    truncate(text(org, "zipcode"), 200),
+                    truncate(text(org, "country"), 240),
+                    "peeringdb");
+            count++;
+        }
+
+        return count;
+    }
+
+    private long writeIxPeers(CopyWriter out) throws IOException {
+        long count = 0;
+
+        Map<Long, JsonNode> nets = load("net");
+        Map<Long, JsonNode> ixs = load("ix");
+
+        Map<Long, String> prefixes_v4 = new HashMap<>();
+        Map<Long, String> prefixes_v6 = new HashMap<>();
+        for (JsonNode pfx : load("ixpfx").values()) {
+            if (text(pfx, "protocol").equals("IPv4"))
+                prefixes_v4.put(pfx.path("ixlan_id").asLong(), pfx.path("prefix").textValue());
+            else if (text(pfx, "protocol").equals("IPv6"))
+                prefixes_v6.put(pfx.path("ixlan_id").asLong(), pfx.path("prefix").textValue());
+        }
+
+        Map<Long, String> noc_emails = new HashMap<>();
+        Map<Long, String> policy_emails = new HashMap<>();
+        for (JsonNode poc : load("poc").values()) {
+            if (text(poc, "role").equals("NOC"))
+                noc_emails.put(poc.path("net_id").asLong(), text(poc, "email"));
+            else if (text(poc, "role").equals("Policy"))
+                policy_emails.put(poc.path("net_id").asLong(), text(poc, "email"));
+        }
+
+        for (JsonNode entry : load("netixlan").values()) {
+            if (!entry.path("operational").asBoolean(true))
+                continue;
+
+            String peer_ipv4 = text(entry, "ipaddr4");
+            String peer_ipv6 = text(entry, "ipaddr6");
+
+            if (peer_ipv4.isEmpty() && peer_ipv6.isEmpty())
+                continue;
+
+            JsonNode ix = ixs.get(entry.path("ix_id").asLong());
+            JsonNode net = nets.get(entry.path("net_id").asLong());
+
+            if (ix == null || net == null)
+                continue;
+
+            long ixlan_id = entry.path("ixlan_id").asLong();
+            long net_id = entry.path("net_id").asLong();
+
+            out.row(entry.path("ix_id").asLong(),
+                    truncate(text(entry, "name"), 128),
+                    prefixes_v4.get(ixlan_id),
+                    prefixes_v6.get(ixlan_id),
+                    entry.path("is_rs_peer").asBoolean(),
+                    truncate(text(net, "name") + " | " + text(net, "aka"), 254),
+                    peer_ipv4.isEmpty() ? "0.0.0.0" : peer_ipv4,
+                    peer_ipv6.isEmpty() ? "::" : peer_ipv6,
+                    entry.path("asn").asLong(),
+                    entry.path("speed").asInt(),
+                    truncate(text(net, "policy_general"), 64),
+                    truncate(policy_emails.getOrDefault(net_id, ""), 255),
+                    truncate(noc_emails.getOrDefault(net_id, ""), 255),
+                    truncate(text(ix, "city"), 128),
+                    truncate(text(ix, "country"), 12),
+                    truncate(text(ix, "region_continent"), 128));
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Text of a field, empty if missing or null
+     */
+    private static String text(JsonNode node, String field) {
+        return node.path(field).asText("");
+    }
+
+    /**
+     * Load the objects of a dump, keyed by id
+     */
+    private Map<Long, JsonNode> load(String object) throws IOException {
+        Map<Long, JsonNode> objects = new HashMap<>();
+
+        try (BufferedReader in = open(new File(dir, object + ".json").getPath())) {
+            for (JsonNode node : new ObjectMapper().readTree(in).path("data"))
+                objects.put(node.path("id").asLong(), node);
+        }
+
+        return objects;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp.refdata;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reference data source, loaded from a local dump file into a table
+ *
+ *      The rows of the dump are streamed with COPY into a temporary shadow table, which is then
+ *      diffed against the table in the same transaction.  Only rows that are new or changed are
+ *      upserted and only rows that are no longer in the dump are deleted, so readers keep using
+ *      the table while it loads and see either the previous or the new data.  Enrichment of
+ *      dependent tables is run for the changed and removed rows only.
+ *
+ *      The changed rows, all columns, are in the refdata_changed temporary table and the keys of
+ *      removed rows are in refdata_removed.
+ */
+public abstract class RefDataSource {
+    static final String LOAD_TABLE = "refdata_load";
+    static final String CHANGED_TABLE = "refdata_changed";
+    static final String REMOVED_TABLE = "refdata_removed";
+
+    protected final String name;
+    protected final String table;
+    protected final String[] columns;
+    protected final String[] key;
+
+    /**
+     * Constructor
+     *
+     * @param name          Source name, for logging
+     * @param table         Table loaded
+     * @param columns       Columns of the rows written, in order
+     * @param key           Primary key columns of the table
+     */
+    protected RefDataSource(String name, String table, String[] columns, String[] key) {
+        this.name = name;
+        this.table = table;
+        this.columns = columns;
+        this.key = key;
+    }
+
+    /**
+     * Write the rows of the dump
+     *
+     * @param out           COPY writer
+     *
+     * @return Number of rows written
+     */
+    public abstract long write(CopyWriter out) throws IOException;
+
+    /**
+     * Predicate of the rows of the table owned by the source, such as when other sources load the
+     * same table.  Only these rows are compared and removed.
+     *
+     * @return SQL predicate, null for all rows
+     */
+    protected String scope() {
+        return null;
+    }
+
+    /**
+     * Table has a timestamp column that is set to now when a row changes
+     */
+    protected boolean hasTimestamp() {
+        return true;
+    }
+
+    /**
+     * Statements to update tables that depend on the changed and removed rows
+     */
+    protected List<String> genEnrichment() {
+        return new ArrayList<>();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * Statements to create the shadow table
+     */
+    public List<String> genSetup() {
+        return Arrays.asList(
+                "CREATE TEMP TABLE " + LOAD_TABLE + " (LIKE " + table + " INCLUDING DEFAULTS) ON COMMIT DROP");
+    }
+
+    public String genCopy() {
+        return "COPY " + LOAD_TABLE + " (" + String.join(",", columns) + ") FROM STDIN";
+    }
+
+    /**
+     * Statements to merge the shadow table into the table, followed by the enrichment
+     *
+     *      The update counts of the CREATE TABLE AS statements, at index 1 and 2, are the number of
+     *      changed and removed rows.
+     */
+    public List<String> genMerge() {
+        List<String> merge = new ArrayList<>();
+
+        String cols = String.join(",", columns);
+        String keys = String.join(",", key);
+        String where = scope() != null ? " WHERE " + scope() : "";
+
+        merge.add("ANALYZE " + LOAD_TABLE);
+
+        merge.add("CREATE TEMP TABLE " + CHANGED_TABLE + " ON COMMIT DROP AS" +
+                  " SELECT DISTINCT ON (" + keys + ") * FROM (" +
+                  "SELECT " + cols + " FROM " + LOAD_TABLE +
+                  " EXCEPT SELECT " + cols + " FROM " + table + where + ") c");
+
+        merge.add("CREATE TEMP TABLE " + REMOVED_TABLE + " ON COMMIT DROP AS" +
+                  " SELECT " + keys + " FROM " + table + where +
+                  " EXCEPT SELECT " + keys + " FROM " + LOAD_TABLE);
+
+        StringBuilder match = new StringBuilder();
+        for (String k : key) {
+            if (match.length() > 0)
+                match.append(" AND ");
+
+            match.append("t.").append(k).append(" = d.").append(k);
+        }
+
+        merge.add("DELETE FROM " + table + " t USING " + REMOVED_TABLE + " d WHERE " + match);
+
+        StringBuilder set = new StringBuilder();
+        for (String col : columns) {
+            if (Arrays.asList(key).contains(col))
+                continue;
+
+            if (set.length() > 0)
+                set.append(',');
+
+            set.append(col).append("=excluded.").append(col);
+        }
+
+        if (hasTimestamp())
+            set.append(",timestamp=now() at time zone 'utc'");
+
+        merge.add("INSERT INTO " + table + " (" + cols + ") SELECT " + cols + " FROM " + CHANGED_TABLE +
+                  " ON CONFLICT (" + keys + ") DO UPDATE SET " + set);
+
+        merge.addAll(genEnrichment());
+
+        return merge;
+    }
+
+    /**
+     * Open a dump file for reading, gunzipped if it ends with .gz
+     */
+    protected static BufferedReader open(String file) throws IOException {
+        InputStream in = new FileInputStream(file);
+
+        if (file.endsWith(".gz"))
+            in = new GZIPInputStream(in, 65536);
+
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 65536);
+    }
+
+    /**
+     * Truncate a value to the column length
+     */
+    protected static String truncate(String value, int length) {
+        if (value == null || value.length() <= length)
+            return value;
+
+        return value.substring(0, length);
+    }
+}
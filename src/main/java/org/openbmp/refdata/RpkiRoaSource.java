@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2022 Cisco Systems, Inc. and others.  All rights reserved.
+ */
+package org.openbmp.refdata;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * RPKI ROAs of a validator JSON export, such as the export.json of routinator or the RIPE validator
+ *
+ *      {"roas": [{"asn": "AS13335", "prefix": "1.0.0.0/24", "maxLength": 24}, ...]}
+ *
+ *      Replaces rpki_validator.py.  Consumers with rpki enabled reload the ROA table when it changes.
+ *      Without it, the RPKI origin of global_ip_rib prefixes covered by changed or removed ROAs is
+ *      updated.
+ */
+public class RpkiRoaSource extends RefDataSource {
+    private final String file;
+
+    public RpkiRoaSource(String file) {
+        super("rpki", "rpki_validator",
+              new String[] { "prefix", "prefix_len", "prefix_len_max", "origin_as" },
+              new String[] { "prefix", "prefix_len_max", "origin_as" });
+
+        this.file = file;
+    }
+
+    @Override
+    public long write(CopyWriter out) throws IOException {
+        long count = 0;
+
+        try (BufferedReader in = open(file);
+             JsonParser parser = new ObjectMapper().getFactory().createParser(in)) {
+
+            // Stream the elements of the roas array
+            while (parser.nextToken() != null) {
+                if (parser.getCurrentToken() != JsonToken.FIELD_NAME || !"roas".equals(parser.getCurrentName()))
+                    continue;
+
+                if (parser.nextToken() != JsonToken.START_ARRAY)
+                    throw new IOException("roas is not an array in " + file);
+
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    JsonNode roa = parser.readValueAsTree();
+
+                    String prefix = roa.path("prefix").asText();
+                    int idx = prefix.indexOf('/');
+
+                    if (idx <= 0)
+                        continue;
+
+                    // Some validators prefix the ASN with AS
+                    String asn = roa.path("asn").asText().replace("AS", "");
+
+                    out.row(prefix, prefix.substring(idx + 1), roa.path("maxLength").asInt(), asn);
+                    count++;
+                }
+            }
+        }
+
+        return count;
+    }
+
+    @Override
+    protected List<String> genEnrichment() {
+        // Only when the consumer does not maintain rpki_origin_state, see update_global_ip_rib()
+        return Arrays.asList(
+                "UPDATE global_ip_rib r SET rpki_origin_as = p.origin_as FROM " + CHANGED_TABLE + " p" +
+                        " WHERE p.prefix >>= r.prefix AND r.prefix_len >= p.prefix_len" +
+                        " AND r.prefix_len <= p.prefix_len_max" +
+                        " AND NOT EXISTS (SELECT 1 FROM rpki_origin_state LIMIT 1)",
+
+                "UPDATE global_ip_rib r SET rpki_origin_as = NULL FROM " + REMOVED_TABLE + " d" +
+                        " WHERE d.prefix >>= r.prefix AND r.rpki_origin_as = d.origin_as" +
+                        " AND NOT EXISTS (SELECT 1 FROM rpki_validator p WHERE p.prefix >>= r.prefix" +
+                        " AND r.prefix_len >= p.prefix_len AND r.prefix_len <= p.prefix_len_max" +
+                        " AND p.origin_as = r.rpki_origin_as)" +
+                        " AND NOT EXISTS (SELECT 1 FROM rpki_origin_state LIMIT 1)");
+    }
+}
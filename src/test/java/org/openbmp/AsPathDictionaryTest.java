@@ -0,0 +1,61 @@
+package org.openbmp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+
+
+/**
+ * Unit test for the AS path dictionary
+ */
+public class AsPathDictionaryTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public AsPathDictionaryTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( AsPathDictionaryTest.class );
+    }
+
+    public void testWrittenOnce()
+    {
+        AsPathDictionary dictionary = new AsPathDictionary(2);
+
+        long a = AsPathDictionary.pathId("'{65000,65001}'::bigint[]");
+        long b = AsPathDictionary.pathId("'{65001,65000}'::bigint[]");
+        long c = AsPathDictionary.pathId("'{65002}'::bigint[]");
+
+        assertTrue(a != b);
+        assertEquals(a, AsPathDictionary.pathId("'{65000,65001}'::bigint[]"));
+
+        // Not written until added, such as when the message of the path is dropped
+        assertFalse(dictionary.isWritten(a));
+        assertFalse(dictionary.isWritten(a));
+
+        dictionary.addAll(Arrays.asList(a, b));
+        assertTrue(dictionary.isWritten(a));
+        assertTrue(dictionary.isWritten(b));
+
+        // Cleared when full, paths are written again
+        dictionary.addAll(Arrays.asList(c));
+        assertFalse(dictionary.isWritten(a));
+        assertTrue(dictionary.isWritten(c));
+        assertEquals(1, dictionary.getSize());
+        assertEquals(3, dictionary.getHits());
+        assertEquals(3, dictionary.getMisses());
+    }
+}
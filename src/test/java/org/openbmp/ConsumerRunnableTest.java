@@ -0,0 +1,138 @@
+package org.openbmp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Unit test for the consumer thread
+ */
+public class ConsumerRunnableTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ConsumerRunnableTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ConsumerRunnableTest.class );
+    }
+
+    private static Config config()
+    {
+        return new Config() {
+            @Override Integer getWriter_connections() { return 2; }
+        };
+    }
+
+    public void testFlowControlWatermarks()
+    {
+        // Paused at or above the high watermark
+        assertFalse(ConsumerRunnable.isFlowControlPaused(false, 79.9, 80, 50));
+        assertTrue(ConsumerRunnable.isFlowControlPaused(false, 80, 80, 50));
+
+        // Stays paused between the watermarks, resumed at or below the low watermark
+        assertTrue(ConsumerRunnable.isFlowControlPaused(true, 79.9, 80, 50));
+        assertTrue(ConsumerRunnable.isFlowControlPaused(true, 50.1, 80, 50));
+        assertFalse(ConsumerRunnable.isFlowControlPaused(true, 50, 80, 50));
+
+        // Stays resumed between the watermarks
+        assertFalse(ConsumerRunnable.isFlowControlPaused(false, 60, 80, 50));
+    }
+
+    public void testWriterFillPercent()
+    {
+        Config cfg = config();
+        TopicClass tc = new TopicClass("test", cfg, new ArrayList<>());
+        tc.setWriter_queue_size(10);
+
+        WriterObject low = new WriterObject(cfg, tc);
+        WriterObject high = new WriterObject(cfg, tc);
+
+        for (int i = 0; i < 2; i++)
+            low.writerQueue.offer(new WriterQueueMsg());
+
+        for (int i = 0; i < 9; i++)
+            high.writerQueue.offer(new WriterQueueMsg());
+
+        Set<WriterObject> writers = new HashSet<>();
+        assertEquals(0.0, ConsumerRunnable.getWriterFillPercent(null), 0.001);
+        assertEquals(0.0, ConsumerRunnable.getWriterFillPercent(writers), 0.001);
+
+        // Fullest writer the partition feeds
+        writers.add(low);
+        assertEquals(20.0, ConsumerRunnable.getWriterFillPercent(writers), 0.001);
+
+        writers.add(high);
+        assertEquals(90.0, ConsumerRunnable.getWriterFillPercent(writers), 0.001);
+    }
+
+    public void testRowOwnerLane()
+    {
+        Config cfg = config();
+        TopicClass tc = new TopicClass("test", cfg, new ArrayList<>());
+
+        WriterObject key_lane = new WriterObject(cfg, tc);
+        WriterObject owner = new WriterObject(cfg, tc);
+        WriterObject removed = new WriterObject(cfg, tc);
+        List<WriterObject> writers = Arrays.asList(key_lane, owner);
+
+        Map<String, WriterObject> row_owners = new HashMap<>();
+        row_owners.put("r1", owner);
+        row_owners.put("r2", owner);
+        row_owners.put("r3", key_lane);
+        row_owners.put("r4", removed);
+
+        // Shared rows go to the lane that owns most of them, which then owns all of them
+        List<String> rows = Arrays.asList("r1", "r2", "r3");
+        Map<WriterObject, Integer> owners = ConsumerRunnable.countRowOwners(rows, row_owners, writers);
+        assertEquals(2, owners.size());
+        assertTrue(ConsumerRunnable.assignRowOwner(rows, row_owners, owners, key_lane) == owner);
+        assertTrue(row_owners.get("r3") == owner);
+
+        // Rows not owned, or owned by a removed lane, go to the lane of the message key
+        rows = Arrays.asList("r4", "r5");
+        owners = ConsumerRunnable.countRowOwners(rows, row_owners, writers);
+        assertTrue(owners.isEmpty());
+        assertTrue(ConsumerRunnable.assignRowOwner(rows, row_owners, owners, key_lane) == key_lane);
+        assertTrue(row_owners.get("r4") == key_lane);
+        assertTrue(row_owners.get("r5") == key_lane);
+    }
+
+    public void testQueuedByType()
+    {
+        List<ConsumerMessageObject> queue = new ArrayList<>();
+
+        for (int i = 0; i < 3; i++) {
+            ConsumerMessageObject msg = new ConsumerMessageObject();
+            msg.thread_type = ConsumerRunnable.ThreadType.THREAD_DEFAULT;
+            queue.add(msg);
+        }
+
+        // Messages without a type are not backlog of any writer type
+        queue.add(new ConsumerMessageObject());
+
+        long[] queued = ConsumerRunnable.getQueuedByType(queue);
+        assertEquals(ConsumerRunnable.ThreadType.values().length, queued.length);
+        assertEquals(3, queued[ConsumerRunnable.ThreadType.THREAD_DEFAULT.getValue()]);
+    }
+}
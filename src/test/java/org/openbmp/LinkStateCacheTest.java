@@ -0,0 +1,71 @@
+package org.openbmp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+/**
+ * Unit test for the link-state change detection cache
+ */
+public class LinkStateCacheTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public LinkStateCacheTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( LinkStateCacheTest.class );
+    }
+
+    public void testUnchangedDropped()
+    {
+        LinkStateCache cache = new LinkStateCache(10, 3600);
+
+        assertTrue(cache.update("n1", "p1", 5L, "('n1','p1',5,'r1',false,"));
+        assertFalse(cache.update("n1", "p1", 5L, "('n1','p1',5,'r1',false,"));
+
+        // Changed attributes, sequence number or peer are written
+        assertTrue(cache.update("n1", "p1", 5L, "('n1','p1',5,'r1',true,"));
+        assertTrue(cache.update("n1", "p1", 6L, "('n1','p1',5,'r1',true,"));
+        assertTrue(cache.update("n1", "p2", 6L, "('n1','p1',5,'r1',true,"));
+
+        assertEquals(1, cache.getHits());
+        assertEquals(4, cache.getMisses());
+
+        cache.removePeer("p1");
+        assertEquals(1, cache.getSize());
+        assertTrue(cache.update("n1", "p1", 6L, "('n1','p1',5,'r1',true,"));
+    }
+
+    public void testMaxSize()
+    {
+        LinkStateCache cache = new LinkStateCache(2, 3600);
+
+        cache.update("n1", "p1", 1L, "a");
+        cache.update("n2", "p1", 1L, "a");
+        cache.update("n3", "p1", 1L, "a");
+
+        assertEquals(2, cache.getSize());
+        assertTrue(cache.update("n1", "p1", 1L, "a"));
+    }
+
+    public void testMaxAge()
+    {
+        LinkStateCache cache = new LinkStateCache(10, 0);
+
+        assertTrue(cache.update("n1", "p1", 1L, "a"));
+        assertTrue(cache.update("n1", "p1", 1L, "a"));
+    }
+}
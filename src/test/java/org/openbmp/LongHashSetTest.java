@@ -0,0 +1,86 @@
+package org.openbmp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+
+/**
+ * Unit test for the compact long set
+ */
+public class LongHashSetTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public LongHashSetTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( LongHashSetTest.class );
+    }
+
+    public void testAddRemove()
+    {
+        LongHashSet set = new LongHashSet();
+
+        assertTrue(set.add(0));
+        assertFalse(set.add(0));
+        assertTrue(set.add(-1));
+        assertTrue(set.add(42));
+        assertEquals(3, set.size());
+
+        assertTrue(set.remove(0));
+        assertFalse(set.remove(0));
+        assertFalse(set.contains(0));
+        assertTrue(set.contains(42));
+        assertEquals(2, set.size());
+    }
+
+    /**
+     * Random adds and removes, with resizes and backshift deletes, match a HashSet
+     */
+    public void testMatchesHashSet()
+    {
+        LongHashSet set = new LongHashSet();
+        Set<Long> expected = new HashSet<>();
+        Random random = new Random(1);
+
+        for (int i = 0; i < 200000; i++) {
+            long value = random.nextInt(20000);
+
+            if (random.nextInt(3) == 0)
+                assertEquals(expected.remove(value), set.remove(value));
+            else
+                assertEquals(expected.add(value), set.add(value));
+        }
+
+        assertEquals(expected.size(), set.size());
+
+        for (long value = 0; value < 20000; value++)
+            assertEquals(expected.contains(value), set.contains(value));
+
+        Set<Long> values = new HashSet<>();
+        set.forEach(values::add);
+        assertEquals(expected, values);
+    }
+
+    public void testHashToLong()
+    {
+        assertEquals(0x0123456789abcdefL, PeerRibCounter.hashToLong("01234567-89ab-cdef-0011-223344556677"));
+        assertEquals(0x0123456789abcdefL, PeerRibCounter.hashToLong("0123456789abcdef0011223344556677"));
+    }
+}
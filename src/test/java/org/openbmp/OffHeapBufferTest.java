@@ -0,0 +1,85 @@
+package org.openbmp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Unit test for the off-heap buffer
+ */
+public class OffHeapBufferTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public OffHeapBufferTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( OffHeapBufferTest.class );
+    }
+
+    private static WriterQueueMsg message(int rows)
+    {
+        WriterQueueMsg msg = new WriterQueueMsg();
+        msg.values = new HashMap<>();
+
+        for (int i = 0; i < rows; i++)
+            msg.values.put("hash" + i, "('hash" + i + "'::uuid,'10.0." + (i % 256) + ".0/24'::inet,'\u00e9')");
+
+        return msg;
+    }
+
+    public void testPackUnpack()
+    {
+        for (boolean compress : new boolean[] { false, true }) {
+            OffHeapBuffer buffer = new OffHeapBuffer(16 * OffHeapBuffer.PAGE_SIZE, compress);
+
+            // Spans several pages
+            WriterQueueMsg msg = message(5000);
+            Map<String, String> values = new HashMap<>(msg.values);
+
+            assertTrue(buffer.pack(msg));
+            assertNull(msg.values);
+            assertTrue(buffer.getUsed_bytes() > OffHeapBuffer.PAGE_SIZE);
+            assertTrue(MemoryBudget.estimate(msg) < 1000);
+
+            buffer.unpack(msg);
+            assertNull(msg.packed);
+            assertEquals(values, msg.values);
+            assertEquals(0, buffer.getUsed_bytes());
+        }
+    }
+
+    public void testFull()
+    {
+        OffHeapBuffer buffer = new OffHeapBuffer(OffHeapBuffer.PAGE_SIZE, false);
+
+        WriterQueueMsg big = message(5000);
+        assertFalse(buffer.pack(big));
+        assertNotNull(big.values);
+        assertEquals(1, buffer.getFull_count());
+
+        // Pages of a freed message are reused
+        WriterQueueMsg small = message(10);
+        assertTrue(buffer.pack(small));
+        assertFalse(buffer.pack(message(10)));
+
+        buffer.free(small);
+        assertTrue(buffer.pack(message(10)));
+        assertEquals(OffHeapBuffer.PAGE_SIZE, buffer.getAllocated_bytes());
+    }
+}
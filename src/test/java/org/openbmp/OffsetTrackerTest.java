@@ -0,0 +1,79 @@
+package org.openbmp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collections;
+
+
+/**
+ * Unit test for the offset tracker
+ */
+public class OffsetTrackerTest
+    extends TestCase
+{
+    private static final TopicPartition PARTITION = new TopicPartition("test", 0);
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public OffsetTrackerTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( OffsetTrackerTest.class );
+    }
+
+    public void testHeldOffset()
+    {
+        OffsetTracker tracker = new OffsetTracker();
+
+        // Record 5 is being processed, one of its messages is queued
+        int generation = tracker.add(PARTITION, 4);
+        tracker.add(PARTITION, 5);
+        tracker.add(PARTITION, 5);
+
+        assertEquals(2, tracker.getPendingCount(PARTITION));
+        assertEquals(2, tracker.getPendingCount(PARTITION, 5));
+
+        // Messages written, only the reference of the consumer is left
+        tracker.ack(PARTITION, 4, generation);
+        tracker.ack(PARTITION, 5, generation);
+
+        assertEquals(1, tracker.getPendingCount(PARTITION));
+        assertEquals(0, tracker.getPendingCount(PARTITION, 5));
+
+        // Record being processed is consumed again
+        assertEquals(5, tracker.getCommittable(Collections.singleton(PARTITION)).get(PARTITION).offset());
+    }
+
+    public void testStaleAck()
+    {
+        OffsetTracker tracker = new OffsetTracker();
+
+        int revoked = tracker.add(PARTITION, 7);
+        tracker.remove(Collections.singleton(PARTITION));
+
+        // Reassigned and consumed again
+        int generation = tracker.add(PARTITION, 7);
+        assertFalse(tracker.isCurrent(PARTITION, revoked));
+        assertTrue(tracker.isCurrent(PARTITION, generation));
+
+        // Late ack of the message from before the revoke
+        tracker.ack(PARTITION, 7, revoked);
+        assertEquals(1, tracker.getPendingCount(PARTITION));
+
+        tracker.ack(PARTITION, 7, generation);
+        assertEquals(0, tracker.getPendingCount(PARTITION));
+    }
+}
@@ -0,0 +1,166 @@
+package org.openbmp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.kafka.common.TopicPartition;
+import org.openbmp.api.parsed.message.UnicastPrefixPojo;
+
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Unit test for the per-peer RIB prefix counts
+ */
+public class PeerRibCounterTest
+    extends TestCase
+{
+    private static final TopicPartition PARTITION_0 = new TopicPartition("openbmp.parsed.unicast_prefix", 0);
+    private static final TopicPartition PARTITION_1 = new TopicPartition("openbmp.parsed.unicast_prefix", 1);
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public PeerRibCounterTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( PeerRibCounterTest.class );
+    }
+
+    private static List<UnicastPrefixPojo> update(String peer_hash, String hash, boolean ipv4, boolean withdrawn)
+    {
+        UnicastPrefixPojo pojo = new UnicastPrefixPojo() {
+            @Override public String getPeer_hash() { return peer_hash; }
+            @Override public String getHash() { return hash; }
+            @Override public Integer getPrefix_len() { return ipv4 ? 24 : 48; }
+            @Override public Boolean getIPv4() { return ipv4; }
+            @Override public Boolean getWithdrawn() { return withdrawn; }
+        };
+
+        return Collections.singletonList(pojo);
+    }
+
+    private static LongHashSet set(long... hashes)
+    {
+        LongHashSet set = new LongHashSet();
+
+        for (long hash : hashes)
+            set.add(hash);
+
+        return set;
+    }
+
+    public void testUpdate()
+    {
+        PeerRibCounter counter = new PeerRibCounter(new Config() {});
+
+        counter.update(update("p1", "01", true, false), PARTITION_0);
+        counter.update(update("p1", "02", true, false), PARTITION_0);
+        counter.update(update("p1", "03", false, false), PARTITION_0);
+
+        // Advertised again and withdrawn
+        counter.update(update("p1", "01", true, false), PARTITION_0);
+        counter.update(update("p1", "02", true, true), PARTITION_0);
+
+        assertEquals(1, counter.getCounts("p1")[0]);
+        assertEquals(1, counter.getCounts("p1")[1]);
+        assertEquals(1, counter.getPeerCount());
+    }
+
+    public void testReset()
+    {
+        PeerRibCounter counter = new PeerRibCounter(new Config() {});
+
+        // Peers without prefix records are not added
+        counter.resetPeer("p1");
+        assertNull(counter.getCounts("p1"));
+
+        counter.update(update("p1", "01", true, false), PARTITION_0);
+        counter.resetPeer("p1");
+
+        assertEquals(0, counter.getCounts("p1")[0]);
+        assertEquals(1, counter.getPeerCount());
+    }
+
+    public void testSeedMerge()
+    {
+        PeerRibCounter.PeerRib rib = new PeerRibCounter.PeerRib();
+        int generation = rib.generation;
+
+        // Updates while seeding
+        rib.update(1, true, true);
+        rib.update(4, true, false);
+        rib.update(5, false, false);
+        rib.update(5, false, true);
+
+        // Withdrawn while seeding are not merged, advertised are kept
+        assertTrue(rib.seed(set(1, 2, 3), set(5, 6), generation));
+        assertTrue(rib.seeded);
+        assertNull(rib.removed);
+        assertEquals(3, rib.v4.size());
+        assertFalse(rib.v4.contains(1));
+        assertTrue(rib.v4.contains(4));
+        assertEquals(1, rib.v6.size());
+        assertTrue(rib.v6.contains(6));
+
+        // Seed of a previous generation is discarded
+        rib.reset();
+        assertFalse(rib.seed(set(1, 2, 3), set(), generation));
+        assertFalse(rib.seeded);
+        assertEquals(0, rib.v4.size());
+    }
+
+    public void testDropPartitions()
+    {
+        PeerRibCounter counter = new PeerRibCounter(new Config() {});
+
+        counter.update(update("p1", "01", true, false), PARTITION_0);
+        counter.update(update("p2", "02", true, false), PARTITION_1);
+
+        counter.dropPartitions(Collections.singletonList(PARTITION_0));
+
+        assertNull(counter.getCounts("p1"));
+        assertNotNull(counter.getCounts("p2"));
+        assertEquals(1, counter.getPeerCount());
+    }
+
+    public void testDrift()
+    {
+        PeerRibCounter.PeerRib rib = new PeerRibCounter.PeerRib();
+        rib.seed(set(), set(), rib.generation);
+
+        rib.update(1, true, false);
+        rib.update(2, true, false);
+        rib.update(3, false, false);
+
+        // Records in flight to the writers are tolerated
+        assertFalse(rib.isDrifted(0, 0));
+        assertFalse(rib.drifted);
+
+        rib.rollUpdates();
+        assertFalse(rib.isDrifted(1, 0));
+
+        // Off by more than the records in flight at two checks in a row
+        rib.rollUpdates();
+        assertFalse(rib.isDrifted(10, 1));
+        assertTrue(rib.drifted);
+        assertTrue(rib.isDrifted(10, 1));
+
+        // Back within tolerance clears a previous mismatch
+        assertFalse(rib.isDrifted(10, 1));
+        assertFalse(rib.isDrifted(2, 1));
+        assertFalse(rib.isDrifted(10, 1));
+        assertFalse(rib.isDrifted(2, 1));
+        assertFalse(rib.drifted);
+    }
+}
@@ -0,0 +1,108 @@
+package org.openbmp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.kafka.common.TopicPartition;
+import org.openbmp.api.parsed.message.UnicastPrefixPojo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Unit test for the prefix dampener
+ */
+public class PrefixDampenerTest
+    extends TestCase
+{
+    private static final TopicPartition PARTITION = new TopicPartition("openbmp.parsed.unicast_prefix", 0);
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public PrefixDampenerTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( PrefixDampenerTest.class );
+    }
+
+    private static List<UnicastPrefixPojo> update(String peer_hash, String hash, boolean withdrawn, int second)
+    {
+        UnicastPrefixPojo pojo = new UnicastPrefixPojo() {
+            @Override public String getPeer_hash() { return peer_hash; }
+            @Override public String getHash() { return hash; }
+            @Override public String getPrefix() { return "10.0.0.0"; }
+            @Override public Integer getPrefix_len() { return 24; }
+            @Override public Boolean getWithdrawn() { return withdrawn; }
+            @Override public String getTimestamp() { return "2022-01-01 00:00:" + (10 + second); }
+        };
+
+        return Collections.singletonList(pojo);
+    }
+
+    public void testFlappingPrefixHeld()
+    {
+        OffsetTracker tracker = new OffsetTracker();
+        PrefixDampener dampener = new PrefixDampener(tracker, 30000, 2, 100);
+        int written = 0;
+
+        for (int i = 0; i < 6; i++) {
+            int generation = tracker.add(PARTITION, i);
+            written += dampener.add(update("p1", "h1", i % 2 == 1, i), "key", PARTITION, i, 1000 + i).size();
+            tracker.ack(PARTITION, i, generation);
+        }
+
+        assertEquals(2, written);
+        assertEquals(4, dampener.getSuppressed_count());
+
+        // Offset of the held update is not committable until it is released
+        assertEquals(1, tracker.getPendingCount(PARTITION));
+        assertTrue(dampener.expire(20000).isEmpty());
+
+        Collection<PrefixDampener.Release> releases = dampener.expire(31000);
+        assertEquals(1, releases.size());
+
+        PrefixDampener.Release release = releases.iterator().next();
+        assertEquals(5, release.offset);
+        assertEquals(Boolean.TRUE, release.records.get(0).getWithdrawn());
+        assertEquals(6, release.flaps.get(0).updates);
+        assertEquals(4, release.flaps.get(0).suppressed);
+        assertEquals("2022-01-01 00:00:10", release.flaps.get(0).first_timestamp);
+
+        dampener.ack(release);
+        assertEquals(0, tracker.getPendingCount(PARTITION));
+        assertEquals(0, dampener.getWindowCount());
+    }
+
+    public void testReleasePeer()
+    {
+        OffsetTracker tracker = new OffsetTracker();
+        PrefixDampener dampener = new PrefixDampener(tracker, 30000, 1, 100);
+        List<UnicastPrefixPojo> records = new ArrayList<>();
+
+        for (int i = 0; i < 3; i++) {
+            dampener.add(update("p1", "h1", false, i), "key", PARTITION, i, 1000);
+            dampener.add(update("p2", "h1", false, i), "key", PARTITION, i, 1000);
+        }
+
+        for (PrefixDampener.Release release : dampener.releasePeer("p1"))
+            records.addAll(release.records);
+
+        assertEquals(1, records.size());
+        assertEquals("p1", records.get(0).getPeer_hash());
+        assertEquals(1, dampener.getWindowCount());
+        assertEquals(1, dampener.releaseAll().size());
+    }
+}
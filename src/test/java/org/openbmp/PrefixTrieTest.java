@@ -0,0 +1,107 @@
+package org.openbmp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Unit test for the prefix trie and RPKI origin validation
+ */
+public class PrefixTrieTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public PrefixTrieTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( PrefixTrieTest.class );
+    }
+
+    private static void put(PrefixTrie<String> trie, String addr, int len) {
+        long[] key = PrefixTrie.addressToKey(addr);
+        trie.put(key[0], key[1], len, addr + "/" + len);
+    }
+
+    public void testAddressToKey()
+    {
+        assertEquals(0x0A0101F8L << 32, PrefixTrie.addressToKey("10.1.1.248")[0]);
+        assertNull(PrefixTrie.addressToKey("10.1.1"));
+        assertNull(PrefixTrie.addressToKey("10.1.1.256"));
+
+        long[] key = PrefixTrie.addressToKey("2001:db8::1");
+        assertEquals(0x20010DB800000000L, key[0]);
+        assertEquals(1L, key[1]);
+
+        // IPv4 mapped IPv6 address stays IPv6
+        key = PrefixTrie.addressToKey("::ffff:10.1.1.248");
+        assertEquals(0L, key[0]);
+        assertEquals(0xFFFF0A0101F8L, key[1]);
+    }
+
+    public void testCoveringAndLongestMatch()
+    {
+        PrefixTrie<String> trie = new PrefixTrie<>();
+        put(trie, "10.0.0.0", 8);
+        put(trie, "10.1.0.0", 16);
+        put(trie, "10.1.1.0", 24);
+        put(trie, "10.2.0.0", 16);
+        put(trie, "192.168.0.0", 16);
+
+        assertEquals(5, trie.size());
+
+        long[] key = PrefixTrie.addressToKey("10.1.1.5");
+        assertEquals("10.1.1.0/24", trie.longestMatch(key[0], key[1], 32));
+
+        final List<String> covering = new ArrayList<>();
+        trie.forEachCovering(key[0], key[1], 32, (hi, lo, len, value) -> covering.add(value));
+        assertEquals(3, covering.size());
+        assertEquals("10.0.0.0/8", covering.get(0));
+
+        key = PrefixTrie.addressToKey("10.0.0.0");
+        final List<String> covered = new ArrayList<>();
+        trie.forEachCovered(key[0], key[1], 8, (hi, lo, len, value) -> covered.add(value));
+        assertEquals(4, covered.size());
+
+        key = PrefixTrie.addressToKey("10.1.0.0");
+        assertEquals("10.1.0.0/16", trie.remove(key[0], key[1], 16));
+        assertEquals(4, trie.size());
+
+        key = PrefixTrie.addressToKey("10.1.1.5");
+        assertEquals("10.1.1.0/24", trie.longestMatch(key[0], key[1], 32));
+
+        key = PrefixTrie.addressToKey("10.1.2.0");
+        assertEquals("10.0.0.0/8", trie.longestMatch(key[0], key[1], 24));
+    }
+
+    public void testRpkiValidation()
+    {
+        RpkiValidator.RoaTable table = new RpkiValidator.RoaTable();
+        table.add("10.0.0.0", 8, 16, 65001);
+        table.add("2001:db8::", 32, 48, 65002);
+
+        assertEquals(RpkiValidator.STATE_VALID, table.validate("10.1.0.0", 16, 65001).state);
+        assertEquals(RpkiValidator.STATE_INVALID, table.validate("10.1.1.0", 24, 65001).state);
+        assertEquals(RpkiValidator.STATE_INVALID, table.validate("10.1.0.0", 16, 65009).state);
+        assertEquals(Long.valueOf(65001), table.validate("10.1.0.0", 16, 65009).rpki_origin_as);
+        assertEquals(RpkiValidator.STATE_NOT_FOUND, table.validate("11.0.0.0", 8, 65001).state);
+
+        assertEquals(RpkiValidator.STATE_VALID, table.validate("2001:db8:1::", 48, 65002).state);
+        assertEquals(RpkiValidator.STATE_NOT_FOUND, table.validate("2001:db9::", 32, 65002).state);
+    }
+
+}
@@ -0,0 +1,104 @@
+package org.openbmp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Unit test for the early record filter
+ */
+public class RecordFilterTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public RecordFilterTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( RecordFilterTest.class );
+    }
+
+    /**
+     * Unicast prefix row with the columns used by the filter
+     */
+    private static String prefixRow(String peer_hash, String prefix, int len, boolean pre_policy, boolean adj_rib_in)
+    {
+        String[] cols = new String[32];
+        Arrays.fill(cols, "");
+
+        cols[0] = "add";
+        cols[3] = "routerhash";
+        cols[6] = peer_hash;
+        cols[10] = prefix;
+        cols[11] = String.valueOf(len);
+        cols[12] = prefix.indexOf(':') < 0 ? "1" : "0";
+        cols[29] = pre_policy ? "1" : "0";
+        cols[30] = adj_rib_in ? "1" : "0";
+
+        return String.join("\t", cols) + "\n";
+    }
+
+    public void testDisabled()
+    {
+        assertNull(RecordFilter.load(new HashMap<>()));
+    }
+
+    public void testPrefixRows()
+    {
+        Map<String, Object> map = new HashMap<>();
+        map.put("enabled", true);
+        map.put("afi", 4);
+        map.put("pre_policy", false);
+        map.put("peer_hashes", Arrays.asList("AAAA-BBBB"));
+        map.put("prefixes", Arrays.asList("10.0.0.0/8 le 24", "192.168.0.0/16"));
+
+        RecordFilter filter = RecordFilter.load(map);
+
+        String keep = prefixRow("aaaabbbb", "10.1.0.0", 16, false, true);
+        String content = keep
+                + prefixRow("cccc", "10.1.0.0", 16, false, true)
+                + prefixRow("aaaabbbb", "10.1.1.0", 25, false, true)
+                + prefixRow("aaaabbbb", "192.168.1.0", 24, false, true)
+                + prefixRow("aaaabbbb", "10.1.0.0", 16, true, true)
+                + prefixRow("aaaabbbb", "2001:db8::", 32, false, true)
+                + "short\trow\n";
+
+        assertEquals(keep + "short\trow\n", filter.filterPrefixRows(content));
+        assertEquals(5, filter.getRows_dropped());
+    }
+
+    public void testRanges()
+    {
+        PrefixTrie<int[]> v4 = new PrefixTrie<>();
+        PrefixTrie<int[]> v6 = new PrefixTrie<>();
+
+        RecordFilter.addRange("2001:db8::/32 ge 48 le 64", v4, v6);
+        RecordFilter.addRange("2001:db8::/32", v4, v6);
+
+        assertTrue(RecordFilter.matchRange(v6, PrefixTrie.addressToKey("2001:db8::"), 32));
+        assertTrue(RecordFilter.matchRange(v6, PrefixTrie.addressToKey("2001:db8:1::"), 48));
+        assertFalse(RecordFilter.matchRange(v6, PrefixTrie.addressToKey("2001:db8:1::"), 40));
+        assertFalse(RecordFilter.matchRange(v6, PrefixTrie.addressToKey("2001:db9::"), 48));
+
+        try {
+            RecordFilter.addRange("10.0.0.0/8 le 4", v4, v6);
+            fail("Invalid range accepted");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+}
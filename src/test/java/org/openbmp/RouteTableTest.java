@@ -0,0 +1,125 @@
+package org.openbmp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.kafka.common.TopicPartition;
+import org.openbmp.api.parsed.message.UnicastPrefixPojo;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Unit test for the in-memory route table
+ */
+public class RouteTableTest
+    extends TestCase
+{
+    private static final TopicPartition PARTITION_0 = new TopicPartition("openbmp.parsed.unicast_prefix", 0);
+    private static final TopicPartition PARTITION_1 = new TopicPartition("openbmp.parsed.unicast_prefix", 1);
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public RouteTableTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( RouteTableTest.class );
+    }
+
+    private static List<UnicastPrefixPojo> update(String peer_hash, String prefix, int len, boolean withdrawn,
+                                                  long origin_as)
+    {
+        UnicastPrefixPojo pojo = new UnicastPrefixPojo() {
+            @Override public String getPeer_hash() { return peer_hash; }
+            @Override public String getPrefix() { return prefix; }
+            @Override public Integer getPrefix_len() { return len; }
+            @Override public Boolean getWithdrawn() { return withdrawn; }
+            @Override public Long getOrigin_asn() { return origin_as; }
+            @Override public String getAs_path() { return " 64500 " + origin_as; }
+            @Override public String getNext_hop() { return "192.0.2.1"; }
+        };
+
+        return Collections.singletonList(pojo);
+    }
+
+    public void testLookup()
+    {
+        RouteTable table = new RouteTable(null);
+
+        table.update(update("p1", "10.0.0.0", 8, false, 100), PARTITION_0);
+        table.update(update("p1", "10.1.0.0", 16, false, 200), PARTITION_0);
+        table.update(update("p2", "10.0.0.0", 8, false, 100), PARTITION_0);
+        table.update(update("p1", "2001:db8::", 32, false, 300), PARTITION_0);
+
+        List<RouteTable.Match> matches = table.lookup("10.1.2.3", "p1");
+        assertEquals(1, matches.size());
+        assertEquals("10.1.0.0/16", matches.get(0).prefix);
+        assertEquals(200, matches.get(0).route.origin_as);
+        assertEquals("64500 200", matches.get(0).route.as_path);
+
+        assertEquals(2, table.lookup("10.1.2.3", null).size());
+        assertEquals(2, table.covering("10.1.2.0/24", "p1").size());
+        assertEquals("10.0.0.0/8", table.covering("10.1.2.0/24", "p1").get(0).prefix);
+        assertEquals(0, table.lookup("11.0.0.1", null).size());
+
+        assertEquals("2001:db8:0:0:0:0:0:0/32", table.lookup("2001:db8::1", null).get(0).prefix);
+
+        Map<Long, Integer> origins = table.origins("10.1.2.3");
+        assertEquals(Integer.valueOf(1), origins.get(100L));
+        assertEquals(Integer.valueOf(1), origins.get(200L));
+
+        // Withdrawn prefix no longer matches
+        table.update(update("p1", "10.1.0.0", 16, true, 200), PARTITION_0);
+        assertEquals("10.0.0.0/8", table.lookup("10.1.2.3", "p1").get(0).prefix);
+        assertEquals(3, table.getRouteCount());
+
+        try {
+            table.lookup("10.1.2.300", null);
+            fail("invalid address accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testResetPeer()
+    {
+        RouteTable table = new RouteTable(null);
+
+        table.update(update("p1", "10.0.0.0", 8, false, 100), PARTITION_0);
+        assertFalse(table.isSeeded("p1"));
+
+        table.resetPeer("p1");
+        assertEquals(0, table.lookup("10.0.0.1", "p1").size());
+        assertEquals(1, table.getPeerCount());
+    }
+
+    public void testDropPartitions()
+    {
+        RouteTable table = new RouteTable(null);
+
+        table.update(update("p1", "10.0.0.0", 8, false, 100), PARTITION_0);
+        table.update(update("p2", "10.0.0.0", 8, false, 200), PARTITION_1);
+
+        // Routes of revoked partitions are no longer updated, so they are not served
+        table.dropPartitions(Collections.singletonList(PARTITION_0));
+
+        assertEquals(1, table.getPeerCount());
+        assertEquals(0, table.lookup("10.0.0.1", "p1").size());
+        assertEquals(1, table.lookup("10.0.0.1", null).size());
+
+        // Peers without prefix records are not added by a reset
+        table.resetPeer("p1");
+        assertEquals(1, table.getPeerCount());
+    }
+}
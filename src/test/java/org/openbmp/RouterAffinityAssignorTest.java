@@ -0,0 +1,220 @@
+package org.openbmp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.kafka.clients.consumer.ConsumerPartitionAssignor.Assignment;
+import org.apache.kafka.clients.consumer.ConsumerPartitionAssignor.GroupSubscription;
+import org.apache.kafka.clients.consumer.ConsumerPartitionAssignor.Subscription;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+
+/**
+ * Unit test for the router affinity partition assignor
+ */
+public class RouterAffinityAssignorTest
+    extends TestCase
+{
+    private static final List<String> TOPICS = Arrays.asList("openbmp.parsed.peer", "openbmp.parsed.base_attribute",
+                                                             "openbmp.parsed.unicast_prefix");
+    private static final int PARTITIONS = 12;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public RouterAffinityAssignorTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( RouterAffinityAssignorTest.class );
+    }
+
+    private static Cluster cluster()
+    {
+        Node node = new Node(0, "localhost", 9092);
+        List<PartitionInfo> partitions = new ArrayList<>();
+
+        for (String topic : TOPICS) {
+            for (int i = 0; i < PARTITIONS; i++)
+                partitions.add(new PartitionInfo(topic, i, node, new Node[] { node }, new Node[] { node }));
+        }
+
+        return new Cluster("test", Collections.singletonList(node), partitions, Collections.emptySet(),
+                           Collections.emptySet());
+    }
+
+    private static Subscription subscription(String affinity_id, Set<Integer> numbers, List<TopicPartition> owned)
+    {
+        StringBuilder sb = new StringBuilder(affinity_id).append('\n');
+        for (Integer number : numbers)
+            sb.append(number).append(',');
+
+        return new Subscription(TOPICS, ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8)), owned);
+    }
+
+    private static Map<String, Assignment> assign(Map<String, Subscription> subscriptions)
+    {
+        return new RouterAffinityAssignor().assign(cluster(), new GroupSubscription(subscriptions))
+                                           .groupAssignment();
+    }
+
+    private static Set<Integer> numbers(Assignment assignment)
+    {
+        Set<Integer> numbers = new HashSet<>();
+
+        for (TopicPartition tp : assignment.partitions())
+            numbers.add(tp.partition());
+
+        return numbers;
+    }
+
+    public void testCoAssigned()
+    {
+        Map<String, Subscription> subscriptions = new HashMap<>();
+        for (int i = 0; i < 3; i++)
+            subscriptions.put("member-" + i, subscription("host" + i + "-0", Collections.emptySet(),
+                                                          Collections.emptyList()));
+
+        Map<String, Assignment> assignment = assign(subscriptions);
+        Set<Integer> all = new HashSet<>();
+
+        for (Assignment a : assignment.values()) {
+            Set<Integer> numbers = numbers(a);
+
+            // All topics of a number are on the same member, balanced
+            assertEquals(numbers.size() * TOPICS.size(), a.partitions().size());
+            assertEquals(PARTITIONS / 3, numbers.size());
+
+            for (Integer number : numbers)
+                assertTrue(all.add(number));
+        }
+
+        assertEquals(PARTITIONS, all.size());
+
+        // Another group of the same instances assigns alike
+        Map<String, Subscription> other = new HashMap<>();
+        for (int i = 0; i < 3; i++)
+            other.put("other-" + i, subscription("host" + i + "-0", Collections.emptySet(), Collections.emptyList()));
+
+        Map<String, Assignment> other_assignment = assign(other);
+        for (int i = 0; i < 3; i++)
+            assertEquals(numbers(assignment.get("member-" + i)), numbers(other_assignment.get("other-" + i)));
+    }
+
+    public void testSticky()
+    {
+        Map<String, Subscription> subscriptions = new HashMap<>();
+        for (int i = 0; i < 2; i++)
+            subscriptions.put("member-" + i, subscription("host" + i + "-0", Collections.emptySet(),
+                                                          Collections.emptyList()));
+
+        Map<String, Assignment> first = assign(subscriptions);
+
+        // Eager rejoin with a new member: previous numbers are kept up to the balanced count
+        subscriptions.clear();
+        for (int i = 0; i < 2; i++)
+            subscriptions.put("member-" + i, subscription("host" + i + "-0", numbers(first.get("member-" + i)),
+                                                          Collections.emptyList()));
+        subscriptions.put("member-2", subscription("host2-0", Collections.emptySet(), Collections.emptyList()));
+
+        Map<String, Assignment> second = assign(subscriptions);
+
+        for (int i = 0; i < 2; i++) {
+            assertEquals(4, numbers(second.get("member-" + i)).size());
+            assertTrue(numbers(first.get("member-" + i)).containsAll(numbers(second.get("member-" + i))));
+        }
+        assertEquals(4, numbers(second.get("member-2")).size());
+    }
+
+    public void testUnevenScaleOut()
+    {
+        int[][] cases = { { 9, 3 }, { 12, 4 } };              // Partition numbers, members before scale out
+
+        for (int[] c : cases) {
+            Set<Integer> numbers = new HashSet<>();
+            for (int i = 0; i < c[0]; i++)
+                numbers.add(i);
+
+            TreeMap<String, String> members = new TreeMap<>();
+            Map<String, Set<Integer>> previous = new HashMap<>();
+
+            for (int i = 0; i < c[1]; i++)
+                members.put("host" + i + "-0", "member-" + i);
+
+            Map<Integer, String> first = RouterAffinityAssignor.assignNumbers(numbers, members, previous);
+            for (Map.Entry<Integer, String> entry : first.entrySet())
+                previous.computeIfAbsent(entry.getValue(), k -> new HashSet<>()).add(entry.getKey());
+
+            // New member gets its share, taken from the members above theirs
+            members.put("host" + c[1] + "-0", "member-" + c[1]);
+
+            Map<Integer, String> second = RouterAffinityAssignor.assignNumbers(numbers, members, previous);
+            Map<String, Integer> load = new HashMap<>();
+            int moved = 0;
+
+            for (Map.Entry<Integer, String> entry : second.entrySet()) {
+                load.merge(entry.getValue(), 1, Integer::sum);
+
+                if (!entry.getValue().equals(first.get(entry.getKey())))
+                    moved++;
+            }
+
+            int share = c[0] / members.size();
+            for (String member_id : members.values()) {
+                int member_load = load.getOrDefault(member_id, 0);
+                assertTrue(member_load == share || member_load == share + 1);
+            }
+
+            assertEquals(c[0], second.size());
+            assertEquals(load.get("member-" + c[1]).intValue(), moved);
+        }
+    }
+
+    public void testCooperative()
+    {
+        Map<String, Subscription> subscriptions = new HashMap<>();
+        subscriptions.put("member-0", subscription("host0-0", Collections.emptySet(), Collections.emptyList()));
+
+        Map<String, Assignment> first = assign(subscriptions);
+        assertEquals(PARTITIONS * TOPICS.size(), first.get("member-0").partitions().size());
+
+        // Partitions that move are not assigned until their owner revoked them
+        subscriptions.put("member-0", subscription("host0-0", Collections.emptySet(),
+                                                   first.get("member-0").partitions()));
+        subscriptions.put("member-1", subscription("host1-0", Collections.emptySet(), Collections.emptyList()));
+
+        Map<String, Assignment> second = assign(subscriptions);
+        assertEquals(PARTITIONS / 2 * TOPICS.size(), second.get("member-0").partitions().size());
+        assertEquals(0, second.get("member-1").partitions().size());
+
+        subscriptions.put("member-0", subscription("host0-0", Collections.emptySet(),
+                                                   second.get("member-0").partitions()));
+
+        Map<String, Assignment> third = assign(subscriptions);
+        assertEquals(numbers(second.get("member-0")), numbers(third.get("member-0")));
+        assertEquals(PARTITIONS / 2, numbers(third.get("member-1")).size());
+    }
+}
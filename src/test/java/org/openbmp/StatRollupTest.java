@@ -0,0 +1,106 @@
+package org.openbmp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+import org.apache.kafka.common.TopicPartition;
+import org.openbmp.psqlquery.BmpStatQuery;
+import org.openbmp.psqlquery.StatRollupQuery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Unit test for the stats report rollups
+ */
+public class StatRollupTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public StatRollupTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( StatRollupTest.class );
+    }
+
+    private static final TopicPartition PARTITION = new TopicPartition("openbmp.parsed.bmp_stat", 0);
+
+    private static List<StatRollupQuery> add(StatRollup rollup, long offset, BmpStatQuery.Sample... samples) {
+        return rollup.add(Arrays.asList(samples), "key", PARTITION, offset);
+    }
+
+    private static BmpStatQuery.Sample sample(String timestamp, long adj_rib_in) {
+        return new BmpStatQuery.Sample("p1", timestamp, new long[] { 1, 2, 3, 4, 5, 6, 7, adj_rib_in, 9 });
+    }
+
+    public void testRollup()
+    {
+        StatRollup rollup = new StatRollup();
+
+        assertTrue(add(rollup, 1, sample("2022-01-02 03:01:00.123456", 100),
+                                  sample("2022-01-02 03:02:00", 300)).isEmpty());
+
+        // Late sample is not rolled up
+        assertTrue(add(rollup, 2, sample("2022-01-02 02:59:00", 900)).isEmpty());
+
+        List<StatRollupQuery> queries = add(rollup, 3, sample("2022-01-02 03:06:00", 200));
+        assertEquals(1, queries.size());
+
+        Map<String, String> values = queries.get(0).genValuesStatement();
+        assertEquals("('p1'::uuid,'2022-01-02 03:00:00'::timestamp,2,'2022-01-02 03:02:00'::timestamp," +
+                     "1,2,3,4,5,6,7,300,9,300,9)", values.get("p1 2022-01-02 03:00:00"));
+        assertTrue(queries.get(0).genInsertStatement()[0].contains("stat_reports_5min"));
+
+        // Peer change closes both intervals
+        queries = rollup.removePeer("p1");
+        assertEquals(2, queries.size());
+        assertEquals("('p1'::uuid,'2022-01-02 03:00:00'::timestamp,3,'2022-01-02 03:06:00'::timestamp," +
+                     "1,2,3,4,5,6,7,200,9,300,9)", queries.get(1).genValuesStatement().get("p1 2022-01-02 03:00:00"));
+        assertEquals(0, rollup.getPeerCount());
+    }
+
+    public void testFlushPartitions()
+    {
+        StatRollup rollup = new StatRollup();
+
+        add(rollup, 5, sample("2022-01-02 03:01:00", 100));
+        add(rollup, 6, sample("2022-01-02 03:02:00", 300));
+
+        // Other partitions are kept
+        assertTrue(rollup.flushPartitions(Collections.singleton(new TopicPartition("openbmp.parsed.bmp_stat", 1)))
+                         .isEmpty());
+
+        // Revoke or shutdown writes both open intervals
+        List<StatRollup.Flush> flushes = new ArrayList<>(rollup.flushPartitions(Collections.singleton(PARTITION)));
+        assertEquals(1, flushes.size());
+        assertEquals(PARTITION, flushes.get(0).partition);
+        assertEquals(6, flushes.get(0).offset);
+        assertEquals(2, flushes.get(0).queries.size());
+        assertEquals("('p1'::uuid,'2022-01-02 03:00:00'::timestamp,2,'2022-01-02 03:02:00'::timestamp," +
+                     "1,2,3,4,5,6,7,300,9,300,9)",
+                     flushes.get(0).queries.get(0).genValuesStatement().get("p1 2022-01-02 03:00:00"));
+        assertEquals(0, rollup.getPeerCount());
+    }
+
+    public void testParseMillis()
+    {
+        assertEquals(0L, StatRollup.parseMillis("1970-01-01 00:00:00"));
+        assertEquals(-1L, StatRollup.parseMillis("bad"));
+        assertEquals("1970-01-01 01:00:00", StatRollup.formatMillis(3600 * 1000L));
+    }
+}
@@ -0,0 +1,97 @@
+package org.openbmp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+
+/**
+ * Unit test for the writer journal
+ */
+public class WriteJournalTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public WriteJournalTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( WriteJournalTest.class );
+    }
+
+    public void testAppendReplayReopen() throws Exception
+    {
+        File dir = new File(Files.createTempDirectory("journal").toFile(), "writer-0");
+
+        // Small segments so that appends roll over to new segments
+        WriteJournal journal = new WriteJournal(dir, 64);
+
+        for (int i = 0; i < 10; i++)
+            assertTrue(journal.append("INSERT INTO test VALUES ", null, Collections.singletonList("(" + i + ")"),
+                                      Collections.singletonList(null)));
+
+        journal.sync();
+        assertEquals(10, journal.size());
+
+        assertEquals("INSERT INTO test VALUES (0);", journal.peek().statement(journal.peek().values));
+        journal.advance();
+        assertEquals("INSERT INTO test VALUES (1);", journal.peek().statement(journal.peek().values));
+        journal.close();
+
+        // Segments that are not fully replayed are replayed again after reopen
+        journal = new WriteJournal(dir, 64);
+        assertTrue(journal.size() >= 9);
+
+        WriteJournal.Record record = null;
+        while (journal.peek() != null) {
+            record = journal.peek();
+            journal.advance();
+        }
+
+        assertEquals("INSERT INTO test VALUES (9);", record.statement(record.values));
+        assertTrue(journal.isEmpty());
+        journal.close();
+
+        assertFalse(dir.exists());
+    }
+
+    public void testRecordCoordinates() throws Exception
+    {
+        File dir = new File(Files.createTempDirectory("journal").toFile(), "writer-0");
+        WriteJournal journal = new WriteJournal(dir, 1024);
+
+        WriterQueueMsg msg = new WriterQueueMsg();
+        msg.partition = new TopicPartition("openbmp.parsed.unicast_prefix", 3);
+        msg.offset = 42;
+
+        assertTrue(journal.append("INSERT INTO test VALUES ", " ON CONFLICT DO NOTHING",
+                                  Arrays.asList("(1)", "(2)"), Arrays.asList(msg, null)));
+
+        // Rows keep the Kafka coordinates of their message, so rows rejected on replay can be traced
+        WriteJournal.Record record = journal.peek();
+        assertEquals("INSERT INTO test VALUES (1),(2) ON CONFLICT DO NOTHING;", record.statement(record.values));
+        assertEquals(msg.partition, record.sources.get(0).partition);
+        assertEquals(42, record.sources.get(0).offset);
+        assertNull(record.sources.get(1).partition);
+
+        journal.advance();
+        journal.close();
+    }
+}
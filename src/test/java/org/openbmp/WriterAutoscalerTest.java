@@ -0,0 +1,95 @@
+package org.openbmp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+/**
+ * Unit test for the writer autoscaler
+ */
+public class WriterAutoscalerTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public WriterAutoscalerTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( WriterAutoscalerTest.class );
+    }
+
+    private static WriterAutoscaler.Sample sample(int writers, long arrived, long flushed, long flush_millis,
+                                                  int lock_waits)
+    {
+        WriterAutoscaler.Sample sample = new WriterAutoscaler.Sample();
+        sample.writers = writers;
+        sample.arrived = arrived;
+        sample.flushed = flushed;
+        sample.flush_millis = flush_millis;
+        sample.lock_waits = lock_waits;
+        sample.interval_seconds = 10;
+        return sample;
+    }
+
+    public void testLittlesLaw()
+    {
+        WriterAutoscaler scaler = new WriterAutoscaler(0.5, 25, 3);
+
+        // 1000 msg/s at 2 ms each keeps 2 writers busy, 4 at 50% utilization
+        WriterAutoscaler.Decision decision = scaler.decide(sample(1, 10000, 10000, 20000, 0), 8);
+        assertEquals(4, decision.target);
+        assertEquals(4, decision.writers);
+        assertEquals(1000.0, decision.arrival_rate, 0.001);
+        assertEquals(2.0, decision.service_millis, 0.001);
+
+        // Limited by max writers
+        assertEquals(3, new WriterAutoscaler(0.5, 25, 3).decide(sample(1, 10000, 10000, 20000, 0), 3).writers);
+    }
+
+    public void testLockWaitsHold()
+    {
+        WriterAutoscaler scaler = new WriterAutoscaler(0.5, 25, 3);
+
+        WriterAutoscaler.Decision decision = scaler.decide(sample(1, 10000, 10000, 20000, 5), 8);
+        assertEquals(1, decision.writers);
+        assertEquals(4, decision.target);
+    }
+
+    public void testBackoff()
+    {
+        WriterAutoscaler scaler = new WriterAutoscaler(0.5, 25, 3);
+
+        assertEquals(4, scaler.decide(sample(1, 10000, 10000, 20000, 0), 8).writers);
+
+        // With 4 writers each message takes 10 ms, 400 msg/s of capacity instead of 500
+        WriterAutoscaler.Decision decision = scaler.decide(sample(4, 10000, 10000, 180000, 0), 8);
+        assertEquals(1, decision.writers);
+
+        // Capped while backed off
+        assertEquals(1, scaler.decide(sample(1, 10000, 10000, 20000, 0), 8).writers);
+    }
+
+    public void testScaleDown()
+    {
+        WriterAutoscaler scaler = new WriterAutoscaler(0.5, 25, 3);
+
+        // 100 msg/s at 2 ms each needs 1 writer, removed one at a time after 3 intervals
+        assertEquals(4, scaler.decide(sample(4, 1000, 1000, 2000, 0), 8).writers);
+        assertEquals(4, scaler.decide(sample(4, 1000, 1000, 2000, 0), 8).writers);
+        assertEquals(3, scaler.decide(sample(4, 1000, 1000, 2000, 0), 8).writers);
+
+        // Above a lowered max, removed right away
+        assertEquals(2, scaler.decide(sample(3, 1000, 1000, 2000, 0), 2).writers);
+    }
+}
@@ -0,0 +1,214 @@
+package org.openbmp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+
+/**
+ * Unit test for the writer
+ */
+public class WriterRunnableTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public WriterRunnableTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( WriterRunnableTest.class );
+    }
+
+    private static final TopicPartition PARTITION = new TopicPartition("test", 0);
+
+    private static final String PREFIX = "INSERT INTO %s (hash_id) VALUES ";
+    private static final String SUFFIX = " ON CONFLICT DO NOTHING";
+
+    /**
+     * DB handler that records statements instead of running them
+     */
+    private static class StubHandler extends PSQLHandler {
+        final List<String> queries = new ArrayList<>();
+        int checkpoints;
+        boolean durable = true;
+
+        StubHandler(Config cfg) {
+            super(cfg);
+        }
+
+        @Override public boolean connect() { return true; }
+        @Override public void disconnect() { }
+        @Override public boolean isDbConnected() { return true; }
+
+        @Override public boolean updateQuery(String query, int retries) {
+            queries.add(query);
+            return true;
+        }
+
+        @Override public boolean durableCheckpoint() {
+            checkpoints++;
+            return durable;
+        }
+    }
+
+    private static Config config(boolean single_transaction, boolean synchronous_commit)
+    {
+        return new Config() {
+            @Override Boolean getDb_flush_single_transaction() { return single_transaction; }
+            @Override Boolean getDb_synchronous_commit() { return synchronous_commit; }
+        };
+    }
+
+    private static WriterRunnable writer(Config cfg, PSQLHandler db)
+    {
+        TopicClass tc = new TopicClass("test", cfg, new ArrayList<>());
+        return new WriterRunnable(cfg, tc, new ArrayBlockingQueue<WriterQueueMsg>(10), db);
+    }
+
+    private static WriterQueueMsg message(String table, OffsetTracker tracker, long offset, String... keys)
+    {
+        WriterQueueMsg msg = new WriterQueueMsg();
+        msg.prefix = String.format(PREFIX, table);
+        msg.suffix = SUFFIX;
+        msg.values = new LinkedHashMap<>();
+
+        for (String key : keys)
+            msg.values.put(key, "('" + key + "')");
+
+        msg.offsetTracker = tracker;
+        msg.partition = PARTITION;
+        msg.offset = offset;
+        msg.generation = tracker.add(PARTITION, offset);
+
+        return msg;
+    }
+
+    public void testFlushKeyOrder()
+    {
+        Config cfg = config(false, true);
+        StubHandler db = new StubHandler(cfg);
+        WriterRunnable writer = writer(cfg, db);
+        OffsetTracker tracker = new OffsetTracker();
+
+        writer.addMessage(message("ip_rib", tracker, 1, "c", "a"));
+        writer.addMessage(message("base_attrs", tracker, 2, "z"));
+        writer.addMessage(message("ip_rib", tracker, 3, "b"));
+        writer.flush();
+
+        // Referenced tables first, rows in key order so that writers lock rows in the same order
+        assertEquals(Arrays.asList(String.format(PREFIX, "base_attrs") + "('z')" + SUFFIX + ";",
+                                   String.format(PREFIX, "ip_rib") + "('a'),('b'),('c')" + SUFFIX + ";"),
+                     db.queries);
+
+        // Synchronous commits are acknowledged right away
+        assertEquals(0, tracker.getPendingCount(PARTITION));
+    }
+
+    public void testRevokedDropped()
+    {
+        Config cfg = config(false, true);
+        StubHandler db = new StubHandler(cfg);
+        WriterRunnable writer = writer(cfg, db);
+        OffsetTracker tracker = new OffsetTracker();
+
+        writer.addMessage(message("ip_rib", tracker, 1, "a"));
+
+        // Revoked and reassigned while the message is in the batch
+        tracker.remove(Collections.singleton(PARTITION));
+        writer.addMessage(message("ip_rib", tracker, 1, "b"));
+        writer.flush();
+
+        assertEquals(Arrays.asList(String.format(PREFIX, "ip_rib") + "('b')" + SUFFIX + ";"), db.queries);
+        assertEquals(0, tracker.getPendingCount(PARTITION));
+    }
+
+    public void testSingleTransactionCheckpoint()
+    {
+        Config cfg = config(true, false);
+        StubHandler db = new StubHandler(cfg);
+        WriterRunnable writer = writer(cfg, db);
+        OffsetTracker tracker = new OffsetTracker();
+
+        writer.addMessage(message("ip_rib", tracker, 1, "b", "a"));
+        writer.addMessage(message("base_attrs", tracker, 2, "z"));
+        writer.flush();
+
+        // All statements in one transaction
+        assertEquals(1, db.queries.size());
+        assertEquals(String.format(PREFIX, "base_attrs") + "('z')" + SUFFIX + ";"
+                        + String.format(PREFIX, "ip_rib") + "('a'),('b')" + SUFFIX + ";",
+                     db.queries.get(0));
+
+        // Asynchronous commits are not acknowledged before a durable checkpoint
+        assertEquals(2, tracker.getPendingCount(PARTITION));
+
+        db.durable = false;
+        writer.checkpoint(true);
+        assertEquals(1, db.checkpoints);
+        assertEquals(2, tracker.getPendingCount(PARTITION));
+
+        db.durable = true;
+        writer.checkpoint(true);
+        assertEquals(2, db.checkpoints);
+        assertEquals(0, tracker.getPendingCount(PARTITION));
+    }
+
+    public void testBisectIsolatesBadRow()
+    {
+        List<String> values = Arrays.asList("(1)", "(2)", "(3)", "(bad)", "(5)", "(6)", "(7)");
+        List<Integer> sources = Arrays.asList(1, 2, 3, 4, 5, 6, 7);
+
+        List<String> committed = new ArrayList<>();
+        List<Integer> rejected = new ArrayList<>();
+
+        // Statements with the bad row fail, such as after all retries of a retryable error
+        WriterRunnable.bisectRows(values, sources,
+                (rows, row_sources) -> {
+                    if (rows.contains("(bad)"))
+                        return false;
+
+                    committed.addAll(rows);
+                    return true;
+                },
+                () -> false,
+                (value, source) -> {
+                    assertEquals("(bad)", value);
+                    rejected.add(source);
+                });
+
+        assertEquals(Arrays.asList(4), rejected);
+        assertEquals(Arrays.asList("(1)", "(2)", "(3)", "(5)", "(6)", "(7)"), committed);
+    }
+
+    public void testBisectStopped()
+    {
+        List<Integer> rejected = new ArrayList<>();
+
+        // Rows are not rejected when the DB is unavailable, they are written again
+        WriterRunnable.bisectRows(Arrays.asList("(1)", "(2)"), Arrays.asList(1, 2),
+                (rows, row_sources) -> false,
+                () -> true,
+                (value, source) -> rejected.add(source));
+
+        assertTrue(rejected.isEmpty());
+    }
+}
@@ -0,0 +1,160 @@
+package org.openbmp;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+
+
+/**
+ * Unit test for the writer scheduler
+ */
+public class WriterSchedulerTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public WriterSchedulerTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( WriterSchedulerTest.class );
+    }
+
+    private static Config config()
+    {
+        return new Config() {
+            @Override Integer getWriter_connections() { return 2; }
+        };
+    }
+
+    private static WriterObject queue(Config cfg, TopicClass tc, int messages)
+    {
+        WriterObject queue = new WriterObject(cfg, tc);
+
+        for (int i = 0; i < messages; i++)
+            queue.writerQueue.offer(new WriterQueueMsg());
+
+        return queue;
+    }
+
+    public void testClaimRoundRobin() throws InterruptedException
+    {
+        Config cfg = config();
+        TopicClass tc = new TopicClass("test", cfg, new ArrayList<>());
+        tc.setBatch_time_millis(60000);
+
+        WriterScheduler scheduler = new WriterScheduler(cfg, 2);
+        WriterObject first = queue(cfg, tc, 1);
+        WriterObject second = queue(cfg, tc, 1);
+        WriterObject empty = queue(cfg, tc, 0);
+
+        assertNull(first.writerThread);
+
+        scheduler.register(first);
+        scheduler.register(empty);
+        scheduler.register(second);
+
+        // A queue is held by one writer at a time
+        assertTrue(scheduler.claim() == first);
+        assertTrue(scheduler.claim() == second);
+        assertNull(scheduler.claim());
+        assertEquals(2, scheduler.getBusy_count());
+
+        first.writerQueue.clear();
+        scheduler.release(first, 1, 10);
+
+        // Released queue is not ready again until its batch time passed or it has a batch
+        first.writerQueue.offer(new WriterQueueMsg());
+        assertNull(scheduler.claim());
+
+        tc.setBatch_records(1);
+        assertTrue(scheduler.claim() == first);
+
+        assertEquals(1, scheduler.getBatch_count());
+        assertEquals(10, scheduler.getRow_count());
+        assertEquals(2, scheduler.getQueued_messages());
+
+        // Held queue with a message is removed once written
+        scheduler.unregister(second);
+        assertEquals(3, scheduler.getQueue_count());
+
+        second.writerQueue.clear();
+        scheduler.release(second, 1, 10);
+        assertEquals(2, scheduler.getQueue_count());
+    }
+
+    public void testUnregisterWritesRemaining() throws InterruptedException
+    {
+        Config cfg = config();
+        TopicClass tc = new TopicClass("test", cfg, new ArrayList<>());
+        tc.setBatch_time_millis(60000);
+
+        WriterScheduler scheduler = new WriterScheduler(cfg, 2);
+        WriterObject queue = queue(cfg, tc, 2);
+        WriterObject empty = queue(cfg, tc, 0);
+
+        scheduler.register(queue);
+        scheduler.register(empty);
+
+        // Batch time has not passed
+        queue.last_flush_time = System.currentTimeMillis();
+        assertNull(scheduler.claim());
+
+        // Empty queue is removed right away, a queue with messages is written first
+        scheduler.unregister(empty);
+        scheduler.unregister(queue);
+        assertEquals(1, scheduler.getQueue_count());
+
+        assertTrue(scheduler.claim() == queue);
+        queue.writerQueue.poll();
+        scheduler.release(queue, 1, 1);
+        assertEquals(1, scheduler.getQueue_count());
+
+        assertTrue(scheduler.claim() == queue);
+        queue.writerQueue.poll();
+        scheduler.release(queue, 1, 1);
+
+        assertEquals(0, scheduler.getQueue_count());
+        assertNull(scheduler.claim());
+    }
+
+    public void testShutdownReleasesBudget()
+    {
+        Config cfg = config();
+        TopicClass tc = new TopicClass("test", cfg, new ArrayList<>());
+        tc.setBatch_time_millis(60000);
+
+        MemoryBudget budget = MemoryBudget.getInstance();
+        long used = budget.getUsed();
+
+        WriterScheduler scheduler = new WriterScheduler(cfg, 2);
+        WriterObject queue = queue(cfg, tc, 0);
+
+        for (int i = 0; i < 3; i++) {
+            WriterQueueMsg msg = new WriterQueueMsg();
+            msg.estimated_bytes = 100;
+            budget.forceAcquire(msg.estimated_bytes);
+            queue.writerQueue.offer(msg);
+        }
+
+        scheduler.register(queue);
+        scheduler.unregister(queue);
+        assertEquals(used + 300, budget.getUsed());
+
+        // Messages not written by shutdown are discarded and their budget released
+        scheduler.shutdown();
+        assertEquals(0, queue.writerQueue.size());
+        assertEquals(used, budget.getUsed());
+    }
+}
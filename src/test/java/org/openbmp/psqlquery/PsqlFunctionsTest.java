@@ -0,0 +1,44 @@
+package org.openbmp.psqlquery;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+
+/**
+ * Unit test for the conversion of values rows to COPY rows
+ */
+public class PsqlFunctionsTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public PsqlFunctionsTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( PsqlFunctionsTest.class );
+    }
+
+    public void testValuesToCopyRow()
+    {
+        assertEquals("a1\tb2\t\\N\ttrue\t65001\t10.1.0.0/16\t16\tnull",
+                PsqlFunctions.values_to_copy_row(
+                        "('a1'::uuid,'b2'::uuid,null::uuid,true::boolean,65001,'10.1.0.0/16'::inet,16,'null')"));
+
+        assertEquals("it's\ta\\\\b\\tc",
+                PsqlFunctions.values_to_copy_row("('it''s','a\\b\tc')"));
+
+        assertNull(PsqlFunctions.values_to_copy_row("('a',now() at time zone 'utc')"));
+    }
+
+}
@@ -0,0 +1,88 @@
+package org.openbmp.refdata;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * Unit test for the reference data sources
+ */
+public class RefDataSourceTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public RefDataSourceTest(String testName)
+    {
+        super(testName);
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( RefDataSourceTest.class );
+    }
+
+    public void testCopyWriter() throws Exception
+    {
+        StringWriter out = new StringWriter();
+        new CopyWriter(out).row("a\tb", null, 1, "c\\d\ne");
+
+        assertEquals("a\\tb\t\\N\t1\tc\\\\d\\ne\n", out.toString());
+    }
+
+    public void testRangeToCidrs() throws Exception
+    {
+        assertEquals(Arrays.asList("1.1.1.18/31", "1.1.1.20/30", "1.1.1.24/29", "1.1.1.32/28", "1.1.1.48/31",
+                                   "1.1.1.50/32"),
+                     GeoIpSource.rangeToCidrs("1.1.1.18", "1.1.1.50"));
+
+        assertEquals(Arrays.asList("0.0.0.0/0"), GeoIpSource.rangeToCidrs("0.0.0.0", "255.255.255.255"));
+        assertEquals(Arrays.asList("2001:db8:0:0:0:0:0:0/32"),
+                     GeoIpSource.rangeToCidrs("2001:db8::", "2001:db8:ffff:ffff:ffff:ffff:ffff:ffff"));
+    }
+
+    public void testIrrParse() throws Exception
+    {
+        String dump = "% comment\n" +
+                      "route:      10.0.0.0/8\n" +
+                      "descr:      Example\n" +
+                      "            continued\n" +
+                      "origin:     AS65000\n" +
+                      "source:     RADB\n" +
+                      "\n" +
+                      "route6:     2001:db8::/32\n" +
+                      "origin:     AS1.10\n" +
+                      "\n" +
+                      "route:      bad\n" +
+                      "origin:     AS1\n";
+
+        StringWriter out = new StringWriter();
+        long count = IrrRouteSource.parse(new BufferedReader(new StringReader(dump)), "radb", new CopyWriter(out));
+
+        assertEquals(2, count);
+        assertEquals("10.0.0.0/8\t8\t65000\tExample\\ncontinued\tradb\n" +
+                     "2001:db8::/32\t32\t65546\t\tradb\n", out.toString());
+    }
+
+    public void testMergeScope()
+    {
+        List<String> merge = new PeeringDbSource("/tmp", PeeringDbSource.Type.ASN).genMerge();
+
+        assertTrue(merge.get(1).contains("FROM info_asn WHERE source = 'peeringdb'"));
+        assertTrue(merge.get(2).startsWith("CREATE TEMP TABLE refdata_removed"));
+        assertTrue(merge.get(4).contains("ON CONFLICT (asn) DO UPDATE SET as_name=excluded.as_name"));
+    }
+}